@@ -0,0 +1,240 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.columnar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BaseFixedWidthVector;
+import org.apache.arrow.vector.BaseVariableWidthVector;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeMilliVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.geoserver.config.GeoServer;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.columnar.ColumnarSchema.Column;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Encodes features as an Apache Arrow IPC stream, writing a record batch every {@link
+ * #BATCH_SIZE_KEY} features, or as soon as the vectors use {@link #BATCH_BYTES_KEY} bytes. The
+ * vectors are reused across batches, unless they grew past the byte limit, and the allocator is
+ * capped at {@link #MAX_MEMORY_KEY} bytes. Geometries are WKB binary columns, tagged with the
+ * GeoArrow extension name, and the GeoParquet metadata is attached to the schema.
+ */
+public class ArrowOutputFormat extends ColumnarOutputFormat {
+
+    public static final String MIME_TYPE = "application/vnd.apache.arrow.stream";
+
+    /** System/environment variable/servlet context parameter with the features per batch */
+    public static final String BATCH_SIZE_KEY = "ARROW_BATCH_SIZE";
+
+    public static final int DEFAULT_BATCH_SIZE = 65536;
+
+    /** System/environment variable/servlet context parameter with the max bytes per batch */
+    public static final String BATCH_BYTES_KEY = "ARROW_BATCH_BYTES";
+
+    public static final long DEFAULT_BATCH_BYTES = 128 * 1024 * 1024;
+
+    /**
+     * System/environment variable/servlet context parameter with the max bytes the allocator of
+     * each request can use, past which the request fails
+     */
+    public static final String MAX_MEMORY_KEY = "ARROW_MAX_MEMORY";
+
+    public static final long DEFAULT_MAX_MEMORY = 1024 * 1024 * 1024;
+
+    static final String EXTENSION_NAME_KEY = "ARROW:extension:name";
+
+    static final String WKB_EXTENSION = "geoarrow.wkb";
+
+    public ArrowOutputFormat(GeoServer gs) {
+        super(gs, MIME_TYPE);
+    }
+
+    @Override
+    public String getCapabilitiesElementName() {
+        return "Arrow";
+    }
+
+    @Override
+    public String getMimeType(Object value, Operation operation) throws ServiceException {
+        return MIME_TYPE;
+    }
+
+    @Override
+    protected String getExtension(FeatureCollectionResponse response) {
+        return "arrows";
+    }
+
+    @Override
+    protected void write(
+            SimpleFeatureCollection features, ColumnarSchema schema, OutputStream output)
+            throws IOException {
+        int batchSize = (int) Math.min(getSize(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE), 1 << 30);
+        long batchBytes = getSize(BATCH_BYTES_KEY, DEFAULT_BATCH_BYTES);
+        long maxMemory = getSize(MAX_MEMORY_KEY, DEFAULT_MAX_MEMORY);
+        List<Column> columns = schema.getColumns();
+        try (BufferAllocator allocator = new RootAllocator(maxMemory);
+                VectorSchemaRoot root = VectorSchemaRoot.create(getSchema(schema), allocator);
+                ArrowStreamWriter writer =
+                        new ArrowStreamWriter(
+                                root,
+                                null,
+                                Channels.newChannel(new CloseShieldOutputStream(output)));
+                SimpleFeatureIterator it = features.features()) {
+            writer.start();
+            int row = 0;
+            boolean written = false;
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                for (int i = 0; i < columns.size(); i++) {
+                    setValue(root.getVector(i), row, schema.getValue(feature, i));
+                }
+                row++;
+                boolean large = allocator.getAllocatedMemory() >= batchBytes;
+                if (row == batchSize || large) {
+                    writeBatch(root, writer, row, large);
+                    written = true;
+                    row = 0;
+                }
+            }
+            // an empty collection still gets a batch, some readers expect at least one
+            if (row > 0 || !written) {
+                writeBatch(root, writer, row, false);
+            }
+            writer.end();
+        }
+    }
+
+    /**
+     * Writes the current batch
+     *
+     * @param release Releases the buffers rather than keeping them for the next batch, as they
+     *     grew past the max batch bytes
+     */
+    private void writeBatch(
+            VectorSchemaRoot root, ArrowStreamWriter writer, int rows, boolean release)
+            throws IOException {
+        root.setRowCount(rows);
+        writer.writeBatch();
+        if (release) {
+            root.clear();
+            root.allocateNew();
+        } else {
+            for (FieldVector vector : root.getFieldVectors()) {
+                vector.reset();
+            }
+        }
+    }
+
+    /** Builds the Arrow schema matching the columns */
+    static Schema getSchema(ColumnarSchema schema) {
+        List<Field> fields = new ArrayList<>();
+        for (Column column : schema.getColumns()) {
+            Map<String, String> metadata =
+                    column.getType() == ColumnType.GEOMETRY
+                            ? Collections.singletonMap(EXTENSION_NAME_KEY, WKB_EXTENSION)
+                            : null;
+            FieldType type =
+                    new FieldType(
+                            column.isNullable(), getArrowType(column.getType()), null, metadata);
+            fields.add(new Field(column.getName(), type, null));
+        }
+        String geo = schema.getGeoMetadata(false);
+        if (geo == null) {
+            return new Schema(fields);
+        }
+        return new Schema(fields, Collections.singletonMap(ColumnarSchema.GEO_METADATA_KEY, geo));
+    }
+
+    static ArrowType getArrowType(ColumnType type) {
+        switch (type) {
+            case BOOLEAN:
+                return ArrowType.Bool.INSTANCE;
+            case INT:
+                return new ArrowType.Int(32, true);
+            case LONG:
+                return new ArrowType.Int(64, true);
+            case FLOAT:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+            case DOUBLE:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+            case DATE:
+                return new ArrowType.Date(DateUnit.DAY);
+            case TIME:
+                return new ArrowType.Time(TimeUnit.MILLISECOND, 32);
+            case TIMESTAMP:
+                return new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC");
+            case BINARY:
+            case GEOMETRY:
+                return ArrowType.Binary.INSTANCE;
+            default:
+                return ArrowType.Utf8.INSTANCE;
+        }
+    }
+
+    private void setValue(FieldVector vector, int row, Object value) {
+        if (value == null) {
+            if (vector instanceof BaseFixedWidthVector) {
+                ((BaseFixedWidthVector) vector).setNull(row);
+            } else {
+                ((BaseVariableWidthVector) vector).setNull(row);
+            }
+        } else if (vector instanceof BitVector) {
+            ((BitVector) vector).setSafe(row, (Boolean) value ? 1 : 0);
+        } else if (vector instanceof IntVector) {
+            ((IntVector) vector).setSafe(row, (Integer) value);
+        } else if (vector instanceof BigIntVector) {
+            ((BigIntVector) vector).setSafe(row, (Long) value);
+        } else if (vector instanceof Float4Vector) {
+            ((Float4Vector) vector).setSafe(row, (Float) value);
+        } else if (vector instanceof Float8Vector) {
+            ((Float8Vector) vector).setSafe(row, (Double) value);
+        } else if (vector instanceof DateDayVector) {
+            ((DateDayVector) vector).setSafe(row, (Integer) value);
+        } else if (vector instanceof TimeMilliVector) {
+            ((TimeMilliVector) vector).setSafe(row, (Integer) value);
+        } else if (vector instanceof TimeStampMilliTZVector) {
+            ((TimeStampMilliTZVector) vector).setSafe(row, (Long) value);
+        } else if (vector instanceof VarCharVector) {
+            ((VarCharVector) vector).setSafe(row, ((String) value).getBytes(UTF_8));
+        } else if (vector instanceof VarBinaryVector) {
+            ((VarBinaryVector) vector).setSafe(row, (byte[]) value);
+        } else {
+            throw new IllegalArgumentException("Unexpected vector " + vector.getClass());
+        }
+    }
+}
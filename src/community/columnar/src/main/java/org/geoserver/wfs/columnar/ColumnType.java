@@ -0,0 +1,59 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.columnar;
+
+import java.math.BigInteger;
+import java.util.Calendar;
+import org.locationtech.jts.geom.Geometry;
+
+/** The column types attributes are mapped to, shared by the Arrow and GeoParquet encodings. */
+public enum ColumnType {
+    BOOLEAN,
+    INT,
+    LONG,
+    FLOAT,
+    DOUBLE,
+    STRING,
+    BINARY,
+    /** Days since the epoch */
+    DATE,
+    /** Milliseconds since midnight */
+    TIME,
+    /** Milliseconds since the epoch, UTC */
+    TIMESTAMP,
+    /** Geometries encoded as WKB */
+    GEOMETRY;
+
+    /** Returns the column type for an attribute binding, anything not recognized is a string */
+    public static ColumnType forBinding(Class<?> binding) {
+        if (binding == null) {
+            return STRING;
+        } else if (Geometry.class.isAssignableFrom(binding)) {
+            return GEOMETRY;
+        } else if (Boolean.class.equals(binding)) {
+            return BOOLEAN;
+        } else if (Byte.class.equals(binding)
+                || Short.class.equals(binding)
+                || Integer.class.equals(binding)) {
+            return INT;
+        } else if (Long.class.equals(binding) || BigInteger.class.equals(binding)) {
+            return LONG;
+        } else if (Float.class.equals(binding)) {
+            return FLOAT;
+        } else if (Number.class.isAssignableFrom(binding)) {
+            return DOUBLE;
+        } else if (java.sql.Date.class.isAssignableFrom(binding)) {
+            return DATE;
+        } else if (java.sql.Time.class.isAssignableFrom(binding)) {
+            return TIME;
+        } else if (java.util.Date.class.isAssignableFrom(binding)
+                || Calendar.class.isAssignableFrom(binding)) {
+            return TIMESTAMP;
+        } else if (byte[].class.equals(binding)) {
+            return BINARY;
+        }
+        return STRING;
+    }
+}
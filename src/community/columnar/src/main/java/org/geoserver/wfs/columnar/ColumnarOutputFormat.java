@@ -0,0 +1,96 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.columnar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.feature.FlatteningFeatureCollection;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.WFSGetFeatureOutputFormat;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.FeatureCollection;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Base class for the columnar output formats, which encode a single simple feature collection as
+ * a sequence of row groups, each of a configurable size, so that only one row group at a time is
+ * held in memory.
+ */
+public abstract class ColumnarOutputFormat extends WFSGetFeatureOutputFormat {
+
+    protected final Catalog catalog;
+
+    protected ColumnarOutputFormat(GeoServer gs, String outputFormat) {
+        super(gs, outputFormat);
+        this.catalog = gs.getCatalog();
+    }
+
+    @Override
+    public String getPreferredDisposition(Object value, Operation operation) {
+        return DISPOSITION_ATTACH;
+    }
+
+    @Override
+    protected void write(
+            FeatureCollectionResponse featureCollection, OutputStream output, Operation operation)
+            throws IOException {
+        List<FeatureCollection> collections = featureCollection.getFeatures();
+        if (collections.size() != 1) {
+            throw new ServiceException(
+                    getCapabilitiesElementName()
+                            + " output supports a single feature type per request",
+                    ServiceException.INVALID_PARAMETER_VALUE,
+                    "typeNames");
+        }
+        FeatureCollection fc = collections.get(0);
+        if (!(fc.getSchema() instanceof SimpleFeatureType)) {
+            throw new ServiceException(
+                    getCapabilitiesElementName() + " output does not support complex features",
+                    ServiceException.INVALID_PARAMETER_VALUE,
+                    "outputFormat");
+        }
+        FeatureTypeInfo info =
+                catalog.getResourceByName(fc.getSchema().getName(), FeatureTypeInfo.class);
+        // joins return features with nested features as attributes
+        SimpleFeatureCollection features =
+                FlatteningFeatureCollection.flatten((SimpleFeatureCollection) fc);
+        ColumnarSchema schema = ColumnarSchema.build(features.getSchema(), info);
+
+        write(features, schema, output);
+    }
+
+    /**
+     * Encodes the features
+     *
+     * @param features The features to encode
+     * @param schema The columns the features are mapped to
+     * @param output The stream to write to, not to be closed
+     */
+    protected abstract void write(
+            SimpleFeatureCollection features, ColumnarSchema schema, OutputStream output)
+            throws IOException;
+
+    /**
+     * Returns a positive size read from a system/environment variable/servlet context parameter
+     *
+     * @param key The property name
+     * @param defaultSize The size to use when the property is not set or not valid
+     */
+    static long getSize(String key, long defaultSize) {
+        long size = GeoServerExtensions.getLongProperty(key, defaultSize);
+        if (size <= 0) {
+            LOGGER.warning("Invalid " + key + " value " + size + ", using the default");
+            return defaultSize;
+        }
+        return size;
+    }
+}
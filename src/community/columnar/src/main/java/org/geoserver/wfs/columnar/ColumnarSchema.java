@@ -0,0 +1,301 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.columnar;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import org.geoserver.catalog.AttributeTypeInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.platform.ServiceException;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.io.WKBWriter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * The columns a feature type is encoded to. The column types and nullability come from the {@link
+ * FeatureTypeInfo} attributes when available, falling back on the feature type descriptors for
+ * attributes the catalog does not know about.
+ *
+ * <p>Instances are meant to be used for a single request, as the geometry columns keep track of
+ * the bounds and geometry types of the encoded values, which are reported in the GeoParquet
+ * metadata.
+ */
+public class ColumnarSchema {
+
+    /** The GeoParquet metadata key */
+    public static final String GEO_METADATA_KEY = "geo";
+
+    static final String GEOPARQUET_VERSION = "1.0.0";
+
+    /** A single column */
+    public static class Column {
+
+        final String name;
+
+        final ColumnType type;
+
+        final boolean nullable;
+
+        final CoordinateReferenceSystem crs;
+
+        final Envelope bounds = new Envelope();
+
+        final Set<String> geometryTypes = new TreeSet<>();
+
+        WKBWriter wkbWriter;
+
+        Column(String name, ColumnType type, boolean nullable, CoordinateReferenceSystem crs) {
+            this.name = name;
+            this.type = type;
+            this.nullable = nullable;
+            this.crs = crs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ColumnType getType() {
+            return type;
+        }
+
+        public boolean isNullable() {
+            return nullable;
+        }
+
+        /**
+         * Converts an attribute value to the java type the column is encoded from: Boolean,
+         * Integer, Long, Float, Double, String, byte[] for binaries and geometries, Integer days
+         * for dates, Integer milliseconds for times and Long milliseconds for timestamps.
+         *
+         * @return The converted value, or null if the value is null or cannot be converted
+         */
+        public Object convert(Object value) {
+            if (value == null) {
+                return null;
+            }
+            switch (type) {
+                case BOOLEAN:
+                    return Converters.convert(value, Boolean.class);
+                case INT:
+                    return value instanceof Number
+                            ? ((Number) value).intValue()
+                            : Converters.convert(value, Integer.class);
+                case LONG:
+                    return value instanceof Number
+                            ? ((Number) value).longValue()
+                            : Converters.convert(value, Long.class);
+                case FLOAT:
+                    return value instanceof Number
+                            ? ((Number) value).floatValue()
+                            : Converters.convert(value, Float.class);
+                case DOUBLE:
+                    return value instanceof Number
+                            ? ((Number) value).doubleValue()
+                            : Converters.convert(value, Double.class);
+                case BINARY:
+                    return value instanceof byte[]
+                            ? value
+                            : value.toString().getBytes(StandardCharsets.UTF_8);
+                case DATE:
+                    java.sql.Date date = Converters.convert(value, java.sql.Date.class);
+                    return date == null ? null : (int) date.toLocalDate().toEpochDay();
+                case TIME:
+                    java.sql.Time time = Converters.convert(value, java.sql.Time.class);
+                    return time == null
+                            ? null
+                            : (int) (time.toLocalTime().toNanoOfDay() / 1_000_000);
+                case TIMESTAMP:
+                    if (value instanceof Calendar) {
+                        return ((Calendar) value).getTimeInMillis();
+                    }
+                    java.util.Date timestamp = Converters.convert(value, java.util.Date.class);
+                    return timestamp == null ? null : timestamp.getTime();
+                case GEOMETRY:
+                    Geometry geometry =
+                            value instanceof Geometry
+                                    ? (Geometry) value
+                                    : Converters.convert(value, Geometry.class);
+                    return geometry == null ? null : toWKB(geometry);
+                default:
+                    if (value instanceof BigDecimal) {
+                        return ((BigDecimal) value).toPlainString();
+                    }
+                    String converted = Converters.convert(value, String.class);
+                    return converted == null ? value.toString() : converted;
+            }
+        }
+
+        private byte[] toWKB(Geometry geometry) {
+            if (!geometry.isEmpty()) {
+                bounds.expandToInclude(geometry.getEnvelopeInternal());
+            }
+            geometryTypes.add(
+                    geometry instanceof LinearRing ? "LineString" : geometry.getGeometryType());
+            if (wkbWriter == null) {
+                wkbWriter = new WKBWriter();
+            }
+            return wkbWriter.write(geometry);
+        }
+
+        /** Returns the GeoParquet metadata of a geometry column */
+        JSONObject getGeoMetadata(boolean includeBounds) {
+            JSONObject metadata = new JSONObject();
+            metadata.put("encoding", "WKB");
+            metadata.put("geometry_types", JSONArray.fromObject(geometryTypes));
+            Object projjson = getProjJSON(crs);
+            if (projjson != null) {
+                metadata.put("crs", projjson);
+            }
+            if (includeBounds && !bounds.isNull()) {
+                JSONArray bbox = new JSONArray();
+                bbox.add(bounds.getMinX());
+                bbox.add(bounds.getMinY());
+                bbox.add(bounds.getMaxX());
+                bbox.add(bounds.getMaxY());
+                metadata.put("bbox", bbox);
+            }
+            return metadata;
+        }
+    }
+
+    final List<Column> columns;
+
+    final String primaryGeometry;
+
+    ColumnarSchema(List<Column> columns, String primaryGeometry) {
+        this.columns = columns;
+        this.primaryGeometry = primaryGeometry;
+    }
+
+    /**
+     * Builds the columns for the feature type returned by a request
+     *
+     * @param schema The returned feature type, which might be a subset of the published one
+     * @param info The published feature type, or null if not found
+     */
+    public static ColumnarSchema build(SimpleFeatureType schema, FeatureTypeInfo info)
+            throws IOException {
+        Map<String, AttributeTypeInfo> attributes = new HashMap<>();
+        if (info != null) {
+            for (AttributeTypeInfo attribute : info.attributes()) {
+                attributes.put(attribute.getName(), attribute);
+            }
+        }
+        List<Column> columns = new ArrayList<>();
+        for (AttributeDescriptor descriptor : schema.getAttributeDescriptors()) {
+            String name = descriptor.getLocalName();
+            AttributeTypeInfo attribute = attributes.get(name);
+            Class<?> binding =
+                    attribute != null && attribute.getBinding() != null
+                            ? attribute.getBinding()
+                            : descriptor.getType().getBinding();
+            boolean nullable =
+                    attribute != null ? attribute.isNillable() : descriptor.isNillable();
+            CoordinateReferenceSystem crs =
+                    descriptor instanceof GeometryDescriptor
+                            ? ((GeometryDescriptor) descriptor).getCoordinateReferenceSystem()
+                            : null;
+            columns.add(new Column(name, ColumnType.forBinding(binding), nullable, crs));
+        }
+        GeometryDescriptor geometry = schema.getGeometryDescriptor();
+        return new ColumnarSchema(
+                Collections.unmodifiableList(columns),
+                geometry == null ? null : geometry.getLocalName());
+    }
+
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the feature attribute at the given column index, converted with {@link
+     * Column#convert(Object)}
+     *
+     * @throws ServiceException if the value is null but the column is not nullable
+     */
+    public Object getValue(SimpleFeature feature, int index) {
+        Column column = columns.get(index);
+        Object value = column.convert(feature.getAttribute(index));
+        if (value == null && !column.nullable) {
+            throw new ServiceException(
+                    "Attribute "
+                            + column.name
+                            + " is not nillable, but has no value in feature "
+                            + feature.getID());
+        }
+        return value;
+    }
+
+    /**
+     * Returns the GeoParquet metadata for the geometry columns, or null if there are none
+     *
+     * @param includeBounds Whether to include the bounds of the values encoded so far
+     */
+    public String getGeoMetadata(boolean includeBounds) {
+        if (primaryGeometry == null) {
+            return null;
+        }
+        JSONObject geometries = new JSONObject();
+        for (Column column : columns) {
+            if (column.type == ColumnType.GEOMETRY) {
+                geometries.put(column.name, column.getGeoMetadata(includeBounds));
+            }
+        }
+        JSONObject metadata = new JSONObject();
+        metadata.put("version", GEOPARQUET_VERSION);
+        metadata.put("primary_column", primaryGeometry);
+        metadata.put("columns", geometries);
+        return metadata.toString();
+    }
+
+    /**
+     * Returns an identifier only PROJJSON object for the CRS, {@link JSONNull} if the CRS is not
+     * known, or null for longitude/latitude WGS84, which is the GeoParquet default
+     */
+    static Object getProjJSON(CoordinateReferenceSystem crs) {
+        Integer code = null;
+        if (crs != null) {
+            try {
+                code = CRS.lookupEpsgCode(crs, false);
+            } catch (FactoryException e) {
+                // treated as unknown
+            }
+        }
+        if (code == null) {
+            return JSONNull.getInstance();
+        }
+        if (code == 4326 && CRS.getAxisOrder(crs) == CRS.AxisOrder.EAST_NORTH) {
+            return null;
+        }
+        JSONObject id = new JSONObject();
+        id.put("authority", "EPSG");
+        id.put("code", code);
+        JSONObject projjson = new JSONObject();
+        projjson.put("id", id);
+        return projjson;
+    }
+}
@@ -0,0 +1,158 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.columnar;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+import org.geoserver.wfs.columnar.ColumnarSchema.Column;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Writes simple features as Parquet records, following the {@link ColumnarSchema} mapping. The
+ * GeoParquet metadata is added to the file footer once all features have been written, so that it
+ * reports the bounds and geometry types actually found.
+ */
+class FeatureWriteSupport extends WriteSupport<SimpleFeature> {
+
+    final ColumnarSchema schema;
+
+    final MessageType messageType;
+
+    RecordConsumer consumer;
+
+    FeatureWriteSupport(ColumnarSchema schema, String name) {
+        this.schema = schema;
+        this.messageType = getMessageType(schema, name);
+    }
+
+    static MessageType getMessageType(ColumnarSchema schema, String name) {
+        Types.MessageTypeBuilder builder = Types.buildMessage();
+        for (Column column : schema.getColumns()) {
+            Type.Repetition repetition =
+                    column.isNullable() ? Type.Repetition.OPTIONAL : Type.Repetition.REQUIRED;
+            switch (column.getType()) {
+                case BOOLEAN:
+                    builder.primitive(PrimitiveTypeName.BOOLEAN, repetition)
+                            .named(column.getName());
+                    break;
+                case INT:
+                    builder.primitive(PrimitiveTypeName.INT32, repetition).named(column.getName());
+                    break;
+                case LONG:
+                    builder.primitive(PrimitiveTypeName.INT64, repetition).named(column.getName());
+                    break;
+                case FLOAT:
+                    builder.primitive(PrimitiveTypeName.FLOAT, repetition).named(column.getName());
+                    break;
+                case DOUBLE:
+                    builder.primitive(PrimitiveTypeName.DOUBLE, repetition)
+                            .named(column.getName());
+                    break;
+                case DATE:
+                    builder.primitive(PrimitiveTypeName.INT32, repetition)
+                            .as(LogicalTypeAnnotation.dateType())
+                            .named(column.getName());
+                    break;
+                case TIME:
+                    builder.primitive(PrimitiveTypeName.INT32, repetition)
+                            .as(
+                                    LogicalTypeAnnotation.timeType(
+                                            true, LogicalTypeAnnotation.TimeUnit.MILLIS))
+                            .named(column.getName());
+                    break;
+                case TIMESTAMP:
+                    builder.primitive(PrimitiveTypeName.INT64, repetition)
+                            .as(
+                                    LogicalTypeAnnotation.timestampType(
+                                            true, LogicalTypeAnnotation.TimeUnit.MILLIS))
+                            .named(column.getName());
+                    break;
+                case BINARY:
+                case GEOMETRY:
+                    builder.primitive(PrimitiveTypeName.BINARY, repetition)
+                            .named(column.getName());
+                    break;
+                default:
+                    builder.primitive(PrimitiveTypeName.BINARY, repetition)
+                            .as(LogicalTypeAnnotation.stringType())
+                            .named(column.getName());
+            }
+        }
+        return builder.named(name);
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+        return new WriteContext(messageType, Collections.emptyMap());
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+        this.consumer = recordConsumer;
+    }
+
+    @Override
+    public void write(SimpleFeature feature) {
+        List<Column> columns = schema.getColumns();
+        consumer.startMessage();
+        for (int i = 0; i < columns.size(); i++) {
+            Object value = schema.getValue(feature, i);
+            if (value == null) {
+                // nulls are encoded by omitting the field
+                continue;
+            }
+            Column column = columns.get(i);
+            consumer.startField(column.getName(), i);
+            switch (column.getType()) {
+                case BOOLEAN:
+                    consumer.addBoolean((Boolean) value);
+                    break;
+                case INT:
+                case DATE:
+                case TIME:
+                    consumer.addInteger((Integer) value);
+                    break;
+                case LONG:
+                case TIMESTAMP:
+                    consumer.addLong((Long) value);
+                    break;
+                case FLOAT:
+                    consumer.addFloat((Float) value);
+                    break;
+                case DOUBLE:
+                    consumer.addDouble((Double) value);
+                    break;
+                case BINARY:
+                case GEOMETRY:
+                    consumer.addBinary(Binary.fromConstantByteArray((byte[]) value));
+                    break;
+                default:
+                    consumer.addBinary(Binary.fromString((String) value));
+            }
+            consumer.endField(column.getName(), i);
+        }
+        consumer.endMessage();
+    }
+
+    @Override
+    public FinalizedWriteContext finalizeWrite() {
+        String geo = schema.getGeoMetadata(true);
+        Map<String, String> metadata =
+                geo == null
+                        ? Collections.emptyMap()
+                        : Collections.singletonMap(ColumnarSchema.GEO_METADATA_KEY, geo);
+        return new FinalizedWriteContext(metadata);
+    }
+}
@@ -0,0 +1,96 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.columnar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.geoserver.config.GeoServer;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Encodes features as a GeoParquet file, with the geometries in WKB binary columns. Parquet
+ * buffers a whole row group before writing it out, the row group size is limited by {@link
+ * #ROW_GROUP_SIZE_KEY} to keep memory usage bounded.
+ */
+public class GeoParquetOutputFormat extends ColumnarOutputFormat {
+
+    public static final String MIME_TYPE = "application/vnd.apache.parquet";
+
+    /** System/environment variable/servlet context parameter with the row group size, in bytes */
+    public static final String ROW_GROUP_SIZE_KEY = "GEOPARQUET_ROW_GROUP_SIZE";
+
+    public static final long DEFAULT_ROW_GROUP_SIZE = 32 * 1024 * 1024;
+
+    public GeoParquetOutputFormat(GeoServer gs) {
+        super(gs, MIME_TYPE);
+    }
+
+    @Override
+    public String getCapabilitiesElementName() {
+        return "GeoParquet";
+    }
+
+    @Override
+    public String getMimeType(Object value, Operation operation) throws ServiceException {
+        return MIME_TYPE;
+    }
+
+    @Override
+    protected String getExtension(FeatureCollectionResponse response) {
+        return "parquet";
+    }
+
+    @Override
+    protected void write(
+            SimpleFeatureCollection features, ColumnarSchema schema, OutputStream output)
+            throws IOException {
+        int rowGroupSize =
+                (int) Math.min(getSize(ROW_GROUP_SIZE_KEY, DEFAULT_ROW_GROUP_SIZE), 1 << 30);
+        FeatureWriteSupport writeSupport =
+                new FeatureWriteSupport(schema, features.getSchema().getTypeName());
+        try (ParquetWriter<SimpleFeature> writer =
+                        new Builder(new StreamOutputFile(output), writeSupport)
+                                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                                .withCompressionCodec(CompressionCodecName.SNAPPY)
+                                .withRowGroupSize(rowGroupSize)
+                                .build();
+                SimpleFeatureIterator it = features.features()) {
+            while (it.hasNext()) {
+                writer.write(it.next());
+            }
+        }
+    }
+
+    static class Builder extends ParquetWriter.Builder<SimpleFeature, Builder> {
+
+        final FeatureWriteSupport writeSupport;
+
+        Builder(OutputFile file, FeatureWriteSupport writeSupport) {
+            super(file);
+            this.writeSupport = writeSupport;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<SimpleFeature> getWriteSupport(Configuration conf) {
+            return writeSupport;
+        }
+    }
+}
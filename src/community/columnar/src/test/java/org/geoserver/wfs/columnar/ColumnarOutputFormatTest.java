@@ -0,0 +1,219 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.columnar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import net.sf.json.JSONObject;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.io.DelegatingSeekableInputStream;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.geoserver.wfs.WFSTestSupport;
+import org.junit.After;
+import org.junit.Test;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.io.WKBReader;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class ColumnarOutputFormatTest extends WFSTestSupport {
+
+    static final String GET_PRIMITIVES =
+            "wfs?request=GetFeature&version=1.0.0&service=wfs&typeName=sf:PrimitiveGeoFeature"
+                    + "&outputFormat=";
+
+    @After
+    public void resetSizes() {
+        System.clearProperty(ArrowOutputFormat.BATCH_SIZE_KEY);
+        System.clearProperty(ArrowOutputFormat.BATCH_BYTES_KEY);
+        System.clearProperty(GeoParquetOutputFormat.ROW_GROUP_SIZE_KEY);
+    }
+
+    @Test
+    public void testArrow() throws Exception {
+        System.setProperty(ArrowOutputFormat.BATCH_SIZE_KEY, "2");
+        MockHttpServletResponse response =
+                getAsServletResponse(GET_PRIMITIVES + ArrowOutputFormat.MIME_TYPE);
+        assertEquals(ArrowOutputFormat.MIME_TYPE, response.getContentType());
+        assertTrue(response.getHeader("Content-Disposition").contains(".arrows"));
+
+        int rows = 0;
+        int batches = 0;
+        try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+                ArrowStreamReader reader =
+                        new ArrowStreamReader(
+                                new ByteArrayInputStream(response.getContentAsByteArray()),
+                                allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            Schema schema = root.getSchema();
+            assertEquals(
+                    new ArrowType.Int(32, true), schema.findField("intProperty").getType());
+            assertEquals(ArrowType.Bool.INSTANCE, schema.findField("booleanProperty").getType());
+            assertEquals(
+                    ArrowOutputFormat.WKB_EXTENSION,
+                    schema.findField("pointProperty")
+                            .getMetadata()
+                            .get(ArrowOutputFormat.EXTENSION_NAME_KEY));
+            JSONObject geo =
+                    JSONObject.fromObject(
+                            schema.getCustomMetadata().get(ColumnarSchema.GEO_METADATA_KEY));
+            assertEquals(
+                    "WKB",
+                    geo.getJSONObject("columns")
+                            .getJSONObject("pointProperty")
+                            .getString("encoding"));
+
+            while (reader.loadNextBatch()) {
+                batches++;
+                IntVector ints = (IntVector) root.getVector("intProperty");
+                VarBinaryVector points = (VarBinaryVector) root.getVector("pointProperty");
+                for (int i = 0; i < root.getRowCount(); i++) {
+                    assertTrue(ints.isSet(i) == 1);
+                    if (points.isSet(i) == 1) {
+                        assertTrue(new WKBReader().read(points.get(i)) instanceof Point);
+                    }
+                }
+                rows += root.getRowCount();
+            }
+        }
+        assertEquals(5, rows);
+        assertEquals(3, batches);
+    }
+
+    @Test
+    public void testArrowBatchBytes() throws Exception {
+        // the vectors are always larger than that, each feature gets its own batch
+        System.setProperty(ArrowOutputFormat.BATCH_BYTES_KEY, "1");
+        MockHttpServletResponse response =
+                getAsServletResponse(GET_PRIMITIVES + ArrowOutputFormat.MIME_TYPE);
+
+        int rows = 0;
+        int batches = 0;
+        try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+                ArrowStreamReader reader =
+                        new ArrowStreamReader(
+                                new ByteArrayInputStream(response.getContentAsByteArray()),
+                                allocator)) {
+            while (reader.loadNextBatch()) {
+                batches++;
+                rows += reader.getVectorSchemaRoot().getRowCount();
+            }
+        }
+        assertEquals(5, rows);
+        assertEquals(5, batches);
+    }
+
+    @Test
+    public void testGeoParquet() throws Exception {
+        MockHttpServletResponse response =
+                getAsServletResponse(GET_PRIMITIVES + GeoParquetOutputFormat.MIME_TYPE);
+        assertEquals(GeoParquetOutputFormat.MIME_TYPE, response.getContentType());
+        assertTrue(response.getHeader("Content-Disposition").contains(".parquet"));
+
+        byte[] bytes = response.getContentAsByteArray();
+        try (ParquetFileReader reader = ParquetFileReader.open(new BytesInputFile(bytes))) {
+            assertEquals(5, reader.getRecordCount());
+            ParquetMetadata footer = reader.getFooter();
+            MessageType schema = footer.getFileMetaData().getSchema();
+            assertEquals(
+                    PrimitiveTypeName.INT32,
+                    schema.getType("intProperty").asPrimitiveType().getPrimitiveTypeName());
+            assertEquals(
+                    LogicalTypeAnnotation.dateType(),
+                    schema.getType("dateProperty").getLogicalTypeAnnotation());
+            assertEquals(
+                    LogicalTypeAnnotation.stringType(),
+                    schema.getType("name").getLogicalTypeAnnotation());
+
+            String metadata =
+                    footer.getFileMetaData()
+                            .getKeyValueMetaData()
+                            .get(ColumnarSchema.GEO_METADATA_KEY);
+            assertNotNull(metadata);
+            JSONObject point =
+                    JSONObject.fromObject(metadata)
+                            .getJSONObject("columns")
+                            .getJSONObject("pointProperty");
+            assertEquals("WKB", point.getString("encoding"));
+            assertEquals("Point", point.getJSONArray("geometry_types").getString(0));
+            // bounds are collected while writing
+            assertEquals(4, point.getJSONArray("bbox").size());
+        }
+    }
+
+    @Test
+    public void testMultipleTypesNotSupported() throws Exception {
+        MockHttpServletResponse response =
+                getAsServletResponse(
+                        "wfs?request=GetFeature&version=1.0.0&service=wfs"
+                                + "&typeName=sf:PrimitiveGeoFeature,cite:Buildings&outputFormat="
+                                + GeoParquetOutputFormat.MIME_TYPE);
+        assertTrue(
+                response.getContentAsString()
+                        .contains("output supports a single feature type per request"));
+    }
+
+    /** Reads a Parquet file from memory */
+    static class BytesInputFile implements InputFile {
+
+        final byte[] bytes;
+
+        BytesInputFile(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long getLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public SeekableInputStream newStream() throws IOException {
+            SeekableBytes input = new SeekableBytes(bytes);
+            return new DelegatingSeekableInputStream(input) {
+                @Override
+                public long getPos() {
+                    return input.getPos();
+                }
+
+                @Override
+                public void seek(long newPos) {
+                    input.seek(newPos);
+                }
+            };
+        }
+    }
+
+    static class SeekableBytes extends ByteArrayInputStream {
+
+        SeekableBytes(byte[] bytes) {
+            super(bytes);
+        }
+
+        long getPos() {
+            return pos;
+        }
+
+        void seek(long position) {
+            pos = (int) position;
+        }
+    }
+}
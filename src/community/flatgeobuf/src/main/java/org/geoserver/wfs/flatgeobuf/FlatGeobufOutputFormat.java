@@ -7,14 +7,17 @@ package org.geoserver.wfs.flatgeobuf;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.geoserver.config.GeoServer;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.FeatureCollection;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -24,11 +27,27 @@ import org.wololo.flatgeobuf.geotools.FeatureCollectionConversions;
  * A GetFeatureInfo response handler specialized in producing FlatGeobuf data for a GetFeatureInfo
  * request.
  *
+ * <p>Features are written in the order they arrive, unless the {@link #INDEX_OPTION} format option
+ * is set, or indexing is enabled by default with the {@link #INDEX_KEY} property, in which case
+ * they are sorted along a Hilbert curve and preceded by a packed R-tree, see {@link
+ * IndexedFlatGeobufWriter}.
+ *
  * @author Björn Harrtell
  */
 public class FlatGeobufOutputFormat extends WFSGetFeatureOutputFormat {
     private final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(this.getClass());
 
+    /** Format option enabling or disabling the spatial index */
+    public static final String INDEX_OPTION = "INDEX";
+
+    /** System/environment variable/servlet context parameter enabling the index by default */
+    public static final String INDEX_KEY = "FLATGEOBUF_INDEX";
+
+    /** System/environment variable/servlet context parameter with the in memory sort size */
+    public static final String SORT_BUFFER_SIZE_KEY = "FLATGEOBUF_SORT_BUFFER_SIZE";
+
+    public static final int DEFAULT_SORT_BUFFER_SIZE = 500000;
+
     public FlatGeobufOutputFormat(GeoServer gs) {
         super(gs, "application/flatgeobuf");
     }
@@ -66,7 +85,34 @@ public class FlatGeobufOutputFormat extends WFSGetFeatureOutputFormat {
 
         SimpleFeatureCollection fc =
                 (SimpleFeatureCollection) featureCollection.getFeature().get(0);
-        FeatureCollectionConversions.serialize(fc, 0, output);
+        if (isIndexed(operation)) {
+            try (IndexedFlatGeobufWriter writer =
+                    new IndexedFlatGeobufWriter(
+                            IndexedFlatGeobufWriter.DEFAULT_NODE_SIZE, getSortBufferSize())) {
+                writer.write(fc, output);
+            }
+        } else {
+            FeatureCollectionConversions.serialize(fc, 0, output);
+        }
+    }
+
+    /** Checks the format options first, then the default */
+    boolean isIndexed(Operation operation) {
+        if (operation != null && operation.getParameters().length > 0) {
+            GetFeatureRequest request = GetFeatureRequest.adapt(operation.getParameters()[0]);
+            Map<String, ?> formatOptions = request == null ? null : request.getFormatOptions();
+            if (formatOptions != null && formatOptions.get(INDEX_OPTION) != null) {
+                return Boolean.parseBoolean(String.valueOf(formatOptions.get(INDEX_OPTION)));
+            }
+        }
+        return GeoServerExtensions.getBooleanProperty(INDEX_KEY);
+    }
+
+    static int getSortBufferSize() {
+        int size =
+                GeoServerExtensions.getIntegerProperty(
+                        SORT_BUFFER_SIZE_KEY, DEFAULT_SORT_BUFFER_SIZE);
+        return size > 0 ? size : DEFAULT_SORT_BUFFER_SIZE;
     }
 
     /** Is WFS configured to return feature and collection bounds? */
@@ -0,0 +1,582 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.flatgeobuf;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.feature.collection.DecoratingSimpleFeatureIterator;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.wololo.flatgeobuf.HeaderMeta;
+import org.wololo.flatgeobuf.geotools.FeatureCollectionConversions;
+
+/**
+ * Writes a FlatGeobuf file with a packed Hilbert R-tree index, so that clients can read it with
+ * HTTP range requests.
+ *
+ * <p>The features are first encoded, in the order they arrive, in a temporary spool file, while
+ * their bounds are recorded in a second one. The bounds are then sorted along a Hilbert curve
+ * covering the extent of the whole dataset, using in memory runs of at most {@code
+ * sortBufferSize} items that are spilled to disk and merged when the dataset does not fit. The
+ * tree levels are built bottom up from the sorted items, one level file at a time, and finally the
+ * header, the tree and the features, in Hilbert order, are copied to the output. Memory usage is
+ * bounded by the sort buffer, regardless of the number of features.
+ */
+class IndexedFlatGeobufWriter implements Closeable {
+
+    static final Logger LOGGER =
+            org.geotools.util.logging.Logging.getLogger(IndexedFlatGeobufWriter.class);
+
+    public static final int DEFAULT_NODE_SIZE = 16;
+
+    /** Size of a packed R-tree node, four doubles and an unsigned long */
+    static final int NODE_ITEM_BYTES = 40;
+
+    static final int HILBERT_MAX = (1 << 16) - 1;
+
+    final int nodeSize;
+
+    final int sortBufferSize;
+
+    final List<File> files = new ArrayList<>();
+
+    IndexedFlatGeobufWriter(int nodeSize, int sortBufferSize) {
+        this.nodeSize = nodeSize;
+        this.sortBufferSize = sortBufferSize;
+    }
+
+    /** A feature bounding box, along with the position of the feature in the spool file */
+    static class Item {
+        double minX;
+        double minY;
+        double maxX;
+        double maxY;
+        long offset;
+        int length;
+        long hilbert;
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeDouble(minX);
+            out.writeDouble(minY);
+            out.writeDouble(maxX);
+            out.writeDouble(maxY);
+            out.writeLong(offset);
+            out.writeInt(length);
+            out.writeLong(hilbert);
+        }
+
+        static Item read(DataInputStream in) throws IOException {
+            Item item = new Item();
+            try {
+                item.minX = in.readDouble();
+            } catch (EOFException e) {
+                return null;
+            }
+            item.minY = in.readDouble();
+            item.maxX = in.readDouble();
+            item.maxY = in.readDouble();
+            item.offset = in.readLong();
+            item.length = in.readInt();
+            item.hilbert = in.readLong();
+            return item;
+        }
+    }
+
+    static final Comparator<Item> HILBERT_ORDER = Comparator.comparingLong(i -> i.hilbert);
+
+    /** Writes the features, with the index, to the output */
+    public void write(SimpleFeatureCollection features, OutputStream output) throws IOException {
+        // encode the features as they come, collecting their bounds in the same order
+        File spool = createTempFile("spool");
+        File bounds = createTempFile("bounds");
+        Envelope extent = new Envelope();
+        long count;
+        try (OutputStream spoolOut = new BufferedOutputStream(new FileOutputStream(spool));
+                DataOutputStream boundsOut = dataOutput(bounds)) {
+            BoundsRecorder recorder = new BoundsRecorder(features, boundsOut, extent);
+            FeatureCollectionConversions.serialize(recorder, 0, spoolOut);
+            if (recorder.exception != null) {
+                throw recorder.exception;
+            }
+            count = recorder.count;
+        }
+
+        try (FileChannel spoolChannel = FileChannel.open(spool.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer prefix = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(spoolChannel, prefix, 0);
+            // magic bytes, header size and header, the spooled file has no index
+            long featuresStart = 12 + prefix.getInt(8);
+            HeaderMeta headerMeta = readHeader(spoolChannel, featuresStart);
+            byte[] magic = Arrays.copyOf(prefix.array(), 8);
+            if (count == 0) {
+                // no index for empty files, just copy the header
+                writeHeader(magic, headerMeta, 0, 0, output);
+                return;
+            }
+
+            File sorted = sort(bounds, spoolChannel, featuresStart, count, extent);
+            List<File> levels = buildLevels(sorted, count);
+
+            writeHeader(magic, headerMeta, count, nodeSize, output);
+            // not closed, that would close the output
+            WritableByteChannel outChannel = Channels.newChannel(output);
+            // root level first, leaves last
+            for (int i = levels.size() - 1; i >= 0; i--) {
+                try (FileChannel level =
+                        FileChannel.open(levels.get(i).toPath(), StandardOpenOption.READ)) {
+                    transfer(level, 0, level.size(), outChannel);
+                }
+            }
+            // then the features, in the same order as the leaves
+            try (DataInputStream in = dataInput(sorted)) {
+                Item item;
+                while ((item = Item.read(in)) != null) {
+                    transfer(spoolChannel, item.offset, item.length, outChannel);
+                }
+            }
+        }
+    }
+
+    /** Reads the magic bytes and header of the spooled file */
+    private HeaderMeta readHeader(FileChannel spool, long size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(spool, header, 0);
+        header.flip();
+        return HeaderMeta.read(header);
+    }
+
+    private void writeHeader(
+            byte[] magic, HeaderMeta headerMeta, long count, int nodeSize, OutputStream output)
+            throws IOException {
+        output.write(magic);
+        headerMeta.featuresCount = count;
+        headerMeta.indexNodeSize = nodeSize;
+        HeaderMeta.write(headerMeta, output, new FlatBufferBuilder());
+    }
+
+    /**
+     * Computes the spool position and Hilbert value of each feature, and sorts them, spilling
+     * sorted runs to disk when there are more than {@link #sortBufferSize} items.
+     */
+    File sort(File bounds, FileChannel spool, long start, long count, Envelope extent)
+            throws IOException {
+        List<File> runs = new ArrayList<>();
+        List<Item> buffer = new ArrayList<>((int) Math.min(count, sortBufferSize));
+        ByteBuffer sizeBuffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = start;
+        try (DataInputStream in = dataInput(bounds)) {
+            for (long i = 0; i < count; i++) {
+                Item item = new Item();
+                item.minX = in.readDouble();
+                item.minY = in.readDouble();
+                item.maxX = in.readDouble();
+                item.maxY = in.readDouble();
+                item.hilbert = hilbert(item, extent);
+                // each feature is prefixed by its size
+                sizeBuffer.clear();
+                readFully(spool, sizeBuffer, offset);
+                item.offset = offset;
+                item.length = 4 + sizeBuffer.getInt(0);
+                offset += item.length;
+
+                buffer.add(item);
+                if (buffer.size() == sortBufferSize) {
+                    runs.add(writeRun(buffer));
+                    buffer.clear();
+                }
+            }
+        }
+        if (runs.isEmpty()) {
+            return writeRun(buffer);
+        }
+        if (!buffer.isEmpty()) {
+            runs.add(writeRun(buffer));
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Merging " + runs.size() + " sorted runs of " + count + " features");
+        }
+        return merge(runs);
+    }
+
+    private File writeRun(List<Item> items) throws IOException {
+        items.sort(HILBERT_ORDER);
+        File run = createTempFile("run");
+        try (DataOutputStream out = dataOutput(run)) {
+            for (Item item : items) {
+                item.write(out);
+            }
+        }
+        return run;
+    }
+
+    private File merge(List<File> runs) throws IOException {
+        File merged = createTempFile("sorted");
+        List<DataInputStream> inputs = new ArrayList<>();
+        try (DataOutputStream out = dataOutput(merged)) {
+            // heads of the runs, along with the run they come from
+            PriorityQueue<Object[]> heads =
+                    new PriorityQueue<>(
+                            runs.size(), Comparator.comparing(h -> (Item) h[0], HILBERT_ORDER));
+            for (File run : runs) {
+                DataInputStream in = dataInput(run);
+                inputs.add(in);
+                Item item = Item.read(in);
+                if (item != null) {
+                    heads.add(new Object[] {item, in});
+                }
+            }
+            while (!heads.isEmpty()) {
+                Object[] head = heads.poll();
+                ((Item) head[0]).write(out);
+                Item next = Item.read((DataInputStream) head[1]);
+                if (next != null) {
+                    heads.add(new Object[] {next, head[1]});
+                }
+            }
+        } finally {
+            for (DataInputStream in : inputs) {
+                in.close();
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Builds the tree levels, as files of little endian node items ready to be copied to the
+     * output. The first level holds the leaves, pointing to the features, the others point to
+     * the first of their children, by index in the whole tree (root first, leaves last).
+     */
+    List<File> buildLevels(File sorted, long count) throws IOException {
+        long[] levelStarts = getLevelStarts(count, nodeSize);
+        List<File> levels = new ArrayList<>();
+
+        File leaves = createTempFile("level");
+        try (DataInputStream in = dataInput(sorted);
+                NodeWriter out = new NodeWriter(leaves)) {
+            // leaves point to the feature offsets, relative to the first feature
+            long featureOffset = 0;
+            Item item;
+            while ((item = Item.read(in)) != null) {
+                out.write(item.minX, item.minY, item.maxX, item.maxY, featureOffset);
+                featureOffset += item.length;
+            }
+        }
+        levels.add(leaves);
+
+        for (int level = 1; level < levelStarts.length; level++) {
+            File parents = createTempFile("level");
+            try (NodeReader in = new NodeReader(levels.get(level - 1));
+                    NodeWriter out = new NodeWriter(parents)) {
+                long child = levelStarts[level - 1];
+                double[] node = new double[4];
+                while (in.read(node)) {
+                    long first = child;
+                    double minX = node[0], minY = node[1], maxX = node[2], maxY = node[3];
+                    child++;
+                    for (int i = 1; i < nodeSize && in.read(node); i++) {
+                        minX = Math.min(minX, node[0]);
+                        minY = Math.min(minY, node[1]);
+                        maxX = Math.max(maxX, node[2]);
+                        maxY = Math.max(maxY, node[3]);
+                        child++;
+                    }
+                    out.write(minX, minY, maxX, maxY, first);
+                }
+            }
+            levels.add(parents);
+        }
+        return levels;
+    }
+
+    /**
+     * Returns the index of the first node of each level in the packed tree, leaves first. As in
+     * the FlatGeobuf reference implementation there is always a root level with a single node,
+     * even when there is a single leaf.
+     */
+    static long[] getLevelStarts(long count, int nodeSize) {
+        List<Long> levelSizes = new ArrayList<>();
+        long n = count;
+        long total = n;
+        levelSizes.add(n);
+        do {
+            n = (n + nodeSize - 1) / nodeSize;
+            total += n;
+            levelSizes.add(n);
+        } while (n != 1);
+
+        long[] starts = new long[levelSizes.size()];
+        long end = total;
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = end - levelSizes.get(i);
+            end = starts[i];
+        }
+        return starts;
+    }
+
+    /** Returns the Hilbert value of the item center, features without a geometry go first */
+    static long hilbert(Item item, Envelope extent) {
+        if (item.minX > item.maxX || extent.isNull()) {
+            return 0;
+        }
+        double width = extent.getWidth();
+        double height = extent.getHeight();
+        long x =
+                width == 0
+                        ? 0
+                        : (long)
+                                Math.floor(
+                                        HILBERT_MAX
+                                                * ((item.minX + item.maxX) / 2 - extent.getMinX())
+                                                / width);
+        long y =
+                height == 0
+                        ? 0
+                        : (long)
+                                Math.floor(
+                                        HILBERT_MAX
+                                                * ((item.minY + item.maxY) / 2 - extent.getMinY())
+                                                / height);
+        return hilbert((int) x, (int) y);
+    }
+
+    /** Hilbert curve index of a point in a 2^16 x 2^16 grid, as used by FlatGeobuf */
+    static long hilbert(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >> 1);
+        int B = (a >> 1) ^ a;
+        int C = ((c >> 1) ^ (b & (d >> 1))) ^ c;
+        int D = ((a & (c >> 1)) ^ (d >> 1)) ^ d;
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = ((a & (a >> 2)) ^ (b & (b >> 2)));
+        B = ((a & (b >> 2)) ^ (b & ((a ^ b) >> 2)));
+        C ^= ((a & (c >> 2)) ^ (b & (d >> 2)));
+        D ^= ((b & (c >> 2)) ^ ((a ^ b) & (d >> 2)));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = ((a & (a >> 4)) ^ (b & (b >> 4)));
+        B = ((a & (b >> 4)) ^ (b & ((a ^ b) >> 4)));
+        C ^= ((a & (c >> 4)) ^ (b & (d >> 4)));
+        D ^= ((b & (c >> 4)) ^ ((a ^ b) & (d >> 4)));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        C ^= ((a & (c >> 8)) ^ (b & (d >> 8)));
+        D ^= ((b & (c >> 8)) ^ ((a ^ b) & (d >> 8)));
+
+        a = C ^ (C >> 1);
+        b = D ^ (D >> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return ((i1 << 1) | i0) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void close() {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                LOGGER.warning("Could not delete temporary file " + file);
+            }
+        }
+        files.clear();
+    }
+
+    private File createTempFile(String prefix) throws IOException {
+        File file = File.createTempFile("fgb-" + prefix, ".tmp");
+        files.add(file);
+        return file;
+    }
+
+    private static DataOutputStream dataOutput(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    private static DataInputStream dataInput(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of the FlatGeobuf spool file");
+            }
+        }
+    }
+
+    private static void transfer(
+            FileChannel channel, long position, long length, WritableByteChannel out)
+            throws IOException {
+        long transferred = 0;
+        while (transferred < length) {
+            transferred += channel.transferTo(position + transferred, length - transferred, out);
+        }
+    }
+
+    /** Records the bounds of the features while they are encoded */
+    static class BoundsRecorder extends DecoratingSimpleFeatureCollection {
+
+        final DataOutputStream out;
+
+        final Envelope extent;
+
+        long count;
+
+        IOException exception;
+
+        BoundsRecorder(SimpleFeatureCollection delegate, DataOutputStream out, Envelope extent) {
+            super(delegate);
+            this.out = out;
+            this.extent = extent;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            return new DecoratingSimpleFeatureIterator(delegate.features()) {
+                @Override
+                public SimpleFeature next() {
+                    SimpleFeature feature = super.next();
+                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                    Envelope envelope =
+                            geometry == null ? new Envelope() : geometry.getEnvelopeInternal();
+                    extent.expandToInclude(envelope);
+                    try {
+                        if (envelope.isNull()) {
+                            // an inverted box, never matched by searches
+                            out.writeDouble(Double.POSITIVE_INFINITY);
+                            out.writeDouble(Double.POSITIVE_INFINITY);
+                            out.writeDouble(Double.NEGATIVE_INFINITY);
+                            out.writeDouble(Double.NEGATIVE_INFINITY);
+                        } else {
+                            out.writeDouble(envelope.getMinX());
+                            out.writeDouble(envelope.getMinY());
+                            out.writeDouble(envelope.getMaxX());
+                            out.writeDouble(envelope.getMaxY());
+                        }
+                    } catch (IOException e) {
+                        exception = e;
+                    }
+                    count++;
+                    return feature;
+                }
+            };
+        }
+    }
+
+    /** Writes little endian node items */
+    static class NodeWriter implements Closeable {
+
+        final OutputStream out;
+
+        final ByteBuffer buffer =
+                ByteBuffer.allocate(NODE_ITEM_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        NodeWriter(File file) throws IOException {
+            this.out = new BufferedOutputStream(new FileOutputStream(file));
+        }
+
+        void write(double minX, double minY, double maxX, double maxY, long offset)
+                throws IOException {
+            buffer.clear();
+            buffer.putDouble(minX).putDouble(minY).putDouble(maxX).putDouble(maxY).putLong(offset);
+            out.write(buffer.array());
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /** Reads the bounds of little endian node items */
+    static class NodeReader implements Closeable {
+
+        final InputStream in;
+
+        final ByteBuffer buffer =
+                ByteBuffer.allocate(NODE_ITEM_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        NodeReader(File file) throws IOException {
+            this.in = new BufferedInputStream(new FileInputStream(file));
+        }
+
+        boolean read(double[] bounds) throws IOException {
+            byte[] bytes = buffer.array();
+            int read = 0;
+            while (read < bytes.length) {
+                int r = in.read(bytes, read, bytes.length - read);
+                if (r < 0) {
+                    if (read == 0) {
+                        return false;
+                    }
+                    throw new EOFException("Truncated R-tree level file");
+                }
+                read += r;
+            }
+            for (int i = 0; i < 4; i++) {
+                bounds[i] = buffer.getDouble(i * 8);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
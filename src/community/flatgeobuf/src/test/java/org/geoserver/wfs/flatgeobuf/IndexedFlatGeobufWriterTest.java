@@ -0,0 +1,252 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.flatgeobuf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import net.opengis.wfs.GetFeatureType;
+import net.opengis.wfs.WfsFactory;
+import org.geoserver.platform.Operation;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.wololo.flatgeobuf.HeaderMeta;
+import org.wololo.flatgeobuf.PackedRTree;
+import org.wololo.flatgeobuf.geotools.FeatureCollectionConversions;
+
+/** Unit test suite for {@link IndexedFlatGeobufWriter} */
+public class IndexedFlatGeobufWriterTest {
+
+    static final GeometryFactory GF = new GeometryFactory();
+
+    SimpleFeatureType type;
+
+    @Before
+    public void setUp() throws Exception {
+        type = DataUtilities.createType("points", "geom:Point:srid=4326,name:String");
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty(FlatGeobufOutputFormat.SORT_BUFFER_SIZE_KEY);
+        System.clearProperty(FlatGeobufOutputFormat.INDEX_KEY);
+    }
+
+    @Test
+    public void testReadBack() throws Exception {
+        ByteBuffer bb = write(grid(10, false), 1000);
+
+        HeaderMeta header = HeaderMeta.read(bb.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        assertEquals(100, header.featuresCount);
+        assertEquals(IndexedFlatGeobufWriter.DEFAULT_NODE_SIZE, header.indexNodeSize);
+
+        List<SimpleFeature> features = read(bb);
+        assertEquals(100, features.size());
+        Set<String> names = new HashSet<>();
+        for (SimpleFeature feature : features) {
+            names.add((String) feature.getAttribute("name"));
+        }
+        assertEquals(100, names.size());
+
+        // the points at 3 and 4 on both axes
+        assertEquals(
+                names("p33", "p34", "p43", "p44"),
+                search(bb, features, new Envelope(2.5, 4.5, 2.5, 4.5)));
+        assertEquals(names(), search(bb, features, new Envelope(20, 30, 20, 30)));
+        assertEquals(100, search(bb, features, new Envelope(-1, 10, -1, 10)).size());
+    }
+
+    @Test
+    public void testSpillAndMerge() throws Exception {
+        SimpleFeatureCollection features = grid(10, false);
+        byte[] expected = bytes(write(features, 1000));
+
+        // a tiny sort buffer, the items get sorted in many runs merged back together
+        System.setProperty(FlatGeobufOutputFormat.SORT_BUFFER_SIZE_KEY, "7");
+        assertEquals(7, FlatGeobufOutputFormat.getSortBufferSize());
+        ByteBuffer bb = write(features, FlatGeobufOutputFormat.getSortBufferSize());
+        assertArrayEquals(expected, bytes(bb));
+
+        List<SimpleFeature> read = read(bb);
+        assertEquals(100, read.size());
+        assertEquals(
+                names("p33", "p34", "p43", "p44"),
+                search(bb, read, new Envelope(2.5, 4.5, 2.5, 4.5)));
+    }
+
+    @Test
+    public void testInvalidSortBufferSize() throws Exception {
+        System.setProperty(FlatGeobufOutputFormat.SORT_BUFFER_SIZE_KEY, "-1");
+        assertEquals(
+                FlatGeobufOutputFormat.DEFAULT_SORT_BUFFER_SIZE,
+                FlatGeobufOutputFormat.getSortBufferSize());
+        System.setProperty(FlatGeobufOutputFormat.SORT_BUFFER_SIZE_KEY, "abc");
+        assertEquals(
+                FlatGeobufOutputFormat.DEFAULT_SORT_BUFFER_SIZE,
+                FlatGeobufOutputFormat.getSortBufferSize());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        ByteBuffer bb = write(new DefaultFeatureCollection(null, type), 1000);
+
+        HeaderMeta header = HeaderMeta.read(bb.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        assertEquals(0, header.featuresCount);
+        assertEquals(0, header.indexNodeSize);
+        assertTrue(read(bb).isEmpty());
+    }
+
+    @Test
+    public void testNullGeometries() throws Exception {
+        ByteBuffer bb = write(grid(3, true), 2);
+
+        List<SimpleFeature> features = read(bb);
+        assertEquals(9, features.size());
+        int nulls = 0;
+        for (SimpleFeature feature : features) {
+            if (feature.getDefaultGeometry() == null) {
+                nulls++;
+            }
+        }
+        assertEquals(4, nulls);
+        // the features without a geometry are never found
+        assertEquals(
+                names("p00", "p02", "p11", "p20", "p22"),
+                search(bb, features, new Envelope(-1, 3, -1, 3)));
+    }
+
+    @Test
+    public void testIsIndexed() throws Exception {
+        FlatGeobufOutputFormat format = new FlatGeobufOutputFormat(null);
+        GetFeatureType request = WfsFactory.eINSTANCE.createGetFeatureType();
+        Operation operation = new Operation("GetFeature", null, null, new Object[] {request});
+
+        assertFalse(format.isIndexed(operation));
+        assertFalse(format.isIndexed(null));
+        System.setProperty(FlatGeobufOutputFormat.INDEX_KEY, "true");
+        assertTrue(format.isIndexed(operation));
+        assertTrue(format.isIndexed(null));
+
+        // the format option wins over the default
+        request.getFormatOptions().put(FlatGeobufOutputFormat.INDEX_OPTION, "false");
+        assertFalse(format.isIndexed(operation));
+        System.clearProperty(FlatGeobufOutputFormat.INDEX_KEY);
+        request.getFormatOptions().put(FlatGeobufOutputFormat.INDEX_OPTION, "true");
+        assertTrue(format.isIndexed(operation));
+    }
+
+    /** A grid of points named after their position, optionally leaving out every other one */
+    private SimpleFeatureCollection grid(int size, boolean withNulls) {
+        DefaultFeatureCollection features = new DefaultFeatureCollection(null, type);
+        for (int i = 0; i < size * size; i++) {
+            int x = i / size;
+            int y = i % size;
+            Object geometry =
+                    withNulls && i % 2 == 1 ? null : GF.createPoint(new Coordinate(x, y));
+            features.add(
+                    SimpleFeatureBuilder.build(
+                            type, new Object[] {geometry, "p" + x + y}, "points." + i));
+        }
+        return features;
+    }
+
+    private ByteBuffer write(SimpleFeatureCollection features, int sortBufferSize)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<File> files;
+        try (IndexedFlatGeobufWriter writer =
+                new IndexedFlatGeobufWriter(
+                        IndexedFlatGeobufWriter.DEFAULT_NODE_SIZE, sortBufferSize)) {
+            writer.write(features, out);
+            files = new ArrayList<>(writer.files);
+        }
+        // the temporary files are not left around
+        for (File file : files) {
+            assertFalse(file.exists());
+        }
+        return ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private byte[] bytes(ByteBuffer bb) {
+        byte[] bytes = new byte[bb.remaining()];
+        bb.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /** Reads the features with the FlatGeobuf reader, in file order */
+    private List<SimpleFeature> read(ByteBuffer bb) throws Exception {
+        ByteBuffer input = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        SimpleFeatureCollection collection = FeatureCollectionConversions.deserialize(input);
+        List<SimpleFeature> features = new ArrayList<>();
+        try (SimpleFeatureIterator it = collection.features()) {
+            while (it.hasNext()) {
+                features.add(it.next());
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Searches the packed R-tree with the FlatGeobuf reader, returning the names of the features
+     * found, matched to the features in file order by their offset
+     */
+    private Set<String> search(ByteBuffer bb, List<SimpleFeature> features, Envelope rect) {
+        HeaderMeta header = HeaderMeta.read(bb.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        int count = (int) header.featuresCount;
+        int nodeSize = header.indexNodeSize;
+        int treeStart = 12 + bb.getInt(8);
+        long[] levelStarts = IndexedFlatGeobufWriter.getLevelStarts(count, nodeSize);
+        long treeSize = (levelStarts[0] + count) * IndexedFlatGeobufWriter.NODE_ITEM_BYTES;
+        int featuresStart = (int) (treeStart + treeSize);
+
+        // offset of each feature, relative to the first one, each is prefixed by its size
+        List<Long> offsets = new ArrayList<>();
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            offsets.add(offset);
+            offset += 4 + bb.getInt((int) (featuresStart + offset));
+        }
+        assertEquals(bb.limit(), featuresStart + offset);
+
+        Set<String> names = new HashSet<>();
+        for (PackedRTree.SearchResult result :
+                PackedRTree.search(bb.duplicate(), treeStart, count, nodeSize, rect)) {
+            int index = offsets.indexOf(result.offset);
+            assertTrue("No feature at offset " + result.offset, index >= 0);
+            String name = (String) features.get(index).getAttribute("name");
+            assertTrue("Found " + name + " twice", names.add(name));
+        }
+        return names;
+    }
+
+    private Set<String> names(String... names) {
+        Set<String> result = new HashSet<>();
+        for (String name : names) {
+            result.add(name);
+        }
+        return result;
+    }
+}
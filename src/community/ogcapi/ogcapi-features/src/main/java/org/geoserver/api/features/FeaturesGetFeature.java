@@ -114,6 +114,9 @@ class FeaturesGetFeature extends org.geoserver.wfs.GetFeature {
         if (count > 0 && offset > -1 && maxFeatures <= count) {
             kvp.put("startIndex", String.valueOf(offset > 0 ? offset + count : count));
             kvp.put("limit", String.valueOf(maxFeatures));
+            if (getNextCursor() != null) {
+                kvp.put(CURSOR_PARAM, getNextCursor());
+            }
             result.setNext(buildURL(itemsPath, kvp));
         }
     }
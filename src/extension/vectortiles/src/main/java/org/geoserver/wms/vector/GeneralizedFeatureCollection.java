@@ -0,0 +1,231 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.util.factory.Hints;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.identity.FeatureId;
+
+/**
+ * Wraps the results of a query, returning the default geometries generalized for a zoom band of
+ * the {@link GeneralizedGeometryCache}. The query is run without the default geometry, which is
+ * read from the cache, and only the geometries missing from it are fetched from the source, by
+ * feature id, in batches, with the same hints as the original query (e.g., the SQL view
+ * parameters).
+ */
+class GeneralizedFeatureCollection extends DecoratingSimpleFeatureCollection {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    /** Number of features whose geometries are looked up together */
+    static final int BATCH_SIZE = 256;
+
+    private final SimpleFeatureSource source;
+
+    private final SimpleFeatureType schema;
+
+    private final String geometryName;
+
+    private final GeneralizedGeometryCache cache;
+
+    private final Hints hints;
+
+    private final String layer;
+
+    private final int band;
+
+    private GeneralizedFeatureCollection(
+            SimpleFeatureSource source,
+            Query query,
+            SimpleFeatureType schema,
+            GeneralizedGeometryCache cache,
+            int band)
+            throws IOException {
+        super(source.getFeatures(query));
+        this.source = source;
+        this.schema = schema;
+        this.geometryName = schema.getGeometryDescriptor().getLocalName();
+        this.cache = cache;
+        this.hints = query.getHints();
+        @SuppressWarnings("unchecked")
+        Map<String, String> viewParams =
+                (Map<String, String>) hints.get(Hints.VIRTUAL_TABLE_PARAMETERS);
+        this.layer =
+                GeneralizedGeometryCache.getLayerKey(
+                        source.getSchema().getName().getNamespaceURI(),
+                        source.getSchema().getName().getLocalPart(),
+                        viewParams);
+        this.band = band;
+    }
+
+    /**
+     * Runs the query against the source, reading the default geometries from the cache band.
+     * Returns the plain query results if the query does not include the default geometry.
+     */
+    static SimpleFeatureCollection create(
+            SimpleFeatureSource source, Query query, GeneralizedGeometryCache cache, int band)
+            throws IOException {
+        SimpleFeatureType sourceSchema = source.getSchema();
+        String[] names = query.getPropertyNames();
+        if (names == null) {
+            names =
+                    sourceSchema
+                            .getAttributeDescriptors()
+                            .stream()
+                            .map(AttributeDescriptor::getLocalName)
+                            .toArray(String[]::new);
+        }
+        SimpleFeatureType schema = SimpleFeatureTypeBuilder.retype(sourceSchema, names);
+        String geometryName = sourceSchema.getGeometryDescriptor().getLocalName();
+        if (schema.getGeometryDescriptor() == null
+                || !geometryName.equals(schema.getGeometryDescriptor().getLocalName())) {
+            return source.getFeatures(query);
+        }
+
+        List<String> attributes = new ArrayList<>();
+        for (String name : names) {
+            if (!geometryName.equals(name)) {
+                attributes.add(name);
+            }
+        }
+        Query attributesQuery = new Query(query);
+        attributesQuery.setPropertyNames(attributes);
+        return new GeneralizedFeatureCollection(source, attributesQuery, schema, cache, band);
+    }
+
+    @Override
+    public SimpleFeatureType getSchema() {
+        return schema;
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        return new GeneralizedFeatureIterator(delegate.features());
+    }
+
+    /** Fetches the full resolution geometries of the given features */
+    private Map<String, Geometry> fetchGeometries(Set<String> fids) throws IOException {
+        Set<FeatureId> ids = new HashSet<>();
+        for (String fid : fids) {
+            ids.add(FF.featureId(fid));
+        }
+        Query query =
+                new Query(
+                        source.getSchema().getTypeName(), FF.id(ids), new String[] {geometryName});
+        query.setHints(new Hints(hints));
+        Map<String, Geometry> geometries = new HashMap<>();
+        try (SimpleFeatureIterator it = source.getFeatures(query).features()) {
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                geometries.put(feature.getID(), (Geometry) feature.getDefaultGeometry());
+            }
+        }
+        return geometries;
+    }
+
+    class GeneralizedFeatureIterator implements SimpleFeatureIterator {
+
+        private final SimpleFeatureIterator delegate;
+
+        private final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+
+        private Iterator<SimpleFeature> batch = Collections.emptyIterator();
+
+        GeneralizedFeatureIterator(SimpleFeatureIterator delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!batch.hasNext() && delegate.hasNext()) {
+                try {
+                    batch = nextBatch().iterator();
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to read the feature geometries", e);
+                }
+            }
+            return batch.hasNext();
+        }
+
+        @Override
+        public SimpleFeature next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.next();
+        }
+
+        /** Reads the next batch of features, adding their geometries, in the original order */
+        private List<SimpleFeature> nextBatch() throws IOException {
+            List<SimpleFeature> features = new ArrayList<>(BATCH_SIZE);
+            Map<String, Geometry> geometries = new HashMap<>();
+            Set<String> misses = new HashSet<>();
+            while (features.size() < BATCH_SIZE && delegate.hasNext()) {
+                SimpleFeature feature = delegate.next();
+                features.add(feature);
+                Geometry geometry = cache.get(layer, band, feature.getID());
+                if (geometry != null) {
+                    geometries.put(feature.getID(), geometry);
+                } else {
+                    misses.add(feature.getID());
+                }
+            }
+            if (!misses.isEmpty()) {
+                long generation = cache.getGeneration();
+                for (Map.Entry<String, Geometry> entry : fetchGeometries(misses).entrySet()) {
+                    Geometry geometry = entry.getValue();
+                    if (geometry != null) {
+                        geometry = cache.put(layer, band, entry.getKey(), geometry, generation);
+                    }
+                    geometries.put(entry.getKey(), geometry);
+                }
+            }
+
+            List<SimpleFeature> result = new ArrayList<>(features.size());
+            for (SimpleFeature feature : features) {
+                Geometry geometry = geometries.get(feature.getID());
+                if (geometry == null) {
+                    // no geometry, or deleted in the meantime, cannot be part of the tile anyways
+                    continue;
+                }
+                for (AttributeDescriptor ad : schema.getAttributeDescriptors()) {
+                    String name = ad.getLocalName();
+                    builder.set(
+                            name,
+                            geometryName.equals(name) ? geometry : feature.getAttribute(name));
+                }
+                result.add(builder.buildFeature(feature.getID()));
+            }
+            return result;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
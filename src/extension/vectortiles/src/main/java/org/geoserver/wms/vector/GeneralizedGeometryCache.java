@@ -0,0 +1,603 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.namespace.QName;
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Resources;
+import org.geoserver.wfs.TransactionCallback;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+import org.geoserver.wfs.xml.StreamingInserts;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.geotools.referencing.operation.transform.ProjectiveTransform;
+import org.geotools.renderer.lite.RendererUtilities;
+import org.geotools.util.logging.Logging;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Lineal;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.geometry.Envelope;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Stores generalized copies of the feature geometries on local disk, so that vector tiles at small
+ * scales can be built without fetching and simplifying the full resolution geometries each time.
+ *
+ * <p>Geometries are kept by layer, zoom band and feature id. A zoom band {@code k} holds the
+ * geometries simplified with a tolerance of {@code 2^k} units of the native CRS, which is never
+ * coarser than the tolerance used by the tile {@link Pipeline} at the scales mapped to the band.
+ * Bands are filled on first access, and each one is an append only file of WKB records, indexed in
+ * memory.
+ *
+ * <p>The geometries of SQL views are kept apart for each set of view parameters, as they can
+ * return different geometries under the same feature ids.
+ *
+ * <p>Changes made by WFS transactions remove the touched features from the cache, and changes to
+ * the layer, resource or store configuration remove the whole layer. Geometries read while a
+ * removal happened are not cached, as they might be stale already. Changes made directly on the
+ * stores are not tracked, the cache is emptied at startup and when it grows above the maximum
+ * size.
+ *
+ * <p>Only the vector tile output formats use the cache, WMS image rendering does not: the renderer
+ * gets generalized geometries only from stores supporting the {@code GEOMETRY_DISTANCE} query hint,
+ * see the pregeneralized features extension for that.
+ *
+ * <p>The cache is disabled by default, and can be configured with the following system variables:
+ *
+ * <ul>
+ *   <li>{@value #ENABLED_KEY}: enables the cache
+ *   <li>{@value #MAX_SIZE_KEY}: max size of the cache on disk, in megabytes (defaults to {@value
+ *       #DEFAULT_MAX_SIZE})
+ * </ul>
+ */
+public class GeneralizedGeometryCache
+        implements TransactionCallback,
+                StreamingInserts.Compatible,
+                CatalogListener,
+                DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(GeneralizedGeometryCache.class);
+
+    public static final String ENABLED_KEY = "VECTOR_TILES_GEOMETRY_CACHE";
+
+    public static final String MAX_SIZE_KEY = "VECTOR_TILES_GEOMETRY_CACHE_SIZE";
+
+    static final long DEFAULT_MAX_SIZE = 512;
+
+    /** Geometries are cached only if the CRS domain is rendered in less pixels than this */
+    static final double MAX_DOMAIN_PIXELS = 1 << 16;
+
+    /** The pipeline screen simplification distance, in pixels, before over sampling */
+    static final double PIXEL_BASE_SAMPLE_SIZE = 0.25;
+
+    /** The pixel size is sampled on a grid of this many intervals on each axis */
+    static final int PIXEL_SAMPLES = 4;
+
+    static final String TRANSACTION_FIDS_PLACEHOLDER = "VECTOR_TILES_GEOMETRY_CACHE_FIDS";
+
+    /** Separates the layer name from the view parameters in the cache keys */
+    static final String VIEW_PARAMS_SEPARATOR = "?";
+
+    private final File directory;
+
+    private final Map<String, Map<Integer, Band>> layers = new ConcurrentHashMap<>();
+
+    private final AtomicLong size = new AtomicLong();
+
+    private final AtomicInteger bandCounter = new AtomicInteger();
+
+    /**
+     * Incremented at each removal, geometries read while a removal happened are not cached, as
+     * they might be stale already
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public GeneralizedGeometryCache(GeoServerResourceLoader resourceLoader, Catalog catalog) {
+        this(Resources.directory(resourceLoader.get("temp/vector-tiles-geometries"), true));
+        catalog.addListener(this);
+    }
+
+    GeneralizedGeometryCache(File directory) {
+        this.directory = directory;
+        // the index is not persisted, leftovers from a previous run cannot be used
+        try {
+            FileUtils.cleanDirectory(directory);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not clean the geometry cache directory", e);
+        }
+    }
+
+    /** Returns true if the cache is enabled */
+    public boolean isEnabled() {
+        return GeoServerExtensions.getBooleanProperty(ENABLED_KEY);
+    }
+
+    /**
+     * Returns the zoom band for the map, or null if the geometries should not be cached: points,
+     * which cannot be generalized, or scales too large for the cache to pay off.
+     *
+     * @param overSamplingFactor the pipeline over sampling factor
+     */
+    public Integer getBand(
+            GeometryDescriptor descriptor,
+            ReferencedEnvelope renderingArea,
+            Rectangle paintArea,
+            double overSamplingFactor) {
+        Class<?> binding = descriptor.getType().getBinding();
+        if (!Lineal.class.isAssignableFrom(binding)
+                && !Polygonal.class.isAssignableFrom(binding)) {
+            return null;
+        }
+        CoordinateReferenceSystem crs = descriptor.getCoordinateReferenceSystem();
+        Envelope domain = crs == null ? null : CRS.getEnvelope(crs);
+        if (domain == null) {
+            return null;
+        }
+        try {
+            // the native size of a pixel can vary a lot across the map when reprojecting (e.g.,
+            // latitudes in Mercator), use the smallest one
+            MathTransform nativeToScreen =
+                    ConcatenatedTransform.create(
+                            CRS.findMathTransform(
+                                    crs, renderingArea.getCoordinateReferenceSystem(), true),
+                            ProjectiveTransform.create(
+                                    RendererUtilities.worldToScreenTransform(
+                                            renderingArea, paintArea)));
+            double pixelSize = getMinPixelSize(nativeToScreen.inverse(), paintArea);
+            double domainSize = Math.max(domain.getSpan(0), domain.getSpan(1));
+            if (!(pixelSize > 0)
+                    || !Double.isFinite(pixelSize)
+                    || domainSize / pixelSize > MAX_DOMAIN_PIXELS) {
+                return null;
+            }
+            // same as the pipeline screen simplification distance, the smallest one it uses
+            return getBand(pixelSize * PIXEL_BASE_SAMPLE_SIZE / overSamplingFactor);
+        } catch (TransformException | FactoryException e) {
+            LOGGER.log(Level.FINE, "Could not compute the map pixel size, skipping cache", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the smallest native span of a pixel, on either axis, sampling the pixels on a grid
+     * covering the whole paint area, corners and edges included, as the smallest pixels are often
+     * found there (e.g., the ones closer to the poles)
+     */
+    static double getMinPixelSize(MathTransform screenToNative, Rectangle paintArea)
+            throws TransformException {
+        double min = Double.POSITIVE_INFINITY;
+        double[] transformed = new double[4];
+        for (int i = 0; i <= PIXEL_SAMPLES; i++) {
+            for (int j = 0; j <= PIXEL_SAMPLES; j++) {
+                double x = paintArea.getMinX() + paintArea.getWidth() * i / PIXEL_SAMPLES;
+                double y = paintArea.getMinY() + paintArea.getHeight() * j / PIXEL_SAMPLES;
+                double[] pixel = {x - 0.5, y - 0.5, x + 0.5, y + 0.5};
+                screenToNative.transform(pixel, 0, transformed, 0, 2);
+                double dx = Math.abs(transformed[2] - transformed[0]);
+                double dy = Math.abs(transformed[3] - transformed[1]);
+                if (Double.isFinite(dx) && Double.isFinite(dy)) {
+                    min = Math.min(min, Math.min(dx, dy));
+                }
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Returns the zoom band for the given generalization distance, in native CRS units, the band
+     * tolerance being the largest power of two not above the distance
+     */
+    static int getBand(double distance) {
+        return (int) Math.floor(Math.log(distance) / Math.log(2));
+    }
+
+    /** Returns the tolerance geometries are simplified with in the band */
+    static double getTolerance(int band) {
+        return Math.pow(2, band);
+    }
+
+    /** Returns the cached geometry, or null if not found */
+    public Geometry get(String layer, int band, String fid) {
+        Map<Integer, Band> bands = layers.get(layer);
+        Band b = bands == null ? null : bands.get(band);
+        Geometry geometry = null;
+        if (b != null) {
+            try {
+                geometry = b.get(fid);
+            } catch (IOException | ParseException e) {
+                LOGGER.log(Level.FINE, "Could not read cached geometry " + fid, e);
+            }
+        }
+        if (geometry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return geometry;
+    }
+
+    /**
+     * Returns the current generation, to be read before reading the geometries passed to {@link
+     * #put}
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Simplifies the full resolution geometry for the band and returns it. The geometry is cached
+     * only if nothing was removed from the cache since {@code startGeneration}.
+     *
+     * @param startGeneration the generation at the time the geometry was read
+     */
+    public Geometry put(
+            String layer, int band, String fid, Geometry geometry, long startGeneration) {
+        Geometry generalized = generalize(geometry, getTolerance(band));
+        if (generation.get() != startGeneration) {
+            return generalized;
+        }
+        byte[] wkb = new WKBWriter(getDimension(generalized)).write(generalized);
+        if (size.get() + wkb.length > getMaxSize()) {
+            LOGGER.fine("Geometry cache full, clearing it");
+            clear();
+        }
+        Band b =
+                layers.computeIfAbsent(layer, k -> new ConcurrentHashMap<>())
+                        .computeIfAbsent(band, k -> new Band());
+        try {
+            b.put(fid, wkb);
+            size.addAndGet(wkb.length);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not cache geometry " + fid, e);
+        }
+        return generalized;
+    }
+
+    private static Geometry generalize(Geometry geometry, double tolerance) {
+        switch (geometry.getDimension()) {
+            case 2:
+                return TopologyPreservingSimplifier.simplify(geometry, tolerance);
+            case 1:
+                return DouglasPeuckerSimplifier.simplify(geometry, tolerance);
+            default:
+                return geometry;
+        }
+    }
+
+    private static int getDimension(Geometry geometry) {
+        double z = geometry.getCoordinate() != null ? geometry.getCoordinate().getZ() : Double.NaN;
+        return Double.isNaN(z) ? 2 : 3;
+    }
+
+    /** Removes the features from all the bands of the layer, for all view parameters */
+    public void remove(String layer, Set<String> fids) {
+        generation.incrementAndGet();
+        for (String key : getLayerKeys(layer)) {
+            Map<Integer, Band> bands = layers.get(key);
+            if (bands != null) {
+                for (Band b : bands.values()) {
+                    b.index.keySet().removeAll(fids);
+                }
+            }
+        }
+    }
+
+    /** Removes all the cached geometries of the layer, for all view parameters */
+    public void remove(String layer) {
+        generation.incrementAndGet();
+        for (String key : getLayerKeys(layer)) {
+            Map<Integer, Band> bands = layers.remove(key);
+            if (bands != null) {
+                bands.values().forEach(b -> size.addAndGet(-b.dispose()));
+            }
+        }
+    }
+
+    /** Removes all the cached geometries */
+    public void clear() {
+        generation.incrementAndGet();
+        for (String layer : new ArrayList<>(layers.keySet())) {
+            remove(layer);
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private static long getMaxSize() {
+        return GeoServerExtensions.getLongProperty(MAX_SIZE_KEY, DEFAULT_MAX_SIZE) * 1024 * 1024;
+    }
+
+    static String getLayerKey(String namespaceURI, String localName) {
+        return new QName(namespaceURI, localName).toString();
+    }
+
+    /**
+     * Returns the key the geometries of the layer are cached under, each set of SQL view parameters
+     * getting its own, as it can select different geometries under the same feature ids
+     */
+    static String getLayerKey(
+            String namespaceURI, String localName, Map<String, String> viewParams) {
+        String key = getLayerKey(namespaceURI, localName);
+        if (viewParams == null || viewParams.isEmpty()) {
+            return key;
+        }
+        return key + VIEW_PARAMS_SEPARATOR + new TreeMap<>(viewParams);
+    }
+
+    /** Returns the keys of the layer, with and without view parameters, found in the cache */
+    private List<String> getLayerKeys(String layer) {
+        List<String> keys = new ArrayList<>();
+        for (String key : layers.keySet()) {
+            if (key.equals(layer) || key.startsWith(layer + VIEW_PARAMS_SEPARATOR)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public void destroy() {
+        clear();
+    }
+
+    // catalog events
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // a layer published under the name of a removed one
+        evict(event);
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    /** Removes the layer under the name it has before the change */
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    /** Removes the layer under the name it has after the change */
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    private void evict(CatalogEvent event) {
+        CatalogInfo source = event.getSource();
+        if (source instanceof ResourceInfo) {
+            remove((ResourceInfo) source);
+        } else if (source instanceof LayerInfo) {
+            remove(((LayerInfo) source).getResource());
+        } else if (source instanceof StoreInfo
+                || source instanceof NamespaceInfo
+                || source instanceof WorkspaceInfo) {
+            // can point the layers at other data, or change their names
+            clear();
+        }
+    }
+
+    private void remove(ResourceInfo resource) {
+        NamespaceInfo ns = resource == null ? null : resource.getNamespace();
+        if (ns != null && resource.getName() != null) {
+            remove(getLayerKey(ns.getURI(), resource.getName()));
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public TransactionRequest beforeTransaction(TransactionRequest request) throws WFSException {
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionRequest request) throws WFSException {
+        // nothing to do
+    }
+
+    /**
+     * Removes the updated and deleted features from the cache, again, in case they got cached
+     * back while the transaction was running
+     */
+    @Override
+    public void afterTransaction(
+            TransactionRequest request, TransactionResponse result, boolean committed) {
+        Map<String, Set<String>> fids = getTransactionFids(request, false);
+        if (fids != null) {
+            fids.forEach(this::remove);
+        }
+    }
+
+    /** Removes the features about to be updated or deleted from the cache */
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        TransactionEventType type = event.getType();
+        if (type != TransactionEventType.PRE_UPDATE && type != TransactionEventType.PRE_DELETE) {
+            return;
+        }
+        QName name = event.getLayerName();
+        String layer = getLayerKey(name.getNamespaceURI(), name.getLocalPart());
+        if (getLayerKeys(layer).isEmpty()) {
+            return;
+        }
+        try {
+            Set<String> fids = new HashSet<>();
+            try (SimpleFeatureIterator it = event.getAffectedFeatures().features()) {
+                while (it.hasNext()) {
+                    fids.add(it.next().getID());
+                }
+            }
+            remove(layer, fids);
+            if (event.getRequest() != null) {
+                TransactionRequest request = TransactionRequest.adapt(event.getRequest());
+                getTransactionFids(request, true)
+                        .computeIfAbsent(layer, k -> new HashSet<>())
+                        .addAll(fids);
+            }
+        } catch (RuntimeException e) {
+            // the modified features might be served stale, but do not make the transaction fail
+            LOGGER.log(Level.WARNING, "Could not remove the modified features, clearing", e);
+            remove(layer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Set<String>> getTransactionFids(
+            TransactionRequest request, boolean create) {
+        Map<Object, Object> properties = request.getExtendedProperties();
+        if (properties == null) {
+            return create ? new HashMap<>() : null;
+        }
+        Map<String, Set<String>> fids =
+                (Map<String, Set<String>>) properties.get(TRANSACTION_FIDS_PLACEHOLDER);
+        if (fids == null && create) {
+            fids = new HashMap<>();
+            properties.put(TRANSACTION_FIDS_PLACEHOLDER, fids);
+        }
+        return fids;
+    }
+
+    /** A zoom band of a layer, an append only file of WKB records */
+    private class Band {
+
+        final File file;
+
+        final Map<String, long[]> index = new ConcurrentHashMap<>();
+
+        FileChannel channel;
+
+        long position;
+
+        boolean disposed;
+
+        Band() {
+            this.file = new File(directory, bandCounter.incrementAndGet() + ".wkb");
+        }
+
+        Geometry get(String fid) throws IOException, ParseException {
+            long[] entry = index.get(fid);
+            if (entry == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) entry[1]);
+            FileChannel ch = getChannel();
+            long offset = entry[0];
+            while (buffer.hasRemaining()) {
+                int read = ch.read(buffer, offset + buffer.position());
+                if (read < 0) {
+                    return null;
+                }
+            }
+            return new WKBReader().read(buffer.array());
+        }
+
+        synchronized void put(String fid, byte[] wkb) throws IOException {
+            FileChannel ch = getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(wkb);
+            long offset = position;
+            while (buffer.hasRemaining()) {
+                position += ch.write(buffer, position);
+            }
+            index.put(fid, new long[] {offset, wkb.length});
+        }
+
+        synchronized FileChannel getChannel() throws IOException {
+            if (disposed) {
+                throw new ClosedChannelException();
+            }
+            if (channel == null) {
+                channel =
+                        FileChannel.open(
+                                file.toPath(),
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.READ,
+                                StandardOpenOption.WRITE);
+            }
+            return channel;
+        }
+
+        /** Closes and deletes the band file, returns its size */
+        synchronized long dispose() {
+            disposed = true;
+            index.clear();
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not close " + file, e);
+            }
+            file.delete();
+            return position;
+        }
+    }
+}
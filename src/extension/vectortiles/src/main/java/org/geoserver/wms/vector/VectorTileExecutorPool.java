@@ -0,0 +1,73 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geoserver.platform.GeoServerExtensions;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Pool shared by the {@link VectorTileMapOutputFormat} instances to build tiles in parallel. The
+ * pool size is set by the {@value VectorTileMapOutputFormat#VECTOR_TILES_THREADS} variable, with
+ * no pool (the default) tiles are built on the request thread.
+ */
+public class VectorTileExecutorPool implements DisposableBean {
+
+    private final ExecutorService executor;
+
+    private final int threads;
+
+    public VectorTileExecutorPool() {
+        this(
+                GeoServerExtensions.getIntegerProperty(
+                        VectorTileMapOutputFormat.VECTOR_TILES_THREADS, 1));
+    }
+
+    VectorTileExecutorPool(int threads) {
+        this.threads = threads;
+        if (threads > 1) {
+            this.executor =
+                    Executors.newFixedThreadPool(
+                            threads,
+                            new ThreadFactory() {
+                                final AtomicInteger count = new AtomicInteger();
+
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    String name = "VectorTiles-" + count.incrementAndGet();
+                                    Thread t = new Thread(r, name);
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /** Returns true if tiles can be built in parallel */
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    /** The number of threads in the pool */
+    int getThreads() {
+        return threads;
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -9,19 +9,35 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static org.geotools.renderer.lite.VectorMapRenderUtils.getStyleQuery;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
 import java.awt.Rectangle;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.AbstractMapOutputFormat;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -45,6 +61,24 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
     /** A logger for this class. */
     private static final Logger LOGGER = Logging.getLogger(VectorTileMapOutputFormat.class);
 
+    /**
+     * System variable setting the number of threads used to build tiles, read once on startup by
+     * the {@link VectorTileExecutorPool}. When above one the layers are read in parallel, and their
+     * features are processed in batches on a shared pool of this size. By default layers and
+     * features are processed one after the other.
+     */
+    public static final String VECTOR_TILES_THREADS = "VECTOR_TILES_THREADS";
+
+    /** Response header reporting the time spent in each stage of a parallel tile build */
+    static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    /** Number of features processed by a single task in parallel mode */
+    static final int BATCH_SIZE = 256;
+
+    /** Marks the end of the batches of a layer in parallel mode */
+    private static final FutureTask<List<TileFeature>> END_OF_BATCHES =
+            new FutureTask<>(() -> null);
+
     private final VectorTileBuilderFactory tileBuilderFactory;
 
     private boolean clipToMapBounds;
@@ -54,6 +88,10 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
 
     private boolean transformToScreenCoordinates;
 
+    private GeneralizedGeometryCache geometryCache;
+
+    private VectorTileExecutorPool executorPool;
+
     public VectorTileMapOutputFormat(VectorTileBuilderFactory tileBuilderFactory) {
         super(tileBuilderFactory.getMimeType(), tileBuilderFactory.getOutputFormats());
         this.tileBuilderFactory = tileBuilderFactory;
@@ -74,6 +112,16 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
         this.transformToScreenCoordinates = useScreenCoords;
     }
 
+    /** Sets the cache of generalized geometries, used at small scales when enabled */
+    public void setGeometryCache(GeneralizedGeometryCache geometryCache) {
+        this.geometryCache = geometryCache;
+    }
+
+    /** Sets the pool used to build tiles in parallel, when enabled */
+    public void setExecutorPool(VectorTileExecutorPool executorPool) {
+        this.executorPool = executorPool;
+    }
+
     @Override
     public WebMap produceMap(final WMSMapContent mapContent) throws ServiceException, IOException {
         checkNotNull(mapContent);
@@ -95,7 +143,7 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
         VectorTileBuilder vectorTileBuilder;
         vectorTileBuilder = this.tileBuilderFactory.newBuilder(paintArea, renderingArea);
 
-        CoordinateReferenceSystem sourceCrs;
+        List<LayerFeatures> layerFeatures = new ArrayList<>();
         for (Layer layer : mapContent.layers()) {
 
             FeatureSource<?, ?> featureSource = layer.getFeatureSource();
@@ -105,7 +153,8 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
                 continue;
             }
 
-            sourceCrs = geometryDescriptor.getType().getCoordinateReferenceSystem();
+            CoordinateReferenceSystem sourceCrs =
+                    geometryDescriptor.getType().getCoordinateReferenceSystem();
             int buffer =
                     VectorMapRenderUtils.getComputedBuffer(
                             mapContent.getBuffer(),
@@ -114,21 +163,192 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
                                     paintArea,
                                     VectorMapRenderUtils.getMapScale(mapContent, renderingArea),
                                     (FeatureType) featureSource.getSchema()));
-            Pipeline pipeline =
-                    getPipeline(mapContent, renderingArea, paintArea, sourceCrs, buffer);
 
             Query query = getStyleQuery(layer, mapContent);
             query.getHints().remove(Hints.SCREENMAP);
 
-            FeatureCollection<?, ?> features = featureSource.getFeatures(query);
+            FeatureCollection<?, ?> features =
+                    getFeatures(
+                            featureSource, query, geometryDescriptor, renderingArea, paintArea);
 
-            run(features, pipeline, geometryDescriptor, vectorTileBuilder, layer);
+            layerFeatures.add(
+                    new LayerFeatures(layer, features, geometryDescriptor, sourceCrs, buffer));
+        }
+
+        if (executorPool != null && executorPool.isEnabled()) {
+            return produceMapParallel(
+                    mapContent, renderingArea, paintArea, layerFeatures, vectorTileBuilder);
+        }
+
+        for (LayerFeatures lf : layerFeatures) {
+            Pipeline pipeline =
+                    getPipeline(mapContent, renderingArea, paintArea, lf.sourceCrs, lf.buffer);
+            run(lf.features, pipeline, lf.geometryDescriptor, vectorTileBuilder, lf.layer);
         }
 
         WebMap map = vectorTileBuilder.build(mapContent);
         return map;
     }
 
+    /**
+     * Runs the query, reading the generalized geometries from the cache when enabled and suitable
+     * for the layer and scale
+     */
+    private FeatureCollection<?, ?> getFeatures(
+            FeatureSource<?, ?> featureSource,
+            Query query,
+            GeometryDescriptor geometryDescriptor,
+            ReferencedEnvelope renderingArea,
+            Rectangle paintArea)
+            throws IOException {
+        if (geometryCache != null
+                && geometryCache.isEnabled()
+                && featureSource instanceof SimpleFeatureSource) {
+            Integer band =
+                    geometryCache.getBand(
+                            geometryDescriptor, renderingArea, paintArea, overSamplingFactor);
+            if (band != null) {
+                return GeneralizedFeatureCollection.create(
+                        (SimpleFeatureSource) featureSource, query, geometryCache, band);
+            }
+        }
+        return featureSource.getFeatures(query);
+    }
+
+    /**
+     * Reads the layers in parallel, and processes their features in batches on the shared pool.
+     * Each batch gets its own pipeline, since the pipeline screen map is not thread safe. The tile
+     * builder is fed on the calling thread while the layers are still being read, in the same
+     * order as the sequential mode: each layer reader hands its batches over through a bounded
+     * queue, so that only a few batches per layer are in flight.
+     *
+     * <p>The calling thread processes the batches the pool did not get to yet, and reads the layers
+     * no pool thread picked up, so it never waits on a pool busy with readers blocked on full
+     * queues.
+     */
+    private WebMap produceMapParallel(
+            final WMSMapContent mapContent,
+            final ReferencedEnvelope renderingArea,
+            final Rectangle paintArea,
+            List<LayerFeatures> layerFeatures,
+            VectorTileBuilder vectorTileBuilder)
+            throws IOException {
+        final ExecutorService executor = executorPool.getExecutor();
+        final int maxQueuedBatches = 2 * executorPool.getThreads();
+        final ThreadLocalsTransfer threadLocals = new ThreadLocalsTransfer();
+        final AtomicLong queryTime = new AtomicLong();
+        final AtomicLong processTime = new AtomicLong();
+        final AtomicLong encodeTime = new AtomicLong();
+
+        List<LayerReader> readers = new ArrayList<>();
+        try {
+            for (LayerFeatures lf : layerFeatures) {
+                Supplier<Pipeline> pipelines =
+                        () ->
+                                getPipeline(
+                                        mapContent,
+                                        renderingArea,
+                                        paintArea,
+                                        lf.sourceCrs,
+                                        lf.buffer);
+                LayerReader reader =
+                        new LayerReader(
+                                lf,
+                                pipelines,
+                                executor,
+                                maxQueuedBatches,
+                                threadLocals,
+                                queryTime,
+                                processTime);
+                readers.add(reader);
+                reader.future = executor.submit(reader);
+            }
+
+            for (LayerReader reader : readers) {
+                if (reader.start()) {
+                    // still waiting for a pool thread, read it here instead
+                    try {
+                        reader.read(
+                                batch ->
+                                        encodeTime.addAndGet(
+                                                addFeatures(complete(batch), vectorTileBuilder)));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ServiceException("Interrupted while building the vector tile", e);
+                    }
+                    continue;
+                }
+                while (true) {
+                    FutureTask<List<TileFeature>> batch = take(reader.batches);
+                    if (batch == END_OF_BATCHES) {
+                        reader.checkFailure();
+                        break;
+                    }
+                    encodeTime.addAndGet(addFeatures(complete(batch), vectorTileBuilder));
+                }
+            }
+        } finally {
+            // no-op if completed, otherwise stops most of the work left behind by a failure
+            readers.forEach(LayerReader::cancel);
+        }
+
+        long start = System.nanoTime();
+        WebMap map = vectorTileBuilder.build(mapContent);
+        encodeTime.addAndGet(System.nanoTime() - start);
+
+        if (map != null) {
+            // cumulative times, across all threads
+            String timings =
+                    String.format(
+                            Locale.ENGLISH,
+                            "query;dur=%.1f, process;dur=%.1f, encode;dur=%.1f",
+                            queryTime.get() / 1e6,
+                            processTime.get() / 1e6,
+                            encodeTime.get() / 1e6);
+            map.setResponseHeader(SERVER_TIMING_HEADER, timings);
+            LOGGER.fine(() -> "Built vector tile, " + timings);
+        }
+        return map;
+    }
+
+    /** Adds the features to the tile, returns the time it took in nanoseconds */
+    private static long addFeatures(List<TileFeature> features, VectorTileBuilder builder) {
+        long start = System.nanoTime();
+        for (TileFeature feature : features) {
+            feature.addTo(builder);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Processes the batch, unless already done or in progress on the pool, and returns it */
+    private static List<TileFeature> complete(FutureTask<List<TileFeature>> batch)
+            throws IOException {
+        batch.run();
+        try {
+            return batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while building the vector tile", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            Throwables.throwIfUnchecked(cause);
+            throw new ServiceException(cause);
+        }
+    }
+
+    private static FutureTask<List<TileFeature>> take(
+            BlockingQueue<FutureTask<List<TileFeature>>> batches) {
+        try {
+            return batches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while building the vector tile", e);
+        }
+    }
+
     protected Pipeline getPipeline(
             final WMSMapContent mapContent,
             final ReferencedEnvelope renderingArea,
@@ -189,28 +409,11 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
             while (it.hasNext()) {
                 feature = it.next();
                 total++;
-                Geometry originalGeom;
-                Geometry finalGeom;
-
-                originalGeom = (Geometry) feature.getDefaultGeometryProperty().getValue();
-                try {
-                    finalGeom = pipeline.execute(originalGeom);
-                } catch (Exception processingException) {
-                    processingException.printStackTrace();
-                    continue;
-                }
-                if (finalGeom.isEmpty()) {
+                TileFeature tileFeature = process(feature, pipeline, geometryDescriptor);
+                if (tileFeature == null) {
                     continue;
                 }
-
-                final String layerName = feature.getName().getLocalPart();
-                final String featureId = feature.getIdentifier().toString();
-                final String geometryName = geometryDescriptor.getName().getLocalPart();
-
-                final Map<String, Object> properties = getProperties(feature);
-
-                vectorTileBuilder.addFeature(
-                        layerName, featureId, geometryName, finalGeom, properties);
+                tileFeature.addTo(vectorTileBuilder);
                 count++;
             }
         }
@@ -225,9 +428,237 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
         }
     }
 
+    /**
+     * Runs the feature geometry through the pipeline and collects its properties, returns null if
+     * the feature is not part of the tile
+     */
+    private TileFeature process(
+            Feature feature, Pipeline pipeline, GeometryDescriptor geometryDescriptor) {
+        Geometry originalGeom;
+        Geometry finalGeom;
+
+        originalGeom = (Geometry) feature.getDefaultGeometryProperty().getValue();
+        try {
+            finalGeom = pipeline.execute(originalGeom);
+        } catch (Exception processingException) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "Could not process " + feature.getIdentifier() + ", skipping it",
+                    processingException);
+            return null;
+        }
+        if (finalGeom.isEmpty()) {
+            return null;
+        }
+
+        final String layerName = feature.getName().getLocalPart();
+        final String featureId = feature.getIdentifier().toString();
+        final String geometryName = geometryDescriptor.getName().getLocalPart();
+
+        final Map<String, Object> properties = getProperties(feature);
+
+        return new TileFeature(layerName, featureId, geometryName, finalGeom, properties);
+    }
+
     /** @return {@code null}, not a raster format. */
     @Override
     public MapProducerCapabilities getCapabilities(String format) {
         return null;
     }
+
+    /** The features of a map layer, along with what is needed to process them */
+    private static class LayerFeatures {
+        final Layer layer;
+        final FeatureCollection<?, ?> features;
+        final GeometryDescriptor geometryDescriptor;
+        final CoordinateReferenceSystem sourceCrs;
+        final int buffer;
+
+        LayerFeatures(
+                Layer layer,
+                FeatureCollection<?, ?> features,
+                GeometryDescriptor geometryDescriptor,
+                CoordinateReferenceSystem sourceCrs,
+                int buffer) {
+            this.layer = layer;
+            this.features = features;
+            this.geometryDescriptor = geometryDescriptor;
+            this.sourceCrs = sourceCrs;
+            this.buffer = buffer;
+        }
+    }
+
+    /** Receives the batches of a layer, in order, as they are submitted for processing */
+    private interface BatchSink {
+        void accept(FutureTask<List<TileFeature>> batch) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Reads the features of a layer on a pool thread, submitting them in batches for processing,
+     * and handing the batches over to the thread building the tile through a bounded queue
+     */
+    private class LayerReader implements Runnable {
+
+        final LayerFeatures lf;
+
+        final Supplier<Pipeline> pipelines;
+
+        final ExecutorService executor;
+
+        final ThreadLocalsTransfer threadLocals;
+
+        final AtomicLong queryTime;
+
+        final AtomicLong processTime;
+
+        /** The submitted batches, followed by {@link #END_OF_BATCHES} once the layer is read */
+        final BlockingQueue<FutureTask<List<TileFeature>>> batches;
+
+        final AtomicBoolean started = new AtomicBoolean();
+
+        volatile boolean cancelled;
+
+        volatile Throwable failure;
+
+        Future<?> future;
+
+        LayerReader(
+                LayerFeatures lf,
+                Supplier<Pipeline> pipelines,
+                ExecutorService executor,
+                int maxQueuedBatches,
+                ThreadLocalsTransfer threadLocals,
+                AtomicLong queryTime,
+                AtomicLong processTime) {
+            this.lf = lf;
+            this.pipelines = pipelines;
+            this.executor = executor;
+            this.threadLocals = threadLocals;
+            this.queryTime = queryTime;
+            this.processTime = processTime;
+            // one more slot for the end marker
+            this.batches = new ArrayBlockingQueue<>(maxQueuedBatches + 1);
+        }
+
+        /** Returns true if the reader was not started yet, and has to be run by the caller */
+        boolean start() {
+            return started.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            if (!start()) {
+                return;
+            }
+            threadLocals.apply();
+            boolean interrupted = false;
+            try {
+                read(batches::put);
+            } catch (InterruptedException e) {
+                // cancelled, nobody is waiting for the batches anymore
+                interrupted = true;
+            } catch (IOException | RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                threadLocals.cleanup();
+                if (!interrupted && !cancelled) {
+                    try {
+                        batches.put(END_OF_BATCHES);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        /** Reads the layer features, handing over the batches as they are submitted */
+        void read(BatchSink sink) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            try (FeatureIterator<?> it = lf.features.features()) {
+                List<Feature> batch = new ArrayList<>(BATCH_SIZE);
+                while (!cancelled && it.hasNext()) {
+                    batch.add(it.next());
+                    if (batch.size() == BATCH_SIZE || !it.hasNext()) {
+                        queryTime.addAndGet(System.nanoTime() - start);
+                        FutureTask<List<TileFeature>> task = new FutureTask<>(processor(batch));
+                        executor.execute(task);
+                        sink.accept(task);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                        start = System.nanoTime();
+                    }
+                }
+            }
+            queryTime.addAndGet(System.nanoTime() - start);
+        }
+
+        /** Processes the batch with its own pipeline */
+        private Callable<List<TileFeature>> processor(List<Feature> batch) {
+            return () -> {
+                long start = System.nanoTime();
+                Pipeline pipeline = pipelines.get();
+                List<TileFeature> result = new ArrayList<>(batch.size());
+                for (Feature feature : batch) {
+                    TileFeature tf = process(feature, pipeline, lf.geometryDescriptor);
+                    if (tf != null) {
+                        result.add(tf);
+                    }
+                }
+                processTime.addAndGet(System.nanoTime() - start);
+                return result;
+            };
+        }
+
+        /** Throws back the failure that stopped the reader, if any */
+        void checkFailure() throws IOException {
+            Throwable t = failure;
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            if (t != null) {
+                Throwables.throwIfUnchecked(t);
+                throw new ServiceException(t);
+            }
+        }
+
+        /** Stops the reader and the batches it submitted, no-op if completed */
+        void cancel() {
+            cancelled = true;
+            started.set(true);
+            if (future != null) {
+                future.cancel(true);
+            }
+            // unblocks the reader, in case the interruption got lost
+            for (FutureTask<List<TileFeature>> batch = batches.poll();
+                    batch != null;
+                    batch = batches.poll()) {
+                batch.cancel(true);
+            }
+        }
+    }
+
+    /** A processed feature, ready to be added to the tile */
+    private static class TileFeature {
+        final String layerName;
+        final String featureId;
+        final String geometryName;
+        final Geometry geometry;
+        final Map<String, Object> properties;
+
+        TileFeature(
+                String layerName,
+                String featureId,
+                String geometryName,
+                Geometry geometry,
+                Map<String, Object> properties) {
+            this.layerName = layerName;
+            this.featureId = featureId;
+            this.geometryName = geometryName;
+            this.geometry = geometry;
+            this.properties = properties;
+        }
+
+        void addTo(VectorTileBuilder builder) {
+            builder.addFeature(layerName, featureId, geometryName, geometry, properties);
+        }
+    }
 }
@@ -0,0 +1,245 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import net.opengis.wfs.TransactionType;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/** Unit test suite for {@link GeneralizedGeometryCache} */
+public class GeneralizedGeometryCacheTest {
+
+    static final String LAYER = GeneralizedGeometryCache.getLayerKey("http://test", "lines");
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private GeneralizedGeometryCache cache;
+
+    private SimpleFeatureType type;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new GeneralizedGeometryCache(folder.getRoot());
+        type = DataUtilities.createType("http://test", "lines", "geom:LineString:srid=4326");
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        Geometry line = new WKTReader().read("LINESTRING(0 0, 5 0.1, 10 0, 15 0.1, 20 0)");
+        Geometry generalized = cache.put(LAYER, 0, "lines.1", line, cache.getGeneration());
+        // the vertices closer than the band tolerance are gone
+        assertEquals(2, generalized.getNumPoints());
+        assertEquals(generalized, cache.get(LAYER, 0, "lines.1"));
+        // a finer band does not remove them
+        Geometry finer = cache.put(LAYER, -4, "lines.1", line, cache.getGeneration());
+        assertEquals(5, finer.getNumPoints());
+        assertEquals(5, cache.get(LAYER, -4, "lines.1").getNumPoints());
+
+        assertNull(cache.get(LAYER, 1, "lines.1"));
+        assertNull(cache.get(LAYER, 0, "lines.2"));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testBand() throws Exception {
+        assertEquals(0, GeneralizedGeometryCache.getBand(1));
+        assertEquals(0, GeneralizedGeometryCache.getBand(1.5));
+        assertEquals(-2, GeneralizedGeometryCache.getBand(0.3));
+
+        // the whole world in a 256 pixels tile, about 1.4 by 0.7 degrees per pixel
+        ReferencedEnvelope world =
+                new ReferencedEnvelope(-180, 180, -90, 90, DefaultGeographicCRS.WGS84);
+        Integer band =
+                cache.getBand(type.getGeometryDescriptor(), world, new Rectangle(256, 256), 2.0);
+        assertNotNull(band);
+        assertTrue(GeneralizedGeometryCache.getTolerance(band) <= 180d / 256 * 0.25 / 2);
+        // too large a scale
+        ReferencedEnvelope small =
+                new ReferencedEnvelope(0, 0.001, 0, 0.001, DefaultGeographicCRS.WGS84);
+        assertNull(cache.getBand(type.getGeometryDescriptor(), small, new Rectangle(256, 256), 2));
+        // points are not cached
+        SimpleFeatureType points = DataUtilities.createType("points", "geom:Point:srid=4326");
+        assertNull(
+                cache.getBand(points.getGeometryDescriptor(), world, new Rectangle(256, 256), 2));
+    }
+
+    @Test
+    public void testBandReprojected() throws Exception {
+        // the whole world in Mercator, a pixel spans about 0.66 degrees of latitude on average,
+        // but only about 0.12 near the poles
+        ReferencedEnvelope world =
+                new ReferencedEnvelope(
+                        -20037508.34,
+                        20037508.34,
+                        -20037508.34,
+                        20037508.34,
+                        CRS.decode("EPSG:3857"));
+        Integer band =
+                cache.getBand(type.getGeometryDescriptor(), world, new Rectangle(256, 256), 2.0);
+        assertNotNull(band);
+        assertTrue(GeneralizedGeometryCache.getTolerance(band) <= 0.12 * 0.25 / 2);
+    }
+
+    @Test
+    public void testViewParams() throws Exception {
+        Map<String, String> viewParams = new LinkedHashMap<>();
+        viewParams.put("low", "10");
+        viewParams.put("high", "20");
+        Map<String, String> reordered = new LinkedHashMap<>();
+        reordered.put("high", "20");
+        reordered.put("low", "10");
+        String layer = GeneralizedGeometryCache.getLayerKey("http://test", "lines", viewParams);
+        assertEquals(
+                layer, GeneralizedGeometryCache.getLayerKey("http://test", "lines", reordered));
+        assertNotEquals(LAYER, layer);
+        assertEquals(LAYER, GeneralizedGeometryCache.getLayerKey("http://test", "lines", null));
+
+        // the same feature id, different geometries
+        Geometry line = new WKTReader().read("LINESTRING(0 0, 10 10)");
+        Geometry other = new WKTReader().read("LINESTRING(0 0, 20 20)");
+        cache.put(LAYER, 0, "lines.1", line, cache.getGeneration());
+        cache.put(layer, 0, "lines.1", other, cache.getGeneration());
+        assertEquals(line, cache.get(LAYER, 0, "lines.1"));
+        assertEquals(other, cache.get(layer, 0, "lines.1"));
+
+        // changes to the layer affect all view parameters
+        cache.remove(LAYER, Collections.singleton("lines.1"));
+        assertNull(cache.get(LAYER, 0, "lines.1"));
+        assertNull(cache.get(layer, 0, "lines.1"));
+    }
+
+    @Test
+    public void testTransaction() throws Exception {
+        Geometry line = new WKTReader().read("LINESTRING(0 0, 10 10)");
+        cache.put(LAYER, 0, "lines.1", line, cache.getGeneration());
+        cache.put(LAYER, 1, "lines.1", line, cache.getGeneration());
+        cache.put(LAYER, 0, "lines.2", line, cache.getGeneration());
+
+        Map<Object, Object> extendedProperties = new HashMap<>();
+        TransactionType transaction = mock(TransactionType.class);
+        when(transaction.getExtendedProperties()).thenReturn(extendedProperties);
+        TransactionEvent event = mock(TransactionEvent.class);
+        when(event.getRequest()).thenReturn(transaction);
+        when(event.getType()).thenReturn(TransactionEventType.PRE_UPDATE);
+        when(event.getLayerName()).thenReturn(new QName("http://test", "lines"));
+        when(event.getAffectedFeatures())
+                .thenReturn(
+                        DataUtilities.collection(
+                                SimpleFeatureBuilder.build(type, new Object[] {line}, "lines.1")));
+        cache.dataStoreChange(event);
+
+        assertNull(cache.get(LAYER, 0, "lines.1"));
+        assertNull(cache.get(LAYER, 1, "lines.1"));
+        assertNotNull(cache.get(LAYER, 0, "lines.2"));
+
+        // read before the change, not cached
+        long generation = cache.getGeneration();
+        cache.remove(LAYER, Collections.singleton("lines.3"));
+        cache.put(LAYER, 0, "lines.1", line, generation);
+        assertNull(cache.get(LAYER, 0, "lines.1"));
+
+        // cached back while the transaction was running, removed again at the end
+        cache.put(LAYER, 0, "lines.1", line, cache.getGeneration());
+        cache.afterTransaction(TransactionRequest.adapt(transaction), null, true);
+        assertNull(cache.get(LAYER, 0, "lines.1"));
+        assertNotNull(cache.get(LAYER, 0, "lines.2"));
+    }
+
+    @Test
+    public void testCatalogChanges() throws Exception {
+        Geometry line = new WKTReader().read("LINESTRING(0 0, 10 10)");
+        String other = GeneralizedGeometryCache.getLayerKey("http://test", "other");
+        NamespaceInfo ns = mock(NamespaceInfo.class);
+        when(ns.getURI()).thenReturn("http://test");
+        FeatureTypeInfo featureType = mock(FeatureTypeInfo.class);
+        when(featureType.getNamespace()).thenReturn(ns);
+        when(featureType.getName()).thenReturn("lines");
+        LayerInfo layer = mock(LayerInfo.class);
+        when(layer.getResource()).thenReturn(featureType);
+
+        // resource and layer changes remove the layer, for all view parameters
+        String viewParams =
+                GeneralizedGeometryCache.getLayerKey(
+                        "http://test", "lines", Collections.singletonMap("a", "1"));
+        cache.put(LAYER, 0, "lines.1", line, cache.getGeneration());
+        cache.put(viewParams, 0, "lines.1", line, cache.getGeneration());
+        cache.put(other, 0, "other.1", line, cache.getGeneration());
+        CatalogPostModifyEvent modified = mock(CatalogPostModifyEvent.class);
+        when(modified.getSource()).thenReturn(featureType);
+        cache.handlePostModifyEvent(modified);
+        assertNull(cache.get(LAYER, 0, "lines.1"));
+        assertNull(cache.get(viewParams, 0, "lines.1"));
+        assertNotNull(cache.get(other, 0, "other.1"));
+
+        cache.put(LAYER, 0, "lines.1", line, cache.getGeneration());
+        CatalogRemoveEvent removed = mock(CatalogRemoveEvent.class);
+        when(removed.getSource()).thenReturn(layer);
+        cache.handleRemoveEvent(removed);
+        assertNull(cache.get(LAYER, 0, "lines.1"));
+        assertNotNull(cache.get(other, 0, "other.1"));
+
+        // store changes can point any layer elsewhere
+        cache.put(LAYER, 0, "lines.1", line, cache.getGeneration());
+        CatalogModifyEvent store = mock(CatalogModifyEvent.class);
+        when(store.getSource()).thenReturn(mock(DataStoreInfo.class));
+        cache.handleModifyEvent(store);
+        assertNull(cache.get(LAYER, 0, "lines.1"));
+        assertNull(cache.get(other, 0, "other.1"));
+
+        cache.put(LAYER, 0, "lines.1", line, cache.getGeneration());
+        cache.reloaded();
+        assertNull(cache.get(LAYER, 0, "lines.1"));
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        System.setProperty(GeneralizedGeometryCache.MAX_SIZE_KEY, "0");
+        try {
+            Geometry line = new WKTReader().read("LINESTRING(0 0, 10 10)");
+            cache.put(LAYER, 0, "lines.1", line, cache.getGeneration());
+            cache.put(LAYER, 0, "lines.2", line, cache.getGeneration());
+            // the cache got cleared to make room
+            assertNull(cache.get(LAYER, 0, "lines.1"));
+            assertNotNull(cache.get(LAYER, 0, "lines.2"));
+        } finally {
+            System.clearProperty(GeneralizedGeometryCache.MAX_SIZE_KEY);
+        }
+    }
+}
@@ -7,6 +7,8 @@ package org.geoserver.wms.vector;
 import static org.geotools.renderer.lite.VectorMapRenderUtils.getStyleQuery;
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.matches;
 import static org.mockito.Mockito.*;
 
 import com.google.common.collect.ImmutableSet;
@@ -44,10 +46,13 @@ import org.geotools.styling.StyledLayerDescriptor;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.io.ParseException;
+import org.mockito.ArgumentCaptor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.GeometryDescriptor;
@@ -74,6 +79,8 @@ public class VectorTileMapOutputFormatTest {
     private FeatureLayer pointLayer, lineLayer, polygonLayer, scaleDependentPolygonLayer;
     private List<MapContent> mapContents = new ArrayList<>();
 
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
     @BeforeClass
     public static void beforeClass() throws Exception {
         defaultPointStyle = parseStyle("default_point.sld");
@@ -406,6 +413,92 @@ public class VectorTileMapOutputFormatTest {
                         any(Map.class));
     }
 
+    @Test
+    public void testParallel() throws Exception {
+        ReferencedEnvelope mapBounds = new ReferencedEnvelope(-90, 90, 0, 180, WGS84);
+        Rectangle renderingArea = new Rectangle(256, 256);
+
+        // sequential run first, as a reference
+        WMSMapContent mapContent =
+                createMapContent(
+                        mapBounds, renderingArea, 32, pointLayer, lineLayer, polygonLayer);
+        WebMap mockMap = mock(WebMap.class);
+        when(tileBuilderMock.build(same(mapContent))).thenReturn(mockMap);
+        assertSame(mockMap, outputFormat.produceMap(mapContent));
+        List<String> expected = getAddedFeatureIds();
+        verify(mockMap, never()).setResponseHeader(anyString(), anyString());
+        clearInvocations(tileBuilderMock);
+
+        // more layers than threads, the request thread may have to read some of them
+        VectorTileExecutorPool pool = new VectorTileExecutorPool(2);
+        outputFormat.setExecutorPool(pool);
+        try {
+            mapContent =
+                    createMapContent(
+                            mapBounds, renderingArea, 32, pointLayer, lineLayer, polygonLayer);
+            mockMap = mock(WebMap.class);
+            when(tileBuilderMock.build(same(mapContent))).thenReturn(mockMap);
+            assertSame(mockMap, outputFormat.produceMap(mapContent));
+        } finally {
+            pool.destroy();
+        }
+
+        // same features, same order
+        assertEquals(expected, getAddedFeatureIds());
+        verify(mockMap)
+                .setResponseHeader(
+                        eq(VectorTileMapOutputFormat.SERVER_TIMING_HEADER),
+                        matches("query;dur=.*, process;dur=.*, encode;dur=.*"));
+    }
+
+    @Test
+    public void testGeometryCache() throws Exception {
+        ReferencedEnvelope mapBounds = new ReferencedEnvelope(-90, 90, 0, 180, WGS84);
+        Rectangle renderingArea = new Rectangle(256, 256);
+
+        // run without the cache first, as a reference
+        WMSMapContent mapContent =
+                createMapContent(mapBounds, renderingArea, 32, lineLayer, polygonLayer);
+        outputFormat.produceMap(mapContent);
+        List<String> expected = getAddedFeatureIds();
+        clearInvocations(tileBuilderMock);
+
+        GeneralizedGeometryCache cache = new GeneralizedGeometryCache(folder.getRoot());
+        outputFormat.setGeometryCache(cache);
+        System.setProperty(GeneralizedGeometryCache.ENABLED_KEY, "true");
+        try {
+            mapContent = createMapContent(mapBounds, renderingArea, 32, lineLayer, polygonLayer);
+            outputFormat.produceMap(mapContent);
+            assertEquals(expected, getAddedFeatureIds());
+            assertEquals(0, cache.getHits());
+            long misses = cache.getMisses();
+            assertTrue(misses >= expected.size());
+            clearInvocations(tileBuilderMock);
+
+            // second time around the geometries come from the cache
+            mapContent = createMapContent(mapBounds, renderingArea, 32, lineLayer, polygonLayer);
+            outputFormat.produceMap(mapContent);
+            assertEquals(expected, getAddedFeatureIds());
+            assertEquals(misses, cache.getHits());
+            assertEquals(misses, cache.getMisses());
+        } finally {
+            System.clearProperty(GeneralizedGeometryCache.ENABLED_KEY);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> getAddedFeatureIds() {
+        ArgumentCaptor<String> ids = ArgumentCaptor.forClass(String.class);
+        verify(tileBuilderMock, atLeastOnce())
+                .addFeature(
+                        anyString(),
+                        ids.capture(),
+                        anyString(),
+                        any(Geometry.class),
+                        any(Map.class));
+        return ids.getAllValues();
+    }
+
     private WMSMapContent createMapContent(
             ReferencedEnvelope mapBounds, Rectangle renderingArea, Integer buffer, Layer... layers)
             throws Exception {
@@ -0,0 +1,255 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.util.BitSet;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.storage.TileRangeMask;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * A {@link TileRangeMask} marking the tiles touched by a geometry, expanded by a rendering buffer,
+ * used to truncate only the tiles actually affected by a data change.
+ *
+ * <p>The touched tiles are computed upfront in a bit set for each zoom level, by recursively
+ * splitting the tile range covered by the geometry envelope. At the zoom levels where the range
+ * would be too large to be held in memory the geometry is checked lazily, tile by tile.
+ *
+ * <p>Since tiles are rendered and cached a meta tile at a time, a touched tile marks its whole meta
+ * tile, otherwise the untouched tiles of the meta tile would be left stale, and be rendered again
+ * along with the touched ones anyways.
+ */
+class DirtyTileMask implements TileRangeMask {
+
+    /** Max number of tiles held in the bit set of a single zoom level */
+    static final long MAX_LEVEL_TILES = 1 << 22;
+
+    private static final GeometryFactory GF = new GeometryFactory();
+
+    private final GridSubset gridSubset;
+
+    private final PreparedGeometry geometry;
+
+    private final int buffer;
+
+    private final int metaX;
+
+    private final int metaY;
+
+    /** The ranges of tiles to be checked, as [minx, miny, maxx, maxy, z] */
+    private final long[][] coverages;
+
+    /** The touched tiles, by position in {@link #coverages}, or null if checked lazily */
+    private final BitSet[] tiles;
+
+    private DirtyTileMask(
+            GridSubset gridSubset,
+            Geometry geometry,
+            int buffer,
+            int[] metaTilingFactors,
+            int zoomStart,
+            int zoomStop) {
+        this.gridSubset = gridSubset;
+        this.geometry = PreparedGeometryFactory.prepare(geometry);
+        this.buffer = buffer;
+        this.metaX = Math.max(1, metaTilingFactors[0]);
+        this.metaY = Math.max(1, metaTilingFactors[1]);
+        this.coverages = new long[zoomStop - zoomStart + 1][];
+        this.tiles = new BitSet[coverages.length];
+    }
+
+    /**
+     * Builds the mask of the tiles touched by the geometry, expressed in the grid set CRS, between
+     * the given zoom levels
+     *
+     * @param buffer the rendering buffer, in pixels
+     */
+    static DirtyTileMask build(
+            GridSubset gridSubset, Geometry geometry, int buffer, int zoomStart, int zoomStop) {
+        return build(gridSubset, geometry, buffer, new int[] {1, 1}, zoomStart, zoomStop);
+    }
+
+    /**
+     * Builds the mask of the meta tiles touched by the geometry, expressed in the grid set CRS,
+     * between the given zoom levels
+     *
+     * @param buffer the rendering buffer, in pixels
+     * @param metaTilingFactors the meta tile width and height, in tiles
+     */
+    static DirtyTileMask build(
+            GridSubset gridSubset,
+            Geometry geometry,
+            int buffer,
+            int[] metaTilingFactors,
+            int zoomStart,
+            int zoomStop) {
+        DirtyTileMask mask =
+                new DirtyTileMask(
+                        gridSubset, geometry, buffer, metaTilingFactors, zoomStart, zoomStop);
+        Envelope envelope = geometry.getEnvelopeInternal();
+        for (int z = zoomStart; z <= zoomStop; z++) {
+            int i = z - zoomStart;
+            double distance = mask.getBufferDistance(z);
+            BoundingBox bounds =
+                    new BoundingBox(
+                            envelope.getMinX() - distance,
+                            envelope.getMinY() - distance,
+                            envelope.getMaxX() + distance,
+                            envelope.getMaxY() + distance);
+            long[] coverage = gridSubset.getCoverageIntersection(z, bounds);
+            mask.coverages[i] = new long[] {coverage[0], coverage[1], coverage[2], coverage[3], z};
+            long width = coverage[2] - coverage[0] + 1;
+            long height = coverage[3] - coverage[1] + 1;
+            if (width <= 0 || height <= 0) {
+                // the geometry is outside of the grid subset
+                mask.tiles[i] = new BitSet();
+                continue;
+            }
+            // grow the range to whole meta tiles
+            long[] gridCoverage = gridSubset.getCoverage(z);
+            long[] first = mask.getMetaTile(coverage[0], coverage[1], gridCoverage);
+            long[] last = mask.getMetaTile(coverage[2], coverage[3], gridCoverage);
+            mask.coverages[i] = new long[] {first[0], first[1], last[2], last[3], z};
+            width = last[2] - first[0] + 1;
+            height = last[3] - first[1] + 1;
+            if (width * height <= MAX_LEVEL_TILES) {
+                mask.tiles[i] = new BitSet((int) (width * height));
+                mask.mark(i, first[0], first[1], last[2], last[3]);
+                mask.markMetaTiles(i);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the range of the meta tile containing the tile, as [minx, miny, maxx, maxy], clipped
+     * to the given coverage. Meta tiles are aligned on the multiples of the meta tiling factors, as
+     * when seeding.
+     */
+    private long[] getMetaTile(long x, long y, long[] coverage) {
+        long x0 = x - x % metaX;
+        long y0 = y - y % metaY;
+        return new long[] {
+            Math.max(x0, coverage[0]),
+            Math.max(y0, coverage[1]),
+            Math.min(x0 + metaX - 1, coverage[2]),
+            Math.min(y0 + metaY - 1, coverage[3])
+        };
+    }
+
+    /** Marks all the tiles of the meta tiles having at least a touched tile */
+    private void markMetaTiles(int i) {
+        if (metaX == 1 && metaY == 1) {
+            return;
+        }
+        long[] coverage = coverages[i];
+        long width = coverage[2] - coverage[0] + 1;
+        BitSet touched = tiles[i];
+        BitSet expanded = new BitSet(touched.size());
+        for (int b = touched.nextSetBit(0); b >= 0; b = touched.nextSetBit(b + 1)) {
+            if (expanded.get(b)) {
+                continue;
+            }
+            long x = coverage[0] + b % width;
+            long y = coverage[1] + b / width;
+            long[] metaTile = getMetaTile(x, y, coverage);
+            for (long row = metaTile[1]; row <= metaTile[3]; row++) {
+                int start = (int) ((row - coverage[1]) * width + (metaTile[0] - coverage[0]));
+                expanded.set(start, start + (int) (metaTile[2] - metaTile[0]) + 1);
+            }
+        }
+        tiles[i] = expanded;
+    }
+
+    /** Size of the buffer at the given zoom level, in grid set units */
+    private double getBufferDistance(int z) {
+        return gridSubset.getGridSet().getGrid(z).getResolution() * buffer;
+    }
+
+    /** Recursively splits the tile range in quadrants, to find the ones touched by the geometry */
+    private void mark(int i, long x0, long y0, long x1, long y1) {
+        int z = (int) coverages[i][4];
+        Envelope area = getBounds(x0, y0, x1, y1, z);
+        double distance = getBufferDistance(z);
+        Envelope expanded = new Envelope(area);
+        expanded.expandBy(distance);
+        if (!geometry.intersects(GF.toGeometry(expanded))) {
+            return;
+        }
+        if ((x0 == x1 && y0 == y1) || geometry.containsProperly(GF.toGeometry(area))) {
+            long[] coverage = coverages[i];
+            long width = coverage[2] - coverage[0] + 1;
+            for (long y = y0; y <= y1; y++) {
+                int start = (int) ((y - coverage[1]) * width + (x0 - coverage[0]));
+                tiles[i].set(start, start + (int) (x1 - x0) + 1);
+            }
+            return;
+        }
+        long xm = (x0 + x1) / 2;
+        long ym = (y0 + y1) / 2;
+        mark(i, x0, y0, xm, ym);
+        if (xm < x1) {
+            mark(i, xm + 1, y0, x1, ym);
+        }
+        if (ym < y1) {
+            mark(i, x0, ym + 1, xm, y1);
+            if (xm < x1) {
+                mark(i, xm + 1, ym + 1, x1, y1);
+            }
+        }
+    }
+
+    private Envelope getBounds(long x0, long y0, long x1, long y1, int z) {
+        BoundingBox lower = gridSubset.boundsFromIndex(new long[] {x0, y0, z});
+        BoundingBox upper = gridSubset.boundsFromIndex(new long[] {x1, y1, z});
+        return new Envelope(lower.getMinX(), upper.getMaxX(), lower.getMinY(), upper.getMaxY());
+    }
+
+    /** Returns true if no tile is touched by the geometry at any of the precomputed levels */
+    boolean isEmpty() {
+        for (BitSet levelTiles : tiles) {
+            if (levelTiles == null || !levelTiles.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the number of touched tiles at the zoom level, or -1 if not precomputed */
+    long getTileCount(int z) {
+        int i = z - (int) coverages[0][4];
+        return tiles[i] == null ? -1 : tiles[i].cardinality();
+    }
+
+    @Override
+    public long[][] getGridCoverages() {
+        return coverages.clone();
+    }
+
+    @Override
+    public boolean lookup(long x, long y, int z) {
+        int i = z - (int) coverages[0][4];
+        if (i < 0 || i >= coverages.length) {
+            return false;
+        }
+        long[] coverage = coverages[i];
+        if (x < coverage[0] || x > coverage[2] || y < coverage[1] || y > coverage[3]) {
+            return false;
+        }
+        if (tiles[i] != null) {
+            long width = coverage[2] - coverage[0] + 1;
+            return tiles[i].get((int) ((y - coverage[1]) * width + (x - coverage[0])));
+        }
+        long[] metaTile = getMetaTile(x, y, coverage);
+        Envelope expanded = getBounds(metaTile[0], metaTile[1], metaTile[2], metaTile[3], z);
+        expanded.expandBy(getBufferDistance(z));
+        return geometry.intersects(GF.toGeometry(expanded));
+    }
+}
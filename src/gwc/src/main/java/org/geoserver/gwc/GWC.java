@@ -70,9 +70,11 @@ import org.geoserver.gwc.layer.GeoServerTileLayer;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl;
 import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.DispatcherCallback;
 import org.geoserver.ows.HttpErrorCodeException;
 import org.geoserver.ows.Request;
 import org.geoserver.ows.Response;
+import org.geoserver.ows.util.KvpMap;
 import org.geoserver.platform.GeoServerEnvironment;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
@@ -86,6 +88,8 @@ import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geoserver.wfs.kvp.BBoxKvpParser;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WebMap;
+import org.geoserver.wms.WebMapService;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
 import org.geotools.factory.CommonFactoryFinder;
@@ -96,6 +100,7 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.ows.ServiceException;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
+import org.geotools.renderer.lite.MetaBufferEstimator;
 import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheEnvironment;
 import org.geowebcache.GeoWebCacheException;
@@ -140,6 +145,7 @@ import org.geowebcache.service.Service;
 import org.geowebcache.storage.BlobStore;
 import org.geowebcache.storage.BlobStoreAggregator;
 import org.geowebcache.storage.CompositeBlobStore;
+import org.geowebcache.storage.DiscontinuousTileRange;
 import org.geowebcache.storage.DefaultStorageFinder;
 import org.geowebcache.storage.StorageBroker;
 import org.geowebcache.storage.StorageException;
@@ -180,6 +186,12 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
 
     static final Logger log = Logging.getLogger(GWC.class);
 
+    /**
+     * Rendering buffer, in pixels, used when truncating the area touched by a geometry and the
+     * layer styles do not allow for an accurate estimate
+     */
+    static final int DEFAULT_TRUNCATION_BUFFER = 64;
+
     /** @see #getResponseEncoder(MimeType, RenderedImageMap) */
     private Map<String, Response> cachedTileEncoders = new HashMap<String, Response>();
 
@@ -424,6 +436,25 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         }
     }
 
+    /**
+     * Drops the data masks used to seed the tile layer, if any, for them to be computed again
+     * against the current layer data
+     *
+     * @see GeoServerTileLayer#invalidateOccupancyMasks()
+     */
+    public void invalidateOccupancyMasks(final String layerName) {
+        TileLayer layer;
+        try {
+            layer = tld.getTileLayer(layerName);
+        } catch (GeoWebCacheException e) {
+            log.log(Level.FINE, e.getMessage(), e);
+            return;
+        }
+        if (layer instanceof GeoServerTileLayer) {
+            ((GeoServerTileLayer) layer).invalidateOccupancyMasks();
+        }
+    }
+
     public void truncate(final String layerName, final ReferencedEnvelope bounds)
             throws GeoWebCacheException {
 
@@ -455,6 +486,129 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         }
     }
 
+    /**
+     * Truncates the tiles touched by the geometry, expanded by the layer rendering buffer, on all
+     * grid subsets, formats and cached parameters. Unlike {@link #truncate(String,
+     * ReferencedEnvelope)} only the tiles actually touched are removed, rather than all the tiles
+     * in the geometry bounds, along with the other tiles of their meta tiles.
+     *
+     * @param layerName the tile layer name
+     * @param geometry the area to truncate, e.g. the modified features
+     * @param crs the geometry CRS
+     */
+    public void truncate(
+            final String layerName, final Geometry geometry, final CoordinateReferenceSystem crs)
+            throws GeoWebCacheException {
+
+        final TileLayer tileLayer = tld.getTileLayer(layerName);
+        final int buffer = getTruncationBuffer(tileLayer);
+        final Set<Map<String, String>> cachedParameters = new HashSet<>();
+        try {
+            cachedParameters.addAll(storageBroker.getCachedParameters(layerName));
+        } catch (StorageException e) {
+            log.log(Level.WARNING, "Could not list the cached parameters of " + layerName, e);
+        }
+        // the tiles without parameters
+        cachedParameters.add(null);
+
+        for (String gridSetId : tileLayer.getGridSubsets()) {
+            GridSubset layerGrid = tileLayer.getGridSubset(gridSetId);
+            Geometry gridSetGeometry;
+            try {
+                SRS srs = layerGrid.getGridSet().getSrs();
+                CoordinateReferenceSystem gridSetCrs = CRS.decode("EPSG:" + srs.getNumber(), true);
+                gridSetGeometry =
+                        JTS.transform(geometry, CRS.findMathTransform(crs, gridSetCrs, true));
+            } catch (Exception e) {
+                // fall back on the bounds
+                log.log(
+                        Level.FINE,
+                        "Could not reproject the truncation area, truncating its bounds",
+                        e);
+                ReferencedEnvelope bounds =
+                        new ReferencedEnvelope(geometry.getEnvelopeInternal(), crs);
+                BoundingBox intersectingBounds =
+                        getIntersectingBounds(layerName, layerGrid, bounds);
+                if (intersectingBounds != null) {
+                    truncate(layerName, null, gridSetId, intersectingBounds, null);
+                }
+                continue;
+            }
+
+            Integer minCachedZoom = layerGrid.getMinCachedZoom();
+            Integer maxCachedZoom = layerGrid.getMaxCachedZoom();
+            int zoomStart = minCachedZoom != null ? minCachedZoom : layerGrid.getZoomStart();
+            int zoomStop = maxCachedZoom != null ? maxCachedZoom : layerGrid.getZoomStop();
+            DirtyTileMask mask =
+                    DirtyTileMask.build(
+                            layerGrid,
+                            gridSetGeometry,
+                            buffer,
+                            tileLayer.getMetaTilingFactors(),
+                            zoomStart,
+                            zoomStop);
+            if (mask.isEmpty()) {
+                continue;
+            }
+            // a single truncate task per format and parameters combination
+            List<GWCTask> tasks = new ArrayList<>();
+            for (Map<String, String> parameters : cachedParameters) {
+                for (MimeType mimeType : tileLayer.getMimeTypes()) {
+                    TileRange range =
+                            new DiscontinuousTileRange(
+                                    layerName,
+                                    gridSetId,
+                                    zoomStart,
+                                    zoomStop,
+                                    mask,
+                                    mimeType,
+                                    parameters);
+                    tasks.addAll(Arrays.asList(tileBreeder.createTasks(range, TRUNCATE, 1, false)));
+                }
+            }
+            tileBreeder.dispatchTasks(tasks.toArray(new GWCTask[tasks.size()]));
+        }
+    }
+
+    /** Estimates the rendering buffer of the layer styles, in pixels */
+    int getTruncationBuffer(TileLayer tileLayer) {
+        if (!(tileLayer instanceof GeoServerTileLayer)) {
+            return DEFAULT_TRUNCATION_BUFFER;
+        }
+        List<StyleInfo> styles = new ArrayList<>();
+        PublishedInfo published = ((GeoServerTileLayer) tileLayer).getPublishedInfo();
+        if (published instanceof LayerInfo) {
+            LayerInfo layer = (LayerInfo) published;
+            styles.add(layer.getDefaultStyle());
+            styles.addAll(layer.getStyles());
+        } else if (published instanceof LayerGroupInfo) {
+            LayerGroupInfo group = (LayerGroupInfo) published;
+            List<LayerInfo> layers = group.layers();
+            List<StyleInfo> groupStyles = group.styles();
+            for (int i = 0; i < layers.size(); i++) {
+                StyleInfo style = i < groupStyles.size() ? groupStyles.get(i) : null;
+                styles.add(style != null ? style : layers.get(i).getDefaultStyle());
+            }
+        }
+
+        MetaBufferEstimator estimator = new MetaBufferEstimator();
+        for (StyleInfo style : styles) {
+            if (style == null) {
+                continue;
+            }
+            try {
+                estimator.visit(style.getStyle());
+            } catch (IOException e) {
+                log.log(Level.FINE, "Could not load style " + style.prefixedName(), e);
+                return Math.max(estimator.getBuffer(), DEFAULT_TRUNCATION_BUFFER);
+            }
+        }
+        if (estimator.isEstimateAccurate()) {
+            return estimator.getBuffer();
+        }
+        return Math.max(estimator.getBuffer(), DEFAULT_TRUNCATION_BUFFER);
+    }
+
     public TruncateAllRequest truncateAll() throws GeoWebCacheException, StorageException {
         // creating a mock internal request
         TruncateAllRequest truncateAll = new TruncateAllRequest();
@@ -1380,6 +1534,109 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return new ByteArrayResource(resp.getBytes());
     }
 
+    /**
+     * Runs a GetMap request built in memory by the WMS service, without encoding it as KVP and
+     * having the OWS {@link Dispatcher} parse it back. The {@link DispatcherCallback} events the
+     * dispatcher would fire are fired as well, so that security, monitoring and control flow keep
+     * working as usual.
+     *
+     * @param getMap the GetMap request
+     * @param params the KVP equivalent of the request, exposed as the OWS request KVP
+     * @return the map, or null if one of the WMS service interceptors consumed it
+     */
+    public WebMap dispatchGetMap(
+            final GetMapRequest getMap, final Map<String, String> params, Cookie[] cookies)
+            throws Exception {
+        org.geoserver.platform.Service service = getWMSServiceDescriptor();
+        FakeHttpServletRequest req = new FakeHttpServletRequest(params, cookies);
+        getMap.setBaseUrl(org.geoserver.ows.util.ResponseUtils.baseURL(req));
+
+        Request request = new Request();
+        request.setHttpRequest(req);
+        request.setHttpResponse(new FakeHttpServletResponse());
+        request.setPath("wms");
+        request.setGet(true);
+        request.setKvp(new KvpMap(params));
+        request.setRawKvp(new KvpMap(params));
+        request.setService("WMS");
+        request.setVersion(service.getVersion().toString());
+        request.setRequest("GetMap");
+
+        List<DispatcherCallback> callbacks =
+                GeoServerExtensions.extensions(DispatcherCallback.class);
+        Request previous = Dispatcher.REQUEST.get();
+        Dispatcher.REQUEST.remove();
+        ThreadLocalsTransfer tx = new ThreadLocalsTransfer();
+        try {
+            for (DispatcherCallback cb : callbacks) {
+                Request r = cb.init(request);
+                request = r != null ? r : request;
+            }
+            Dispatcher.REQUEST.set(request);
+
+            request.setServiceDescriptor(service);
+            for (DispatcherCallback cb : callbacks) {
+                org.geoserver.platform.Service s = cb.serviceDispatched(request, service);
+                service = s != null ? s : service;
+            }
+
+            Method method = WebMapService.class.getMethod("getMap", GetMapRequest.class);
+            Operation operation = new Operation("GetMap", service, method, new Object[] {getMap});
+            for (DispatcherCallback cb : callbacks) {
+                Operation o = cb.operationDispatched(request, operation);
+                operation = o != null ? o : operation;
+            }
+            request.setOperation(operation);
+
+            Object result =
+                    ((WebMapService) service.getService())
+                            .getMap((GetMapRequest) operation.getParameters()[0]);
+            for (DispatcherCallback cb : callbacks) {
+                Object r = cb.operationExecuted(request, operation, result);
+                result = r != null ? r : result;
+            }
+            return (WebMap) result;
+        } catch (Throwable t) {
+            request.setError(t);
+            throw t;
+        } finally {
+            for (DispatcherCallback cb : callbacks) {
+                try {
+                    cb.finished(request);
+                } catch (Throwable t) {
+                    log.log(
+                            Level.WARNING,
+                            "Error firing finished callback for " + cb.getClass(),
+                            t);
+                }
+            }
+            // reset the old request
+            if (previous != null) {
+                Dispatcher.REQUEST.set(previous);
+            } else {
+                Dispatcher.REQUEST.remove();
+            }
+            // reset thread locals
+            tx.apply();
+        }
+    }
+
+    private org.geoserver.platform.Service getWMSServiceDescriptor() {
+        org.geoserver.platform.Service result = null;
+        for (org.geoserver.platform.Service service :
+                GeoServerExtensions.extensions(org.geoserver.platform.Service.class)) {
+            if ("wms".equalsIgnoreCase(service.getId())
+                    && service.getService() instanceof WebMapService
+                    && "1.1.1".equals(String.valueOf(service.getVersion()))) {
+                result = service;
+            }
+        }
+        if (result == null) {
+            throw new IllegalStateException("Could not find the WMS 1.1.1 service descriptor");
+        }
+        return result;
+    }
+
     public void proxyOwsRequest(ConveyorTile tile) throws Exception {
         HttpServletRequest actualRequest = tile.servletReq;
 
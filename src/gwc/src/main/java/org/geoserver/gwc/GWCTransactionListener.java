@@ -12,23 +12,33 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.namespace.QName;
 import net.opengis.wfs.*;
 import org.eclipse.emf.ecore.EObject;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wfs.*;
 import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.request.TransactionResponse;
+import org.geoserver.wfs.xml.StreamingInserts;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheException;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.TransformException;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * Listens to transactions (so far only issued by WFS) and truncates the cache for the affected area
@@ -37,20 +47,45 @@ import org.opengis.referencing.operation.TransformException;
  * <p>A Spring bean singleton of this class needs to be declared in order for GeoServer transactions
  * to pick it up automatically and forward transaction events to it.
  *
+ * <p>By default the merged bounds of the changes are truncated. When the {@value
+ * #PRECISE_TRUNCATION_KEY} system variable is set to true, the geometries of the modified features
+ * are collected instead, and only the tiles they touch, accounting for the styles rendering buffer,
+ * are truncated (see {@link GWC#truncate(String, Geometry, CoordinateReferenceSystem)}). The
+ * {@value #TRUNCATION_DELAY_KEY} system variable can then be used to set a delay, in milliseconds,
+ * during which the changes of subsequent transactions are accumulated and truncated at once.
+ *
  * <p>TODO: upon deletion, only truncate if feature count > 0
  *
  * @author Arne Kepp
  * @author Gabriel Roldan
  * @version $Id$
  */
-public class GWCTransactionListener implements TransactionCallback {
+public class GWCTransactionListener
+        implements TransactionCallback, StreamingInserts.Compatible, DisposableBean {
 
     private static Logger log = Logging.getLogger(GWCTransactionListener.class);
 
+    private static final GeometryFactory GF = new GeometryFactory();
+
+    public static final String PRECISE_TRUNCATION_KEY = "GWC_PRECISE_TRUNCATION";
+
+    public static final String TRUNCATION_DELAY_KEY = "GWC_TRUNCATION_DELAY";
+
+    /** Max number of geometries collected for each change, above it the bounds are used */
+    static final int MAX_CHANGE_GEOMETRIES = 1000;
+
     private final GWC gwc;
 
     static final String GWC_TRANSACTION_INFO_PLACEHOLDER = "GWC_TRANSACTION_INFO_PLACEHOLDER";
 
+    static final String GWC_TRANSACTION_GEOMETRIES_PLACEHOLDER =
+            "GWC_TRANSACTION_GEOMETRIES_PLACEHOLDER";
+
+    /** The areas waiting for the truncation delay to expire, by tile layer, in the layer CRS */
+    private final Map<String, List<Geometry>> pendingTruncations = new HashMap<>();
+
+    private ScheduledThreadPoolExecutor truncationScheduler;
+
     /** @param gwc */
     public GWCTransactionListener(final GWC gwc) {
         this.gwc = gwc;
@@ -101,7 +136,23 @@ public class GWCTransactionListener implements TransactionCallback {
         if (byLayerDirtyRegions.isEmpty()) {
             return;
         }
+        final Map<String, List<Geometry>> byLayerDirtyGeometries =
+                getByLayerDirtyGeometries(transaction);
         for (String tileLayerName : byLayerDirtyRegions.keySet()) {
+            // the data masks used by data aware seeding no longer match the layer data
+            gwc.invalidateOccupancyMasks(tileLayerName);
+            List<Geometry> dirtyGeometries = byLayerDirtyGeometries.get(tileLayerName);
+            if (dirtyGeometries != null && !dirtyGeometries.isEmpty()) {
+                try {
+                    truncate(tileLayerName, mergeGeometries(tileLayerName, dirtyGeometries));
+                    continue;
+                } catch (Exception e) {
+                    log.log(
+                            Level.FINE,
+                            "Could not merge the changed geometries, truncating their bounds",
+                            e);
+                }
+            }
             List<ReferencedEnvelope> dirtyList = byLayerDirtyRegions.get(tileLayerName);
             ReferencedEnvelope dirtyRegion;
             try {
@@ -147,6 +198,107 @@ public class GWCTransactionListener implements TransactionCallback {
         return merged;
     }
 
+    /** Merges the geometries in a single collection, in the tile layer CRS */
+    private Geometry mergeGeometries(final String tileLayerName, final List<Geometry> geometries)
+            throws TransformException, FactoryException {
+        final CoordinateReferenceSystem declaredCrs = getDeclaredCrs(tileLayerName);
+        List<Geometry> transformed = new ArrayList<>(geometries.size());
+        for (Geometry geometry : geometries) {
+            CoordinateReferenceSystem crs = (CoordinateReferenceSystem) geometry.getUserData();
+            if (crs != null && !CRS.equalsIgnoreMetadata(crs, declaredCrs)) {
+                CoordinateReferenceSystem horizontal = CRS.getHorizontalCRS(crs);
+                geometry = JTS.transform(geometry, CRS.findMathTransform(horizontal, declaredCrs));
+            }
+            transformed.add(geometry);
+        }
+        return GF.buildGeometry(transformed);
+    }
+
+    private CoordinateReferenceSystem getDeclaredCrs(final String tileLayerName) {
+        return CRS.getHorizontalCRS(gwc.getDeclaredCrs(tileLayerName));
+    }
+
+    /**
+     * Truncates the area right away, or queues it up to be truncated along with the other changes
+     * happening during the truncation delay
+     */
+    private void truncate(final String tileLayerName, final Geometry dirtyArea) {
+        long delay = getTruncationDelay();
+        if (delay <= 0) {
+            truncateNow(tileLayerName, dirtyArea);
+            return;
+        }
+        synchronized (pendingTruncations) {
+            if (pendingTruncations.isEmpty()) {
+                if (truncationScheduler == null) {
+                    truncationScheduler =
+                            new ScheduledThreadPoolExecutor(
+                                    1,
+                                    r -> {
+                                        Thread t = new Thread(r, "GWCTruncationScheduler");
+                                        t.setDaemon(true);
+                                        return t;
+                                    });
+                }
+                truncationScheduler.schedule(this::truncatePending, delay, TimeUnit.MILLISECONDS);
+            }
+            pendingTruncations
+                    .computeIfAbsent(tileLayerName, k -> new ArrayList<>())
+                    .add(dirtyArea);
+        }
+    }
+
+    /** Truncates the areas accumulated during the truncation delay */
+    void truncatePending() {
+        Map<String, List<Geometry>> truncations;
+        synchronized (pendingTruncations) {
+            truncations = new HashMap<>(pendingTruncations);
+            pendingTruncations.clear();
+        }
+        for (Map.Entry<String, List<Geometry>> entry : truncations.entrySet()) {
+            truncateNow(entry.getKey(), GF.buildGeometry(entry.getValue()));
+        }
+    }
+
+    private void truncateNow(final String tileLayerName, final Geometry dirtyArea) {
+        try {
+            gwc.truncate(tileLayerName, dirtyArea, getDeclaredCrs(tileLayerName));
+        } catch (GeoWebCacheException | RuntimeException e) {
+            log.log(
+                    Level.WARNING,
+                    "Error truncating tile layer " + tileLayerName + " for transaction changes",
+                    e);
+        }
+    }
+
+    private static long getTruncationDelay() {
+        return GeoServerExtensions.getLongProperty(TRUNCATION_DELAY_KEY, 0);
+    }
+
+    /**
+     * Stops the truncation scheduler, truncating right away the areas still waiting for the delay
+     * to expire, so that the cache does not keep serving stale tiles after a restart
+     */
+    @Override
+    public void destroy() {
+        ScheduledThreadPoolExecutor scheduler;
+        synchronized (pendingTruncations) {
+            scheduler = truncationScheduler;
+            truncationScheduler = null;
+        }
+        if (scheduler != null) {
+            // drop the waiting run, but let a running one complete, its areas are no longer pending
+            scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        truncatePending();
+    }
+
     /**
      * @return {@code 0}, we don't need any special treatment
      * @see org.geoserver.wfs.TransactionPlugin#getPriority()
@@ -204,6 +356,53 @@ public class GWCTransactionListener implements TransactionCallback {
         for (String tileLayerName : affectedTileLayers) {
             addLayerDirtyRegion(request, tileLayerName, affectedBounds);
         }
+
+        if (GeoServerExtensions.getBooleanProperty(PRECISE_TRUNCATION_KEY)
+                && affectedBounds != null
+                && !affectedBounds.isEmpty()) {
+            Geometry affectedGeometry = getAffectedGeometry(affectedFeatures, affectedBounds);
+            Map<String, List<Geometry>> byLayerDirtyGeometries =
+                    getByLayerDirtyGeometries(request);
+            for (String tileLayerName : affectedTileLayers) {
+                byLayerDirtyGeometries
+                        .computeIfAbsent(tileLayerName, k -> new ArrayList<>(2))
+                        .add(affectedGeometry);
+            }
+        }
+    }
+
+    /**
+     * Collects the geometries of the affected features, falling back on their bounds if there are
+     * too many of them. The CRS is stored in the geometry user data.
+     */
+    private Geometry getAffectedGeometry(
+            SimpleFeatureCollection affectedFeatures, ReferencedEnvelope affectedBounds) {
+        List<Geometry> geometries = new ArrayList<>();
+        try (SimpleFeatureIterator it = affectedFeatures.features()) {
+            while (it.hasNext() && geometries.size() <= MAX_CHANGE_GEOMETRIES) {
+                Object geometry = it.next().getDefaultGeometry();
+                if (geometry instanceof Geometry) {
+                    geometries.add((Geometry) geometry);
+                }
+            }
+        }
+        Geometry result;
+        if (geometries.isEmpty() || geometries.size() > MAX_CHANGE_GEOMETRIES) {
+            result = JTS.toGeometry(new Envelope(affectedBounds));
+        } else {
+            result = GF.createGeometryCollection(geometries.toArray(new Geometry[0]));
+        }
+        result.setUserData(affectedBounds.getCoordinateReferenceSystem());
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, List<Geometry>> getByLayerDirtyGeometries(
+            final TransactionRequest transaction) {
+        final Map<Object, Object> extendedProperties = transaction.getExtendedProperties();
+        return (Map<String, List<Geometry>>)
+                extendedProperties.computeIfAbsent(
+                        GWC_TRANSACTION_GEOMETRIES_PLACEHOLDER, k -> new HashMap<>());
     }
 
     @SuppressWarnings("unchecked")
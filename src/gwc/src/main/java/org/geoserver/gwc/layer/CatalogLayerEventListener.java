@@ -286,6 +286,37 @@ public class CatalogLayerEventListener implements CatalogListener {
             handleLayerGroupInfoChange(
                     changedProperties, oldValues, newValues, lgInfo, tileLayerInfo);
         }
+
+        if (!(source instanceof WorkspaceInfo)) {
+            invalidateOccupancyMasks(source);
+        }
+    }
+
+    /**
+     * Drops the data masks used for seeding by the tile layers affected by the change, the data
+     * they show, or the way it's styled, might have changed
+     */
+    private void invalidateOccupancyMasks(final CatalogInfo source) {
+        try {
+            if (source instanceof FeatureTypeInfo) {
+                // also covers the groups containing the layer
+                FeatureTypeInfo featureType = (FeatureTypeInfo) source;
+                NamespaceInfo namespace = featureType.getNamespace();
+                for (String tileLayerName :
+                        mediator.getTileLayersByFeatureType(
+                                namespace == null ? null : namespace.getURI(),
+                                featureType.getName())) {
+                    mediator.invalidateOccupancyMasks(tileLayerName);
+                }
+            } else {
+                GeoServerTileLayer tileLayer = mediator.getTileLayer(source);
+                if (tileLayer != null) {
+                    tileLayer.invalidateOccupancyMasks();
+                }
+            }
+        } catch (RuntimeException e) {
+            log.log(Level.FINE, "Could not invalidate the data masks of " + source, e);
+        }
     }
 
     private void handleLayerGroupInfoChange(
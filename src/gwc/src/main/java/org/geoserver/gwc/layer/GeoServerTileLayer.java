@@ -13,8 +13,12 @@ import static org.geoserver.ows.util.ResponseUtils.buildURL;
 import static org.geoserver.ows.util.ResponseUtils.params;
 
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterables;
 import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -27,13 +31,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.KeywordInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
@@ -54,10 +62,13 @@ import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.rest.RequestInfo;
 import org.geoserver.wms.GetLegendGraphicRequest;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.capabilities.CapabilityUtil;
 import org.geoserver.wms.capabilities.LegendSample;
+import org.geoserver.wms.map.RenderedImageMap;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.util.NumberRange;
@@ -114,6 +125,34 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
 
     public static final ThreadLocal<WebMap> WEB_MAP = new ThreadLocal<WebMap>();
 
+    /**
+     * System variable enabling the direct rendering of meta tiles, that skips the KVP encoding and
+     * parsing of the GetMap requests when possible
+     */
+    public static final String DIRECT_RENDERING_KEY = "GWC_DIRECT_METATILE_RENDERING";
+
+    /**
+     * System variable enabling data aware seeding, that skips the rendering of the meta tiles not
+     * containing data, storing empty tiles in their place
+     */
+    public static final String DATA_AWARE_SEEDING_KEY = "GWC_DATA_AWARE_SEEDING";
+
+    /**
+     * System variable setting the buffer, in pixels, around meta tiles used to look for data when
+     * data aware seeding is enabled, to account for symbols and labels crossing tile borders
+     */
+    public static final String DATA_AWARE_SEEDING_BUFFER_KEY = "GWC_DATA_AWARE_SEEDING_BUFFER";
+
+    /**
+     * System variable setting the time, in seconds, a data mask is reused before being computed
+     * again when data aware seeding is enabled
+     */
+    public static final String DATA_AWARE_SEEDING_TTL_KEY = "GWC_DATA_AWARE_SEEDING_TTL";
+
+    static final long DEFAULT_DATA_AWARE_SEEDING_BUFFER = 32;
+
+    static final long DEFAULT_DATA_AWARE_SEEDING_TTL = 600;
+
     private String configErrorMessage;
 
     /**
@@ -152,6 +191,18 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
 
     private WMS wms;
 
+    /**
+     * The data masks used by data aware seeding, by grid set id, dropped when the layer data
+     * changes, see {@link #invalidateOccupancyMasks()}
+     */
+    private final Cache<String, Optional<TileOccupancyMask>> occupancyMasks =
+            CacheBuilder.newBuilder()
+                    .expireAfterWrite(
+                            GeoServerExtensions.getLongProperty(
+                                    DATA_AWARE_SEEDING_TTL_KEY, DEFAULT_DATA_AWARE_SEEDING_TTL),
+                            TimeUnit.SECONDS)
+                    .build();
+
     public GeoServerTileLayer(
             final PublishedInfo publishedInfo,
             final GWCConfig configDefaults,
@@ -616,6 +667,16 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
     protected ConveyorTile getMetatilingReponse(
             ConveyorTile tile, final boolean tryCache, final int metaX, final int metaY)
             throws GeoWebCacheException, IOException {
+        return getMetatilingReponse(tile, tryCache, metaX, metaY, false);
+    }
+
+    private ConveyorTile getMetatilingReponse(
+            ConveyorTile tile,
+            final boolean tryCache,
+            final int metaX,
+            final int metaY,
+            final boolean skipEmpty)
+            throws GeoWebCacheException, IOException {
 
         final GridSubset gridSubset = getGridSubset(tile.getGridSetId());
         final int zLevel = (int) tile.getTileIndex()[2];
@@ -648,7 +709,14 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
                 WebMap map;
                 try {
                     long requestTime = System.currentTimeMillis();
-                    map = dispatchGetMap(tile, metaTile);
+                    if (skipEmpty && isEmpty(tile, metaTile)) {
+                        LOGGER.finer(
+                                "--> skipping rendering of empty meta tile "
+                                        + Arrays.toString(metaTile.getMetaGridPos()));
+                        map = createEmptyMap(tile, metaTile);
+                    } else {
+                        map = dispatchGetMap(tile, metaTile);
+                    }
                     checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
                     metaTile.setWebMap(map);
                     saveTiles(metaTile, tile, requestTime);
@@ -703,7 +771,13 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             HttpServletRequest actualRequest = tile.servletReq;
             Cookie[] cookies = actualRequest == null ? null : actualRequest.getCookies();
 
-            GWC.get().dispatchOwsRequest(params, cookies);
+            GetMapRequest getMap =
+                    isDirectRenderingEnabled() ? buildDirectGetMap(tile, metaTile, params) : null;
+            if (getMap != null) {
+                GWC.get().dispatchGetMap(getMap, params, cookies);
+            } else {
+                GWC.get().dispatchOwsRequest(params, cookies);
+            }
             map = WEB_MAP.get();
             if (!(map instanceof WebMap)) {
                 throw new IllegalStateException("Expected: RenderedImageMap, got " + map);
@@ -767,13 +841,108 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         params.put("TRANSPARENT", "true");
         params.put(GWC_SEED_INTERCEPT_TOKEN, "true");
 
+        params.putAll(getTileParameters(tile));
+
+        return params;
+    }
+
+    private Map<String, String> getTileParameters(final ConveyorTile tile)
+            throws ParameterException {
         Map<String, String> filteredParams = tile.getFilteringParameters();
         if (filteredParams.isEmpty()) {
             filteredParams = getDefaultParameterFilters();
         }
-        params.putAll(filteredParams);
+        return filteredParams;
+    }
 
-        return params;
+    private static boolean isDirectRenderingEnabled() {
+        return GeoServerExtensions.getBooleanProperty(DIRECT_RENDERING_KEY);
+    }
+
+    /**
+     * Builds the GetMap request for the meta tile straight from the tile layer configuration, so
+     * that it does not need to be encoded as KVP and parsed back by the OWS {@link Dispatcher}.
+     * Returns null when the request needs the full KVP parsing, that is, for layer groups, layers
+     * with dimensions, and parameter filters other than the style.
+     */
+    private GetMapRequest buildDirectGetMap(
+            final ConveyorTile tile, final MetaTile metaTile, Map<String, String> params)
+            throws ParameterException, IOException {
+        PublishedInfo published = getPublishedInfo();
+        if (!(published instanceof LayerInfo)) {
+            return null;
+        }
+        // looked up in the secured catalog, like the KVP parser would do
+        LayerInfo layer = GWC.get().getCatalog().getLayer(published.getId());
+        if (layer == null || !layer.enabled() || hasDimensions(layer.getResource())) {
+            return null;
+        }
+
+        StyleInfo style = layer.getDefaultStyle();
+        for (Map.Entry<String, String> entry : getTileParameters(tile).entrySet()) {
+            String value = entry.getValue();
+            if (value == null || value.isEmpty()) {
+                continue;
+            } else if (!"STYLES".equalsIgnoreCase(entry.getKey())) {
+                return null;
+            }
+            style = getStyle(layer, value);
+        }
+        if (style == null) {
+            return null;
+        }
+
+        final GridSubset gridSubset = getGridSubset(tile.getGridSetId());
+        final String srs = gridSubset.getSRS().toString();
+        final CoordinateReferenceSystem crs;
+        try {
+            crs = CRS.decode(srs);
+        } catch (Exception e) {
+            // let the dispatcher report the error
+            return null;
+        }
+        BoundingBox bbox = metaTile.getMetaTileBounds();
+
+        GetMapRequest getMap = new GetMapRequest();
+        getMap.setRequest("GetMap");
+        getMap.setVersion("1.1.1");
+        getMap.setGet(true);
+        getMap.setRawKvp(params);
+        getMap.setLayers(Collections.singletonList(new MapLayerInfo(layer)));
+        getMap.setStyles(Collections.singletonList(style.getStyle()));
+        getMap.setSRS(srs);
+        getMap.setCrs(crs);
+        getMap.setBbox(
+                new Envelope(bbox.getMinX(), bbox.getMaxX(), bbox.getMinY(), bbox.getMaxY()));
+        getMap.setWidth(metaTile.getMetaTileWidth());
+        getMap.setHeight(metaTile.getMetaTileHeight());
+        getMap.setFormat(tile.getMimeType().getFormat());
+        getMap.setTransparent(true);
+        getMap.setExceptions(GetMapRequest.SE_XML);
+        return getMap;
+    }
+
+    /** Returns the default or alternate style of the layer with the given name, or null */
+    private StyleInfo getStyle(LayerInfo layer, String name) {
+        List<StyleInfo> styles = new ArrayList<>();
+        styles.add(layer.getDefaultStyle());
+        styles.addAll(layer.getStyles());
+        for (StyleInfo style : styles) {
+            if (style != null
+                    && (name.equals(style.prefixedName()) || name.equals(style.getName()))) {
+                return style;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasDimensions(ResourceInfo resource) {
+        for (Object value : resource.getMetadata().values()) {
+            if (value instanceof DimensionInfo && ((DimensionInfo) value).isEnabled()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private boolean tryCacheFetch(ConveyorTile tile) {
@@ -849,7 +1018,109 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         if (!tile.getMimeType().supportsTiling()) {
             metaX = metaY = 1;
         }
-        getMetatilingReponse(tile, tryCache, metaX, metaY);
+        boolean skipEmpty = GeoServerExtensions.getBooleanProperty(DATA_AWARE_SEEDING_KEY);
+        getMetatilingReponse(tile, tryCache, metaX, metaY, skipEmpty);
+    }
+
+    /** Checks if the meta tile has no data according to the layer data mask */
+    private boolean isEmpty(ConveyorTile tile, MetaTile metaTile) {
+        // empty tiles can be encoded only for image formats
+        if (tile.getMimeType().isVector()) {
+            return false;
+        }
+        TileOccupancyMask mask = getOccupancyMask(tile.getGridSetId());
+        if (mask == null) {
+            return false;
+        }
+        BoundingBox bounds = metaTile.getMetaTileBounds();
+        double pixelSize = bounds.getWidth() / metaTile.getMetaTileWidth();
+        long buffer =
+                GeoServerExtensions.getLongProperty(
+                        DATA_AWARE_SEEDING_BUFFER_KEY, DEFAULT_DATA_AWARE_SEEDING_BUFFER);
+        return !mask.intersects(bounds, pixelSize * buffer);
+    }
+
+    /** Returns the data mask for the grid set, or null if the data could not be analyzed */
+    TileOccupancyMask getOccupancyMask(final String gridSetId) {
+        try {
+            return occupancyMasks
+                    .get(
+                            gridSetId,
+                            () -> {
+                                try {
+                                    return Optional.ofNullable(
+                                            TileOccupancyMask.build(
+                                                    getPublishedInfo(), getGridSubset(gridSetId)));
+                                } catch (Exception e) {
+                                    LOGGER.log(
+                                            Level.WARNING,
+                                            "Could not compute the data mask of "
+                                                    + getName()
+                                                    + ", seeding all tiles",
+                                            e);
+                                    return Optional.empty();
+                                }
+                            })
+                    .orElse(null);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Drops the data masks computed for data aware seeding, so that they are computed again on the
+     * next seeded tile. To be called when the layer data or configuration changes.
+     */
+    public void invalidateOccupancyMasks() {
+        occupancyMasks.invalidateAll();
+    }
+
+    /** Creates an empty map, encoded the same way a rendered meta tile is */
+    private WebMap createEmptyMap(ConveyorTile tile, MetaTile metaTile) throws Exception {
+        final int width = metaTile.getMetaTileWidth();
+        final int height = metaTile.getMetaTileHeight();
+        final String format = tile.getMimeType().getFormat();
+        final String srs = getGridSubset(tile.getGridSetId()).getSRS().toString();
+        final CoordinateReferenceSystem crs = CRS.decode(srs);
+        final BoundingBox bbox = metaTile.getMetaTileBounds();
+
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat(format);
+        request.setWidth(width);
+        request.setHeight(height);
+        request.setSRS(srs);
+        request.setCrs(crs);
+        request.setBbox(
+                new Envelope(bbox.getMinX(), bbox.getMaxX(), bbox.getMinY(), bbox.getMaxY()));
+        request.setTransparent(true);
+
+        // same as GetMap, transparent unless the format does not support it
+        boolean opaque = format.contains("jpeg") && !format.contains("png");
+        WMSMapContent content = new WMSMapContent(request);
+        content.setMapWidth(width);
+        content.setMapHeight(height);
+        content.setTransparent(!opaque);
+        content.getViewport()
+                .setBounds(
+                        new ReferencedEnvelope(
+                                bbox.getMinX(),
+                                bbox.getMaxX(),
+                                bbox.getMinY(),
+                                bbox.getMaxY(),
+                                crs));
+
+        BufferedImage image =
+                new BufferedImage(
+                        width,
+                        height,
+                        opaque ? BufferedImage.TYPE_3BYTE_BGR : BufferedImage.TYPE_4BYTE_ABGR);
+        if (opaque) {
+            Graphics2D graphics = image.createGraphics();
+            graphics.setColor(content.getBgColor());
+            graphics.fillRect(0, 0, width, height);
+            graphics.dispose();
+        }
+        return new RenderedImageMap(content, image, tile.getMimeType().getMimeType());
     }
 
     /** @see org.geowebcache.layer.TileLayer#getGridSubsets() */
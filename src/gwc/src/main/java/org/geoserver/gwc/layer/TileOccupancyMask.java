@@ -0,0 +1,399 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Style;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.opengis.feature.Feature;
+import org.opengis.feature.GeometryAttribute;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * A coarse map of where a layer has data within a grid subset, used to skip the rendering of the
+ * empty meta tiles while seeding.
+ *
+ * <p>The mask is a grid of cells matching the tiles of the deepest zoom level of the grid subset
+ * having at most {@link #MAX_CELLS} tiles. The cells are marked walking the layer geometries with
+ * a streaming query, and recursively splitting the cell range each geometry envelope covers into
+ * quadrants, down to the single cells, until the quadrants are found to be disjoint from the
+ * geometry, or fully contained in it. Coverages are marked using their bounding box as the
+ * footprint.
+ *
+ * <p>The mask is conservative, a cell is marked when there is data in it, regardless of the
+ * styles scale ranges and filters, and the meta tiles are checked with a buffer to account for
+ * symbols and labels crossing their borders. Layers whose data cannot be analyzed (cascaded
+ * layers, styles using rendering transformations) get no mask at all.
+ */
+class TileOccupancyMask {
+
+    static final Logger LOGGER = Logging.getLogger(TileOccupancyMask.class);
+
+    /** The max number of cells in a mask */
+    static final int MAX_CELLS = 1 << 22;
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    static final GeometryFactory GF = new GeometryFactory();
+
+    final Envelope bounds;
+
+    final int cols;
+
+    final int rows;
+
+    final double cellWidth;
+
+    final double cellHeight;
+
+    final BitSet cells;
+
+    TileOccupancyMask(Envelope bounds, int cols, int rows) {
+        this.bounds = bounds;
+        this.cols = cols;
+        this.rows = rows;
+        this.cellWidth = bounds.getWidth() / cols;
+        this.cellHeight = bounds.getHeight() / rows;
+        this.cells = new BitSet(cols * rows);
+    }
+
+    /**
+     * Builds the mask of the published info for the grid subset, or returns null if the data
+     * cannot be analyzed, in which case every meta tile should be rendered
+     */
+    static TileOccupancyMask build(PublishedInfo published, GridSubset gridSubset)
+            throws Exception {
+        List<LayerInfo> layers = new ArrayList<>();
+        List<StyleInfo> styles = new ArrayList<>();
+        if (published instanceof LayerInfo) {
+            LayerInfo layer = (LayerInfo) published;
+            layers.add(layer);
+            styles.add(layer.getDefaultStyle());
+            styles.addAll(layer.getStyles());
+        } else if (published instanceof LayerGroupInfo) {
+            LayerGroupInfo group = (LayerGroupInfo) published;
+            layers.addAll(group.layers());
+            styles.addAll(group.styles());
+            for (LayerInfo layer : group.layers()) {
+                styles.add(layer.getDefaultStyle());
+            }
+        } else {
+            return null;
+        }
+        for (StyleInfo style : styles) {
+            if (style != null && hasTransformation(style.getStyle())) {
+                // can paint where there is no data
+                return null;
+            }
+        }
+
+        TileOccupancyMask mask = create(gridSubset);
+        if (mask == null) {
+            return null;
+        }
+        CoordinateReferenceSystem crs = CRS.decode(gridSubset.getSRS().toString());
+        for (LayerInfo layer : layers) {
+            ResourceInfo resource = layer.getResource();
+            if (resource instanceof FeatureTypeInfo) {
+                if (!mask.markFeatures((FeatureTypeInfo) resource, crs)) {
+                    return null;
+                }
+            } else if (resource instanceof CoverageInfo) {
+                mask.markFootprint(resource, crs);
+            } else {
+                return null;
+            }
+        }
+        return mask;
+    }
+
+    private static boolean hasTransformation(Style style) {
+        if (style == null) {
+            return false;
+        }
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            if (fts.getTransformation() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates an empty mask at the deepest zoom level of the grid subset having at most {@link
+     * #MAX_CELLS} tiles, or returns null if there is no such level
+     */
+    static TileOccupancyMask create(GridSubset gridSubset) {
+        long[] coverage = null;
+        for (int z = gridSubset.getZoomStart(); z <= gridSubset.getZoomStop(); z++) {
+            long[] c = gridSubset.getCoverage(z);
+            if ((c[2] - c[0] + 1) * (c[3] - c[1] + 1) > MAX_CELLS) {
+                break;
+            }
+            coverage = c;
+        }
+        if (coverage == null) {
+            return null;
+        }
+        BoundingBox lower =
+                gridSubset.boundsFromIndex(new long[] {coverage[0], coverage[1], coverage[4]});
+        BoundingBox upper =
+                gridSubset.boundsFromIndex(new long[] {coverage[2], coverage[3], coverage[4]});
+        Envelope bounds =
+                new Envelope(lower.getMinX(), upper.getMaxX(), lower.getMinY(), upper.getMaxY());
+        int cols = (int) (coverage[2] - coverage[0] + 1);
+        int rows = (int) (coverage[3] - coverage[1] + 1);
+        return new TileOccupancyMask(bounds, cols, rows);
+    }
+
+    /** Marks the cells touched by the feature type geometries, returns false if not possible */
+    boolean markFeatures(FeatureTypeInfo featureType, CoordinateReferenceSystem crs)
+            throws IOException {
+        FeatureSource<? extends FeatureType, ? extends Feature> source =
+                featureType.getFeatureSource(null, null);
+        GeometryDescriptor geometry = source.getSchema().getGeometryDescriptor();
+        if (geometry == null) {
+            return false;
+        }
+        CoordinateReferenceSystem nativeCrs = geometry.getCoordinateReferenceSystem();
+        if (nativeCrs == null) {
+            nativeCrs = featureType.getCRS();
+        }
+        MathTransform tx = null;
+        if (nativeCrs != null && !CRS.equalsIgnoreMetadata(nativeCrs, crs)) {
+            try {
+                tx = CRS.findMathTransform(nativeCrs, crs, true);
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Cannot reproject " + featureType.prefixedName(), e);
+                return false;
+            }
+        }
+
+        Query query = new Query(source.getSchema().getName().getLocalPart());
+        query.setPropertyNames(new String[] {geometry.getLocalName()});
+        query.setFilter(getBoundsFilter(geometry.getLocalName(), nativeCrs, crs));
+        try (FeatureIterator<? extends Feature> features = source.getFeatures(query).features()) {
+            while (features.hasNext()) {
+                GeometryAttribute attribute = features.next().getDefaultGeometryProperty();
+                Object value = attribute == null ? null : attribute.getValue();
+                if (value instanceof Geometry && !((Geometry) value).isEmpty()) {
+                    mark((Geometry) value, tx);
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Reads only the features in the mask area, when its bounds can be reprojected */
+    private Filter getBoundsFilter(
+            String geometryName,
+            CoordinateReferenceSystem nativeCrs,
+            CoordinateReferenceSystem crs) {
+        try {
+            ReferencedEnvelope envelope = new ReferencedEnvelope(bounds, crs);
+            if (nativeCrs != null) {
+                envelope = envelope.transform(nativeCrs, true);
+            }
+            return FF.bbox(FF.property(geometryName), envelope);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Cannot reproject the mask bounds, reading all features", e);
+            return Filter.INCLUDE;
+        }
+    }
+
+    private void mark(Geometry geometry, MathTransform tx) {
+        if (tx != null) {
+            try {
+                geometry = JTS.transform(geometry, tx);
+            } catch (Exception e) {
+                // mark the area conservatively
+                markEnvelope(transformEnvelope(geometry.getEnvelopeInternal(), tx));
+                return;
+            }
+        }
+        mark(geometry);
+    }
+
+    private Envelope transformEnvelope(Envelope envelope, MathTransform tx) {
+        try {
+            return JTS.transform(envelope, null, tx, 10);
+        } catch (Exception e) {
+            // mark everything
+            return bounds;
+        }
+    }
+
+    /** Marks the cells intersecting the geometry */
+    void mark(Geometry geometry) {
+        Envelope envelope = geometry.getEnvelopeInternal();
+        if (!isFinite(envelope)) {
+            markEnvelope(envelope);
+            return;
+        }
+        int c0 = Math.max(0, col(envelope.getMinX()));
+        int c1 = Math.min(cols - 1, col(envelope.getMaxX()));
+        int r0 = Math.max(0, row(envelope.getMinY()));
+        int r1 = Math.min(rows - 1, row(envelope.getMaxY()));
+        if (c0 > c1 || r0 > r1) {
+            return;
+        }
+        if (geometry instanceof Point || (c0 == c1 && r0 == r1)) {
+            mark(c0, r0, c1, r1);
+        } else {
+            mark(PreparedGeometryFactory.prepare(geometry), c0, r0, c1, r1);
+        }
+    }
+
+    /** Recursively splits the cell range in quadrants, to find the ones touched by the geometry */
+    private void mark(PreparedGeometry geometry, int c0, int r0, int c1, int r1) {
+        if (isMarked(c0, r0, c1, r1, true)) {
+            return;
+        }
+        Envelope area =
+                new Envelope(
+                        bounds.getMinX() + c0 * cellWidth,
+                        bounds.getMinX() + (c1 + 1) * cellWidth,
+                        bounds.getMinY() + r0 * cellHeight,
+                        bounds.getMinY() + (r1 + 1) * cellHeight);
+        Geometry polygon = GF.toGeometry(area);
+        if (!geometry.intersects(polygon)) {
+            return;
+        }
+        if ((c0 == c1 && r0 == r1) || geometry.containsProperly(polygon)) {
+            mark(c0, r0, c1, r1);
+            return;
+        }
+        int cm = (c0 + c1) / 2;
+        int rm = (r0 + r1) / 2;
+        mark(geometry, c0, r0, cm, rm);
+        if (cm < c1) {
+            mark(geometry, cm + 1, r0, c1, rm);
+        }
+        if (rm < r1) {
+            mark(geometry, c0, rm + 1, cm, r1);
+            if (cm < c1) {
+                mark(geometry, cm + 1, rm + 1, c1, r1);
+            }
+        }
+    }
+
+    /** Marks the cells touched by the resource bounding box */
+    void markFootprint(ResourceInfo resource, CoordinateReferenceSystem crs) {
+        ReferencedEnvelope footprint = resource.getNativeBoundingBox();
+        try {
+            if (footprint == null) {
+                footprint = resource.getLatLonBoundingBox();
+            }
+            markEnvelope(footprint.transform(crs, true));
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Cannot reproject " + resource.prefixedName(), e);
+            markEnvelope(bounds);
+        }
+    }
+
+    /** Marks all the cells intersecting the envelope */
+    void markEnvelope(Envelope envelope) {
+        Envelope clipped = isFinite(envelope) ? envelope : bounds;
+        int c0 = Math.max(0, col(clipped.getMinX()));
+        int c1 = Math.min(cols - 1, col(clipped.getMaxX()));
+        int r0 = Math.max(0, row(clipped.getMinY()));
+        int r1 = Math.min(rows - 1, row(clipped.getMaxY()));
+        if (c0 <= c1 && r0 <= r1) {
+            mark(c0, r0, c1, r1);
+        }
+    }
+
+    private void mark(int c0, int r0, int c1, int r1) {
+        for (int r = r0; r <= r1; r++) {
+            cells.set(r * cols + c0, r * cols + c1 + 1);
+        }
+    }
+
+    /**
+     * Returns true if the bounds, expanded by the buffer, touch a marked cell. Bounds outside of
+     * the mask are considered empty.
+     */
+    boolean intersects(BoundingBox box, double buffer) {
+        int c0 = Math.max(0, col(box.getMinX() - buffer));
+        int c1 = Math.min(cols - 1, col(box.getMaxX() + buffer));
+        int r0 = Math.max(0, row(box.getMinY() - buffer));
+        int r1 = Math.min(rows - 1, row(box.getMaxY() + buffer));
+        if (c0 > c1 || r0 > r1) {
+            return false;
+        }
+        return isMarked(c0, r0, c1, r1, false);
+    }
+
+    /** Checks if all (or any) of the cells in the range are marked */
+    private boolean isMarked(int c0, int r0, int c1, int r1, boolean all) {
+        for (int r = r0; r <= r1; r++) {
+            int start = r * cols + c0;
+            int end = r * cols + c1;
+            if (all) {
+                int clear = cells.nextClearBit(start);
+                if (clear <= end) {
+                    return false;
+                }
+            } else {
+                int set = cells.nextSetBit(start);
+                if (set >= 0 && set <= end) {
+                    return true;
+                }
+            }
+        }
+        return all;
+    }
+
+    /** Column containing the ordinate, might be outside of the mask */
+    private int col(double x) {
+        return (int) Math.floor((x - bounds.getMinX()) / cellWidth);
+    }
+
+    /** Row containing the ordinate, might be outside of the mask */
+    private int row(double y) {
+        return (int) Math.floor((y - bounds.getMinY()) / cellHeight);
+    }
+
+    private static boolean isFinite(Envelope envelope) {
+        return !envelope.isNull()
+                && Double.isFinite(envelope.getMinX())
+                && Double.isFinite(envelope.getMaxX())
+                && Double.isFinite(envelope.getMinY())
+                && Double.isFinite(envelope.getMaxY());
+    }
+}
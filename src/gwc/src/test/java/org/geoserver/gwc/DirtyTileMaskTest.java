@@ -0,0 +1,101 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.io.WKTReader;
+
+public class DirtyTileMaskTest {
+
+    private GridSubset gridSubset;
+
+    @Before
+    public void setUp() {
+        GridSetBroker gridSetBroker =
+                new GridSetBroker(Collections.singletonList(new DefaultGridsets(true, true)));
+        gridSubset = GridSubsetFactory.createGridSubSet(gridSetBroker.getWorldEpsg4326());
+    }
+
+    @Test
+    public void testFarAwayPoints() throws Exception {
+        DirtyTileMask mask =
+                DirtyTileMask.build(
+                        gridSubset,
+                        new WKTReader().read("MULTIPOINT((-179.5 89.5), (179.5 -89.5))"),
+                        0,
+                        0,
+                        6);
+        assertFalse(mask.isEmpty());
+        // a single tile around each point, none in between
+        for (int z = 1; z <= 6; z++) {
+            assertEquals(2, mask.getTileCount(z));
+            long[] coverage = gridSubset.getCoverage(z);
+            assertTrue(mask.lookup(coverage[0], coverage[3], z));
+            assertTrue(mask.lookup(coverage[2], coverage[1], z));
+            assertFalse(mask.lookup(coverage[2] / 2, coverage[3] / 2, z));
+        }
+    }
+
+    @Test
+    public void testBuffer() throws Exception {
+        // at zoom level 3 tiles are 22.5 degrees wide, 256 pixels
+        DirtyTileMask mask =
+                DirtyTileMask.build(gridSubset, new WKTReader().read("POINT(1 1)"), 0, 3, 3);
+        assertEquals(1, mask.getTileCount(3));
+        mask = DirtyTileMask.build(gridSubset, new WKTReader().read("POINT(1 1)"), 16, 3, 3);
+        assertEquals(4, mask.getTileCount(3));
+    }
+
+    @Test
+    public void testMetaTiles() throws Exception {
+        // at zoom level 3 the point falls in tile 8, 4 of a 16x8 grid
+        DirtyTileMask mask =
+                DirtyTileMask.build(
+                        gridSubset, new WKTReader().read("POINT(1 1)"), 0, new int[] {4, 4}, 3, 3);
+        assertEquals(16, mask.getTileCount(3));
+        for (long x = 8; x < 12; x++) {
+            for (long y = 4; y < 8; y++) {
+                assertTrue(mask.lookup(x, y, 3));
+            }
+        }
+        assertFalse(mask.lookup(7, 4, 3));
+        assertFalse(mask.lookup(12, 4, 3));
+        assertFalse(mask.lookup(8, 3, 3));
+
+        // meta tiles are clipped to the grid, at zoom level 1 it's 4x2 tiles
+        mask =
+                DirtyTileMask.build(
+                        gridSubset, new WKTReader().read("POINT(1 1)"), 0, new int[] {4, 4}, 1, 1);
+        assertEquals(8, mask.getTileCount(1));
+    }
+
+        @Test
+    public void testLine() throws Exception {
+        DirtyTileMask mask =
+                DirtyTileMask.build(
+                        gridSubset, new WKTReader().read("LINESTRING(-179 -89, 179 89)"), 0, 5, 5);
+        // the diagonal of a 64x32 grid touches much less tiles than its bounds
+        long count = mask.getTileCount(5);
+        assertTrue(count >= 64);
+        assertTrue(count < 64 * 32 / 4);
+    }
+
+    @Test
+    public void testOutside() throws Exception {
+        DirtyTileMask mask =
+                DirtyTileMask.build(gridSubset, new WKTReader().read("POINT(500 500)"), 0, 0, 3);
+        assertTrue(mask.isEmpty());
+    }
+}
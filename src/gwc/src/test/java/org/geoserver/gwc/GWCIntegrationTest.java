@@ -17,6 +17,7 @@ import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -1408,6 +1409,33 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
         assertEquals(256, image.getHeight());
     }
 
+    @Test
+    public void testDirectMetaTileRendering() throws Exception {
+        String layerId = getLayerId(MockData.BASIC_POLYGONS);
+        String request =
+                "gwc/service/wmts?request=GetTile&layer="
+                        + layerId
+                        + "&format=image/png&tilematrixset=EPSG:4326&tilematrix=EPSG:4326:0&tilerow=0&tilecol=0";
+        MockHttpServletResponse expected = getAsServletResponse(request);
+        assertEquals(200, expected.getStatus());
+
+        GWC.get().truncate(layerId);
+        HttpRequestRecorderCallback.reset();
+        System.setProperty(GeoServerTileLayer.DIRECT_RENDERING_KEY, "true");
+        try {
+            MockHttpServletResponse response = getAsServletResponse(request);
+            assertEquals(200, response.getStatus());
+            assertEquals("image/png", response.getContentType());
+            assertArrayEquals(expected.getContentAsByteArray(), response.getContentAsByteArray());
+        } finally {
+            System.clearProperty(GeoServerTileLayer.DIRECT_RENDERING_KEY);
+        }
+
+        // the dispatcher callbacks have been notified of the meta tile rendering
+        List<HttpServletRequest> requests = HttpRequestRecorderCallback.getRequests();
+        assertThat(requests.get(requests.size() - 1), instanceOf(FakeHttpServletRequest.class));
+    }
+
     @Test
     public void testSaveConfig() throws Exception {
         GWCConfig config = GWC.get().getConfig();
@@ -7,9 +7,11 @@ package org.geoserver.gwc;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
@@ -26,12 +28,20 @@ import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionEventType;
 import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.request.TransactionResponse;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.geotools.referencing.CRS;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+import org.mockito.ArgumentCaptor;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 public class GWCTransactionListenerTest {
@@ -46,6 +56,13 @@ public class GWCTransactionListenerTest {
         listener = new GWCTransactionListener(mediator);
     }
 
+    @After
+    public void tearDown() {
+        System.clearProperty(GWCTransactionListener.PRECISE_TRUNCATION_KEY);
+        System.clearProperty(GWCTransactionListener.TRUNCATION_DELAY_KEY);
+        listener.destroy();
+    }
+
     @Test
     public void testNoInteractionsInUnusedMethods() {
 
@@ -205,6 +222,85 @@ public class GWCTransactionListenerTest {
 
         verify(mediator, times(1)).truncate(eq("theLayer"), eq(expectedEnv));
         verify(mediator, times(1)).truncate(eq("theGroup"), eq(expectedEnv));
+
+        // the seeding data masks are computed again
+        verify(mediator, times(1)).invalidateOccupancyMasks(eq("theLayer"));
+        verify(mediator, times(1)).invalidateOccupancyMasks(eq("theGroup"));
+    }
+
+    @Test
+    public void testAfterTransactionPrecise() throws Exception {
+        System.setProperty(GWCTransactionListener.PRECISE_TRUNCATION_KEY, "true");
+        Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
+        issueInsert(extendedProperties, pointsCollection("POINT(-170 80)", "POINT(170 -80)"));
+
+        TransactionRequest request = mock(TransactionRequest.class);
+        TransactionResponse result = mock(TransactionResponse.class);
+        when(request.getExtendedProperties()).thenReturn(extendedProperties);
+
+        when(mediator.getDeclaredCrs(anyString())).thenReturn(WGS84);
+        listener.afterTransaction(request, result, true);
+
+        // the two points are truncated, not the whole world in between
+        ArgumentCaptor<Geometry> captor = ArgumentCaptor.forClass(Geometry.class);
+        verify(mediator, times(1)).truncate(eq("theLayer"), captor.capture(), eq(WGS84));
+        assertEquals(2, captor.getValue().getNumPoints());
+        verify(mediator, times(1)).truncate(eq("theGroup"), any(Geometry.class), eq(WGS84));
+        verify(mediator, never()).truncate(anyString(), any(ReferencedEnvelope.class));
+    }
+
+    @Test
+    public void testAfterTransactionDelayed() throws Exception {
+        System.setProperty(GWCTransactionListener.PRECISE_TRUNCATION_KEY, "true");
+        System.setProperty(GWCTransactionListener.TRUNCATION_DELAY_KEY, "200");
+        when(mediator.getDeclaredCrs(anyString())).thenReturn(WGS84);
+        for (String point : new String[] {"POINT(-170 80)", "POINT(170 -80)"}) {
+            Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
+            issueInsert(extendedProperties, pointsCollection(point));
+
+            TransactionRequest request = mock(TransactionRequest.class);
+            TransactionResponse result = mock(TransactionResponse.class);
+            when(request.getExtendedProperties()).thenReturn(extendedProperties);
+            listener.afterTransaction(request, result, true);
+        }
+
+        // the two transactions are truncated at once
+        ArgumentCaptor<Geometry> captor = ArgumentCaptor.forClass(Geometry.class);
+        verify(mediator, timeout(5000).times(1))
+                .truncate(eq("theLayer"), captor.capture(), eq(WGS84));
+        assertEquals(2, captor.getValue().getNumPoints());
+        verify(mediator, timeout(5000).times(1))
+                .truncate(eq("theGroup"), any(Geometry.class), eq(WGS84));
+    }
+
+    @Test
+    public void testDestroyTruncatesPending() throws Exception {
+        System.setProperty(GWCTransactionListener.PRECISE_TRUNCATION_KEY, "true");
+        System.setProperty(GWCTransactionListener.TRUNCATION_DELAY_KEY, "60000");
+        when(mediator.getDeclaredCrs(anyString())).thenReturn(WGS84);
+        Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
+        issueInsert(extendedProperties, pointsCollection("POINT(-170 80)"));
+
+        TransactionRequest request = mock(TransactionRequest.class);
+        TransactionResponse result = mock(TransactionResponse.class);
+        when(request.getExtendedProperties()).thenReturn(extendedProperties);
+        listener.afterTransaction(request, result, true);
+        verify(mediator, never()).truncate(anyString(), any(Geometry.class), eq(WGS84));
+
+        // the changes waiting for the delay are not lost on shutdown
+        listener.destroy();
+        verify(mediator, times(1)).truncate(eq("theLayer"), any(Geometry.class), eq(WGS84));
+        verify(mediator, times(1)).truncate(eq("theGroup"), any(Geometry.class), eq(WGS84));
+    }
+
+    private SimpleFeatureCollection pointsCollection(String... points) throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("testType", "the_geom:Point:srid=4326");
+        ListFeatureCollection collection = new ListFeatureCollection(type);
+        for (String point : points) {
+            Geometry geometry = new WKTReader().read(point);
+            collection.add(SimpleFeatureBuilder.build(type, new Object[] {geometry}, null));
+        }
+        return collection;
     }
 
     /**
@@ -213,6 +309,17 @@ public class GWCTransactionListenerTest {
      */
     private void issueInsert(
             Map<Object, Object> extendedProperties, ReferencedEnvelope affectedBounds) {
+        SimpleFeatureCollection affectedFeatures = mock(SimpleFeatureCollection.class);
+        when(affectedFeatures.getBounds()).thenReturn(affectedBounds);
+        issueInsert(extendedProperties, affectedFeatures);
+    }
+
+    /**
+     * Issues a fake dataStoreChange insert event that affects two tile layers: "theLayer" and
+     * "theGroup"
+     */
+    private void issueInsert(
+            Map<Object, Object> extendedProperties, SimpleFeatureCollection affectedFeatures) {
 
         TransactionType transaction = mock(TransactionType.class);
         when(transaction.getExtendedProperties()).thenReturn(extendedProperties);
@@ -233,8 +340,6 @@ public class GWCTransactionListenerTest {
                         eq(layerName.getNamespaceURI()), eq(layerName.getLocalPart())))
                 .thenReturn(ImmutableSet.of("theLayer", "theGroup"));
 
-        SimpleFeatureCollection affectedFeatures = mock(SimpleFeatureCollection.class);
-        when(affectedFeatures.getBounds()).thenReturn(affectedBounds);
         when(event.getAffectedFeatures()).thenReturn(affectedFeatures);
 
         listener.dataStoreChange(event);
@@ -223,6 +223,9 @@ public class CatalogLayerEventListenerTest {
         when(mockMediator.getTileLayer(same(mockResourceInfo))).thenReturn(tileLayer);
         String resourceName = mockResourceInfo.prefixedName();
         when(mockMediator.getTileLayerByName(eq(resourceName))).thenReturn(tileLayer);
+        when(mockNamespaceInfo.getURI()).thenReturn("http://mock");
+        when(mockMediator.getTileLayersByFeatureType(eq("http://mock"), eq(RESOURCE_NAME)))
+                .thenReturn(ImmutableSet.of(resourceName, LAYER_GROUP_NAME));
 
         listener.handleModifyEvent(modifyEvent);
 
@@ -234,6 +237,9 @@ public class CatalogLayerEventListenerTest {
         listener.handlePostModifyEvent(postModifyEvent);
 
         verify(mockMediator).truncate(eq(resourceName));
+        // the seeding data masks of the layer and the groups containing it are dropped
+        verify(mockMediator).invalidateOccupancyMasks(eq(resourceName));
+        verify(mockMediator).invalidateOccupancyMasks(eq(LAYER_GROUP_NAME));
     }
 
     @Test
@@ -0,0 +1,79 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.geowebcache.grid.BoundingBox;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.io.WKTReader;
+
+/** Unit test suite for {@link TileOccupancyMask} */
+public class TileOccupancyMaskTest {
+
+    private TileOccupancyMask mask;
+
+    @Before
+    public void setup() {
+        // 10x10 cells of 10 units each
+        mask = new TileOccupancyMask(new Envelope(0, 100, 0, 100), 10, 10);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertFalse(mask.intersects(new BoundingBox(0, 0, 100, 100), 0));
+    }
+
+    @Test
+    public void testPoint() throws Exception {
+        mask.mark(new WKTReader().read("POINT(55 55)"));
+        assertEquals(1, mask.cells.cardinality());
+        assertTrue(mask.intersects(new BoundingBox(50, 50, 60, 60), 0));
+        assertFalse(mask.intersects(new BoundingBox(70, 70, 80, 80), 0));
+        // the buffer reaches the marked cell
+        assertTrue(mask.intersects(new BoundingBox(70, 70, 80, 80), 15));
+    }
+
+    @Test
+    public void testDiagonal() throws Exception {
+        mask.mark(new WKTReader().read("LINESTRING(1 1, 99 99)"));
+        // only the cells along the diagonal, and their corner neighbours
+        assertTrue(mask.cells.cardinality() < 30);
+        for (int i = 0; i < 10; i++) {
+            double min = i * 10 + 1;
+            assertTrue(mask.intersects(new BoundingBox(min, min, min + 8, min + 8), 0));
+        }
+        assertFalse(mask.intersects(new BoundingBox(71, 11, 89, 29), 0));
+    }
+
+    @Test
+    public void testPolygon() throws Exception {
+        mask.mark(new WKTReader().read("POLYGON((5 5, 95 5, 95 95, 5 95, 5 5))"));
+        assertEquals(100, mask.cells.cardinality());
+        // a hole does not mark the cells it fully contains
+        mask.cells.clear();
+        mask.mark(
+                new WKTReader()
+                        .read(
+                                "POLYGON((0 0, 100 0, 100 100, 0 100, 0 0), "
+                                        + "(15 15, 85 15, 85 85, 15 85, 15 15))"));
+        assertFalse(mask.intersects(new BoundingBox(21, 21, 79, 79), 0));
+        assertTrue(mask.intersects(new BoundingBox(1, 1, 9, 9), 0));
+    }
+
+    @Test
+    public void testEnvelope() {
+        mask.markEnvelope(new Envelope(-50, 15, -50, 15));
+        assertEquals(4, mask.cells.cardinality());
+        mask.markEnvelope(new Envelope(200, 300, 200, 300));
+        assertEquals(4, mask.cells.cardinality());
+        // outside of the mask is empty
+        assertFalse(mask.intersects(new BoundingBox(-50, -50, -10, -10), 0));
+    }
+}
@@ -0,0 +1,149 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Exposes the statistics of the {@link ResourcePool} caches of the catalog in the platform MBean
+ * server, as {@code org.geoserver:type=ResourcePoolCache,name=<cache name>}, for the lifetime of
+ * the application context.
+ *
+ * <p>The registered beans look up the caches of the catalog resource pool at each call, so they
+ * follow pool and cache replacements, and do not keep the caches reachable once the catalog is
+ * gone. Resource pools built outside of the catalog (e.g., by backup and restore) are not exposed.
+ */
+public class ResourceCacheExporter implements InitializingBean, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(ResourceCacheExporter.class);
+
+    /** Prefix of the JMX object names of the caches, followed by the cache name */
+    static final String CACHE_MBEAN_PREFIX = "org.geoserver:type=ResourcePoolCache,name=";
+
+    private final Catalog catalog;
+
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    public ResourceCacheExporter(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (String cache : catalog.getResourcePool().getCacheStatistics().keySet()) {
+            try {
+                ObjectName name = new ObjectName(CACHE_MBEAN_PREFIX + cache);
+                if (server.isRegistered(name)) {
+                    // left behind by another application context
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(new CatalogCacheStatistics(cache), name);
+                registered.add(name);
+            } catch (JMException e) {
+                LOGGER.log(Level.FINE, "Could not register the " + cache + " cache", e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                LOGGER.log(Level.FINE, "Could not unregister " + name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /** The statistics of a cache of the current catalog resource pool, looked up by name */
+    class CatalogCacheStatistics implements ResourceCacheMXBean {
+
+        final String name;
+
+        CatalogCacheStatistics(String name) {
+            this.name = name;
+        }
+
+        /** The cache, or null if the current resource pool does not have it */
+        ResourceCacheMXBean cache() {
+            return catalog.getResourcePool().getCacheStatistics().get(name);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getSpecification() {
+            ResourceCacheMXBean cache = cache();
+            return cache == null ? null : cache.getSpecification();
+        }
+
+        @Override
+        public long getSize() {
+            ResourceCacheMXBean cache = cache();
+            return cache == null ? 0 : cache.getSize();
+        }
+
+        @Override
+        public long getHitCount() {
+            ResourceCacheMXBean cache = cache();
+            return cache == null ? 0 : cache.getHitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            ResourceCacheMXBean cache = cache();
+            return cache == null ? 0 : cache.getMissCount();
+        }
+
+        @Override
+        public double getHitRate() {
+            ResourceCacheMXBean cache = cache();
+            return cache == null ? 1 : cache.getHitRate();
+        }
+
+        @Override
+        public long getLoadCount() {
+            ResourceCacheMXBean cache = cache();
+            return cache == null ? 0 : cache.getLoadCount();
+        }
+
+        @Override
+        public long getTotalLoadTime() {
+            ResourceCacheMXBean cache = cache();
+            return cache == null ? 0 : cache.getTotalLoadTime();
+        }
+
+        @Override
+        public double getAverageLoadPenalty() {
+            ResourceCacheMXBean cache = cache();
+            return cache == null ? 0 : cache.getAverageLoadPenalty();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            ResourceCacheMXBean cache = cache();
+            return cache == null ? 0 : cache.getEvictionCount();
+        }
+    }
+}
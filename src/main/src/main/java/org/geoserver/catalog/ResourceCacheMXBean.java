@@ -0,0 +1,45 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+/**
+ * Statistics about one of the {@link ResourcePool} caches. The caches of the catalog are exposed in
+ * the platform MBean server by {@link ResourceCacheExporter}.
+ */
+public interface ResourceCacheMXBean {
+
+    /** The cache name, e.g., "dataStore" or "featureType" */
+    String getName();
+
+    /**
+     * The cache configuration, in the {@link com.google.common.cache.CacheBuilderSpec} format
+     * (e.g., "maximumSize=200,expireAfterAccess=30m")
+     */
+    String getSpecification();
+
+    /** The current number of entries */
+    long getSize();
+
+    /** Number of lookups that found a cached value */
+    long getHitCount();
+
+    /** Number of lookups that did not find a cached value */
+    long getMissCount();
+
+    /** Ratio of lookups that found a cached value, or 1 if no lookups have been performed */
+    double getHitRate();
+
+    /** Number of values created by the resource pool and put in the cache */
+    long getLoadCount();
+
+    /** Total time spent creating the values put in the cache, in nanoseconds */
+    long getTotalLoadTime();
+
+    /** Average time spent creating a value, in nanoseconds */
+    double getAverageLoadPenalty();
+
+    /** Number of entries evicted because of size limits, expiration or garbage collection */
+    long getEvictionCount();
+}
@@ -5,6 +5,11 @@
  */
 package org.geoserver.catalog;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
 import java.awt.RenderingHints;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -23,19 +28,23 @@ import java.lang.reflect.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.measure.Unit;
@@ -110,7 +119,6 @@ import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
 import org.geotools.styling.StyleImpl;
 import org.geotools.styling.StyledLayerDescriptor;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.URLs;
 import org.geotools.util.Utilities;
 import org.geotools.util.factory.Hints;
@@ -200,6 +208,15 @@ public class ResourcePool {
     /** Default number of hard references */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
 
+    /**
+     * Prefix of the system variables used to configure the caches, followed by the cache name.
+     * The value is a {@link CacheBuilderSpec}, e.g., "softValues,maximumSize=1000".
+     */
+    public static final String CACHE_SPEC_PREFIX = "org.geoserver.catalog.ResourcePool.cache.";
+
+    /** Default specification of the caches whose values can be released on memory pressure */
+    static final String SOFT_VALUES_SPEC = "softValues,maximumSize=";
+
     Catalog catalog;
     Map<String, CoordinateReferenceSystem> crsCache;
     DataStoreCache dataStoreCache;
@@ -280,7 +297,7 @@ public class ResourcePool {
     }
 
     protected Map<String, CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        return new ObjectCache<>("crs", "");
     }
 
     /**
@@ -362,7 +379,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, StyledLayerDescriptor> createSldCache() {
-        return new HashMap<StyleInfo, StyledLayerDescriptor>();
+        return new ObjectCache<>("sld", "");
     }
 
     /**
@@ -375,7 +392,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        return new ObjectCache<>("style", "");
     }
 
     /**
@@ -414,6 +431,47 @@ public class ResourcePool {
         }
     }
 
+    /**
+     * Returns the statistics of the caches, by cache name. Caches replaced by subclasses with
+     * plain maps are not included.
+     */
+    public Map<String, ResourceCacheMXBean> getCacheStatistics() {
+        Map<String, ResourceCacheMXBean> result = new LinkedHashMap<>();
+        for (Map<?, ?> cache :
+                Arrays.asList(
+                        crsCache,
+                        dataStoreCache,
+                        featureTypeCache,
+                        featureTypeAttributeCache,
+                        hintCoverageReaderCache,
+                        wmsCache,
+                        wmtsCache,
+                        sldCache,
+                        styleCache)) {
+            if (cache instanceof ResourceCacheMXBean) {
+                ResourceCacheMXBean statistics = (ResourceCacheMXBean) cache;
+                result.put(statistics.getName(), statistics);
+            }
+        }
+        return result;
+    }
+
+    /** Looks up a value in a cache, without recording a cache hit or miss */
+    @SuppressWarnings("unchecked")
+    static <K, V> V peek(Map<K, V> cache, K key) {
+        if (cache instanceof CatalogResourceCache) {
+            return ((CatalogResourceCache<K, V>) cache).peek(key);
+        }
+        return cache.get(key);
+    }
+
+    /** Records the time spent creating a value that has been put in the cache */
+    static void recordLoad(Map<?, ?> cache, long startNanos) {
+        if (cache instanceof CatalogResourceCache) {
+            ((CatalogResourceCache<?, ?>) cache).recordLoad(startNanos);
+        }
+    }
+
     /**
      * Sets the size of the feature type cache.
      *
@@ -475,11 +533,13 @@ public class ResourcePool {
         CoordinateReferenceSystem crs = crsCache.get(srsName);
         if (crs == null) {
             synchronized (crsCache) {
-                crs = crsCache.get(srsName);
+                crs = peek(crsCache, srsName);
                 if (crs == null) {
                     try {
+                        long start = System.nanoTime();
                         crs = CRS.decode(srsName);
                         crsCache.put(srsName, crs);
+                        recordLoad(crsCache, start);
                     } catch (Exception e) {
                         throw (IOException) new IOException().initCause(e);
                     }
@@ -541,8 +601,9 @@ public class ResourcePool {
             dataStore = dataStoreCache.get(id);
             if (dataStore == null) {
                 synchronized (dataStoreCache) {
-                    dataStore = dataStoreCache.get(id);
+                    dataStore = peek(dataStoreCache, id);
                     if (dataStore == null) {
+                        long start = System.nanoTime();
                         // create data store
                         Map<String, Serializable> connectionParameters =
                                 expandedStore.getConnectionParameters();
@@ -646,6 +707,7 @@ public class ResourcePool {
                         // harmful, NPE when trying to dispose of them)
                         if (id != null) {
                             dataStoreCache.put(id, dataStore);
+                            recordLoad(dataStoreCache, start);
                         }
                     }
                 }
@@ -771,8 +833,9 @@ public class ResourcePool {
         List<AttributeTypeInfo> atts = featureTypeAttributeCache.get(info.getId());
         if (atts == null) {
             synchronized (featureTypeAttributeCache) {
-                atts = featureTypeAttributeCache.get(info.getId());
+                atts = peek(featureTypeAttributeCache, info.getId());
                 if (atts == null) {
+                    long start = System.nanoTime();
                     // load from feature type
                     atts = loadAttributes(info);
 
@@ -789,6 +852,7 @@ public class ResourcePool {
                     // cache attributes only if the id is not null -> the feature type is not new
                     if (info.getId() != null) {
                         featureTypeAttributeCache.put(info.getId(), atts);
+                        recordLoad(featureTypeAttributeCache, start);
                     }
                 }
             }
@@ -946,8 +1010,9 @@ public class ResourcePool {
         FeatureType ft = featureTypeCache.get(key);
         if (ft == null) {
             synchronized (featureTypeCache) {
-                ft = featureTypeCache.get(key);
+                ft = peek(featureTypeCache, key);
                 if (ft == null) {
+                    long start = System.nanoTime();
 
                     // grab the underlying feature type
                     DataAccess<? extends FeatureType, ? extends Feature> dataAccess =
@@ -961,6 +1026,7 @@ public class ResourcePool {
                     ft = buildFeatureType(info, handleProjectionPolicy, ft);
 
                     featureTypeCache.put(key, ft);
+                    recordLoad(featureTypeCache, start);
                 }
             }
         }
@@ -1552,9 +1618,10 @@ public class ResourcePool {
         if (reader == null) {
             synchronized (hintCoverageReaderCache) {
                 if (key != null) {
-                    reader = hintCoverageReaderCache.get(key);
+                    reader = peek(hintCoverageReaderCache, key);
                 }
                 if (reader == null) {
+                    long start = System.nanoTime();
                     /////////////////////////////////////////////////////////
                     //
                     // Getting coverage reader using the format and the real path.
@@ -1574,6 +1641,7 @@ public class ResourcePool {
                     }
                     if (key != null) {
                         hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
+                        recordLoad(hintCoverageReaderCache, start);
                     }
                 }
             }
@@ -1838,8 +1906,9 @@ public class ResourcePool {
             }
             if (wms == null) {
                 synchronized (wmsCache) {
-                    wms = wmsCache.get(id);
+                    wms = peek(wmsCache, id);
                     if (wms == null) {
+                        long start = System.nanoTime();
                         HTTPClient client = getHTTPClient(expandedStore);
                         String capabilitiesURL = expandedStore.getCapabilitiesURL();
                         URL serverURL = new URL(capabilitiesURL);
@@ -1855,6 +1924,7 @@ public class ResourcePool {
                         wms = new WebMapServer(serverURL, client, hints);
 
                         wmsCache.put(id, wms);
+                        recordLoad(wmsCache, start);
                     }
                 }
             }
@@ -1890,8 +1960,9 @@ public class ResourcePool {
             }
             if (wmts == null) {
                 synchronized (wmtsCache) {
-                    wmts = (WebMapTileServer) wmtsCache.get(id);
+                    wmts = peek(wmtsCache, id);
                     if (wmts == null) {
+                        long start = System.nanoTime();
                         HTTPClient client = getHTTPClient(expandedStore);
                         String capabilitiesURL = expandedStore.getCapabilitiesURL();
                         URL serverURL = new URL(capabilitiesURL);
@@ -1903,6 +1974,7 @@ public class ResourcePool {
                         }
 
                         wmtsCache.put(id, wmts);
+                        recordLoad(wmtsCache, start);
                     }
                 }
             }
@@ -2029,11 +2101,13 @@ public class ResourcePool {
         StyledLayerDescriptor sld = sldCache.get(info);
         if (sld == null) {
             synchronized (sldCache) {
-                sld = sldCache.get(info);
+                sld = peek(sldCache, info);
                 if (sld == null) {
+                    long start = System.nanoTime();
                     sld = dataDir().parsedSld(info);
 
                     sldCache.put(info, sld);
+                    recordLoad(sldCache, start);
 
                     final Resource styleResource = dataDir().style(info);
                     styleResource.addListener(
@@ -2065,8 +2139,9 @@ public class ResourcePool {
         Style style = styleCache.get(info);
         if (style == null) {
             synchronized (styleCache) {
-                style = styleCache.get(info);
+                style = peek(styleCache, info);
                 if (style == null) {
+                    long start = System.nanoTime();
                     style = dataDir().parsedStyle(info);
 
                     if (style == null) {
@@ -2080,6 +2155,7 @@ public class ResourcePool {
                     // remove this when wms works off style info
                     style.setName(info.getName());
                     styleCache.put(info, style);
+                    recordLoad(styleCache, start);
 
                     final Resource styleResource = dataDir().style(info);
                     styleResource.addListener(
@@ -2250,58 +2326,206 @@ public class ResourcePool {
 
     /**
      * Base class for all the resource caches, ensures type safety and provides an easier way to
-     * handle with resource disposal
+     * handle with resource disposal.
+     *
+     * <p>The cache is backed by a Guava {@link Cache}, configured by a {@link CacheBuilderSpec}
+     * that can be overridden with the {@link #CACHE_SPEC_PREFIX}{@code <name>} system variable,
+     * e.g. {@code -Dorg.geoserver.catalog.ResourcePool.cache.featureType=maximumSize=1000,
+     * expireAfterAccess=30m}. Entries are disposed when explicitly removed, or evicted because of
+     * size limits or expiration.
+     *
+     * <p>With the {@code softValues} option the garbage collector can release the values when the
+     * JVM runs low on memory. Those values are gone by the time the eviction is notified, so they
+     * cannot be disposed, the caches holding resources that must be released (e.g., data stores)
+     * should not use it.
      *
      * @author Andrea Aime
      * @param <K>
      * @param <V>
      */
-    abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
+    abstract class CatalogResourceCache<K, V> extends AbstractMap<K, V>
+            implements ResourceCacheMXBean {
+
+        final String name;
+
+        final String specification;
+
+        final Cache<K, V> cache;
 
-        public CatalogResourceCache() {
-            this(100);
+        final LongAdder loadCount = new LongAdder();
+
+        final LongAdder totalLoadTime = new LongAdder();
+
+        public CatalogResourceCache(String name, String defaultSpecification) {
+            this.name = name;
+            String spec = GeoServerExtensions.getProperty(CACHE_SPEC_PREFIX + name);
+            Cache<K, V> cache = null;
+            if (spec != null) {
+                try {
+                    cache = buildCache(spec);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    LOGGER.log(
+                            Level.WARNING,
+                            "Invalid specification '"
+                                    + spec
+                                    + "' for the "
+                                    + name
+                                    + " cache, using the default: "
+                                    + defaultSpecification,
+                            e);
+                }
+            }
+            if (cache == null) {
+                spec = defaultSpecification;
+                cache = buildCache(spec);
+            }
+            this.specification = spec;
+            this.cache = cache;
         }
 
-        public CatalogResourceCache(int hardReferences) {
-            super(hardReferences);
-            super.cleaner =
-                    new ValueCleaner() {
+        private Cache<K, V> buildCache(String spec) {
+            return CacheBuilder.from(CacheBuilderSpec.parse(spec))
+                    .recordStats()
+                    .removalListener(this::onRemoval)
+                    .build();
+        }
 
-                        @Override
-                        public void clean(Object key, Object object) {
-                            dispose((K) key, (V) object);
-                        }
-                    };
+        private void onRemoval(RemovalNotification<K, V> notification) {
+            if (notification.getCause() == RemovalCause.REPLACED) {
+                // replaced values were never disposed
+                return;
+            }
+            if (notification.getValue() == null) {
+                // garbage collected, nothing left to dispose
+                return;
+            }
+            try {
+                dispose(notification.getKey(), notification.getValue());
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error disposing entry: " + notification.getKey(), e);
+            }
         }
 
         @Override
-        public V remove(Object key) {
-            V object = super.remove(key);
-            if (object != null) {
-                dispose((K) key, object);
+        public V get(Object key) {
+            return key == null ? null : cache.getIfPresent(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key != null && cache.asMap().containsKey(key);
+        }
+
+        @Override
+        public V put(K key, V value) {
+            if (key == null || value == null) {
+                return null;
             }
-            return object;
+            return cache.asMap().put(key, value);
+        }
+
+        @Override
+        public V remove(Object key) {
+            return key == null ? null : cache.asMap().remove(key);
         }
 
         @Override
         public void clear() {
-            for (Entry entry : entrySet()) {
-                try {
-                    dispose((K) entry.getKey(), (V) entry.getValue());
-                } catch (Exception e) {
-                    LOGGER.log(Level.WARNING, "Error dispoing entry: " + entry, e);
-                }
-            }
-            super.clear();
+            cache.invalidateAll();
+        }
+
+        @Override
+        public int size() {
+            return (int) cache.size();
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return cache.asMap().entrySet();
+        }
+
+        /** Returns the cached value, without recording a hit or a miss */
+        V peek(Object key) {
+            return key == null ? null : cache.asMap().get(key);
+        }
+
+        /** Records the time spent creating a value that is then put in the cache */
+        void recordLoad(long startNanos) {
+            loadCount.increment();
+            totalLoadTime.add(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getSpecification() {
+            return specification;
+        }
+
+        @Override
+        public long getSize() {
+            return cache.size();
+        }
+
+        @Override
+        public long getHitCount() {
+            return cache.stats().hitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return cache.stats().missCount();
+        }
+
+        @Override
+        public double getHitRate() {
+            return cache.stats().hitRate();
+        }
+
+        @Override
+        public long getLoadCount() {
+            return loadCount.sum();
+        }
+
+        @Override
+        public long getTotalLoadTime() {
+            return totalLoadTime.sum();
+        }
+
+        @Override
+        public double getAverageLoadPenalty() {
+            long count = loadCount.sum();
+            return count == 0 ? 0 : (double) totalLoadTime.sum() / count;
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return cache.stats().evictionCount();
         }
 
         protected abstract void dispose(K key, V object);
     }
 
+    /** A cache whose values do not need to be disposed */
+    class ObjectCache<K, V> extends CatalogResourceCache<K, V> {
+
+        ObjectCache(String name, String defaultSpecification) {
+            super(name, defaultSpecification);
+        }
+
+        @Override
+        protected void dispose(K key, V object) {
+            // nothing to do
+        }
+    }
+
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
 
         public FeatureTypeCache(int maxSize) {
-            super(maxSize);
+            super("featureType", SOFT_VALUES_SPEC + maxSize);
         }
 
         protected void dispose(String key, FeatureType featureType) {
@@ -2329,6 +2553,14 @@ public class ResourcePool {
      */
     @SuppressWarnings("rawtypes")
     class DataStoreCache extends CatalogResourceCache<String, DataAccess> {
+
+        public DataStoreCache() {
+            // stores are released only when the catalog says so: a store evicted because of size
+            // limits could be still in use, and a garbage collected one cannot be disposed, leaking
+            // its connection pool
+            super("dataStore", "");
+        }
+
         /**
          * Ensure data access entry is removed from catalog, and ensure DataAccess dispose is called
          * to return system resources.
@@ -2363,6 +2595,10 @@ public class ResourcePool {
 
     class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
 
+        public CoverageReaderCache() {
+            super("coverageReader", SOFT_VALUES_SPEC + 100);
+        }
+
         protected void dispose(String id, GridCoverageReader reader) {
             CoverageStoreInfo info = catalog.getCoverageStore(id);
             if (info != null) {
@@ -2383,6 +2619,10 @@ public class ResourcePool {
     class CoverageHintReaderCache
             extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
 
+        public CoverageHintReaderCache() {
+            super("coverageHintReader", SOFT_VALUES_SPEC + 100);
+        }
+
         protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
             CoverageStoreInfo info = catalog.getCoverageStore(key.id);
             if (info != null) {
@@ -2442,7 +2682,7 @@ public class ResourcePool {
     class FeatureTypeAttributeCache extends CatalogResourceCache<String, List<AttributeTypeInfo>> {
 
         FeatureTypeAttributeCache(int size) {
-            super(size);
+            super("featureTypeAttribute", SOFT_VALUES_SPEC + size);
         }
 
         @Override
@@ -2453,6 +2693,10 @@ public class ResourcePool {
 
     class WMSCache extends CatalogResourceCache<String, WebMapServer> {
 
+        public WMSCache() {
+            super("wms", SOFT_VALUES_SPEC + 100);
+        }
+
         @Override
         protected void dispose(String key, WebMapServer server) {
             HTTPClient client = server.getHTTPClient();
@@ -2476,6 +2720,10 @@ public class ResourcePool {
 
     class WMTSCache extends CatalogResourceCache<String, WebMapTileServer> {
 
+        public WMTSCache() {
+            super("wmts", SOFT_VALUES_SPEC + 100);
+        }
+
         @Override
         protected void dispose(String key, WebMapTileServer server) {
             HTTPClient client = server.getHTTPClient();
@@ -8,8 +8,13 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.function.Function;
@@ -21,6 +26,7 @@ import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.ows.util.OwsUtils;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
 
 /**
  * A support index for {@link DefaultCatalogFacade}, can perform fast lookups of {@link CatalogInfo}
@@ -29,6 +35,11 @@ import org.opengis.feature.type.Name;
  * <p>The lookups by predicate have been tested and optimized for performance, in particular the
  * current for loops turned out to be significantly faster than building and returning streams
  *
+ * <p>Secondary indexes on single valued, string properties (e.g., {@code workspace.id}) can be
+ * registered with {@link #addIndex(String, Function)}, they are used by {@link #list(Class,
+ * Filter)} to narrow down the objects the filter is evaluated against, see {@link
+ * CatalogInfoQueryPlanner}. The local part of the name is always indexed, as {@code name}.
+ *
  * @param <T>
  */
 class CatalogInfoLookup<T extends CatalogInfo> {
@@ -39,9 +50,38 @@ class CatalogInfoLookup<T extends CatalogInfo> {
     Function<T, Name> nameMapper;
     static final Predicate TRUE = x -> true;
 
+    /** The property name of the identifier, looked up directly in the id maps */
+    static final String ID = "id";
+
+    /** The property name of the default index, on the local part of the mapped name */
+    static final String NAME = "name";
+
+    /** Secondary indexes, by property name */
+    Map<String, PropertyIndex<T>> indexes = new ConcurrentHashMap<>();
+
     public CatalogInfoLookup(Function<T, Name> nameMapper) {
         super();
         this.nameMapper = nameMapper;
+        addIndex(NAME, v -> nameMapper.apply(v).getLocalPart());
+    }
+
+    /**
+     * Registers a secondary index on the given property. The extractor must return the same value
+     * the property would have if evaluated by a filter, and is applied both to the stored objects
+     * and to the {@link ModificationProxy} being saved, in order to track changes.
+     *
+     * <p>Indexes must be registered before any object is added to the lookup.
+     */
+    public CatalogInfoLookup<T> addIndex(String property, Function<T, String> extractor) {
+        indexes.put(property, new PropertyIndex<>(extractor));
+        return this;
+    }
+
+    /** Returns the names of the properties that can be looked up without a full scan */
+    Set<String> getIndexedProperties() {
+        Set<String> properties = new HashSet<>(indexes.keySet());
+        properties.add(ID);
+        return properties;
     }
 
     <K> Map<K, T> getMapForValue(ConcurrentHashMap<Class<T>, Map<K, T>> maps, T value) {
@@ -74,6 +114,10 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         Name name = nameMapper.apply(value);
         nameMap.put(name, value);
         Map<String, T> idMap = getMapForValue(idMultiMap, value);
+        Class<T> vc = (Class<T>) value.getClass();
+        for (PropertyIndex<T> index : indexes.values()) {
+            index.add(vc, value);
+        }
         return idMap.put(value.getId(), value);
     }
 
@@ -91,6 +135,10 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         Map<Name, T> nameMap = getMapForValue(nameMultiMap, value);
         nameMap.remove(name);
         Map<String, T> idMap = getMapForValue(idMultiMap, value);
+        Class<T> vc = (Class<T>) ModificationProxy.unwrap(value).getClass();
+        for (PropertyIndex<T> index : indexes.values()) {
+            index.remove(vc, value.getId());
+        }
         return idMap.remove(value.getId());
     }
 
@@ -106,11 +154,29 @@ class CatalogInfoLookup<T extends CatalogInfo> {
             nameMap.remove(oldName);
             nameMap.put(newName, actualValue);
         }
+        Class<T> vc = (Class<T>) actualValue.getClass();
+        for (PropertyIndex<T> index : indexes.values()) {
+            index.update(vc, actualValue, index.extractor.apply(proxiedValue));
+        }
+    }
+
+    /**
+     * Moves the value under a new key in the specified index, for changes that are not tracked by
+     * the value own proxy (e.g., a layer name changing along with its resource)
+     */
+    void reindex(T value, String property, String newKey) {
+        PropertyIndex<T> index = indexes.get(property);
+        if (index != null) {
+            index.update((Class<T>) value.getClass(), value, newKey);
+        }
     }
 
     public void clear() {
         idMultiMap.clear();
         nameMultiMap.clear();
+        for (PropertyIndex<T> index : indexes.values()) {
+            index.clear();
+        }
     }
 
     /**
@@ -140,6 +206,93 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         return result;
     }
 
+    /**
+     * Looks up objects by class and matching filter. When the filter can be answered, at least in
+     * part, by the secondary indexes only the candidates returned by the indexes are evaluated,
+     * otherwise this method falls back on a full scan. In both cases the results are returned in
+     * the same order as {@link #list(Class, Predicate)}.
+     */
+    <U extends CatalogInfo> List<U> list(Class<U> clazz, Filter filter) {
+        if (filter == null || filter == Filter.INCLUDE) {
+            return list(clazz, TRUE);
+        }
+        CatalogInfoQueryPlanner.Plan plan =
+                CatalogInfoQueryPlanner.plan(filter, getIndexedProperties());
+        if (plan == null) {
+            return list(clazz, (Predicate<U>) filter::evaluate);
+        }
+
+        ArrayList<U> result = new ArrayList<U>();
+        for (Class<T> key : nameMultiMap.keySet()) {
+            if (clazz.isAssignableFrom(key)) {
+                Map<String, T> candidates = plan.candidates(this, key);
+                if (candidates.isEmpty()) {
+                    continue;
+                }
+                List<T> sorted = new ArrayList<>(candidates.values());
+                if (sorted.size() > 1) {
+                    sorted.sort(nameComparator());
+                }
+                for (T v : sorted) {
+                    if (filter.evaluate(v)) {
+                        result.add((U) v);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /** Sorts values the same way the name maps do */
+    @SuppressWarnings("unchecked")
+    private Comparator<T> nameComparator() {
+        return (v1, v2) -> ((Comparable) nameMapper.apply(v1)).compareTo(nameMapper.apply(v2));
+    }
+
+    /**
+     * Returns the values of the given class whose indexed property is equal to the key, as a map
+     * from id to value. The returned map should not be modified.
+     */
+    Map<String, T> findByIndex(Class<T> clazz, String property, String key) {
+        if (ID.equals(property)) {
+            Map<String, T> idMap = idMultiMap.get(clazz);
+            T value = idMap == null ? null : idMap.get(key);
+            return value == null
+                    ? Collections.emptyMap()
+                    : Collections.singletonMap(value.getId(), value);
+        }
+        PropertyIndex<T> index = indexes.get(property);
+        if (index == null) {
+            throw new IllegalArgumentException("Property " + property + " is not indexed");
+        }
+        return index.get(clazz, key);
+    }
+
+    /**
+     * Returns the values of the given class whose indexed property starts with the given prefix,
+     * as a map from id to value.
+     */
+    Map<String, T> findByIndexPrefix(Class<T> clazz, String property, String prefix) {
+        if (ID.equals(property)) {
+            Map<String, T> result = new HashMap<>();
+            Map<String, T> idMap = idMultiMap.get(clazz);
+            if (idMap != null) {
+                for (T v : idMap.values()) {
+                    if (v.getId().startsWith(prefix)) {
+                        result.put(v.getId(), v);
+                    }
+                }
+            }
+            return result;
+        }
+        PropertyIndex<T> index = indexes.get(property);
+        if (index == null) {
+            throw new IllegalArgumentException("Property " + property + " is not indexed");
+        }
+        return index.getByPrefix(clazz, prefix);
+    }
+
     /** Looks up a CatalogInfo by class and identifier */
     public <U extends CatalogInfo> U findById(String id, Class<U> clazz) {
         for (Class<T> key : idMultiMap.keySet()) {
@@ -224,4 +377,97 @@ class CatalogInfoLookup<T extends CatalogInfo> {
 
         return this;
     }
+
+    /**
+     * A secondary index on a single valued string property, keeping values split by
+     * implementation class like the id and name maps
+     */
+    static final class PropertyIndex<T extends CatalogInfo> {
+
+        /** Used in place of null keys, so that every value is found in the index */
+        static final String NULL_KEY = "\u0000";
+
+        final Function<T, String> extractor;
+
+        /** The buckets, keyed by class and then by property value, mapping id to value */
+        final ConcurrentHashMap<Class<T>, ConcurrentSkipListMap<String, Map<String, T>>> maps =
+                new ConcurrentHashMap<>();
+
+        /**
+         * The key each value is currently indexed under, allows removals and updates without
+         * relying on the current state of the value, that might have been changed in place
+         */
+        final ConcurrentHashMap<String, String> keysById = new ConcurrentHashMap<>();
+
+        PropertyIndex(Function<T, String> extractor) {
+            this.extractor = extractor;
+        }
+
+        void add(Class<T> clazz, T value) {
+            update(clazz, value, extractor.apply(value));
+        }
+
+        void update(Class<T> clazz, T value, String newKey) {
+            String key = newKey == null ? NULL_KEY : newKey;
+            String oldKey = keysById.get(value.getId());
+            if (!key.equals(oldKey)) {
+                remove(clazz, value.getId());
+                put(clazz, key, value);
+            }
+        }
+
+        void remove(Class<T> clazz, String id) {
+            String key = keysById.remove(id);
+            ConcurrentSkipListMap<String, Map<String, T>> buckets = maps.get(clazz);
+            if (key != null && buckets != null) {
+                buckets.computeIfPresent(
+                        key,
+                        (k, bucket) -> {
+                            bucket.remove(id);
+                            return bucket.isEmpty() ? null : bucket;
+                        });
+            }
+        }
+
+        private void put(Class<T> clazz, String key, T value) {
+            ConcurrentSkipListMap<String, Map<String, T>> buckets =
+                    maps.computeIfAbsent(clazz, k -> new ConcurrentSkipListMap<>());
+            buckets.compute(
+                    key,
+                    (k, bucket) -> {
+                        if (bucket == null) {
+                            bucket = new ConcurrentHashMap<>();
+                        }
+                        bucket.put(value.getId(), value);
+                        return bucket;
+                    });
+            keysById.put(value.getId(), key);
+        }
+
+        Map<String, T> get(Class<T> clazz, String key) {
+            ConcurrentSkipListMap<String, Map<String, T>> buckets = maps.get(clazz);
+            Map<String, T> bucket = buckets == null ? null : buckets.get(key);
+            return bucket == null ? Collections.emptyMap() : bucket;
+        }
+
+        Map<String, T> getByPrefix(Class<T> clazz, String prefix) {
+            Map<String, T> result = new HashMap<>();
+            ConcurrentSkipListMap<String, Map<String, T>> buckets = maps.get(clazz);
+            if (buckets != null) {
+                for (Map.Entry<String, Map<String, T>> entry :
+                        buckets.tailMap(prefix, true).entrySet()) {
+                    if (!entry.getKey().startsWith(prefix)) {
+                        break;
+                    }
+                    result.putAll(entry.getValue());
+                }
+            }
+            return result;
+        }
+
+        void clear() {
+            maps.clear();
+            keysById.clear();
+        }
+    }
 }
@@ -0,0 +1,287 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.geoserver.catalog.CatalogInfo;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Function;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+
+/**
+ * Turns a {@link Filter} into lookups against the secondary indexes of a {@link
+ * CatalogInfoLookup}.
+ *
+ * <p>The supported filter shapes are:
+ *
+ * <ul>
+ *   <li>Case sensitive equality between an indexed property and a string literal, or a list of
+ *       string literals
+ *   <li>The {@code in} function applied to an indexed property, compared to {@code true}
+ *   <li>Case sensitive {@code LIKE} on an indexed property, with a non empty prefix before the
+ *       first wildcard
+ *   <li>{@code AND}, where at least one of the children is supported
+ *   <li>{@code OR}, where all of the children are supported
+ * </ul>
+ *
+ * A {@link Plan} always returns a superset of the objects matching the filter, the caller is
+ * expected to evaluate the full filter against the candidates.
+ */
+class CatalogInfoQueryPlanner {
+
+    /** Computes the candidates for a filter, as a map from id to value */
+    interface Plan {
+        <T extends CatalogInfo> Map<String, T> candidates(
+                CatalogInfoLookup<T> lookup, Class<T> clazz);
+    }
+
+    private CatalogInfoQueryPlanner() {}
+
+    /**
+     * Builds a plan for the filter, or returns null if the filter cannot be answered by the
+     * indexes and a full scan is required
+     */
+    static Plan plan(Filter filter, Set<String> indexedProperties) {
+        if (filter instanceof And) {
+            List<Plan> plans = new ArrayList<>();
+            for (Filter child : ((And) filter).getChildren()) {
+                Plan plan = plan(child, indexedProperties);
+                if (plan != null) {
+                    plans.add(plan);
+                }
+            }
+            if (plans.isEmpty()) {
+                return null;
+            }
+            return plans.size() == 1 ? plans.get(0) : new AndPlan(plans);
+        } else if (filter instanceof Or) {
+            List<Plan> plans = new ArrayList<>();
+            for (Filter child : ((Or) filter).getChildren()) {
+                Plan plan = plan(child, indexedProperties);
+                if (plan == null) {
+                    return null;
+                }
+                plans.add(plan);
+            }
+            return new OrPlan(plans);
+        } else if (filter instanceof PropertyIsEqualTo) {
+            return planEqualTo((PropertyIsEqualTo) filter, indexedProperties);
+        } else if (filter instanceof PropertyIsLike) {
+            return planLike((PropertyIsLike) filter, indexedProperties);
+        }
+
+        return null;
+    }
+
+    private static Plan planEqualTo(PropertyIsEqualTo equal, Set<String> indexedProperties) {
+        if (!equal.isMatchingCase()) {
+            return null;
+        }
+        Expression e1 = equal.getExpression1();
+        Expression e2 = equal.getExpression2();
+        if (e2 instanceof PropertyName || e2 instanceof Function) {
+            Expression tmp = e1;
+            e1 = e2;
+            e2 = tmp;
+        }
+        if (!(e2 instanceof Literal)) {
+            return null;
+        }
+        Object value = ((Literal) e2).getValue();
+
+        // in(property, literal1, literal2, ...) = true
+        if (e1 instanceof Function) {
+            Function function = (Function) e1;
+            if (!"in".equals(function.getName())
+                    || !(Boolean.TRUE.equals(value) || "true".equals(value))) {
+                return null;
+            }
+            List<Expression> parameters = function.getParameters();
+            if (parameters.size() < 2 || !(parameters.get(0) instanceof PropertyName)) {
+                return null;
+            }
+            String property = ((PropertyName) parameters.get(0)).getPropertyName();
+            if (!indexedProperties.contains(property)) {
+                return null;
+            }
+            List<Object> values = new ArrayList<>();
+            for (Expression parameter : parameters.subList(1, parameters.size())) {
+                if (!(parameter instanceof Literal)) {
+                    return null;
+                }
+                values.add(((Literal) parameter).getValue());
+            }
+            Set<String> keys = keys(values);
+            return keys == null ? null : new KeysPlan(property, keys);
+        }
+
+        if (!(e1 instanceof PropertyName)) {
+            return null;
+        }
+        String property = ((PropertyName) e1).getPropertyName();
+        if (!indexedProperties.contains(property)) {
+            return null;
+        }
+        Set<String> keys = keys(value);
+        return keys == null ? null : new KeysPlan(property, keys);
+    }
+
+    /** Returns the string keys in the literal value, or null if it contains non string values */
+    private static Set<String> keys(Object value) {
+        if (value instanceof String) {
+            return Collections.singleton((String) value);
+        } else if (value instanceof Collection) {
+            Set<String> keys = new LinkedHashSet<>();
+            for (Object v : (Collection<?>) value) {
+                if (!(v instanceof String)) {
+                    return null;
+                }
+                keys.add((String) v);
+            }
+            return keys;
+        }
+        return null;
+    }
+
+    private static Plan planLike(PropertyIsLike like, Set<String> indexedProperties) {
+        if (!like.isMatchingCase() || !(like.getExpression() instanceof PropertyName)) {
+            return null;
+        }
+        String property = ((PropertyName) like.getExpression()).getPropertyName();
+        if (!indexedProperties.contains(property) || like.getLiteral() == null) {
+            return null;
+        }
+
+        String pattern = like.getLiteral();
+        int end = pattern.length();
+        for (String special :
+                new String[] {like.getWildCard(), like.getSingleChar(), like.getEscape()}) {
+            if (special != null && !special.isEmpty()) {
+                int idx = pattern.indexOf(special);
+                if (idx >= 0 && idx < end) {
+                    end = idx;
+                }
+            }
+        }
+        if (end == 0) {
+            return null;
+        }
+        return new PrefixPlan(property, pattern.substring(0, end));
+    }
+
+    /** Equality against one or more keys */
+    static class KeysPlan implements Plan {
+        final String property;
+        final Set<String> keys;
+
+        KeysPlan(String property, Set<String> keys) {
+            this.property = property;
+            this.keys = keys;
+        }
+
+        @Override
+        public <T extends CatalogInfo> Map<String, T> candidates(
+                CatalogInfoLookup<T> lookup, Class<T> clazz) {
+            if (keys.size() == 1) {
+                return lookup.findByIndex(clazz, property, keys.iterator().next());
+            }
+            Map<String, T> result = new HashMap<>();
+            for (String key : keys) {
+                result.putAll(lookup.findByIndex(clazz, property, key));
+            }
+            return result;
+        }
+    }
+
+    /** Values starting with the given prefix */
+    static class PrefixPlan implements Plan {
+        final String property;
+        final String prefix;
+
+        PrefixPlan(String property, String prefix) {
+            this.property = property;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public <T extends CatalogInfo> Map<String, T> candidates(
+                CatalogInfoLookup<T> lookup, Class<T> clazz) {
+            return lookup.findByIndexPrefix(clazz, property, prefix);
+        }
+    }
+
+    /** Intersection of the child plans, driven by the smallest candidate set */
+    static class AndPlan implements Plan {
+        final List<Plan> plans;
+
+        AndPlan(List<Plan> plans) {
+            this.plans = plans;
+        }
+
+        @Override
+        public <T extends CatalogInfo> Map<String, T> candidates(
+                CatalogInfoLookup<T> lookup, Class<T> clazz) {
+            List<Map<String, T>> all = new ArrayList<>();
+            Map<String, T> smallest = null;
+            for (Plan plan : plans) {
+                Map<String, T> candidates = plan.candidates(lookup, clazz);
+                if (candidates.isEmpty()) {
+                    return candidates;
+                }
+                all.add(candidates);
+                if (smallest == null || candidates.size() < smallest.size()) {
+                    smallest = candidates;
+                }
+            }
+
+            Map<String, T> result = new HashMap<>();
+            for (Map.Entry<String, T> entry : smallest.entrySet()) {
+                boolean matches = true;
+                for (Map<String, T> candidates : all) {
+                    if (candidates != smallest && !candidates.containsKey(entry.getKey())) {
+                        matches = false;
+                        break;
+                    }
+                }
+                if (matches) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return result;
+        }
+    }
+
+    /** Union of the child plans */
+    static class OrPlan implements Plan {
+        final List<Plan> plans;
+
+        OrPlan(List<Plan> plans) {
+            this.plans = plans;
+        }
+
+        @Override
+        public <T extends CatalogInfo> Map<String, T> candidates(
+                CatalogInfoLookup<T> lookup, Class<T> clazz) {
+            Map<String, T> result = new HashMap<>();
+            for (Plan plan : plans) {
+                result.putAll(plan.candidates(lookup, clazz));
+            }
+            return result;
+        }
+    }
+}
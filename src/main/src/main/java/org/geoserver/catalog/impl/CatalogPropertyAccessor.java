@@ -170,7 +170,7 @@ public class CatalogPropertyAccessor implements PropertyAccessor {
                     throw new IllegalArgumentException(e);
                 }
             } else {
-                value = OwsUtils.get(input, propName);
+                value = getSimpleProperty(input, propName);
             }
         }
 
@@ -229,7 +229,7 @@ public class CatalogPropertyAccessor implements PropertyAccessor {
             colProp = ((Map<?, ?>) input).get(colPropName);
         } else {
             try {
-                colProp = OwsUtils.get(input, colPropName);
+                colProp = getSimpleProperty(input, colPropName);
             } catch (Exception e) {
                 return null;
             }
@@ -257,6 +257,26 @@ public class CatalogPropertyAccessor implements PropertyAccessor {
         return col;
     }
 
+    /**
+     * Reads a non nested property using the cached {@link ClassAccessors}, same as {@link
+     * OwsUtils#get(Object, String)} but without looking up the getter and calling it reflectively
+     * every time
+     */
+    private static Object getSimpleProperty(Object input, String propName) {
+        ClassAccessors.Accessor getter = ClassAccessors.of(input.getClass()).getter(propName);
+        if (getter == null) {
+            throw new IllegalArgumentException(
+                    "No such property '" + propName + "' for object " + input);
+        }
+        try {
+            return getter.get(input);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private static Map<Class<?>, Set<String>> FULL_TEXT_PROPERTIES = Maps.newHashMap();
 
     private static Set<String> fullTextProperties(Info obj) {
@@ -0,0 +1,339 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.ows.util.ClassProperties;
+import org.geoserver.ows.util.OwsUtils;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Class keyed registry of cached property accessors, used by {@link ModificationProxy}, {@link
+ * ModificationProxyCloner} and {@link CatalogPropertyAccessor} to avoid looking up methods by name
+ * and calling them reflectively on every property access.
+ *
+ * <p>Methods are turned into {@link MethodHandle}s the first time they are looked up, falling back
+ * on plain reflection when the method cannot be accessed via a method handle (e.g., a public method
+ * declared in a non exported or non public class, with no accessible equivalent in the class
+ * interfaces).
+ */
+final class ClassAccessors {
+
+    static final Logger LOGGER = Logging.getLogger(ClassAccessors.class);
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /** Placeholder for properties that have been looked up, and found missing */
+    private static final Accessor MISSING = new Accessor(null, null);
+
+    private static final ClassValue<ClassAccessors> CACHE =
+            new ClassValue<ClassAccessors>() {
+                @Override
+                protected ClassAccessors computeValue(Class<?> type) {
+                    return new ClassAccessors(type);
+                }
+            };
+
+    final Class<?> type;
+
+    private volatile ClassProperties properties;
+
+    private final Map<String, Accessor> getters = new ConcurrentHashMap<>();
+
+    private final Map<List<Object>, Accessor> setters = new ConcurrentHashMap<>();
+
+    private final Map<Method, Accessor> methods = new ConcurrentHashMap<>();
+
+    private volatile Accessor cloneMethod;
+
+    private volatile MethodHandle constructor;
+
+    private ClassAccessors(Class<?> type) {
+        this.type = type;
+    }
+
+    /** Returns the accessors for the given class */
+    static ClassAccessors of(Class<?> type) {
+        return CACHE.get(type);
+    }
+
+    /** Returns a cached accessor for the given method, usually an interface method */
+    static Accessor accessor(Method method) {
+        return of(method.getDeclaringClass()).method(method);
+    }
+
+    private ClassProperties properties() {
+        if (properties == null) {
+            properties = OwsUtils.getClassProperties(type);
+        }
+        return properties;
+    }
+
+    Accessor method(Method method) {
+        return methods.computeIfAbsent(method, m -> new Accessor(m, handle(m)));
+    }
+
+    /**
+     * Looks up a getter by property name, trying first an exact match against {@code get<name>}
+     * and {@code is<name>}, and then the more lax, case insensitive, matching of {@link
+     * ClassProperties#getter(String, Class)}.
+     *
+     * @return the getter, or null if not found
+     */
+    Accessor getter(String property) {
+        Accessor accessor = getters.get(property);
+        if (accessor == null) {
+            Method g = lookupMethod("get" + property);
+            if (g == null) {
+                g = lookupMethod("is" + property);
+            }
+            if (g == null) {
+                g = properties().getter(property, null);
+            }
+            accessor = g == null ? MISSING : new Accessor(g, handle(g));
+            getters.put(property, accessor);
+        }
+        return accessor == MISSING ? null : accessor;
+    }
+
+    /**
+     * Looks up a setter by property name and type, trying first an exact match against {@code
+     * set<name>} and then the more lax matching of {@link ClassProperties#setter(String, Class)}.
+     *
+     * @return the setter, or null if not found
+     */
+    Accessor setter(String property, Class<?> propertyType) {
+        List<Object> key = Arrays.asList(property, propertyType);
+        Accessor accessor = setters.get(key);
+        if (accessor == null) {
+            Method s = lookupMethod("set" + property, propertyType);
+            if (s == null) {
+                s = properties().setter(property, propertyType);
+            }
+            accessor = s == null ? MISSING : new Accessor(s, handle(s));
+            setters.put(key, accessor);
+        }
+        return accessor == MISSING ? null : accessor;
+    }
+
+    /**
+     * Returns the public, no argument, {@code clone} method declared by the class, or null if not
+     * available
+     */
+    Accessor cloneMethod() {
+        if (cloneMethod == null) {
+            Accessor accessor = MISSING;
+            try {
+                Method method = type.getDeclaredMethod("clone");
+                if (Modifier.isPublic(method.getModifiers())
+                        && method.getParameterTypes().length == 0) {
+                    accessor = new Accessor(method, handle(method));
+                }
+            } catch (NoSuchMethodException e) {
+                LOGGER.log(Level.FINE, "No clone method declared in " + type, e);
+            }
+            cloneMethod = accessor;
+        }
+        return cloneMethod == MISSING ? null : cloneMethod;
+    }
+
+    /**
+     * Creates a new instance using the declared no argument constructor
+     *
+     * @throws NoSuchMethodException if the class does not have such a constructor
+     */
+    @SuppressWarnings("unchecked")
+    <T> T newInstance()
+            throws InstantiationException, IllegalAccessException, NoSuchMethodException,
+                    InvocationTargetException {
+        MethodHandle mh = constructor;
+        if (mh == null) {
+            Constructor<?> c = type.getDeclaredConstructor();
+            try {
+                mh = LOOKUP.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+            } catch (IllegalAccessException e) {
+                // not accessible as a method handle, use reflection
+                return (T) c.newInstance();
+            }
+            constructor = mh;
+        }
+        try {
+            return (T) (Object) mh.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    private Method lookupMethod(String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Builds a method handle with a (Object, Object[])Object signature for the given method, or
+     * returns null if the method cannot be accessed via method handles
+     */
+    static MethodHandle handle(Method method) {
+        if (Modifier.isStatic(method.getModifiers())) {
+            return null;
+        }
+        for (Method candidate : accessibleCandidates(method)) {
+            try {
+                MethodHandle mh = LOOKUP.unreflect(candidate);
+                return mh.asType(mh.type().generic())
+                        .asSpreader(Object[].class, candidate.getParameterCount());
+            } catch (IllegalAccessException e) {
+                // try the next one
+            }
+        }
+        LOGGER.log(Level.FINE, "Falling back on reflection to invoke " + method);
+        return null;
+    }
+
+    /**
+     * Returns the method itself, followed by the same method as declared by the interfaces and
+     * superclasses of its declaring class, in case the declaring class itself is not accessible
+     */
+    private static List<Method> accessibleCandidates(Method method) {
+        List<Method> result = new ArrayList<>();
+        result.add(method);
+        if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())
+                || Proxy.isProxyClass(method.getDeclaringClass())) {
+            collect(method.getDeclaringClass(), method, result);
+        }
+        return result;
+    }
+
+    private static void collect(Class<?> clazz, Method method, List<Method> result) {
+        if (clazz == null) {
+            return;
+        }
+        for (Class<?> i : clazz.getInterfaces()) {
+            if (Modifier.isPublic(i.getModifiers())) {
+                try {
+                    result.add(i.getMethod(method.getName(), method.getParameterTypes()));
+                } catch (NoSuchMethodException e) {
+                    // not declared here
+                }
+            }
+            collect(i, method, result);
+        }
+        collect(clazz.getSuperclass(), method, result);
+    }
+
+    /** Fast invoker for a single method */
+    static final class Accessor {
+
+        final Method method;
+
+        /** The method handle, with a (Object, Object[])Object signature, if available */
+        final MethodHandle handle;
+
+        final String property;
+
+        final boolean getter;
+
+        final boolean setter;
+
+        Accessor(Method method, MethodHandle handle) {
+            this.method = method;
+            this.handle = handle;
+            if (method == null) {
+                this.property = null;
+                this.getter = false;
+                this.setter = false;
+            } else {
+                String name = method.getName();
+                this.getter =
+                        (name.startsWith("get") || name.startsWith("is"))
+                                && method.getParameterCount() == 0;
+                this.setter = name.startsWith("set");
+                if (getter) {
+                    this.property = name.substring(name.startsWith("get") ? 3 : 2);
+                } else if (setter) {
+                    this.property = name.substring(3);
+                } else {
+                    this.property = null;
+                }
+            }
+        }
+
+        Method getMethod() {
+            return method;
+        }
+
+        Class<?> getReturnType() {
+            return method.getReturnType();
+        }
+
+        /** True if the method is a no argument getter, starting with "get" or "is" */
+        boolean isGetter() {
+            return getter;
+        }
+
+        /** True if the method name starts with "set" */
+        boolean isSetter() {
+            return setter;
+        }
+
+        /** The bean property name for getters and setters, with the first letter capitalized */
+        String getProperty() {
+            return property;
+        }
+
+        boolean returnsCollection() {
+            return Collection.class.isAssignableFrom(method.getReturnType());
+        }
+
+        boolean returnsMap() {
+            return Map.class.isAssignableFrom(method.getReturnType());
+        }
+
+        /**
+         * Invokes the method on the target object. Unlike {@link Method#invoke(Object, Object...)}
+         * exceptions thrown by the method are not wrapped.
+         */
+        Object invoke(Object target, Object... args) throws Throwable {
+            if (handle != null) {
+                return (Object) handle.invokeExact(target, args);
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+
+        /** Invokes a getter on the target object */
+        Object get(Object target) throws Throwable {
+            return invoke(target, (Object[]) null);
+        }
+
+        /** Invokes a setter on the target object */
+        void set(Object target, Object value) throws Throwable {
+            invoke(target, new Object[] {value});
+        }
+    }
+}
@@ -5,7 +5,6 @@
  */
 package org.geoserver.catalog.impl;
 
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
@@ -16,6 +15,8 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
@@ -91,10 +92,16 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
                             s.getWorkspace() != null ? s.getWorkspace().getId() : null,
                             s.getName());
 
+    /** Null safe id extraction, for the secondary indexes */
+    static String id(CatalogInfo info) {
+        return info != null ? info.getId() : null;
+    }
+
     static final class LayerInfoLookup extends CatalogInfoLookup<LayerInfo> {
 
         public LayerInfoLookup() {
             super(LAYER_NAME_MAPPER);
+            addIndex("resource.id", l -> id(l.getResource()));
         }
 
         public void update(ResourceInfo proxiedValue) {
@@ -109,6 +116,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
                 // handle case of feature type without a corresponding layer
                 if (value != null) {
                     nameMap.put(newName, value);
+                    reindex(value, NAME, newName.getLocalPart());
                 }
             }
         }
@@ -120,43 +128,75 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         }
     }
 
+    /**
+     * Creates the lookup for the given type of catalog objects, with its secondary indexes. Used
+     * both at construction and by {@link #resolve()}, for facades depersisted without lookups.
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends CatalogInfo> CatalogInfoLookup<T> createLookup(Class<T> type) {
+        CatalogInfoLookup<?> lookup;
+        if (StoreInfo.class.equals(type)) {
+            lookup =
+                    new CatalogInfoLookup<>(STORE_NAME_MAPPER)
+                            .addIndex("workspace.id", s -> id(s.getWorkspace()));
+        } else if (ResourceInfo.class.equals(type)) {
+            lookup =
+                    new CatalogInfoLookup<>(RESOURCE_NAME_MAPPER)
+                            .addIndex("namespace.id", r -> id(r.getNamespace()))
+                            .addIndex("store.id", r -> id(r.getStore()));
+        } else if (NamespaceInfo.class.equals(type)) {
+            lookup = new CatalogInfoLookup<>(NAMESPACE_NAME_MAPPER);
+        } else if (WorkspaceInfo.class.equals(type)) {
+            lookup = new CatalogInfoLookup<>(WORKSPACE_NAME_MAPPER);
+        } else if (LayerInfo.class.equals(type)) {
+            lookup = new LayerInfoLookup();
+        } else if (LayerGroupInfo.class.equals(type)) {
+            lookup =
+                    new CatalogInfoLookup<>(LAYERGROUP_NAME_MAPPER)
+                            .addIndex("workspace.id", lg -> id(lg.getWorkspace()));
+        } else if (StyleInfo.class.equals(type)) {
+            lookup =
+                    new CatalogInfoLookup<>(STYLE_NAME_MAPPER)
+                            .addIndex("workspace.id", s -> id(s.getWorkspace()));
+        } else {
+            throw new IllegalArgumentException("No lookup for " + type.getName());
+        }
+        return (CatalogInfoLookup<T>) lookup;
+    }
+
     /** Contains the stores keyed by implementation class */
-    protected CatalogInfoLookup<StoreInfo> stores = new CatalogInfoLookup<>(STORE_NAME_MAPPER);
+    protected CatalogInfoLookup<StoreInfo> stores = createLookup(StoreInfo.class);
 
     /** The default store keyed by workspace id */
     protected Map<String, DataStoreInfo> defaultStores =
             new ConcurrentHashMap<String, DataStoreInfo>();
 
     /** resources */
-    protected CatalogInfoLookup<ResourceInfo> resources =
-            new CatalogInfoLookup<>(RESOURCE_NAME_MAPPER);
+    protected CatalogInfoLookup<ResourceInfo> resources = createLookup(ResourceInfo.class);
 
     /** The default namespace */
     protected volatile NamespaceInfo defaultNamespace;
 
     /** namespaces */
-    protected CatalogInfoLookup<NamespaceInfo> namespaces =
-            new CatalogInfoLookup<>(NAMESPACE_NAME_MAPPER);
+    protected CatalogInfoLookup<NamespaceInfo> namespaces = createLookup(NamespaceInfo.class);
 
     /** The default workspace */
     protected volatile WorkspaceInfo defaultWorkspace;
 
     /** workspaces */
-    protected CatalogInfoLookup<WorkspaceInfo> workspaces =
-            new CatalogInfoLookup<>(WORKSPACE_NAME_MAPPER);
+    protected CatalogInfoLookup<WorkspaceInfo> workspaces = createLookup(WorkspaceInfo.class);
 
     /** layers */
-    protected LayerInfoLookup layers = new LayerInfoLookup();
+    protected LayerInfoLookup layers = (LayerInfoLookup) createLookup(LayerInfo.class);
 
     /** maps */
     protected List<MapInfo> maps = new CopyOnWriteArrayList<MapInfo>();
 
     /** layer groups */
-    protected CatalogInfoLookup<LayerGroupInfo> layerGroups =
-            new CatalogInfoLookup<>(LAYERGROUP_NAME_MAPPER);
+    protected CatalogInfoLookup<LayerGroupInfo> layerGroups = createLookup(LayerGroupInfo.class);
 
     /** styles */
-    protected CatalogInfoLookup<StyleInfo> styles = new CatalogInfoLookup<>(STYLE_NAME_MAPPER);
+    protected CatalogInfoLookup<StyleInfo> styles = createLookup(StyleInfo.class);
 
     /** the catalog */
     private CatalogImpl catalog;
@@ -890,7 +930,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         // workspaces
         if (workspaces == null) {
-            workspaces = new CatalogInfoLookup<>(WORKSPACE_NAME_MAPPER);
+            workspaces = createLookup(WorkspaceInfo.class);
         }
         for (WorkspaceInfo ws : workspaces.values()) {
             resolve(ws);
@@ -898,7 +938,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         // namespaces
         if (namespaces == null) {
-            namespaces = new CatalogInfoLookup<>(NAMESPACE_NAME_MAPPER);
+            namespaces = createLookup(NamespaceInfo.class);
         }
         for (NamespaceInfo ns : namespaces.values()) {
             resolve(ns);
@@ -906,7 +946,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         // stores
         if (stores == null) {
-            stores = new CatalogInfoLookup<>(STORE_NAME_MAPPER);
+            stores = createLookup(StoreInfo.class);
         }
         for (Object o : stores.values()) {
             resolve((StoreInfoImpl) o);
@@ -914,7 +954,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         // styles
         if (styles == null) {
-            styles = new CatalogInfoLookup<>(STYLE_NAME_MAPPER);
+            styles = createLookup(StyleInfo.class);
         }
         for (StyleInfo s : styles.values()) {
             resolve(s);
@@ -922,7 +962,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         // resources
         if (resources == null) {
-            resources = new CatalogInfoLookup<>(RESOURCE_NAME_MAPPER);
+            resources = createLookup(ResourceInfo.class);
         }
         for (Object o : resources.values()) {
             resolve((ResourceInfo) o);
@@ -930,7 +970,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         // layers
         if (layers == null) {
-            layers = new LayerInfoLookup();
+            layers = (LayerInfoLookup) createLookup(LayerInfo.class);
         }
         for (LayerInfo l : layers.values()) {
             resolve(l);
@@ -938,7 +978,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         // layer groups
         if (layerGroups == null) {
-            layerGroups = new CatalogInfoLookup<>(LAYERGROUP_NAME_MAPPER);
+            layerGroups = createLookup(LayerGroupInfo.class);
         }
         for (LayerGroupInfo lg : layerGroups.values()) {
             resolve(lg);
@@ -1014,7 +1054,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
     @Override
     public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
-        return Iterables.size(iterable(of, filter, null));
+        return lookup(of, filter).size();
     }
 
     /**
@@ -1068,70 +1108,112 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             }
         }
 
-        Iterable<T> iterable = iterable(of, filter, sortOrder);
-
-        if (offset != null && offset.intValue() > 0) {
-            iterable = Iterables.skip(iterable, offset.intValue());
-        }
+        List<T> all = lookup(of, filter);
 
+        int from = offset != null && offset.intValue() > 0 ? offset.intValue() : 0;
+        int to = all.size();
         if (count != null && count.intValue() >= 0) {
-            iterable = Iterables.limit(iterable, count.intValue());
+            to = (int) Math.min(to, (long) from + count.intValue());
+        }
+        if (from >= to) {
+            return new CloseableIteratorAdapter<T>(Collections.emptyIterator());
         }
 
-        Iterator<T> iterator = iterable.iterator();
+        // only the objects up to the end of the requested page need to be sorted
+        all = sort(all, sortOrder, to);
+
+        Iterator<T> iterator = ModificationProxy.createList(all.subList(from, to), of).iterator();
 
         return new CloseableIteratorAdapter<T>(iterator);
     }
 
-    @SuppressWarnings("unchecked")
     public <T extends CatalogInfo> Iterable<T> iterable(
             final Class<T> of, final Filter filter, final SortBy[] sortByList) {
+        List<T> all = lookup(of, filter);
+        all = sort(all, sortByList, all.size());
+        return ModificationProxy.createList(all, of);
+    }
+
+    /** Returns the objects matching the filter, not wrapped in a modification proxy */
+    @SuppressWarnings("unchecked")
+    private <T extends CatalogInfo> List<T> lookup(final Class<T> of, final Filter filter) {
         List<T> all;
 
         if (NamespaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) namespaces.list(of, toPredicate(filter));
+            all = (List<T>) namespaces.list(of, filter);
         } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) workspaces.list(of, toPredicate(filter));
+            all = (List<T>) workspaces.list(of, filter);
         } else if (StoreInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) stores.list(of, toPredicate(filter));
+            all = (List<T>) stores.list(of, filter);
         } else if (ResourceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) resources.list(of, toPredicate(filter));
+            all = (List<T>) resources.list(of, filter);
         } else if (LayerInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) layers.list(of, toPredicate(filter));
+            all = (List<T>) layers.list(of, filter);
         } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) layerGroups.list(of, toPredicate(filter));
+            all = (List<T>) layerGroups.list(of, filter);
         } else if (PublishedInfo.class.isAssignableFrom(of)) {
             all = new ArrayList<>();
-            all.addAll((List<T>) layers.list(LayerInfo.class, toPredicate(filter)));
-            all.addAll((List<T>) layerGroups.list(LayerGroupInfo.class, toPredicate(filter)));
+            all.addAll((List<T>) layers.list(LayerInfo.class, filter));
+            all.addAll((List<T>) layerGroups.list(LayerGroupInfo.class, filter));
         } else if (StyleInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) styles.list(of, toPredicate(filter));
+            all = (List<T>) styles.list(of, filter);
         } else if (MapInfo.class.isAssignableFrom(of)) {
             all = (List<T>) new ArrayList<>(maps);
         } else {
             throw new IllegalArgumentException("Unknown type: " + of);
         }
 
-        if (null != sortByList) {
-            for (int i = sortByList.length - 1; i >= 0; i--) {
-                SortBy sortBy = sortByList[i];
-                Ordering<Object> ordering = Ordering.from(comparator(sortBy));
-                if (SortOrder.DESCENDING.equals(sortBy.getSortOrder())) {
-                    ordering = ordering.reverse();
-                }
-                all = ordering.sortedCopy(all);
+        return all;
+    }
+
+    /**
+     * Sorts the list and returns its first {@code limit} elements. When the limit is smaller than
+     * the list size a bounded heap is used instead of a full sort. In both cases the sort is
+     * stable, objects comparing as equal are returned in their original order.
+     */
+    private <T> List<T> sort(List<T> all, SortBy[] sortByList, int limit) {
+        if (sortByList == null || sortByList.length == 0 || all.size() < 2) {
+            return all;
+        }
+
+        Ordering<Object> ordering = null;
+        for (SortBy sortBy : sortByList) {
+            Ordering<Object> o = Ordering.from(comparator(sortBy));
+            if (SortOrder.DESCENDING.equals(sortBy.getSortOrder())) {
+                o = o.reverse();
             }
+            ordering = ordering == null ? o : ordering.compound(o);
         }
 
-        return ModificationProxy.createList(all, of);
-    }
+        if (limit >= all.size()) {
+            return ordering.sortedCopy(all);
+        }
 
-    private <T> Predicate<T> toPredicate(Filter filter) {
-        if (filter != null && filter != Filter.INCLUDE) {
-            return o -> filter.evaluate(o);
-        } else {
-            return CatalogInfoLookup.TRUE;
+        // ties are broken by position, to get the same results as a stable sort
+        final Ordering<Object> valueOrdering = ordering;
+        final List<T> values = all instanceof RandomAccess ? all : new ArrayList<>(all);
+        Comparator<Integer> byPosition =
+                (i1, i2) -> {
+                    int c = valueOrdering.compare(values.get(i1), values.get(i2));
+                    return c != 0 ? c : Integer.compare(i1, i2);
+                };
+        // max heap holding the best entries found so far, its head is the one to evict first
+        PriorityQueue<Integer> heap = new PriorityQueue<>(limit + 1, byPosition.reversed());
+        for (int i = 0; i < values.size(); i++) {
+            if (heap.size() < limit) {
+                heap.add(i);
+            } else if (byPosition.compare(i, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(i);
+            }
+        }
+        List<Integer> positions = new ArrayList<>(heap);
+        positions.sort(byPosition);
+        List<T> result = new ArrayList<>(positions.size());
+        for (Integer position : positions) {
+            result.add(values.get(position));
         }
+        return result;
     }
 
     private Comparator<Object> comparator(final SortBy sortOrder) {
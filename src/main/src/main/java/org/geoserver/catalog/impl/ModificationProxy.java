@@ -8,7 +8,6 @@ package org.geoserver.catalog.impl;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
@@ -24,8 +23,6 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.Info;
 import org.geoserver.catalog.MetadataMap;
-import org.geoserver.ows.util.ClassProperties;
-import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.factory.CommonFactoryFinder;
 import org.opengis.filter.FilterFactory;
@@ -50,9 +47,6 @@ public class ModificationProxy implements WrappingProxy, Serializable {
     /** the proxy object */
     Object proxyObject;
 
-    /** reflection helper */
-    transient ClassProperties cp;
-
     /** "dirty" properties */
     volatile HashMap<String, Object> properties;
 
@@ -66,28 +60,26 @@ public class ModificationProxy implements WrappingProxy, Serializable {
         this.proxyObject = proxyObject;
     }
 
-    private ClassProperties cp() {
-        if (cp == null) {
-            this.cp = OwsUtils.getClassProperties(proxyObject.getClass());
-        }
-        return cp;
+    private ClassAccessors accessors() {
+        return ClassAccessors.of(proxyObject.getClass());
     }
 
     /** Intercepts getter and setter methods. */
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        // cached, avoids parsing the method name and reflective calls on each invocation
+        ClassAccessors.Accessor accessor = ClassAccessors.accessor(method);
 
         String property = null;
-        if ((method.getName().startsWith("get") || method.getName().startsWith("is"))
-                && method.getParameterCount() == 0) {
+        if (accessor.isGetter()) {
             // intercept getter to check the dirty property set
-            property = method.getName().substring(method.getName().startsWith("get") ? 3 : 2);
+            property = accessor.getProperty();
             if (properties != null && properties().containsKey(property)) {
                 // return the previously set object
                 return properties().get(property);
             } else {
                 // if collection, create a wrapper
-                if (Collection.class.isAssignableFrom(method.getReturnType())) {
-                    Collection real = (Collection) method.invoke(proxyObject, null);
+                if (accessor.returnsCollection()) {
+                    Collection real = (Collection) accessor.get(proxyObject);
                     if (real == null) {
                         // in this case there is nothing we can do
                         return null;
@@ -99,8 +91,8 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                     Collection clone = ModificationProxyCloner.cloneCollection(real, false);
                     oldCollectionValues().put(property, clone);
                     return wrap;
-                } else if (Map.class.isAssignableFrom(method.getReturnType())) {
-                    Map real = (Map) method.invoke(proxyObject, null);
+                } else if (accessor.returnsMap()) {
+                    Map real = (Map) accessor.get(proxyObject);
                     if (real == null) {
                         // in this case there is nothing we can do
                         return null;
@@ -115,43 +107,39 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                 }
             }
         }
-        if (method.getName().startsWith("set") && args.length == 1) {
+        if (accessor.isSetter() && args != null && args.length == 1) {
             // intercept setter and put new value in list
-            property = method.getName().substring(3);
+            property = accessor.getProperty();
             properties().put(property, args[0]);
 
             return null;
         }
 
-        try {
-            Object result = method.invoke(proxyObject, args);
-
-            // in case this is a live indirection, resolve it. Typically this means
-            // the reference is dangling, and we are going to avoid a wrapper around null
-            if (result instanceof Proxy
-                    && Proxy.getInvocationHandler(result) instanceof ResolvingProxy) {
-                ResolvingProxy rp = ProxyUtils.handler(result, ResolvingProxy.class);
-                // try to resolve, and return null if the reference is dangling
-                final Catalog catalog = (Catalog) GeoServerExtensions.bean("catalog");
-                result = rp.resolve(catalog, result);
-            }
+        // exceptions thrown by the target method are not wrapped by the accessor
+        Object result = accessor.invoke(proxyObject, args);
+
+        // in case this is a live indirection, resolve it. Typically this means
+        // the reference is dangling, and we are going to avoid a wrapper around null
+        if (result instanceof Proxy
+                && Proxy.getInvocationHandler(result) instanceof ResolvingProxy) {
+            ResolvingProxy rp = ProxyUtils.handler(result, ResolvingProxy.class);
+            // try to resolve, and return null if the reference is dangling
+            final Catalog catalog = (Catalog) GeoServerExtensions.bean("catalog");
+            result = rp.resolve(catalog, result);
+        }
 
-            // intercept result and wrap it in a proxy if it is another Info object
-            if (result != null && shouldProxyProperty(result.getClass())) {
-                // avoid double proxy
-                Object o = ModificationProxy.unwrap(result);
-                if (o == result) {
-                    result = ModificationProxy.create(result, (Class) method.getReturnType());
+        // intercept result and wrap it in a proxy if it is another Info object
+        if (result != null && shouldProxyProperty(result.getClass())) {
+            // avoid double proxy
+            Object o = ModificationProxy.unwrap(result);
+            if (o == result) {
+                result = ModificationProxy.create(result, (Class) method.getReturnType());
 
-                    // cache the proxy, in case it is modified itself
-                    properties().put(property, result);
-                }
+                // cache the proxy, in case it is modified itself
+                properties().put(property, result);
             }
-            return result;
-        } catch (InvocationTargetException e) {
-            Throwable targetException = e.getTargetException();
-            throw targetException;
         }
+        return result;
     }
 
     public Object getProxyObject() {
@@ -172,18 +160,18 @@ public class ModificationProxy implements WrappingProxy, Serializable {
 
                 // use the getter to figure out the type for the setter
                 try {
-                    Method g = getter(p);
+                    ClassAccessors.Accessor g = getter(p);
 
                     // handle collection case
                     if (Collection.class.isAssignableFrom(g.getReturnType())) {
-                        Collection c = (Collection) g.invoke(proxyObject, null);
+                        Collection c = (Collection) g.get(proxyObject);
                         c.clear();
                         for (Object o : (Collection) v) {
                             c.add(unwrap(o));
                         }
                     } else if (Map.class.isAssignableFrom(g.getReturnType())) {
                         Map proxied = (Map) v;
-                        Map m = (Map) g.invoke(proxyObject, null);
+                        Map m = (Map) g.get(proxyObject);
                         m.clear();
                         for (Object key : proxied.keySet()) {
                             Object uk = unwrap(key);
@@ -192,13 +180,13 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                             m.put(uk, uv);
                         }
                     } else {
-                        Method s = setter(p, g.getReturnType());
+                        ClassAccessors.Accessor s = setter(p, g.getReturnType());
 
                         if (Info.class.isAssignableFrom(g.getReturnType())) {
                             // another info is the changed property, it could be one of two cases
                             // 1) the info object was changed in place: x.getY().setFoo(...)
                             // 2) a new info object was set x.setY(...)
-                            Info original = (Info) g.invoke(proxyObject, null);
+                            Info original = (Info) g.get(proxyObject);
                             Info modified = (Info) unwrap(v);
                             if (original == modified) {
                                 // case 1, in this case get the proxy and commit it
@@ -210,17 +198,19 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                                 }
                             } else if (s != null) {
                                 // case 2, just call the setter with the new object
-                                s.invoke(proxyObject, v);
+                                s.set(proxyObject, v);
                             } else {
                                 throw new IllegalStateException(
                                         "New info object set, but no setter for it.");
                             }
                         } else {
                             // call the setter
-                            s.invoke(proxyObject, v);
+                            s.set(proxyObject, v);
                         }
                     }
-                } catch (Exception ex) {
+                } catch (RuntimeException ex) {
+                    throw ex;
+                } catch (Throwable ex) {
                     throw new RuntimeException(ex);
                 }
             }
@@ -283,7 +273,7 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                 }
             } else {
                 try {
-                    Object orig = unwrap(getter((String) e.getKey()).invoke(proxyObject, null));
+                    Object orig = unwrap(getter((String) e.getKey()).get(proxyObject));
                     if (orig == null) {
                         if (e.getValue() == null) {
                             continue;
@@ -291,7 +281,9 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                     } else if (e.getValue() != null && orig.equals(e.getValue())) {
                         continue;
                     }
-                } catch (Exception ex) {
+                } catch (RuntimeException ex) {
+                    throw ex;
+                } catch (Throwable ex) {
                     throw new RuntimeException(ex);
                 }
             }
@@ -314,11 +306,13 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                     // value is not the same as the current value of the property on the object
                     Object curr = unwrap(value);
                     try {
-                        Object orig = unwrap(getter(propertyName).invoke(proxyObject, null));
+                        Object orig = unwrap(getter(propertyName).get(proxyObject));
                         if (curr == orig) {
                             continue;
                         }
-                    } catch (Exception e) {
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Throwable e) {
                         throw new RuntimeException(e);
                     }
                 }
@@ -348,14 +342,15 @@ public class ModificationProxy implements WrappingProxy, Serializable {
             if (oldCollectionValues().containsKey(propertyName)) {
                 oldValues.add(oldCollectionValues.get(propertyName));
             } else {
+                ClassAccessors.Accessor g = getter(propertyName);
+                if (g == null) {
+                    throw new IllegalArgumentException("No such property: " + propertyName);
+                }
                 try {
-                    Method g = getter(propertyName);
-                    if (g == null) {
-                        throw new IllegalArgumentException("No such property: " + propertyName);
-                    }
-
-                    oldValues.add(g.invoke(proxyObject, null));
-                } catch (Exception e) {
+                    oldValues.add(g.get(proxyObject));
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Throwable e) {
                     throw new RuntimeException(e);
                 }
             }
@@ -376,36 +371,15 @@ public class ModificationProxy implements WrappingProxy, Serializable {
     /*
      * Helper method for looking up a getter method.
      */
-    Method getter(String propertyName) {
-        Method g = null;
-        try {
-            g = proxyObject.getClass().getMethod("get" + propertyName, null);
-        } catch (NoSuchMethodException e1) {
-            // could be boolean
-            try {
-                g = proxyObject.getClass().getMethod("is" + propertyName, null);
-            } catch (NoSuchMethodException e2) {
-            }
-        }
-
-        if (g == null) {
-            g = cp().getter(propertyName, null);
-        }
-
-        return g;
+    ClassAccessors.Accessor getter(String propertyName) {
+        return accessors().getter(propertyName);
     }
 
     /*
      * Helper method for looking up a getter method.
      */
-    Method setter(String propertyName, Class type) {
-        Method s = null;
-        try {
-            s = proxyObject.getClass().getMethod("set" + propertyName, type);
-        } catch (NoSuchMethodException e) {
-            s = cp().setter(propertyName, type);
-        }
-        return s;
+    ClassAccessors.Accessor setter(String propertyName, Class type) {
+        return accessors().setter(propertyName, type);
     }
 
     private Object readResolve() throws ObjectStreamException {
@@ -14,8 +14,6 @@ import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -118,13 +116,15 @@ class ModificationProxyCloner {
             if (source instanceof Cloneable) {
                 // methodutils does not seem to work against "clone()"...
                 // return (T) MethodUtils.invokeExactMethod(source, "clone", null, null);
-                Method method = source.getClass().getDeclaredMethod("clone");
-                if (Modifier.isPublic(method.getModifiers())
-                        && method.getParameterTypes().length == 0) {
+                ClassAccessors.Accessor method =
+                        ClassAccessors.of(source.getClass()).cloneMethod();
+                if (method != null) {
                     return (T) method.invoke(source);
                 }
             }
-        } catch (Exception e) {
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
             LOGGER.log(
                     Level.FINE,
                     "Source object is cloneable, yet it does not have a public no argument method 'clone'",
@@ -223,7 +223,7 @@ class ModificationProxyCloner {
         }
         Collection<T> copy;
         try {
-            copy = source.getClass().getDeclaredConstructor().newInstance();
+            copy = ClassAccessors.of(source.getClass()).newInstance();
         } catch (InstantiationException | NoSuchMethodException | InvocationTargetException e) {
             // we'll just pick something
             if (source instanceof Set) {
@@ -259,7 +259,7 @@ class ModificationProxyCloner {
             // nothing to copy
             return null;
         }
-        Map<K, V> copy = source.getClass().getDeclaredConstructor().newInstance();
+        Map<K, V> copy = ClassAccessors.of(source.getClass()).newInstance();
         if (deepCopy) {
             for (Map.Entry<K, V> entry : source.entrySet()) {
                 K keyCopy = clone(entry.getKey());
@@ -0,0 +1,523 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.HTTPStoreInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.WMTSStoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resources;
+import org.geotools.data.DataAccessFactory;
+import org.geotools.data.DataAccessFactory.Param;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A binary snapshot of the catalog contents, stored in the data directory, that allows to skip
+ * parsing the XML configuration files on startup when they have not changed since the snapshot was
+ * written.
+ *
+ * <p>The snapshot is a Java serialization of the catalog objects, preceded by a fingerprint of the
+ * catalog configuration files (their paths and last modification times). If the fingerprint does
+ * not match the current configuration files, or the snapshot cannot be read, the catalog is loaded
+ * from the XML files as usual, and a new snapshot is written once loading completes.
+ *
+ * <p>Passwords are not written in the snapshot: the store password connection parameters, or all of
+ * them if the store type is unknown, and the HTTP store passwords, are read back from the XML
+ * configuration of the store when the snapshot is restored, decrypted as usual.
+ *
+ * <p>Only the catalog classes and the value types they use are deserialized, any other class makes
+ * the snapshot be ignored.
+ */
+class CatalogSnapshot {
+
+    static final Logger LOGGER = Logging.getLogger(CatalogSnapshot.class);
+
+    /** The snapshot file name, in the root of the data directory */
+    static final String FILE_NAME = "catalog.snapshot";
+
+    /** The snapshot format version, to be increased when the file structure changes */
+    static final int FORMAT_VERSION = 1;
+
+    /** The catalog configuration directories covered by the fingerprint */
+    static final String[] CONFIG_DIRECTORIES = {"styles", "workspaces", "layergroups"};
+
+    /** Packages whose classes can be read back from a snapshot, sub packages excluded */
+    static final Set<String> ALLOWED_PACKAGES =
+            ImmutableSet.of(
+                    "java.lang",
+                    "java.util",
+                    "java.math",
+                    "java.awt.geom",
+                    "org.geoserver.catalog",
+                    "org.geoserver.catalog.impl",
+                    "org.geotools.util",
+                    "org.geotools.measure",
+                    "org.geotools.geometry",
+                    "org.geotools.geometry.jts",
+                    "org.geotools.coverage",
+                    "org.geotools.coverage.grid",
+                    "org.locationtech.jts.geom",
+                    "org.locationtech.jts.geom.impl");
+
+    /** Packages of the coordinate reference systems and units of measure, sub packages included */
+    static final List<String> ALLOWED_HIERARCHIES =
+            Arrays.asList(
+                    "org.geotools.referencing.",
+                    "org.geotools.metadata.",
+                    "org.geotools.parameter.",
+                    "org.opengis.",
+                    "javax.measure.",
+                    "tec.uom.",
+                    "tech.units.",
+                    "si.uom.",
+                    "systems.uom.");
+
+    /** Classes that can be read back from a snapshot, outside of the allowed packages */
+    static final Set<String> ALLOWED_CLASSES =
+            ImmutableSet.of(
+                    Contents.class.getName(),
+                    "java.lang.reflect.Proxy",
+                    "java.net.URI",
+                    "java.sql.Timestamp",
+                    "java.util.concurrent.ConcurrentHashMap",
+                    "java.util.concurrent.CopyOnWriteArrayList",
+                    "org.geotools.jdbc.VirtualTable",
+                    "org.geotools.jdbc.VirtualTableParameter",
+                    "org.geotools.jdbc.RegexpValidator");
+
+    final GeoServerResourceLoader resourceLoader;
+
+    CatalogSnapshot(GeoServerResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+
+    /**
+     * Computes a fingerprint of the catalog configuration files, based on their paths and last
+     * modification times.
+     */
+    String fingerprint() {
+        List<String> entries = new ArrayList<>();
+        collect(resourceLoader.get("global.xml"), entries);
+        for (String directory : CONFIG_DIRECTORIES) {
+            collect(resourceLoader.get(directory), entries);
+        }
+        Collections.sort(entries);
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (String entry : entries) {
+            hasher.putString(entry, StandardCharsets.UTF_8).putChar('\n');
+        }
+        return hasher.hash().toString();
+    }
+
+    private void collect(Resource resource, List<String> entries) {
+        switch (resource.getType()) {
+            case DIRECTORY:
+                for (Resource child : resource.list()) {
+                    collect(child, entries);
+                }
+                break;
+            case RESOURCE:
+                if (GeoServerLoader.XML_FILTER.accept(resource)) {
+                    entries.add(resource.path() + ":" + resource.lastmodified());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the catalog contents. No snapshot is written if a store failed to
+     * connect during loading, so that the connection is attempted again on the next startup.
+     */
+    void save(Catalog catalog) {
+        Resource target = resourceLoader.get(FILE_NAME);
+        for (StoreInfo store : catalog.getStores(StoreInfo.class)) {
+            if (store.getError() != null) {
+                LOGGER.info(
+                        "Not writing the catalog snapshot, store '"
+                                + store.getName()
+                                + "' failed to connect");
+                target.delete();
+                return;
+            }
+        }
+
+        Stopwatch sw = Stopwatch.createStarted();
+        Map<Object, Object> replacements = new IdentityHashMap<>();
+        try {
+            Set<String> secretStores = new HashSet<>();
+            for (StoreInfo store : catalog.getStores(StoreInfo.class)) {
+                if (excludeSecrets(catalog, ModificationProxy.unwrap(store), replacements)) {
+                    secretStores.add(store.getId());
+                }
+            }
+            try (ObjectOutputStream out =
+                    new SnapshotOutputStream(
+                            new BufferedOutputStream(target.out()), replacements)) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(fingerprint());
+                out.writeObject(new Contents(catalog, secretStores));
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to write the catalog snapshot", e);
+            target.delete();
+            return;
+        }
+        LOGGER.info("Wrote catalog snapshot in " + sw.stop());
+    }
+
+    /**
+     * Registers replacements for the store objects holding passwords, so that none gets written in
+     * the snapshot.
+     *
+     * @return True if anything has been excluded, and has to be read back from the store XML
+     */
+    private boolean excludeSecrets(
+            Catalog catalog, StoreInfo store, Map<Object, Object> replacements)
+            throws ReflectiveOperationException {
+        boolean excluded = false;
+        Map<String, Serializable> params = store.getConnectionParameters();
+        if (store instanceof DataStoreInfo && params != null && !params.isEmpty()) {
+            Map<String, Serializable> copy = new HashMap<>(params);
+            Set<String> passwords = getPasswordParameters(catalog, (DataStoreInfo) store);
+            if (passwords == null) {
+                copy.clear();
+            } else {
+                copy.keySet().removeAll(passwords);
+            }
+            if (copy.size() != params.size()) {
+                replacements.put(params, copy);
+                excluded = true;
+            }
+        }
+        if (store instanceof HTTPStoreInfo && ((HTTPStoreInfo) store).getPassword() != null) {
+            HTTPStoreInfo copy = shallowCopy((HTTPStoreInfo) store);
+            copy.setPassword(null);
+            replacements.put(store, copy);
+            excluded = true;
+        }
+        return excluded;
+    }
+
+    /** Returns the password parameter names of a data store, or null if its type is unknown */
+    private Set<String> getPasswordParameters(Catalog catalog, DataStoreInfo store) {
+        DataAccessFactory factory;
+        try {
+            factory = catalog.getResourcePool().getDataStoreFactory(store);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not find the factory of store " + store.getId(), e);
+            return null;
+        }
+        if (factory == null || factory.getParametersInfo() == null) {
+            return null;
+        }
+        Set<String> passwords = new HashSet<>();
+        for (Param param : factory.getParametersInfo()) {
+            if (param.isPassword()) {
+                passwords.add(param.getName());
+            }
+        }
+        return passwords;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T shallowCopy(T object) throws ReflectiveOperationException {
+        Constructor<?> constructor = object.getClass().getDeclaredConstructor();
+        constructor.setAccessible(true);
+        T copy = (T) constructor.newInstance();
+        for (Class<?> c = object.getClass(); c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    field.set(copy, field.get(object));
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Populates the catalog from the snapshot, if available and up to date.
+     *
+     * @param catalog The catalog to be populated
+     * @param xp The persister used to read back the store passwords from their XML configuration
+     * @param connectStores Whether to connect to the data stores, disabling the ones failing
+     * @return True if the catalog has been populated, false if it has to be loaded from the XML
+     *     configuration files
+     */
+    boolean restore(Catalog catalog, XStreamPersister xp, boolean connectStores) {
+        Resource source = resourceLoader.get(FILE_NAME);
+        if (!Resources.exists(source)) {
+            return false;
+        }
+
+        Stopwatch sw = Stopwatch.createStarted();
+        Contents contents;
+        try (SnapshotInputStream in =
+                new SnapshotInputStream(new BufferedInputStream(source.in()))) {
+            if (in.readInt() != FORMAT_VERSION || !fingerprint().equals(in.readUTF())) {
+                LOGGER.info("The catalog snapshot is out of date, ignoring it");
+                return false;
+            }
+            contents = (Contents) in.readObject();
+            contents.restoreSecrets(new GeoServerDataDirectory(resourceLoader), xp);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to read the catalog snapshot, ignoring it", e);
+            return false;
+        }
+
+        contents.restore(catalog, connectStores);
+        LOGGER.info("Loaded catalog from snapshot in " + sw.stop());
+        return true;
+    }
+
+    /** The catalog contents, in an order allowing to add them back to a catalog */
+    static final class Contents implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String defaultWorkspace;
+        final String defaultNamespace;
+        final List<WorkspaceInfo> workspaces;
+        final List<NamespaceInfo> namespaces;
+        final List<StyleInfo> styles;
+        final List<StoreInfo> stores;
+        final List<ResourceInfo> resources;
+        final List<LayerInfo> layers;
+        final List<LayerGroupInfo> layerGroups;
+        /** The stores whose passwords have been left out */
+        final Set<String> secretStores;
+
+        Contents(Catalog catalog, Set<String> secretStores) {
+            WorkspaceInfo ws = catalog.getDefaultWorkspace();
+            NamespaceInfo ns = catalog.getDefaultNamespace();
+            this.defaultWorkspace = ws != null ? ws.getName() : null;
+            this.defaultNamespace = ns != null ? ns.getPrefix() : null;
+            this.workspaces = unwrap(catalog.getWorkspaces());
+            this.namespaces = unwrap(catalog.getNamespaces());
+            this.styles = unwrap(catalog.getStyles());
+            this.stores = unwrap(catalog.getStores(StoreInfo.class));
+            this.resources = unwrap(catalog.getResources(ResourceInfo.class));
+            this.layers = unwrap(catalog.getLayers());
+            this.layerGroups = unwrap(catalog.getLayerGroups());
+            this.secretStores = secretStores;
+        }
+
+        /** Reads back the passwords left out of the snapshot from the store configuration files */
+        void restoreSecrets(GeoServerDataDirectory dataDirectory, XStreamPersister xp)
+                throws IOException {
+            for (StoreInfo store : stores) {
+                if (!secretStores.contains(store.getId())) {
+                    continue;
+                }
+                StoreInfo saved;
+                try (InputStream in = config(dataDirectory, store).in()) {
+                    saved = xp.load(in, StoreInfo.class);
+                }
+                if (saved == null || !store.getId().equals(saved.getId())) {
+                    throw new IOException(
+                            "Could not read back the configuration of store " + store.getId());
+                }
+                if (saved.getConnectionParameters() != null) {
+                    saved.getConnectionParameters()
+                            .forEach(store.getConnectionParameters()::putIfAbsent);
+                }
+                if (store instanceof HTTPStoreInfo) {
+                    ((HTTPStoreInfo) store).setPassword(((HTTPStoreInfo) saved).getPassword());
+                }
+            }
+        }
+
+        private static Resource config(GeoServerDataDirectory dataDirectory, StoreInfo store)
+                throws IOException {
+            if (store instanceof DataStoreInfo) {
+                return dataDirectory.config((DataStoreInfo) store);
+            } else if (store instanceof WMTSStoreInfo) {
+                return dataDirectory.config((WMTSStoreInfo) store);
+            } else if (store instanceof WMSStoreInfo) {
+                return dataDirectory.config((WMSStoreInfo) store);
+            }
+            throw new IOException("Unexpected store type " + store.getClass().getName());
+        }
+
+        private static <T> List<T> unwrap(List<T> infos) {
+            return infos.stream().map(ModificationProxy::unwrap).collect(Collectors.toList());
+        }
+
+        void restore(Catalog catalog, boolean connectStores) {
+            workspaces.forEach(ws -> add(ws, catalog::add));
+            namespaces.forEach(ns -> add(ns, catalog::add));
+            if (defaultWorkspace != null) {
+                WorkspaceInfo ws = catalog.getWorkspaceByName(defaultWorkspace);
+                if (ws != null) {
+                    catalog.setDefaultWorkspace(ws);
+                }
+            }
+            if (defaultNamespace != null) {
+                NamespaceInfo ns = catalog.getNamespaceByPrefix(defaultNamespace);
+                if (ns != null) {
+                    catalog.setDefaultNamespace(ns);
+                }
+            }
+            styles.forEach(s -> add(s, catalog::add));
+            for (StoreInfo store : stores) {
+                add(store, catalog::add);
+                if (connectStores && store instanceof DataStoreInfo && store.isEnabled()) {
+                    GeoServerLoader.checkDataStore((DataStoreInfo) store);
+                }
+            }
+            resources.forEach(r -> add(r, catalog::add));
+            layers.forEach(l -> add(l, catalog::add));
+            addLayerGroups(catalog);
+        }
+
+        /** Adds layer groups after the groups they contain */
+        private void addLayerGroups(Catalog catalog) {
+            List<LayerGroupInfo> pending = new ArrayList<>(layerGroups);
+            boolean progress = true;
+            while (!pending.isEmpty() && progress) {
+                progress = false;
+                for (Iterator<LayerGroupInfo> it = pending.iterator(); it.hasNext(); ) {
+                    LayerGroupInfo group = it.next();
+                    if (containedGroupsAvailable(group, catalog)) {
+                        add(group, catalog::add);
+                        it.remove();
+                        progress = true;
+                    }
+                }
+            }
+            // circular or broken references, let the catalog report them
+            pending.forEach(lg -> add(lg, catalog::add));
+        }
+
+        private boolean containedGroupsAvailable(LayerGroupInfo group, Catalog catalog) {
+            for (PublishedInfo published : group.getLayers()) {
+                if (published instanceof LayerGroupInfo
+                        && catalog.getLayerGroup(published.getId()) == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static <T extends CatalogInfo> void add(T info, Consumer<T> adder) {
+            try {
+                adder.accept(info);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to restore " + info.getId(), e);
+            }
+        }
+    }
+
+    /** Writes the registered replacements in place of the original objects */
+    static final class SnapshotOutputStream extends ObjectOutputStream {
+
+        final Map<Object, Object> replacements;
+
+        SnapshotOutputStream(OutputStream out, Map<Object, Object> replacements)
+                throws IOException {
+            super(out);
+            this.replacements = replacements;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            Object replacement = replacements.get(obj);
+            return replacement != null ? replacement : obj;
+        }
+    }
+
+    /** Only resolves the allowed classes */
+    static final class SnapshotInputStream extends ObjectInputStream {
+
+        SnapshotInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            checkAllowed(desc.getName());
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces)
+                throws IOException, ClassNotFoundException {
+            for (String name : interfaces) {
+                checkAllowed(name);
+            }
+            return super.resolveProxyClass(interfaces);
+        }
+
+        private void checkAllowed(String name) throws InvalidClassException {
+            // arrays are encoded as [Lcom.acme.Type; or [I for primitive ones
+            String className = name.replaceFirst("^\\[+L?", "");
+            if (name.startsWith("[") && className.length() == 1) {
+                return;
+            }
+            int idx = className.lastIndexOf('.');
+            String packageName = idx > 0 ? className.substring(0, idx) : "";
+            if (ALLOWED_CLASSES.contains(className) || ALLOWED_PACKAGES.contains(packageName)) {
+                return;
+            }
+            for (String prefix : ALLOWED_HIERARCHIES) {
+                if (className.startsWith(prefix)) {
+                    return;
+                }
+            }
+            throw new InvalidClassException(name, "Class not allowed in catalog snapshots");
+        }
+    }
+}
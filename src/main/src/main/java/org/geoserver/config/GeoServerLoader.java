@@ -160,6 +160,31 @@ public abstract class GeoServerLoader {
     /** WMTS Layer IO resource mapper */
     static final ResourceLayerMapper WMTS_LAYER_MAPPER =
             new ResourceLayerMapper("wmtslayer.xml", "wmts layer");
+    /** Store IO resource mapper, maps each store directory into a StoreContents */
+    static final ResourceMapper<StoreContents> STORE_MAPPER =
+            sd -> {
+                Resource f = sd.get("datastore.xml");
+                if (Resources.exists(f)) {
+                    return new StoreContents(f, f.getContents());
+                }
+                f = sd.get("coveragestore.xml");
+                if (Resources.exists(f)) {
+                    return new StoreContents(f, f.getContents());
+                }
+                f = sd.get("wmsstore.xml");
+                if (Resources.exists(f)) {
+                    return new StoreContents(f, f.getContents());
+                }
+                f = sd.get("wmtsstore.xml");
+                if (Resources.exists(f)) {
+                    return new StoreContents(f, f.getContents());
+                }
+                if (!isConfigDirectory(sd)) {
+                    LOGGER.warning("Ignoring store directory '" + sd.name() + "'");
+                }
+                // nothing found
+                return null;
+            };
     /**
      * Generic layer catalog loader for all types of IO resources
      *
@@ -215,6 +240,24 @@ public abstract class GeoServerLoader {
 
     static final ExtensionFilter XML_FILTER = new Resources.ExtensionFilter("XML");
 
+    /**
+     * System property enabling the {@link ParallelCatalogLoader parallel catalog loading}
+     * pipeline, in place of the sequential one
+     */
+    public static final String PARALLEL_LOADING = "org.geoserver.catalog.parallelLoading";
+
+    /**
+     * System property enabling the lazy loading mode, in which stores are not connected to on
+     * startup, but only when first used
+     */
+    public static final String LAZY_LOADING = "org.geoserver.catalog.lazyLoading";
+
+    /**
+     * System property enabling the {@link CatalogSnapshot catalog snapshot}, used to skip parsing
+     * the catalog configuration files on startup when they did not change
+     */
+    public static final String CATALOG_SNAPSHOT = "org.geoserver.catalog.snapshot";
+
     protected GeoServerResourceLoader resourceLoader;
     GeoServer geoserver;
     XStreamPersisterFactory xpf = new XStreamPersisterFactory();
@@ -411,6 +454,18 @@ public abstract class GeoServerLoader {
         }
     }
 
+    static boolean isParallelLoading() {
+        return GeoServerExtensions.getBooleanProperty(PARALLEL_LOADING);
+    }
+
+    static boolean isLazyLoading() {
+        return GeoServerExtensions.getBooleanProperty(LAZY_LOADING);
+    }
+
+    static boolean isSnapshotEnabled() {
+        return GeoServerExtensions.getBooleanProperty(CATALOG_SNAPSHOT);
+    }
+
     boolean checkStoresOnStartup(XStreamPersister xp) {
         Resource f = resourceLoader.get("global.xml");
         if (Resources.exists(f)) {
@@ -444,139 +499,51 @@ public abstract class GeoServerLoader {
             catalog.setExtendedValidation(false);
         }
 
+        // in lazy mode the stores are connected only when first used
+        boolean connectStores = checkStores && !isLazyLoading();
+
+        CatalogSnapshot snapshot = isSnapshotEnabled() ? new CatalogSnapshot(resourceLoader) : null;
+        boolean restored = snapshot != null && snapshot.restore(catalog, xp, connectStores);
+        if (!restored) {
+            if (isParallelLoading()) {
+                new ParallelCatalogLoader(this, catalog, xp, connectStores).load();
+            } else {
+                readCatalogContents(catalog, xp, connectStores);
+            }
+        }
+        xp.setUnwrapNulls(true);
+        catalog.resolve();
+        if (snapshot != null && !restored) {
+            snapshot.save(catalog);
+        }
+        // re-enable extended validation
+        if (!checkStores) {
+            catalog.setExtendedValidation(true);
+        }
+        return catalog;
+    }
+
+    /** Loads styles, workspaces, stores, resources, layers and layer groups one at a time */
+    void readCatalogContents(CatalogImpl catalog, XStreamPersister xp, boolean connectStores)
+            throws IOException {
         // global styles
         loadStyles(resourceLoader.get("styles"), catalog, xp);
 
         // workspaces, stores, and resources
         Resource workspaces = resourceLoader.get("workspaces");
         if (Resources.exists(workspaces)) {
-            // do a first quick scan over all workspaces, setting the default
-            Resource dws = workspaces.get("default.xml");
-            WorkspaceInfo defaultWorkspace = null;
-            if (Resources.exists(dws)) {
-                try {
-                    defaultWorkspace = depersist(xp, dws, WorkspaceInfo.class);
-                    LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
-                } catch (Exception e) {
-                    LOGGER.log(Level.WARNING, "Failed to load default workspace", e);
-                }
-            } else {
-                LOGGER.warning("No default workspace was found.");
-            }
-
-            List<Resource> workspaceList =
-                    workspaces
-                            .list()
-                            .parallelStream()
-                            .filter(r -> Resources.DirectoryFilter.INSTANCE.accept(r))
-                            .collect(Collectors.toList());
-
-            try (AsynchResourceIterator<WorkspaceContents> it =
-                    new AsynchResourceIterator<>(
-                            workspaces,
-                            Resources.DirectoryFilter.INSTANCE,
-                            new WorkspaceMapper())) {
-                while (it.hasNext()) {
-                    WorkspaceContents wc = it.next();
-                    WorkspaceInfo ws;
-                    final Resource workspaceResource = wc.resource;
-                    try {
-                        ws = depersist(xp, wc.contents, WorkspaceInfo.class);
-                        catalog.add(ws);
-                        if (LOGGER.isLoggable(Level.INFO)) {
-                            LOGGER.info("Loaded workspace '" + ws.getName() + "'");
-                        }
-                    } catch (Exception e) {
-                        LOGGER.log(
-                                Level.WARNING,
-                                "Failed to load workspace '" + workspaceResource.name() + "'",
-                                e);
-                        continue;
-                    }
-
-                    // load the namespace
-                    NamespaceInfo ns = null;
-                    try {
-                        ns = depersist(xp, wc.nsContents, NamespaceInfo.class);
-                        catalog.add(ns);
-                    } catch (Exception e) {
-                        LOGGER.log(
-                                Level.WARNING,
-                                "Failed to load namespace for '" + workspaceResource.name() + "'",
-                                e);
-                    }
-
-                    // set the default workspace, this value might be null in the case of coming
-                    // from a
-                    // 2.0.0 data directory. See https://osgeo-org.atlassian.net/browse/GEOS-3440
-                    if (defaultWorkspace != null) {
-                        if (ws.getName().equals(defaultWorkspace.getName())) {
-                            catalog.setDefaultWorkspace(ws);
-                            if (ns != null) {
-                                catalog.setDefaultNamespace(ns);
-                            }
-                        }
-                    } else {
-                        // create the default.xml file
-                        defaultWorkspace = catalog.getDefaultWorkspace();
-                        if (defaultWorkspace != null) {
-                            try {
-                                persist(xp, defaultWorkspace, dws);
-                            } catch (Exception e) {
-                                LOGGER.log(
-                                        Level.WARNING,
-                                        "Failed to persist default workspace '"
-                                                + workspaceResource.name()
-                                                + "'",
-                                        e);
-                            }
-                        }
-                    }
-
-                    // load the styles for the workspace
-                    Resource styles = workspaceResource.get("styles");
-                    if (styles != null) {
-                        loadStyles(styles, catalog, xp);
-                    }
-                }
-            }
-
-            // maps each store into a StoreContents
-            ResourceMapper<StoreContents> storeMapper =
-                    sd -> {
-                        Resource f = sd.get("datastore.xml");
-                        if (Resources.exists(f)) {
-                            return new StoreContents(f, f.getContents());
-                        }
-                        f = sd.get("coveragestore.xml");
-                        if (Resources.exists(f)) {
-                            return new StoreContents(f, f.getContents());
-                        }
-                        f = sd.get("wmsstore.xml");
-                        if (Resources.exists(f)) {
-                            return new StoreContents(f, f.getContents());
-                        }
-                        f = sd.get("wmtsstore.xml");
-                        if (Resources.exists(f)) {
-                            return new StoreContents(f, f.getContents());
-                        }
-                        if (!isConfigDirectory(sd)) {
-                            LOGGER.warning("Ignoring store directory '" + sd.name() + "'");
-                        }
-                        // nothing found
-                        return null;
-                    };
+            List<Resource> workspaceList = loadWorkspaces(workspaces, catalog, xp);
 
             for (Resource wsd : workspaceList) {
                 // load the stores for this workspace
                 try (AsynchResourceIterator<StoreContents> it =
                         new AsynchResourceIterator<>(
-                                wsd, Resources.DirectoryFilter.INSTANCE, storeMapper)) {
+                                wsd, Resources.DirectoryFilter.INSTANCE, STORE_MAPPER)) {
                     while (it.hasNext()) {
                         StoreContents storeContents = it.next();
                         final String resourceName = storeContents.resource.name();
                         if ("datastore.xml".equals(resourceName)) {
-                            loadDataStore(storeContents, catalog, xp, checkStores);
+                            loadDataStore(storeContents, catalog, xp, connectStores);
                         } else if ("coveragestore.xml".equals(resourceName)) {
                             loadCoverageStore(storeContents, catalog, xp);
                         } else if ("wmsstore.xml".equals(resourceName)) {
@@ -608,13 +575,107 @@ public abstract class GeoServerLoader {
         if (layergroups != null) {
             loadLayerGroups(layergroups, catalog, xp);
         }
-        xp.setUnwrapNulls(true);
-        catalog.resolve();
-        // re-enable extended validation
-        if (!checkStores) {
-            catalog.setExtendedValidation(true);
+    }
+
+    /**
+     * Loads the workspaces, their namespaces and styles, setting up the default workspace.
+     *
+     * @return The workspace directories
+     */
+    List<Resource> loadWorkspaces(Resource workspaces, Catalog catalog, XStreamPersister xp)
+            throws IOException {
+        // do a first quick scan over all workspaces, setting the default
+        Resource dws = workspaces.get("default.xml");
+        WorkspaceInfo defaultWorkspace = null;
+        if (Resources.exists(dws)) {
+            try {
+                defaultWorkspace = depersist(xp, dws, WorkspaceInfo.class);
+                LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load default workspace", e);
+            }
+        } else {
+            LOGGER.warning("No default workspace was found.");
         }
-        return catalog;
+
+        List<Resource> workspaceList =
+                workspaces
+                        .list()
+                        .parallelStream()
+                        .filter(r -> Resources.DirectoryFilter.INSTANCE.accept(r))
+                        .collect(Collectors.toList());
+
+        try (AsynchResourceIterator<WorkspaceContents> it =
+                new AsynchResourceIterator<>(
+                        workspaces,
+                        Resources.DirectoryFilter.INSTANCE,
+                        new WorkspaceMapper())) {
+            while (it.hasNext()) {
+                WorkspaceContents wc = it.next();
+                WorkspaceInfo ws;
+                final Resource workspaceResource = wc.resource;
+                try {
+                    ws = depersist(xp, wc.contents, WorkspaceInfo.class);
+                    catalog.add(ws);
+                    if (LOGGER.isLoggable(Level.INFO)) {
+                        LOGGER.info("Loaded workspace '" + ws.getName() + "'");
+                    }
+                } catch (Exception e) {
+                    LOGGER.log(
+                            Level.WARNING,
+                            "Failed to load workspace '" + workspaceResource.name() + "'",
+                            e);
+                    continue;
+                }
+
+                // load the namespace
+                NamespaceInfo ns = null;
+                try {
+                    ns = depersist(xp, wc.nsContents, NamespaceInfo.class);
+                    catalog.add(ns);
+                } catch (Exception e) {
+                    LOGGER.log(
+                            Level.WARNING,
+                            "Failed to load namespace for '" + workspaceResource.name() + "'",
+                            e);
+                }
+
+                // set the default workspace, this value might be null in the case of coming
+                // from a
+                // 2.0.0 data directory. See https://osgeo-org.atlassian.net/browse/GEOS-3440
+                if (defaultWorkspace != null) {
+                    if (ws.getName().equals(defaultWorkspace.getName())) {
+                        catalog.setDefaultWorkspace(ws);
+                        if (ns != null) {
+                            catalog.setDefaultNamespace(ns);
+                        }
+                    }
+                } else {
+                    // create the default.xml file
+                    defaultWorkspace = catalog.getDefaultWorkspace();
+                    if (defaultWorkspace != null) {
+                        try {
+                            persist(xp, defaultWorkspace, dws);
+                        } catch (Exception e) {
+                            LOGGER.log(
+                                    Level.WARNING,
+                                    "Failed to persist default workspace '"
+                                            + workspaceResource.name()
+                                            + "'",
+                                    e);
+                        }
+                    }
+                }
+
+                // load the styles for the workspace
+                Resource styles = workspaceResource.get("styles");
+                if (styles != null) {
+                    loadStyles(styles, catalog, xp);
+                }
+            }
+        }
+
+        return workspaceList;
     }
 
     private void loadWmsStore(
@@ -738,16 +799,7 @@ public abstract class GeoServerLoader {
             }
 
             if (checkStores && ds.isEnabled()) {
-                // connect to the datastore to determine if we should disable it
-                try {
-                    ds.getDataStore(null);
-                } catch (Throwable t) {
-                    LOGGER.warning("Error connecting to '" + ds.getName() + "'. Disabling.");
-                    LOGGER.log(Level.INFO, "", t);
-
-                    ds.setError(t);
-                    ds.setEnabled(false);
-                }
+                checkDataStore(ds);
             }
         } catch (Exception e) {
             LOGGER.log(
@@ -772,11 +824,24 @@ public abstract class GeoServerLoader {
         }
     }
 
+    /** Connects to the data store, disabling it if the connection fails */
+    static void checkDataStore(DataStoreInfo ds) {
+        try {
+            ds.getDataStore(null);
+        } catch (Throwable t) {
+            LOGGER.warning("Error connecting to '" + ds.getName() + "'. Disabling.");
+            LOGGER.log(Level.INFO, "", t);
+
+            ds.setError(t);
+            ds.setEnabled(false);
+        }
+    }
+
     /**
      * Some config directories in GeoServer are used to store workspace specific configurations,
      * identify them so that we don't log complaints about their existence
      */
-    private boolean isConfigDirectory(Resource dir) {
+    static boolean isConfigDirectory(Resource dir) {
         String name = dir.name();
         boolean result = "styles".equals(name) || "layergroups".equals(name);
         return result;
@@ -56,6 +56,14 @@ public interface JAIInfo extends Cloneable, Serializable {
 
     void setPngEncoderType(PngEncoderType type);
 
+    /**
+     * Number of threads used to compress a single PNG image with the PNGJ encoder, values lower
+     * than 2 disable parallel compression.
+     */
+    int getPngEncoderThreads();
+
+    void setPngEncoderThreads(int pngEncoderThreads);
+
     /** Flag controlling native JPEG image processing. */
     boolean isJpegAcceleration();
 
@@ -0,0 +1,419 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.geoserver.config.GeoServerLoader.COVERAGE_LAYER_MAPPER;
+import static org.geoserver.config.GeoServerLoader.FEATURE_LAYER_MAPPER;
+import static org.geoserver.config.GeoServerLoader.STORE_MAPPER;
+import static org.geoserver.config.GeoServerLoader.WMS_LAYER_MAPPER;
+import static org.geoserver.config.GeoServerLoader.WMTS_LAYER_MAPPER;
+import static org.geoserver.config.GeoServerLoader.depersist;
+
+import com.google.common.base.Stopwatch;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.WMTSLayerInfo;
+import org.geoserver.catalog.WMTSStoreInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.AsynchResourceIterator.ResourceMapper;
+import org.geoserver.config.GeoServerLoader.LayerContents;
+import org.geoserver.config.GeoServerLoader.ResourceLayerMapper;
+import org.geoserver.config.GeoServerLoader.StoreContents;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resources;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Loads the catalog contents parsing all configuration files concurrently, while adding them to the
+ * catalog in dependency order.
+ *
+ * <p>Reading and parsing a configuration file does not require the objects it references to be
+ * already in the catalog, so the files of all stores are parsed in parallel, and the files of the
+ * resources and layers of a store are scheduled for parsing as soon as the store has been added.
+ * The calling thread adds the parsed objects to the catalog one at a time, in the same order the
+ * sequential loader would, so that validation and event dispatching are not affected: workspaces
+ * before stores, stores before their resources, resources before their layers.
+ *
+ * <p>The time spent by the calling thread on each phase is logged once loading is complete, and
+ * available from {@link #getPhaseTimings()}. Since the phases overlap, the timings measure how
+ * long each phase waited on the background parsing, in addition to the time spent adding objects.
+ */
+class ParallelCatalogLoader {
+
+    static final Logger LOGGER = Logging.getLogger(ParallelCatalogLoader.class);
+
+    /**
+     * Number of threads parsing the configuration files. The tasks are a mix of IO and XML
+     * parsing, so the number of processors is used unless more IO threads have been configured.
+     */
+    static final int THREADS =
+            Math.max(
+                    AsynchResourceIterator.ASYNCH_RESOURCE_THREADS,
+                    Runtime.getRuntime().availableProcessors());
+
+    /** A store parsed from its configuration file */
+    static final class ParsedStore {
+        final Resource resource;
+        final StoreInfo store;
+
+        ParsedStore(Resource resource, StoreInfo store) {
+            this.resource = resource;
+            this.store = store;
+        }
+    }
+
+    /** A resource parsed from its configuration file, along with the contents of its layer */
+    static final class ParsedResource {
+        final LayerContents contents;
+        final ResourceInfo resource;
+
+        ParsedResource(LayerContents contents, ResourceInfo resource) {
+            this.contents = contents;
+            this.resource = resource;
+        }
+    }
+
+    /** Parses a configuration file into a catalog object */
+    @FunctionalInterface
+    interface Parser<S, T> {
+        T parse(S source, XStreamPersister xp) throws IOException;
+    }
+
+    final GeoServerLoader loader;
+
+    final CatalogImpl catalog;
+
+    final XStreamPersister xp;
+
+    final boolean connectStores;
+
+    final Map<String, Long> timings = new LinkedHashMap<>();
+
+    /** XStream persisters for the parsing threads, bound to the catalog being loaded */
+    final ThreadLocal<XStreamPersister> persisters;
+
+    ExecutorService executor;
+
+    /**
+     * Builds a new parallel loader
+     *
+     * @param loader The loader providing access to the data directory
+     * @param catalog The catalog to be populated
+     * @param xp The persister used on the calling thread
+     * @param connectStores Whether to connect to the data stores, disabling the ones failing
+     */
+    ParallelCatalogLoader(
+            GeoServerLoader loader,
+            CatalogImpl catalog,
+            XStreamPersister xp,
+            boolean connectStores) {
+        this.loader = loader;
+        this.catalog = catalog;
+        this.xp = xp;
+        this.connectStores = connectStores;
+        this.persisters =
+                ThreadLocal.withInitial(
+                        () -> {
+                            XStreamPersister persister = loader.xpf.createXMLPersister();
+                            persister.setCatalog(catalog);
+                            persister.setUnwrapNulls(false);
+                            return persister;
+                        });
+    }
+
+    /** Loads styles, workspaces, stores, resources, layers and layer groups */
+    void load() throws IOException, InterruptedException {
+        Stopwatch total = Stopwatch.createStarted();
+        executor = Executors.newFixedThreadPool(THREADS, new LoaderThreadFactory());
+        try {
+            Stopwatch sw = Stopwatch.createStarted();
+            loader.loadStyles(loader.resourceLoader.get("styles"), catalog, xp);
+            phase("styles", sw);
+
+            List<Resource> workspaceList = Collections.emptyList();
+            Resource workspaces = loader.resourceLoader.get("workspaces");
+            if (Resources.exists(workspaces)) {
+                workspaceList = loader.loadWorkspaces(workspaces, catalog, xp);
+                phase("workspaces", sw);
+
+                List<Future<ParsedResource>> resources = loadStores(workspaceList);
+                phase("stores", sw);
+
+                List<Future<LayerInfo>> layers = loadResources(resources);
+                phase("resources", sw);
+
+                loadLayers(layers);
+                phase("layers", sw);
+            } else {
+                LOGGER.warning("No 'workspaces' directory found, unable to load any stores.");
+            }
+
+            for (Resource wsd : workspaceList) {
+                Resource layergroups = wsd.get("layergroups");
+                if (layergroups != null) {
+                    loader.loadLayerGroups(layergroups, catalog, xp);
+                }
+            }
+            Resource layergroups = loader.resourceLoader.get("layergroups");
+            if (layergroups != null) {
+                loader.loadLayerGroups(layergroups, catalog, xp);
+            }
+            phase("layer groups", sw);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (LOGGER.isLoggable(Level.INFO)) {
+            String phases =
+                    timings.entrySet()
+                            .stream()
+                            .map(e -> e.getKey() + " " + e.getValue() + " ms")
+                            .collect(Collectors.joining(", "));
+            LOGGER.info(
+                    "Loaded catalog contents with "
+                            + THREADS
+                            + " threads in "
+                            + total.stop()
+                            + " ("
+                            + phases
+                            + ")");
+        }
+    }
+
+    /** Returns the time spent in each loading phase, in milliseconds, in execution order */
+    Map<String, Long> getPhaseTimings() {
+        return Collections.unmodifiableMap(timings);
+    }
+
+    private void phase(String name, Stopwatch sw) {
+        timings.put(name, sw.elapsed(TimeUnit.MILLISECONDS));
+        sw.reset().start();
+    }
+
+    /**
+     * Parses the stores of all workspaces in parallel and adds them to the catalog, scheduling the
+     * parsing of their resources.
+     */
+    private List<Future<ParsedResource>> loadStores(List<Resource> workspaceList)
+            throws InterruptedException {
+        List<Resource> storeDirectories = new ArrayList<>();
+        for (Resource wsd : workspaceList) {
+            storeDirectories.addAll(directories(wsd));
+        }
+        List<Future<ParsedStore>> stores = submit(storeDirectories, STORE_MAPPER, this::parseStore);
+
+        List<Future<ParsedResource>> resources = new ArrayList<>();
+        for (int i = 0; i < stores.size(); i++) {
+            ParsedStore parsed =
+                    await(stores.get(i), "store '" + storeDirectories.get(i).name() + "'");
+            if (parsed == null) {
+                continue;
+            }
+            StoreInfo store = parsed.store;
+            try {
+                catalog.add(store);
+            } catch (Exception e) {
+                LOGGER.log(
+                        Level.WARNING,
+                        "Failed to load store '" + parsed.resource.parent().name() + "'",
+                        e);
+                continue;
+            }
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.info(
+                        "Loaded store '"
+                                + store.getName()
+                                + "', "
+                                + (store.isEnabled() ? "enabled" : "disabled"));
+            }
+            if (connectStores && store instanceof DataStoreInfo && store.isEnabled()) {
+                GeoServerLoader.checkDataStore((DataStoreInfo) store);
+            }
+
+            // the store is in the catalog, its resources can now be parsed
+            ResourceLayerMapper mapper = getLayerMapper(store);
+            Class<? extends ResourceInfo> resourceClass = getResourceClass(store);
+            resources.addAll(
+                    submit(
+                            directories(parsed.resource.parent()),
+                            mapper,
+                            (lc, persister) ->
+                                    new ParsedResource(
+                                            lc, depersist(persister, lc.contents, resourceClass))));
+        }
+        return resources;
+    }
+
+    /** Adds the parsed resources to the catalog, scheduling the parsing of their layers */
+    private List<Future<LayerInfo>> loadResources(List<Future<ParsedResource>> resources)
+            throws InterruptedException {
+        List<Future<LayerInfo>> layers = new ArrayList<>(resources.size());
+        for (Future<ParsedResource> future : resources) {
+            ParsedResource parsed = await(future, "resource");
+            if (parsed == null) {
+                continue;
+            }
+            ResourceInfo resource = parsed.resource;
+            try {
+                catalog.add(resource);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load resource", e);
+                continue;
+            }
+            if (LOGGER.isLoggable(Level.INFO)) {
+                String type =
+                        resource instanceof CoverageInfo
+                                ? "coverage"
+                                : resource instanceof FeatureTypeInfo
+                                        ? "feature type"
+                                        : "resource";
+                LOGGER.info(
+                        "Loaded "
+                                + type
+                                + " '"
+                                + parsed.contents.resource.name()
+                                + "', "
+                                + (resource.isEnabled() ? "enabled" : "disabled"));
+            }
+
+            // the resource is in the catalog, its layer can now be parsed
+            LayerContents lc = parsed.contents;
+            layers.add(
+                    executor.submit(
+                            () -> depersist(persisters.get(), lc.layerContents, LayerInfo.class)));
+        }
+        return layers;
+    }
+
+    /** Adds the parsed layers to the catalog */
+    private void loadLayers(List<Future<LayerInfo>> layers) throws InterruptedException {
+        for (Future<LayerInfo> future : layers) {
+            LayerInfo layer = await(future, "layer");
+            if (layer == null) {
+                continue;
+            }
+            try {
+                catalog.add(layer);
+                LOGGER.info("Loaded layer '" + layer.getName() + "'");
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load layer " + layer.getName(), e);
+            }
+        }
+    }
+
+    private ParsedStore parseStore(StoreContents contents, XStreamPersister persister)
+            throws IOException {
+        String name = contents.resource.name();
+        Class<? extends StoreInfo> clazz;
+        if ("datastore.xml".equals(name)) {
+            clazz = DataStoreInfo.class;
+        } else if ("coveragestore.xml".equals(name)) {
+            clazz = CoverageStoreInfo.class;
+        } else if ("wmsstore.xml".equals(name)) {
+            clazz = WMSStoreInfo.class;
+        } else {
+            clazz = WMTSStoreInfo.class;
+        }
+        return new ParsedStore(contents.resource, depersist(persister, contents.contents, clazz));
+    }
+
+    private static ResourceLayerMapper getLayerMapper(StoreInfo store) {
+        if (store instanceof DataStoreInfo) {
+            return FEATURE_LAYER_MAPPER;
+        } else if (store instanceof CoverageStoreInfo) {
+            return COVERAGE_LAYER_MAPPER;
+        } else if (store instanceof WMSStoreInfo) {
+            return WMS_LAYER_MAPPER;
+        } else {
+            return WMTS_LAYER_MAPPER;
+        }
+    }
+
+    private static Class<? extends ResourceInfo> getResourceClass(StoreInfo store) {
+        if (store instanceof DataStoreInfo) {
+            return FeatureTypeInfo.class;
+        } else if (store instanceof CoverageStoreInfo) {
+            return CoverageInfo.class;
+        } else if (store instanceof WMSStoreInfo) {
+            return WMSLayerInfo.class;
+        } else {
+            return WMTSLayerInfo.class;
+        }
+    }
+
+    private static List<Resource> directories(Resource parent) {
+        return parent.list()
+                .stream()
+                .filter(r -> Resources.DirectoryFilter.INSTANCE.accept(r))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Schedules the reading and parsing of the given directories, returning the results in the
+     * same order. Directories the mapper does not recognize result in a null value.
+     */
+    private <S, T> List<Future<T>> submit(
+            List<Resource> directories, ResourceMapper<S> mapper, Parser<S, T> parser) {
+        List<Future<T>> result = new ArrayList<>(directories.size());
+        for (Resource directory : directories) {
+            result.add(
+                    executor.submit(
+                            () -> {
+                                S source = mapper.apply(directory);
+                                return source == null
+                                        ? null
+                                        : parser.parse(source, persisters.get());
+                            }));
+        }
+        return result;
+    }
+
+    /** Waits for a parsing result, logging and returning null in case of failure */
+    private <T> T await(Future<T> future, String description) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + description, e.getCause());
+            return null;
+        }
+    }
+
+    /** Names the parsing threads, and makes sure they do not prevent the JVM from shutting down */
+    static final class LoaderThreadFactory implements ThreadFactory {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "CatalogLoader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
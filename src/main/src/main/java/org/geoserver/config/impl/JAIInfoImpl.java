@@ -51,6 +51,9 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
 
     PngEncoderType pngEncoderType = PngEncoderType.PNGJ;
 
+    public static final int DEFAULT_PngEncoderThreads = 1;
+    int pngEncoderThreads = DEFAULT_PngEncoderThreads;
+
     JAIEXTInfo jaiext = new JAIEXTInfoImpl();
 
     /** @uml.property name="allowInterpolation" */
@@ -195,6 +198,7 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
         result = prime * result + tileThreads;
         result = prime * result + getPngEncoderType().hashCode();
         result = prime * result + getPngEncoderType().hashCode();
+        result = prime * result + getPngEncoderThreads();
         return result;
     }
 
@@ -218,6 +222,7 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
         if (tilePriority != other.tilePriority) return false;
         if (tileThreads != other.tileThreads) return false;
         if (getPngEncoderType() != other.getPngEncoderType()) return false;
+        if (getPngEncoderThreads() != other.getPngEncoderThreads()) return false;
         return true;
     }
 
@@ -241,6 +246,18 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
         this.pngEncoderType = pngEncoderType;
     }
 
+    public int getPngEncoderThreads() {
+        // configurations saved before the property existed deserialize it as zero
+        if (pngEncoderThreads < 1) {
+            return DEFAULT_PngEncoderThreads;
+        }
+        return pngEncoderThreads;
+    }
+
+    public void setPngEncoderThreads(int pngEncoderThreads) {
+        this.pngEncoderThreads = pngEncoderThreads;
+    }
+
     public JAIEXTInfo getJAIEXTInfo() {
         if (jaiext == null) {
             jaiext = new JAIEXTInfoImpl();
@@ -18,12 +18,16 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.media.jai.PlanarImage;
 import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerFactory;
@@ -74,7 +78,6 @@ import org.geotools.styling.AbstractStyleVisitor;
 import org.geotools.styling.Mark;
 import org.geotools.styling.PolygonSymbolizer;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.URLs;
 import org.geotools.util.Version;
 import org.geotools.util.factory.GeoTools;
@@ -310,9 +313,97 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         // we actually keep two versions of the feature type in the cache, so we need it
         // twice as big
         assertEquals(
-                400,
-                ((SoftValueHashMap) catalog.getResourcePool().getFeatureTypeCache())
-                        .getHardReferencesCount());
+                "softValues,maximumSize=400",
+                ((ResourceCacheMXBean) catalog.getResourcePool().getFeatureTypeCache())
+                        .getSpecification());
+    }
+
+    @Test
+    public void testSoftValues() throws Exception {
+        List<String> disposed = new ArrayList<>();
+        ResourcePool.CatalogResourceCache<String, String> cache =
+                getCatalog().getResourcePool().new CatalogResourceCache<String, String>(
+                        "test", "softValues,maximumSize=2") {
+                    @Override
+                    protected void dispose(String key, String value) {
+                        disposed.add(key);
+                    }
+                };
+        for (int i = 0; i < 3; i++) {
+            cache.put("key" + i, "value" + i);
+            // touch the first entry, the second one becomes the least recently used
+            cache.get("key0");
+        }
+        // bounded, the evicted entries are disposed
+        assertEquals(2, cache.size());
+        assertEquals("value0", cache.get("key0"));
+        assertNull(cache.get("key1"));
+        assertThat(disposed, containsInAnyOrder("key1"));
+        assertEquals(1, cache.getEvictionCount());
+
+        // explicit removals are disposed too
+        cache.remove("key2");
+        assertThat(disposed, containsInAnyOrder("key1", "key2"));
+    }
+
+    @Test
+    public void testCacheStatistics() throws Exception {
+        ResourcePool pool = getCatalog().getResourcePool();
+        Map<String, ResourceCacheMXBean> statistics = pool.getCacheStatistics();
+        assertThat(
+                statistics.keySet(),
+                hasItems("crs", "dataStore", "featureType", "featureTypeAttribute", "style"));
+
+        ResourceCacheMXBean featureTypes = statistics.get("featureType");
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(getLayerId(MockData.LAKES));
+        pool.clear(info);
+        long misses = featureTypes.getMissCount();
+        long hits = featureTypes.getHitCount();
+        long loads = featureTypes.getLoadCount();
+        long loadTime = featureTypes.getTotalLoadTime();
+
+        pool.getFeatureType(info);
+        assertEquals(misses + 1, featureTypes.getMissCount());
+        assertEquals(loads + 1, featureTypes.getLoadCount());
+        assertTrue(featureTypes.getTotalLoadTime() > loadTime);
+        pool.getFeatureType(info);
+        assertEquals(hits + 1, featureTypes.getHitCount());
+        assertEquals(loads + 1, featureTypes.getLoadCount());
+
+        // exposed via JMX
+        ObjectName name = new ObjectName("org.geoserver:type=ResourcePoolCache,name=featureType");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(hits + 1, server.getAttribute(name, "HitCount"));
+    }
+
+    @Test
+    public void testCacheSpecification() throws Exception {
+        System.setProperty(ResourcePool.CACHE_SPEC_PREFIX + "style", "maximumSize=1");
+        System.setProperty(ResourcePool.CACHE_SPEC_PREFIX + "sld", "notAValidSpec");
+        ResourcePool pool = new ResourcePool();
+        try {
+            Map<String, ResourceCacheMXBean> statistics = pool.getCacheStatistics();
+            assertEquals("maximumSize=1", statistics.get("style").getSpecification());
+            // stand alone pools do not replace the catalog one in JMX
+            ObjectName name = new ObjectName("org.geoserver:type=ResourcePoolCache,name=style");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals("", server.getAttribute(name, "Specification"));
+            // invalid specs fall back on the default
+            assertEquals("", statistics.get("sld").getSpecification());
+
+            Catalog catalog = getCatalog();
+            Map<StyleInfo, Style> styles = pool.getStyleCache();
+            StyleInfo polygon = catalog.getStyleByName("polygon");
+            StyleInfo line = catalog.getStyleByName("line");
+            styles.put(polygon, polygon.getStyle());
+            styles.put(line, line.getStyle());
+            assertEquals(1, statistics.get("style").getSize());
+            assertEquals(1, statistics.get("style").getEvictionCount());
+        } finally {
+            System.clearProperty(ResourcePool.CACHE_SPEC_PREFIX + "style");
+            System.clearProperty(ResourcePool.CACHE_SPEC_PREFIX + "sld");
+            pool.dispose();
+        }
     }
 
     @Test
@@ -12,6 +12,8 @@ import static org.geoserver.catalog.Predicates.contains;
 import static org.geoserver.catalog.Predicates.desc;
 import static org.geoserver.catalog.Predicates.equal;
 import static org.geoserver.catalog.Predicates.or;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertEquals;
@@ -2810,6 +2812,94 @@ public class CatalogImplTest extends GeoServerSystemTestSupport {
                 Lists.newArrayList(catalog.list(LayerInfo.class, filter, offset, limit, null)));
     }
 
+    @Test
+    public void testListIndexedPredicates() {
+        addDataStore();
+        addNamespace();
+        catalog.add(wsA);
+        catalog.add(nsA);
+        catalog.add(dsA);
+
+        final FilterFactory factory = CommonFactoryFinder.getFilterFactory();
+
+        FeatureTypeInfo ft1, ft2, ft3;
+        catalog.add(ft1 = newFeatureType("road1", ds));
+        catalog.add(ft2 = newFeatureType("road2", ds));
+        catalog.add(ft3 = newFeatureType("river", dsA));
+        ft1 = catalog.getFeatureType(ft1.getId());
+        ft2 = catalog.getFeatureType(ft2.getId());
+        ft3 = catalog.getFeatureType(ft3.getId());
+
+        // equality on an indexed property
+        Filter filter = equal("store.id", ds.getId());
+        assertEquals(newHashSet(ft1, ft2), newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+        assertEquals(2, catalog.count(FeatureTypeInfo.class, filter));
+
+        // in, as a multivalued literal
+        filter = equal("name", Lists.newArrayList("road1", "river"));
+        assertEquals(newHashSet(ft1, ft3), newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        // like with a prefix
+        filter = factory.like(factory.property("name"), "road*", "*", "?", "\\", true);
+        assertEquals(newHashSet(ft1, ft2), newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        // and with a non indexed property
+        filter = Predicates.and(equal("store.id", ds.getId()), contains("name", "ROAD"));
+        assertEquals(newHashSet(ft1, ft2), newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+        filter = Predicates.and(equal("store.id", ds.getId()), equal("name", "river"));
+        assertTrue(newHashSet(catalog.list(FeatureTypeInfo.class, filter)).isEmpty());
+
+        // or of indexed properties
+        filter = or(equal("store.id", dsA.getId()), equal("id", ft1.getId()));
+        assertEquals(newHashSet(ft1, ft3), newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        // sorted paging
+        filter = equal("namespace.id", ns.getId());
+        assertEquals(
+                Lists.newArrayList(ft2, ft1),
+                Lists.newArrayList(
+                        catalog.list(FeatureTypeInfo.class, filter, 0, 2, desc("name"))));
+        assertEquals(
+                Lists.newArrayList(ft3),
+                Lists.newArrayList(
+                        catalog.list(FeatureTypeInfo.class, filter, 2, 10, desc("name"))));
+
+        // indexes follow renames and moves
+        ft2.setName("canal");
+        ft2.setStore(dsA);
+        catalog.save(ft2);
+        filter = factory.like(factory.property("name"), "road*", "*", "?", "\\", true);
+        assertEquals(newHashSet(ft1), newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+        filter = equal("store.id", dsA.getId());
+        assertEquals(newHashSet(ft2, ft3), newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        // and removals
+        catalog.remove(ft3);
+        assertEquals(newHashSet(ft2), newHashSet(catalog.list(FeatureTypeInfo.class, filter)));
+
+        // stores by workspace
+        filter = equal("workspace.id", wsA.getId());
+        assertEquals(newHashSet(dsA), newHashSet(catalog.list(StoreInfo.class, filter)));
+    }
+
+    @Test
+    public void testResolveKeepsIndexes() {
+        // xstream depersisted facades get their missing lookups rebuilt on resolve
+        DefaultCatalogFacade facade = new DefaultCatalogFacade(catalog);
+        facade.stores = null;
+        facade.resources = null;
+        facade.layers = null;
+        facade.layerGroups = null;
+        facade.styles = null;
+        facade.resolve();
+
+        assertThat(facade.stores.getIndexedProperties(), hasItem("workspace.id"));
+        assertThat(facade.resources.getIndexedProperties(), hasItems("namespace.id", "store.id"));
+        assertThat(facade.layers.getIndexedProperties(), hasItem("resource.id"));
+        assertThat(facade.layerGroups.getIndexedProperties(), hasItem("workspace.id"));
+        assertThat(facade.styles.getIndexedProperties(), hasItem("workspace.id"));
+    }
+
     /**
      * This tests more advanced filters: multi-valued filters, opposite equations, field equations
      */
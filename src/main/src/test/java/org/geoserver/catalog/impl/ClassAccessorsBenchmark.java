@@ -0,0 +1,94 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.concurrent.TimeUnit;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.ows.util.OwsUtils;
+import org.opengis.filter.Filter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the property lookups backed by {@link ClassAccessors} with the reflective {@link
+ * OwsUtils#get(Object, String)} they replaced, and with a plain method call as a baseline, both on
+ * a bare catalog object and through a {@link ModificationProxy}. Not run as part of the build,
+ * launch the main method from the IDE, or with the test classpath, to get the figures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassAccessorsBenchmark {
+
+    FeatureTypeInfo featureType;
+
+    FeatureTypeInfo proxy;
+
+    Filter filter;
+
+    @Setup
+    public void setup() {
+        FeatureTypeInfoImpl ft = new FeatureTypeInfoImpl(null);
+        ft.setName("roads");
+        ft.setTitle("Roads");
+        ft.setEnabled(true);
+        featureType = ft;
+        proxy = ModificationProxy.create(featureType, FeatureTypeInfo.class);
+        filter = Predicates.equal("title", "Roads");
+    }
+
+    @Benchmark
+    public Object directCall() {
+        return featureType.getTitle();
+    }
+
+    @Benchmark
+    public Object owsUtilsGet() {
+        return OwsUtils.get(featureType, "title");
+    }
+
+    @Benchmark
+    public Object classAccessorsGet() throws Throwable {
+        return ClassAccessors.of(featureType.getClass()).getter("Title").get(featureType);
+    }
+
+    @Benchmark
+    public Object proxyGetter() {
+        return proxy.getTitle();
+    }
+
+    @Benchmark
+    public void proxySetter() {
+        proxy.setTitle("Roads");
+    }
+
+    @Benchmark
+    public boolean filterEvaluate() {
+        return filter.evaluate(proxy);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                        new OptionsBuilder()
+                                .include(ClassAccessorsBenchmark.class.getSimpleName())
+                                .build())
+                .run();
+    }
+}
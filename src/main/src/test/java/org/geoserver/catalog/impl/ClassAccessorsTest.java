@@ -0,0 +1,114 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.junit.Test;
+
+public class ClassAccessorsTest {
+
+    @Test
+    public void testCachedPerClass() {
+        assertSame(
+                ClassAccessors.of(FeatureTypeInfoImpl.class),
+                ClassAccessors.of(FeatureTypeInfoImpl.class));
+        ClassAccessors accessors = ClassAccessors.of(FeatureTypeInfoImpl.class);
+        assertSame(accessors.getter("Name"), accessors.getter("Name"));
+    }
+
+    @Test
+    public void testGetterSetter() throws Throwable {
+        FeatureTypeInfoImpl ft = new FeatureTypeInfoImpl(null);
+        ClassAccessors accessors = ClassAccessors.of(FeatureTypeInfoImpl.class);
+
+        accessors.setter("Name", String.class).set(ft, "roads");
+        assertEquals("roads", ft.getName());
+        assertEquals("roads", accessors.getter("Name").get(ft));
+        // lax, case insensitive lookup
+        assertEquals("roads", accessors.getter("name").get(ft));
+
+        // boolean getter
+        ClassAccessors.Accessor enabled = accessors.getter("Enabled");
+        assertTrue(enabled.isGetter());
+        assertEquals("Enabled", enabled.getProperty());
+        accessors.setter("Enabled", boolean.class).set(ft, true);
+        assertEquals(Boolean.TRUE, enabled.get(ft));
+
+        assertNull(accessors.getter("NotThere"));
+        assertNull(accessors.setter("NotThere", String.class));
+    }
+
+    @Test
+    public void testInterfaceMethodAccessor() throws Throwable {
+        LayerInfoImpl layer = new LayerInfoImpl();
+        layer.setId("layer-id");
+        ClassAccessors.Accessor accessor =
+                ClassAccessors.accessor(LayerInfo.class.getMethod("getId"));
+        assertTrue(accessor.isGetter());
+        assertFalse(accessor.isSetter());
+        assertEquals("Id", accessor.getProperty());
+        assertEquals("layer-id", accessor.get(layer));
+    }
+
+    @Test
+    public void testProxyClass() throws Throwable {
+        FeatureTypeInfoImpl ft = new FeatureTypeInfoImpl(null);
+        ft.setName("roads");
+        FeatureTypeInfo proxy = ModificationProxy.create(ft, FeatureTypeInfo.class);
+        proxy.setName("rivers");
+
+        ClassAccessors.Accessor getter = ClassAccessors.of(proxy.getClass()).getter("name");
+        assertNotNull(getter);
+        // goes through the modification proxy
+        assertEquals("rivers", getter.get(proxy));
+        assertEquals("roads", ft.getName());
+    }
+
+    @Test
+    public void testExceptionsNotWrapped() throws Throwable {
+        // the enabled flag of a layer delegates to the resource
+        ClassAccessors.Accessor getter = ClassAccessors.of(LayerInfoImpl.class).getter("Enabled");
+        try {
+            getter.get(new LayerInfoImpl());
+            fail("Expected a NullPointerException");
+        } catch (NullPointerException e) {
+            // fine
+        }
+    }
+
+    @Test
+    public void testNewInstance() throws Exception {
+        ArrayList<?> list = ClassAccessors.of(ArrayList.class).newInstance();
+        assertNotNull(list);
+        assertNotSame(list, ClassAccessors.of(ArrayList.class).newInstance());
+        HashMap<?, ?> map = ClassAccessors.of(HashMap.class).newInstance();
+        assertNotNull(map);
+    }
+
+    @Test
+    public void testCloneMethod() throws Throwable {
+        ArrayList<String> list = new ArrayList<>();
+        list.add("a");
+        ClassAccessors.Accessor clone = ClassAccessors.of(ArrayList.class).cloneMethod();
+        assertNotNull(clone);
+        Object copy = clone.invoke(list);
+        assertNotSame(list, copy);
+        assertEquals(list, copy);
+
+        assertNull(ClassAccessors.of(String.class).cloneMethod());
+    }
+}
@@ -0,0 +1,191 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resources;
+import org.geotools.util.URLs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CatalogSnapshotTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    GeoServerResourceLoader resourceLoader;
+
+    DefaultGeoServerLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        File source =
+                URLs.urlToFile(
+                        CatalogSnapshotTest.class.getResource("/data_dir/nested_layer_groups"));
+        File dataDirectory = folder.newFolder("data");
+        FileUtils.copyDirectory(source, dataDirectory);
+
+        resourceLoader = new GeoServerResourceLoader(dataDirectory);
+        GeoServerExtensionsHelper.singleton(
+                "resourceLoader", resourceLoader, GeoServerResourceLoader.class);
+        loader = new DefaultGeoServerLoader(resourceLoader);
+
+        System.setProperty(GeoServerLoader.CATALOG_SNAPSHOT, "true");
+        // avoid connecting to the stores, a failed connection would prevent writing the snapshot
+        System.setProperty(GeoServerLoader.LAZY_LOADING, "true");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(GeoServerLoader.CATALOG_SNAPSHOT);
+        System.clearProperty(GeoServerLoader.LAZY_LOADING);
+        GeoServerExtensionsHelper.clear();
+    }
+
+    private CatalogImpl readCatalog() throws Exception {
+        CatalogImpl catalog = new CatalogImpl();
+        catalog.setResourceLoader(resourceLoader);
+        loader.readCatalog(catalog, persister(catalog));
+        return catalog;
+    }
+
+    private XStreamPersister persister(Catalog catalog) {
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        xp.setCatalog(catalog);
+        return xp;
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        CatalogImpl original = readCatalog();
+        assertTrue(Resources.exists(resourceLoader.get(CatalogSnapshot.FILE_NAME)));
+
+        CatalogImpl restored = new CatalogImpl();
+        restored.setResourceLoader(resourceLoader);
+        assertTrue(
+                new CatalogSnapshot(resourceLoader).restore(restored, persister(restored), false));
+        restored.resolve();
+
+        assertEquals(
+                original.getDefaultWorkspace().getName(), restored.getDefaultWorkspace().getName());
+        assertEquals(original.getStyles().size(), restored.getStyles().size());
+        assertEquals(
+                original.getStores(StoreInfo.class).size(),
+                restored.getStores(StoreInfo.class).size());
+        assertEquals(original.getLayers().size(), restored.getLayers().size());
+        for (LayerInfo layer : original.getLayers()) {
+            LayerInfo copy = restored.getLayer(layer.getId());
+            assertNotNull(copy);
+            assertEquals(layer.getName(), copy.getName());
+            assertEquals(layer.getResource().getId(), copy.getResource().getId());
+            assertEquals(
+                    layer.getResource().getStore().getId(), copy.getResource().getStore().getId());
+        }
+        LayerGroupInfo nested = restored.getLayerGroupByName("topp", "nestedgroup");
+        assertNotNull(nested);
+        assertEquals(2, nested.getLayers().size());
+        assertTrue(nested.getLayers().get(0) instanceof LayerGroupInfo);
+
+        // a second load goes through the snapshot and gives the same result
+        CatalogImpl reloaded = readCatalog();
+        assertEquals(original.getLayers().size(), reloaded.getLayers().size());
+    }
+
+    @Test
+    public void testModifiedConfigurationInvalidatesSnapshot() throws Exception {
+        readCatalog();
+
+        Resource layer = resourceLoader.get("workspaces/topp/datastore/layer1/layer.xml");
+        File file = layer.file();
+        assertTrue(file.setLastModified(file.lastModified() + 10000));
+        CatalogImpl catalog = new CatalogImpl();
+        CatalogSnapshot snapshot = new CatalogSnapshot(resourceLoader);
+        assertFalse(snapshot.restore(catalog, persister(catalog), false));
+    }
+
+    @Test
+    public void testUnexpectedClassesAreRejected() throws Exception {
+        CatalogSnapshot snapshot = new CatalogSnapshot(resourceLoader);
+        Resource target = resourceLoader.get(CatalogSnapshot.FILE_NAME);
+        try (ObjectOutputStream out = new ObjectOutputStream(target.out())) {
+            out.writeInt(CatalogSnapshot.FORMAT_VERSION);
+            out.writeUTF(snapshot.fingerprint());
+            out.writeObject(ImmutableList.of("not", "a", "catalog"));
+        }
+
+        CatalogImpl catalog = new CatalogImpl();
+        assertFalse(snapshot.restore(catalog, persister(catalog), false));
+    }
+
+    @Test
+    public void testPasswordsAreNotWritten() throws Exception {
+        String workspace = "<workspace><id>WorkspaceInfoImpl--570ae188:124761b8d78:-7ffd</id>";
+        writeConfig(
+                "workspaces/topp/remote/wmsstore.xml",
+                "<wmsStore><id>WMSStoreInfoImpl-remote</id><name>remote</name>"
+                        + "<type>WMS</type><enabled>true</enabled>"
+                        + workspace
+                        + "</workspace>"
+                        + "<capabilitiesURL>http://localhost/wms</capabilitiesURL>"
+                        + "<user>admin</user><password>remoteSecret</password></wmsStore>");
+        // unknown store type, all connection parameters are left out
+        writeConfig(
+                "workspaces/topp/secured/datastore.xml",
+                "<dataStore><id>DataStoreInfoImpl-secured</id><name>secured</name>"
+                        + "<type>NotAvailable</type><enabled>true</enabled>"
+                        + workspace
+                        + "</workspace><connectionParameters>"
+                        + "<entry key=\"host\">localhost</entry>"
+                        + "<entry key=\"passwd\">databaseSecret</entry>"
+                        + "</connectionParameters></dataStore>");
+        readCatalog();
+
+        Resource snapshot = resourceLoader.get(CatalogSnapshot.FILE_NAME);
+        String contents =
+                new String(FileUtils.readFileToByteArray(snapshot.file()), StandardCharsets.UTF_8);
+        assertFalse(contents.contains("remoteSecret"));
+        assertFalse(contents.contains("databaseSecret"));
+
+        // read back from the store configuration on restore
+        CatalogImpl restored = new CatalogImpl();
+        restored.setResourceLoader(resourceLoader);
+        assertTrue(
+                new CatalogSnapshot(resourceLoader).restore(restored, persister(restored), false));
+        WMSStoreInfo wms = restored.getStoreByName("topp", "remote", WMSStoreInfo.class);
+        assertEquals("admin", wms.getUser());
+        assertEquals("remoteSecret", wms.getPassword());
+        DataStoreInfo ds = restored.getStoreByName("topp", "secured", DataStoreInfo.class);
+        assertEquals("localhost", ds.getConnectionParameters().get("host"));
+        assertEquals("databaseSecret", ds.getConnectionParameters().get("passwd"));
+    }
+
+    private void writeConfig(String path, String xml) throws Exception {
+        File file = resourceLoader.get(path).file();
+        FileUtils.writeStringToFile(file, xml, StandardCharsets.UTF_8);
+    }
+}
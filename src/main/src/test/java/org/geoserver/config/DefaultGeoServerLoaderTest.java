@@ -10,7 +10,11 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.StyleInfo;
@@ -127,6 +131,62 @@ public class DefaultGeoServerLoaderTest {
         assertTrue(nestedLayerGroup.getLayers().get(1) instanceof LayerInfo);
     }
 
+    @Test
+    public void testParallelLoading() throws Exception {
+        System.setProperty(GeoServerLoader.PARALLEL_LOADING, "true");
+        try {
+            loader.readCatalog(catalog, xp);
+        } finally {
+            System.clearProperty(GeoServerLoader.PARALLEL_LOADING);
+        }
+
+        assertNotNull(catalog.getWorkspaceByName("topp"));
+        assertNotNull(catalog.getDataStoreByName("topp", "toponimi"));
+        assertEquals(2, catalog.getFeatureTypes().size());
+        for (String name : new String[] {"layer1", "layer2"}) {
+            LayerInfo layer = catalog.getLayerByName("topp:" + name);
+            assertNotNull(layer);
+            assertEquals(name, layer.getResource().getName());
+            assertEquals("toponimi", layer.getResource().getStore().getName());
+        }
+        LayerGroupInfo nestedLayerGroup = catalog.getLayerGroupByName("topp", "nestedgroup");
+        assertNotNull(nestedLayerGroup);
+        assertEquals(2, nestedLayerGroup.getLayers().size());
+        assertTrue(nestedLayerGroup.getLayers().get(0) instanceof LayerGroupInfo);
+        assertTrue(nestedLayerGroup.getLayers().get(1) instanceof LayerInfo);
+    }
+
+    @Test
+    public void testParallelLoadingPhases() throws Exception {
+        CatalogImpl target = new CatalogImpl();
+        target.setResourceLoader(catalog.getResourceLoader());
+        xp.setCatalog(target);
+        xp.setUnwrapNulls(false);
+        ParallelCatalogLoader parallel = new ParallelCatalogLoader(loader, target, xp, false);
+        parallel.load();
+
+        List<String> phases =
+                Arrays.asList(
+                        "styles", "workspaces", "stores", "resources", "layers", "layer groups");
+        assertEquals(phases, new ArrayList<>(parallel.getPhaseTimings().keySet()));
+        assertEquals(2, target.getLayers().size());
+    }
+
+    @Test
+    public void testLazyLoading() throws Exception {
+        System.setProperty(GeoServerLoader.LAZY_LOADING, "true");
+        try {
+            loader.readCatalog(catalog, xp);
+        } finally {
+            System.clearProperty(GeoServerLoader.LAZY_LOADING);
+        }
+
+        // the store has not been connected to
+        DataStoreInfo store = catalog.getDataStoreByName("topp", "toponimi");
+        assertTrue(store.isEnabled());
+        assertTrue(catalog.getResourcePool().getDataStoreCache().isEmpty());
+    }
+
     @Test
     public void testLoadWithoutResaving() throws Exception {
         GeoServerImpl gs = new GeoServerImpl();
@@ -441,6 +441,59 @@ public class GeoServerExtensions implements ApplicationContextAware, Application
         return result;
     }
 
+    /**
+     * Looks up for a named boolean property, as defined by {@link #getProperty(String)}
+     *
+     * @param propertyName The property name to lookup.
+     * @return True if the property is set to "true", ignoring case, false otherwise
+     */
+    public static boolean getBooleanProperty(String propertyName) {
+        return Boolean.parseBoolean(getProperty(propertyName));
+    }
+
+    /**
+     * Looks up for a named long property, as defined by {@link #getProperty(String)}. A warning is
+     * logged if the property is set to something that is not a valid number.
+     *
+     * @param propertyName The property name to lookup.
+     * @param defaultValue The value returned if the property is not set, or not valid
+     * @return The property value, or the default value
+     */
+    public static long getLongProperty(String propertyName, long defaultValue) {
+        String value = getProperty(propertyName);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning(
+                        "Invalid value "
+                                + value
+                                + " for "
+                                + propertyName
+                                + ", using "
+                                + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Looks up for a named integer property, as defined by {@link #getLongProperty(String, long)}
+     *
+     * @param propertyName The property name to lookup.
+     * @param defaultValue The value returned if the property is not set, or not valid
+     * @return The property value, or the default value
+     */
+    public static int getIntegerProperty(String propertyName, int defaultValue) {
+        long value = getLongProperty(propertyName, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            LOGGER.warning(
+                    "Invalid value " + value + " for " + propertyName + ", using " + defaultValue);
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
     /**
      * Search the context for indicated file.
      *
@@ -280,4 +280,25 @@ public class GeoServerExtensionsTest {
         assertEquals("ABC", GeoServerExtensions.getProperty("TEST_PROPERTY", servletContext));
         assertEquals("WWW", GeoServerExtensions.getProperty("WEB_PROPERTY", servletContext));
     }
+
+    @Test
+    public void testTypedProperties() {
+        try {
+            System.setProperty("TEST_FLAG", "TRUE");
+            System.setProperty("TEST_NUMBER", " 42 ");
+            assertTrue(GeoServerExtensions.getBooleanProperty("TEST_FLAG"));
+            assertFalse(GeoServerExtensions.getBooleanProperty("TEST_PROPERTY"));
+            assertFalse(GeoServerExtensions.getBooleanProperty("TEST_MISSING"));
+            assertEquals(42, GeoServerExtensions.getLongProperty("TEST_NUMBER", 10));
+            assertEquals(42, GeoServerExtensions.getIntegerProperty("TEST_NUMBER", 10));
+            // invalid or missing
+            assertEquals(10, GeoServerExtensions.getLongProperty("TEST_PROPERTY", 10));
+            assertEquals(10, GeoServerExtensions.getIntegerProperty("TEST_MISSING", 10));
+            System.setProperty("TEST_NUMBER", String.valueOf(Long.MAX_VALUE));
+            assertEquals(10, GeoServerExtensions.getIntegerProperty("TEST_NUMBER", 10));
+        } finally {
+            System.clearProperty("TEST_FLAG");
+            System.clearProperty("TEST_NUMBER");
+        }
+    }
 }
@@ -0,0 +1,53 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourceCacheMXBean;
+import org.geoserver.rest.catalog.NamedMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/** Reports the statistics of the resource pool caches */
+@RestController
+@RequestMapping(
+    path = RestBaseController.ROOT_PATH + "/about/resourcepool",
+    produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE}
+)
+public class ResourcePoolCacheController extends RestBaseController {
+
+    private final Catalog catalog;
+
+    @Autowired
+    public ResourcePoolCacheController(@Qualifier("catalog") Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @GetMapping
+    public Map<String, Object> cachesGet() {
+        Map<String, Object> caches = new NamedMap<>("caches");
+        for (ResourceCacheMXBean cache :
+                catalog.getResourcePool().getCacheStatistics().values()) {
+            Map<String, Object> statistics = new LinkedHashMap<>();
+            statistics.put("specification", cache.getSpecification());
+            statistics.put("size", cache.getSize());
+            statistics.put("hitCount", cache.getHitCount());
+            statistics.put("missCount", cache.getMissCount());
+            statistics.put("hitRate", cache.getHitRate());
+            statistics.put("loadCount", cache.getLoadCount());
+            statistics.put("totalLoadTime", cache.getTotalLoadTime());
+            statistics.put("averageLoadPenalty", cache.getAverageLoadPenalty());
+            statistics.put("evictionCount", cache.getEvictionCount());
+            caches.put(cache.getName(), statistics);
+        }
+        return caches;
+    }
+}
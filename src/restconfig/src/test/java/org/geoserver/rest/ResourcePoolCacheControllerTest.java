@@ -0,0 +1,34 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathExists;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.sf.json.JSONObject;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class ResourcePoolCacheControllerTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testGetAsXML() throws Exception {
+        Document dom = getAsDOM(RestBaseController.ROOT_PATH + "/about/resourcepool.xml");
+        assertEquals("caches", dom.getDocumentElement().getNodeName());
+        assertXpathExists("/caches/featureType/hitCount", dom);
+        assertXpathExists("/caches/dataStore/specification", dom);
+    }
+
+    @Test
+    public void testGetAsJSON() throws Exception {
+        JSONObject json =
+                (JSONObject) getAsJSON(RestBaseController.ROOT_PATH + "/about/resourcepool.json");
+        JSONObject caches = json.getJSONObject("caches");
+        assertTrue(caches.getJSONObject("featureType").containsKey("missCount"));
+        assertTrue(caches.getJSONObject("dataStore").containsKey("loadCount"));
+    }
+}
@@ -62,6 +62,9 @@ public class JAIPage extends ServerAdminPage {
         form.add(new CheckBox("recycling"));
         form.add(new CheckBox("jpegAcceleration"));
         addPngEncoderEditor(form);
+        TextField<Integer> pngEncoderThreads = new TextField<Integer>("pngEncoderThreads");
+        pngEncoderThreads.add(RangeValidator.minimum(1));
+        form.add(pngEncoderThreads);
         CheckBox checkBoxMosaic = new CheckBox("allowNativeMosaic");
         CheckBox checkBoxWarp = new CheckBox("allowNativeWarp");
         JAIInfo info = (JAIInfo) jaiModel.getObject();
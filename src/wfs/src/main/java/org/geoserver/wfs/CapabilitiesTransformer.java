@@ -29,6 +29,7 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.KeywordInfo;
@@ -54,13 +55,12 @@ import org.geotools.xlink.XLINK;
 import org.geotools.xml.transform.TransformerBase;
 import org.geotools.xml.transform.Translator;
 import org.geotools.xs.XS;
-import org.locationtech.jts.geom.Envelope;
 import org.opengis.feature.type.AttributeType;
 import org.opengis.feature.type.Name;
 import org.opengis.feature.type.Schema;
+import org.opengis.filter.Filter;
 import org.opengis.filter.capability.FunctionName;
 import org.opengis.parameter.Parameter;
-import org.vfny.geoserver.global.FeatureTypeInfoTitleComparator;
 import org.vfny.geoserver.util.ResponseUtils;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -93,6 +93,9 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
         All
     };
 
+    /** Matches SRS names in the EPSG:code form */
+    static final Pattern EPSG_CODE = Pattern.compile("(?ui)EPSG:[0-9]+");
+
     static final Set<Sections> ALL_SECTIONS =
             Collections.unmodifiableSet(
                     new HashSet<>(
@@ -130,6 +133,9 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
     /** catalog */
     protected Catalog catalog;
 
+    /** per feature type capabilities cache, optional */
+    protected FeatureTypeCapabilitiesCache featureTypeCache;
+
     /** Creates a new CapabilitiesTransformer object. */
     public CapabilitiesTransformer(WFSInfo wfs, WFSInfo.Version version, Catalog catalog) {
         super();
@@ -140,6 +146,61 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
         this.catalog = catalog;
     }
 
+    /** Sets the cache used to look up the feature type dependent parts of the document */
+    public void setFeatureTypeCache(FeatureTypeCapabilitiesCache featureTypeCache) {
+        this.featureTypeCache = featureTypeCache;
+    }
+
+    /**
+     * Returns the feature type dependent contents of the capabilities entry for the feature type,
+     * using the cache if available
+     */
+    protected FeatureTypeCapabilitiesCache.Entry getCapabilitiesEntry(FeatureTypeInfo featureType) {
+        if (featureTypeCache != null) {
+            return featureTypeCache.get(featureType);
+        }
+        return new FeatureTypeCapabilitiesCache.Entry(featureType);
+    }
+
+    /**
+     * Returns the enabled feature types, optionally filtered by namespace prefix, sorted by title.
+     * The titles are extracted once before sorting, instead of being looked up (via catalog
+     * proxies) at each comparison.
+     */
+    protected List<FeatureTypeInfo> getFeatureTypes(String namespace) {
+        List<FeatureTypeInfo> featureTypes = catalog.getFeatureTypes();
+        List<TitledFeatureType> titled = new ArrayList<>(featureTypes.size());
+        for (FeatureTypeInfo ft : featureTypes) {
+            // filter out disabled feature types, and the ones outside of the namespace, if set
+            if (ft.enabled()
+                    && (namespace == null || namespace.equals(ft.getNamespace().getPrefix()))) {
+                titled.add(new TitledFeatureType(ft));
+            }
+        }
+        // same ordering as FeatureTypeInfoTitleComparator, null titles first
+        titled.sort(
+                Comparator.comparing(
+                        (TitledFeatureType t) -> t.title,
+                        Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        List<FeatureTypeInfo> result = new ArrayList<>(titled.size());
+        for (TitledFeatureType t : titled) {
+            result.add(t.featureType);
+        }
+        return result;
+    }
+
+    /** A feature type along with its title, used for sorting */
+    private static class TitledFeatureType {
+        final FeatureTypeInfo featureType;
+        final String title;
+
+        TitledFeatureType(FeatureTypeInfo featureType) {
+            this.featureType = featureType;
+            this.title = featureType.getTitle();
+        }
+    }
+
     /**
      * It turns out that the he WFS 1.0 and 1.1 specifications don't actually support an
      * updatesequence-based getcapabilities operation. There's no mention of an updatesequence
@@ -740,26 +801,7 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
 
                 end("Operations");
 
-                List featureTypes = new ArrayList(catalog.getFeatureTypes());
-
-                // filter out disabled feature types
-                for (Iterator it = featureTypes.iterator(); it.hasNext(); ) {
-                    FeatureTypeInfo ft = (FeatureTypeInfo) it.next();
-                    if (!ft.enabled()) it.remove();
-                }
-
-                // filter the layers if a namespace filter has been set
-                if (request.getNamespace() != null) {
-                    String namespace = request.getNamespace();
-                    for (Iterator it = featureTypes.iterator(); it.hasNext(); ) {
-                        FeatureTypeInfo ft = (FeatureTypeInfo) it.next();
-                        if (!namespace.equals(ft.getNamespace().getPrefix())) it.remove();
-                    }
-                }
-
-                Collections.sort(featureTypes, new FeatureTypeInfoTitleComparator());
-                for (Iterator it = featureTypes.iterator(); it.hasNext(); ) {
-                    FeatureTypeInfo ftype = (FeatureTypeInfo) it.next();
+                for (FeatureTypeInfo ftype : getFeatureTypes(request.getNamespace())) {
                     try {
                         mark();
                         handleFeatureType(ftype);
@@ -811,27 +853,21 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
              * @throws RuntimeException For any errors.
              */
             protected void handleFeatureType(FeatureTypeInfo info) {
-                Envelope bbox = null;
-                bbox = info.getLatLonBoundingBox();
+                FeatureTypeCapabilitiesCache.Entry entry = getCapabilitiesEntry(info);
 
                 start("FeatureType");
                 element("Name", info.prefixedName());
-                element("Title", info.getTitle());
-                element("Abstract", info.getAbstract());
-                handleKeywords(info.getKeywords());
-
-                element("SRS", info.getSRS());
+                element("Title", entry.getTitle());
+                element("Abstract", entry.getAbstract());
+                handleKeywords(entry.getKeywords());
 
-                String minx = String.valueOf(bbox.getMinX());
-                String miny = String.valueOf(bbox.getMinY());
-                String maxx = String.valueOf(bbox.getMaxX());
-                String maxy = String.valueOf(bbox.getMaxY());
+                element("SRS", entry.getSRS());
 
                 AttributesImpl bboxAtts = new AttributesImpl();
-                bboxAtts.addAttribute("", "minx", "minx", "", minx);
-                bboxAtts.addAttribute("", "miny", "miny", "", miny);
-                bboxAtts.addAttribute("", "maxx", "maxx", "", maxx);
-                bboxAtts.addAttribute("", "maxy", "maxy", "", maxy);
+                bboxAtts.addAttribute("", "minx", "minx", "", entry.getMinX());
+                bboxAtts.addAttribute("", "miny", "miny", "", entry.getMinY());
+                bboxAtts.addAttribute("", "maxx", "maxx", "", entry.getMaxX());
+                bboxAtts.addAttribute("", "maxy", "maxy", "", entry.getMaxY());
 
                 element("LatLongBoundingBox", null, bboxAtts);
 
@@ -1532,41 +1568,21 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
             }
 
             protected void featureTypes(boolean crs, String namespace) {
-                List featureTypes = new ArrayList(catalog.getFeatureTypes());
-
-                // filter out disabled feature types
-                for (Iterator it = featureTypes.iterator(); it.hasNext(); ) {
-                    FeatureTypeInfo ft = (FeatureTypeInfo) it.next();
-                    if (!ft.enabled()) it.remove();
-                }
-
-                // filter the layers if a namespace filter has been set
-                if (namespace != null) {
-                    for (Iterator it = featureTypes.iterator(); it.hasNext(); ) {
-                        FeatureTypeInfo ft = (FeatureTypeInfo) it.next();
-                        if (!namespace.equals(ft.getNamespace().getPrefix())) it.remove();
-                    }
-                }
-
-                Collections.sort(featureTypes, new FeatureTypeInfoTitleComparator());
-                for (Iterator i = featureTypes.iterator(); i.hasNext(); ) {
-                    FeatureTypeInfo featureType = (FeatureTypeInfo) i.next();
-                    if (featureType.enabled()) {
-                        try {
-                            mark();
-                            featureType(featureType, crs);
-                            commit();
-                        } catch (RuntimeException ex) {
-                            if (skipMisconfigured) {
-                                reset();
-                                LOGGER.log(
-                                        Level.WARNING,
-                                        "Couldn't encode WFS capabilities entry for featuretype: "
-                                                + featureType.prefixedName(),
-                                        ex);
-                            } else {
-                                throw ex;
-                            }
+                for (FeatureTypeInfo featureType : getFeatureTypes(namespace)) {
+                    try {
+                        mark();
+                        featureType(featureType, crs);
+                        commit();
+                    } catch (RuntimeException ex) {
+                        if (skipMisconfigured) {
+                            reset();
+                            LOGGER.log(
+                                    Level.WARNING,
+                                    "Couldn't encode WFS capabilities entry for featuretype: "
+                                            + featureType.prefixedName(),
+                                    ex);
+                        } else {
+                            throw ex;
                         }
                     }
                 }
@@ -1664,18 +1680,20 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
              */
             protected void featureType(FeatureTypeInfo featureType, boolean crs) {
                 GMLInfo gml = wfs.getGML().get(version);
+                FeatureTypeCapabilitiesCache.Entry entry = getCapabilitiesEntry(featureType);
 
-                String prefix = featureType.getNamespace().getPrefix();
-                String uri = featureType.getNamespace().getURI();
+                NamespaceInfo ns = featureType.getNamespace();
+                String prefix = ns.getPrefix();
+                String uri = ns.getURI();
 
                 start("FeatureType", attributes(new String[] {"xmlns:" + prefix, uri}));
 
                 element("Name", featureType.prefixedName());
-                element("Title", featureType.getTitle());
-                element("Abstract", featureType.getAbstract());
-                keywords(featureType.getKeywords());
+                element("Title", entry.getTitle());
+                element("Abstract", entry.getAbstract());
+                keywords(entry.getKeywords());
 
-                String srs = featureType.getSRS();
+                String srs = entry.getSRS();
                 srs = applySRSNameStyle(gml, srs);
 
                 // default srs
@@ -1687,7 +1705,7 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
                 }
 
                 // other srs
-                List<String> otherSRSes = getOtherSRS(featureType);
+                List<String> otherSRSes = getOtherSRS(entry);
                 for (String otherSRS : otherSRSes) {
                     if (otherSRS != null) {
                         otherSRS = applySRSNameStyle(gml, otherSRS);
@@ -1701,21 +1719,15 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
                     }
                 }
 
-                Envelope bbox = null;
-                bbox = featureType.getLatLonBoundingBox();
-
                 start("ows:WGS84BoundingBox");
 
-                element("ows:LowerCorner", bbox.getMinX() + " " + bbox.getMinY());
-                element("ows:UpperCorner", bbox.getMaxX() + " " + bbox.getMaxY());
+                element("ows:LowerCorner", entry.getMinX() + " " + entry.getMinY());
+                element("ows:UpperCorner", entry.getMaxX() + " " + entry.getMaxY());
 
                 end("ows:WGS84BoundingBox");
 
-                List<MetadataLinkInfo> mlinks = featureType.getMetadataLinks();
-                if (mlinks != null && !mlinks.isEmpty()) {
-                    for (MetadataLinkInfo link : mlinks) {
-                        metadataLink(link);
-                    }
+                for (MetadataLinkInfo link : entry.getMetadataLinks()) {
+                    metadataLink(link);
                 }
 
                 end("FeatureType");
@@ -1724,7 +1736,7 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
             private String applySRSNameStyle(GMLInfo gml, String srs) {
                 if (srs != null) {
                     String prefix = gml.getSrsNameStyle().getPrefix();
-                    if (srs.matches("(?ui)EPSG:[0-9]+")) {
+                    if (EPSG_CODE.matcher(srs).matches()) {
                         srs = prefix + srs.substring(5);
                     } else {
                         srs = prefix + srs;
@@ -1744,6 +1756,13 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
                 return extraSRS;
             }
 
+            protected List<String> getOtherSRS(FeatureTypeCapabilitiesCache.Entry entry) {
+                if (entry.isOverridingServiceSRS()) {
+                    return entry.getResponseSRS();
+                }
+                return wfs.getSRS();
+            }
+
             protected void metadataLink(MetadataLinkInfo link) {
                 // extract format and metadata type, make sure they abide the WFS 1.1
                 // restrictions
@@ -2182,6 +2201,7 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
                                 }
                             }
                         };
+                wfs1_1.setFeatureTypeCache(featureTypeCache);
                 delegate = (CapabilitiesTranslator1_1) wfs1_1.createTranslator(handler);
             }
 
@@ -2477,7 +2497,7 @@ public abstract class CapabilitiesTransformer extends TransformerBase {
             }
 
             protected void featureTypeList() {
-                if (catalog.getFeatureTypes().isEmpty()) {
+                if (catalog.count(FeatureTypeInfo.class, Filter.INCLUDE) == 0) {
                     return;
                 }
 
@@ -6,13 +6,21 @@
 package org.geoserver.wfs;
 
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 
 /**
  * A class executing a feature count, but also able to return a pre-computed one. Used as an
  * accessory to compute the numberMatched attribute for WFS 2.0, and running the actual counts only
- * when strictly necessary
+ * when strictly necessary.
+ *
+ * <p>The count can also be started in background, so that it runs while the features are
+ * prepared and encoded, and can be served by a {@link FeatureCountCache}.
  *
  * @author Andrea Aime - GeoSolutions
  */
@@ -26,18 +34,97 @@ class CountExecutor {
 
     int providedCount = COUNT_UNSET;
 
+    FeatureTypeInfo featureType;
+
+    FeatureCountCache cache;
+
+    boolean estimate;
+
+    Future<Integer> future;
+
     public CountExecutor(FeatureSource source, Query query) {
         this.source = source;
         this.query = query;
     }
 
+    /**
+     * Builds a count executor using a count cache
+     *
+     * @param featureType The feature type being counted, used as part of the cache key
+     * @param source The source to count against
+     * @param query The query to count
+     * @param cache The count cache, or null if no caching should happen
+     */
+    public CountExecutor(
+            FeatureTypeInfo featureType,
+            FeatureSource source,
+            Query query,
+            FeatureCountCache cache) {
+        this(source, query);
+        this.featureType = featureType;
+        this.cache = cache;
+    }
+
     public CountExecutor(int providedCount) {
         this.providedCount = providedCount;
     }
 
+    /**
+     * Makes the executor use the count the data source can compute cheaply, if any, instead of an
+     * exact count. The result will be -1 (unknown) for sources that cannot optimize the count.
+     */
+    public void setEstimate(boolean estimate) {
+        this.estimate = estimate;
+    }
+
+    /**
+     * Starts computing the count in background, using the given pool, if not already computed or
+     * started. The count is cancelled if still running when the request is finished.
+     */
+    public void start(CountExecutorPool pool) {
+        if (isCountSet() || future != null || !pool.isEnabled()) {
+            return;
+        }
+        ThreadLocalsTransfer threadLocals = new ThreadLocalsTransfer();
+        future =
+                pool.submit(
+                                () -> {
+                                    threadLocals.apply();
+                                    try {
+                                        return computeCount();
+                                    } finally {
+                                        threadLocals.cleanup();
+                                    }
+                                });
+    }
+
     public int getCount() throws IOException {
         if (isCountSet()) {
             return providedCount;
+        } else if (future != null) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the feature count", e);
+            } catch (CancellationException e) {
+                throw new IOException("The feature count has been cancelled", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to count features", e.getCause());
+            }
+        } else {
+            return computeCount();
+        }
+    }
+
+    private int computeCount() throws IOException {
+        if (estimate) {
+            return source.getCount(query);
+        } else if (cache != null) {
+            return cache.getCount(featureType, source, query);
         } else {
             // make sure we get a count by getting a feature colleciton
             // FeatureSource.getCount(...) can return -1
@@ -45,6 +132,13 @@ class CountExecutor {
         }
     }
 
+    /** Cancels the background count, if any */
+    public void cancel() {
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
     public boolean isCountSet() {
         return providedCount != COUNT_UNSET;
     }
@@ -0,0 +1,94 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Pool running the WFS 2.0 numberMatched counts in background, see {@link CountExecutor#start}.
+ * The pool size is set by the {@value GetFeature#COUNT_THREADS_KEY} variable, with no pool (the
+ * default) the counts are run in the request thread.
+ *
+ * <p>The counts started by a request and not yet completed are cancelled once the request is
+ * finished, as nobody is going to read them anymore.
+ */
+public class CountExecutorPool extends AbstractDispatcherCallback implements DisposableBean {
+
+    /** The counts started by the current request */
+    static final ThreadLocal<List<Future<?>>> STARTED = new ThreadLocal<>();
+
+    private final ExecutorService executor;
+
+    public CountExecutorPool() {
+        this(GeoServerExtensions.getIntegerProperty(GetFeature.COUNT_THREADS_KEY, 0));
+    }
+
+    CountExecutorPool(int threads) {
+        if (threads > 0) {
+            this.executor =
+                    Executors.newFixedThreadPool(
+                            threads,
+                            new ThreadFactory() {
+                                final AtomicInteger count = new AtomicInteger();
+
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    String name = "WFSCount-" + count.incrementAndGet();
+                                    Thread t = new Thread(r, name);
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /** Returns true if counts can be run in background */
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    /** Runs the count in background, tracking it so that it's cancelled with the request */
+    <T> Future<T> submit(Callable<T> count) {
+        Future<T> future = executor.submit(count);
+        List<Future<?>> started = STARTED.get();
+        if (started == null) {
+            started = new ArrayList<>();
+            STARTED.set(started);
+        }
+        started.add(future);
+        return future;
+    }
+
+    @Override
+    public void finished(Request request) {
+        List<Future<?>> started = STARTED.get();
+        if (started != null) {
+            STARTED.remove();
+            for (Future<?> future : started) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -49,6 +49,12 @@ public class DefaultWebFeatureService implements WebFeatureService, ApplicationC
      */
     protected ApplicationContext context;
 
+    /** Cache of the feature type dependent parts of the capabilities document */
+    protected FeatureTypeCapabilitiesCache featureTypeCache;
+
+    /** Cache of the counts used to compute numberMatched */
+    protected FeatureCountCache countCache;
+
     public DefaultWebFeatureService(GeoServer gs) {
         this.geoServer = gs;
         this.catalog = gs.getCatalog();
@@ -59,6 +65,16 @@ public class DefaultWebFeatureService implements WebFeatureService, ApplicationC
         this.filterFactory = filterFactory;
     }
 
+    /** Sets the cache used to encode the feature type list in the capabilities document */
+    public void setFeatureTypeCache(FeatureTypeCapabilitiesCache featureTypeCache) {
+        this.featureTypeCache = featureTypeCache;
+    }
+
+    /** Sets the cache used to compute the number of features matched by GetFeature requests */
+    public void setCountCache(FeatureCountCache countCache) {
+        this.countCache = countCache;
+    }
+
     public WFSInfo getServiceInfo() {
         return geoServer.getService(WFSInfo.class);
     }
@@ -71,11 +87,13 @@ public class DefaultWebFeatureService implements WebFeatureService, ApplicationC
      * @throws WFSException Any service exceptions.
      */
     public TransformerBase getCapabilities(GetCapabilitiesType request) throws WFSException {
-        return new GetCapabilities(
+        GetCapabilities getCapabilities =
+                new GetCapabilities(
                         getServiceInfo(),
                         catalog,
-                        WFSExtensions.findExtendedCapabilitiesProviders(context))
-                .run(new GetCapabilitiesRequest.WFS11(request));
+                        WFSExtensions.findExtendedCapabilitiesProviders(context));
+        getCapabilities.setFeatureTypeCache(featureTypeCache);
+        return getCapabilities.run(new GetCapabilitiesRequest.WFS11(request));
     }
 
     /**
@@ -101,6 +119,7 @@ public class DefaultWebFeatureService implements WebFeatureService, ApplicationC
     public FeatureCollectionResponse getFeature(GetFeatureType request) throws WFSException {
         GetFeature getFeature = new GetFeature(getServiceInfo(), catalog);
         getFeature.setFilterFactory(filterFactory);
+        getFeature.setCountCache(countCache);
 
         return getFeature.run(new GetFeatureRequest.WFS11(request));
     }
@@ -60,6 +60,18 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
      */
     protected ApplicationContext context;
 
+    /** Cache of the feature type dependent parts of the capabilities document */
+    protected FeatureTypeCapabilitiesCache featureTypeCache;
+
+    /** Cache of the counts used to compute numberMatched */
+    protected FeatureCountCache countCache;
+
+    /** Cache of the distinct values returned by GetPropertyValue */
+    protected DistinctValuesCache distinctCache;
+
+    /** Pool computing numberMatched in background */
+    protected CountExecutorPool countPool;
+
     public DefaultWebFeatureService20(GeoServer geoServer) {
         this.geoServer = geoServer;
     }
@@ -68,6 +80,26 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
         this.filterFactory = filterFactory;
     }
 
+    /** Sets the cache used to encode the feature type list in the capabilities document */
+    public void setFeatureTypeCache(FeatureTypeCapabilitiesCache featureTypeCache) {
+        this.featureTypeCache = featureTypeCache;
+    }
+
+    /** Sets the cache used to compute the number of features matched by GetFeature requests */
+    public void setCountCache(FeatureCountCache countCache) {
+        this.countCache = countCache;
+    }
+
+    /** Sets the pool used to compute the number of features matched in background */
+    public void setCountPool(CountExecutorPool countPool) {
+        this.countPool = countPool;
+    }
+
+    /** Sets the cache used by GetPropertyValue requests asking for distinct values */
+    public void setDistinctCache(DistinctValuesCache distinctCache) {
+        this.distinctCache = distinctCache;
+    }
+
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.context = applicationContext;
     }
@@ -88,11 +120,13 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
     }
 
     public TransformerBase getCapabilities(GetCapabilitiesType request) throws WFSException {
-        return new GetCapabilities(
+        GetCapabilities getCapabilities =
+                new GetCapabilities(
                         getServiceInfo(),
                         getCatalog(),
-                        WFSExtensions.findExtendedCapabilitiesProviders(context))
-                .run(new GetCapabilitiesRequest.WFS20(request));
+                        WFSExtensions.findExtendedCapabilitiesProviders(context));
+        getCapabilities.setFeatureTypeCache(featureTypeCache);
+        return getCapabilities.run(new GetCapabilitiesRequest.WFS20(request));
     }
 
     public FeatureTypeInfo[] describeFeatureType(DescribeFeatureTypeType request)
@@ -104,6 +138,8 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
     public FeatureCollectionResponse getFeature(GetFeatureType request) throws WFSException {
         GetFeature gf = new GetFeature(getServiceInfo(), getCatalog());
         gf.setFilterFactory(filterFactory);
+        gf.setCountCache(countCache);
+        gf.setCountPool(countPool);
         gf.setStoredQueryProvider(getStoredQueryProvider());
 
         return gf.run(new GetFeatureRequest.WFS20(request));
@@ -116,7 +152,10 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
 
     @Override
     public ValueCollectionType getPropertyValue(GetPropertyValueType request) throws WFSException {
-        return new GetPropertyValue(getServiceInfo(), getCatalog(), filterFactory).run(request);
+        GetPropertyValue gpv = new GetPropertyValue(getServiceInfo(), getCatalog(), filterFactory);
+        gpv.setCountCache(countCache);
+        gpv.setDistinctCache(distinctCache);
+        return gpv.run(request);
     }
 
     public LockFeatureResponseType lockFeature(LockFeatureType request) throws WFSException {
@@ -0,0 +1,94 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.data.Query;
+
+/**
+ * Caches the distinct values of a feature type attribute returned by GetPropertyValue requests
+ * using the {@value GetPropertyValue#DISTINCT_PARAM} vendor parameter, typically issued over and
+ * over to fill filter drop downs in user interfaces.
+ *
+ * <p>Values are keyed on the value reference, and keyed and evicted as described in {@link
+ * QueryResultCache}. The cache is bounded by the total number of values, so that a few large
+ * value lists cannot use up the memory.
+ *
+ * <p>The cache is disabled by default, and can be configured with the following system variables:
+ *
+ * <ul>
+ *   <li>{@value #ENABLED_KEY}: set to true to enable the cache
+ *   <li>{@value #MAX_VALUES_KEY}: max number of values, summed over all the cached lists
+ *       (defaults to {@value #DEFAULT_MAX_VALUES})
+ *   <li>{@value #TTL_KEY}: time to live of each value list, in seconds (defaults to {@value
+ *       #DEFAULT_TTL}), as changes made to the data outside of GeoServer cannot be tracked
+ * </ul>
+ */
+public class DistinctValuesCache extends QueryResultCache<List<Object>> {
+
+    public static final String ENABLED_KEY = "WFS_DISTINCT_CACHE";
+
+    public static final String MAX_VALUES_KEY = "WFS_DISTINCT_CACHE_VALUES";
+
+    public static final String TTL_KEY = "WFS_DISTINCT_CACHE_TTL";
+
+    static final long DEFAULT_MAX_VALUES = 100000;
+
+    static final long DEFAULT_TTL = 300;
+
+    /** Weighs the value lists by their size, empty ones still count as one */
+    static final Weigher<Key, List<Object>> WEIGHER = (k, v) -> Math.max(1, v.size());
+
+    public DistinctValuesCache(Catalog catalog) {
+        super(
+                catalog,
+                GeoServerExtensions.getBooleanProperty(ENABLED_KEY),
+                CacheBuilder.newBuilder()
+                        .maximumWeight(
+                                GeoServerExtensions.getLongProperty(
+                                        MAX_VALUES_KEY, DEFAULT_MAX_VALUES))
+                        .weigher(WEIGHER)
+                        .expireAfterWrite(
+                                GeoServerExtensions.getLongProperty(TTL_KEY, DEFAULT_TTL),
+                                TimeUnit.SECONDS)
+                        .build());
+    }
+
+    /**
+     * Returns the distinct values of the attribute, from the cache if possible
+     *
+     * @param featureType The feature type being queried
+     * @param valueReference The attribute whose values are requested
+     * @param query The query the values are computed with, its filter and hints are part of the
+     *     key
+     * @param loader Computes the values, if not cached. Can return null if the values are not
+     *     available, which is not cached
+     */
+    public List<Object> getValues(
+            FeatureTypeInfo featureType,
+            String valueReference,
+            Query query,
+            Loader<List<Object>> loader)
+            throws IOException {
+        if (!isEnabled() || featureType.getId() == null) {
+            return loader.load();
+        }
+
+        return get(
+                new Key(featureType.getId(), valueReference, query),
+                () -> {
+                    List<Object> values = loader.load();
+                    return values == null ? null : Collections.unmodifiableList(values);
+                });
+    }
+}
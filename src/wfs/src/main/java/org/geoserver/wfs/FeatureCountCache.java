@@ -0,0 +1,88 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+
+/**
+ * Caches the number of features matched by a query, so that clients paging through the same result
+ * set do not force GeoServer to count it again at each page, in order to compute the WFS 2.0
+ * numberMatched.
+ *
+ * <p>Counts are keyed and evicted as described in {@link QueryResultCache}. Queries with joins are
+ * not cached.
+ *
+ * <p>The cache is disabled by default, and can be configured with the following system variables:
+ *
+ * <ul>
+ *   <li>{@value #ENABLED_KEY}: set to true to enable the cache
+ *   <li>{@value #MAX_ENTRIES_KEY}: max number of cached counts (defaults to {@value
+ *       #DEFAULT_MAX_ENTRIES})
+ *   <li>{@value #TTL_KEY}: time to live of each count, in seconds (defaults to {@value
+ *       #DEFAULT_TTL}), as changes made to the data outside of GeoServer cannot be tracked
+ * </ul>
+ */
+public class FeatureCountCache extends QueryResultCache<Integer> {
+
+    public static final String ENABLED_KEY = "WFS_COUNT_CACHE";
+
+    public static final String MAX_ENTRIES_KEY = "WFS_COUNT_CACHE_SIZE";
+
+    public static final String TTL_KEY = "WFS_COUNT_CACHE_TTL";
+
+    static final long DEFAULT_MAX_ENTRIES = 1000;
+
+    static final long DEFAULT_TTL = 300;
+
+    public FeatureCountCache(Catalog catalog) {
+        super(
+                catalog,
+                GeoServerExtensions.getBooleanProperty(ENABLED_KEY),
+                CacheBuilder.newBuilder()
+                        .maximumSize(
+                                GeoServerExtensions.getLongProperty(
+                                        MAX_ENTRIES_KEY, DEFAULT_MAX_ENTRIES))
+                        .expireAfterWrite(
+                                GeoServerExtensions.getLongProperty(TTL_KEY, DEFAULT_TTL),
+                                TimeUnit.SECONDS)
+                        .build());
+    }
+
+    /**
+     * Returns the number of features matched by the query, from the cache if possible
+     *
+     * @param featureType The feature type being queried
+     * @param source The source to run the count against, if not cached
+     * @param query The query, with no paging
+     */
+    public int getCount(FeatureTypeInfo featureType, FeatureSource source, Query query)
+            throws IOException {
+        if (!isEnabled()
+                || featureType == null
+                || featureType.getId() == null
+                || (query.getJoins() != null && !query.getJoins().isEmpty())) {
+            return count(source, query);
+        }
+
+        return get(new Key(featureType.getId(), null, query), () -> count(source, query));
+    }
+
+    @Override
+    protected boolean isCacheable(Integer count) {
+        return count >= 0;
+    }
+
+    private int count(FeatureSource source, Query query) throws IOException {
+        // FeatureSource.getCount(...) can return -1, the collection size is always computed
+        return source.getFeatures(query).size();
+    }
+}
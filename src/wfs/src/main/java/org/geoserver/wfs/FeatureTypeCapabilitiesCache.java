@@ -0,0 +1,228 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.KeywordInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MetadataLinkInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+
+/**
+ * Memoizes, for each feature type, the bits of the WFS capabilities FeatureType entry that depend
+ * only on the feature type configuration (title, abstract, keywords, declared SRS, lat/lon bounds
+ * already converted to strings, metadata links). This saves the capabilities transformer from going
+ * through the catalog proxies and recomputing the same values for every feature type at each
+ * GetCapabilities request.
+ *
+ * <p>Entries are evicted when the feature type, or a layer publishing it, is added, modified or
+ * removed. Everything that depends on the request or on the service configuration (names and
+ * prefixes, which are different in virtual services, service SRS list, SRS name style, proxified
+ * links) is still computed at encoding time.
+ */
+public class FeatureTypeCapabilitiesCache implements CatalogListener, GeoServerLifecycleHandler {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public FeatureTypeCapabilitiesCache(Catalog catalog) {
+        catalog.addListener(this);
+    }
+
+    /**
+     * Returns the capabilities entry for the given feature type, computing it if not already
+     * available. Feature types that have not been saved in the catalog yet are not cached.
+     */
+    public Entry get(FeatureTypeInfo featureType) {
+        String id = featureType.getId();
+        if (id == null) {
+            return new Entry(featureType);
+        }
+        // computeIfAbsent makes a concurrent eviction wait for the entry to be computed
+        return entries.computeIfAbsent(id, k -> new Entry(featureType));
+    }
+
+    /** Drops all cached entries */
+    public void clear() {
+        entries.clear();
+    }
+
+    /** Returns the number of cached entries */
+    public int size() {
+        return entries.size();
+    }
+
+    private void evict(CatalogEvent event) {
+        CatalogInfo source = event.getSource();
+        if (source instanceof FeatureTypeInfo) {
+            remove((ResourceInfo) source);
+        } else if (source instanceof LayerInfo) {
+            // title and abstract of layers are stored in the resource
+            remove(((LayerInfo) source).getResource());
+        }
+    }
+
+    private void remove(ResourceInfo resource) {
+        if (resource != null && resource.getId() != null) {
+            entries.remove(resource.getId());
+        }
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+
+    /** The feature type dependent contents of a capabilities FeatureType entry */
+    public static class Entry {
+
+        final String title;
+
+        final String abstrct;
+
+        final List<KeywordInfo> keywords;
+
+        final String srs;
+
+        final boolean overridingServiceSRS;
+
+        final List<String> responseSRS;
+
+        final String minX;
+
+        final String minY;
+
+        final String maxX;
+
+        final String maxY;
+
+        final List<MetadataLinkInfo> metadataLinks;
+
+        public Entry(FeatureTypeInfo featureType) {
+            this.title = featureType.getTitle();
+            this.abstrct = featureType.getAbstract();
+            this.keywords = copy(featureType.getKeywords());
+            this.srs = featureType.getSRS();
+            this.overridingServiceSRS = featureType.isOverridingServiceSRS();
+            this.responseSRS = copy(featureType.getResponseSRS());
+            ReferencedEnvelope bbox = featureType.getLatLonBoundingBox();
+            this.minX = String.valueOf(bbox.getMinX());
+            this.minY = String.valueOf(bbox.getMinY());
+            this.maxX = String.valueOf(bbox.getMaxX());
+            this.maxY = String.valueOf(bbox.getMaxY());
+            this.metadataLinks = copy(featureType.getMetadataLinks());
+        }
+
+        private static <T> List<T> copy(List<T> list) {
+            if (list == null || list.isEmpty()) {
+                return Collections.emptyList();
+            }
+            return Collections.unmodifiableList(new ArrayList<>(list));
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getAbstract() {
+            return abstrct;
+        }
+
+        public List<KeywordInfo> getKeywords() {
+            return keywords;
+        }
+
+        public String getSRS() {
+            return srs;
+        }
+
+        public boolean isOverridingServiceSRS() {
+            return overridingServiceSRS;
+        }
+
+        public List<String> getResponseSRS() {
+            return responseSRS;
+        }
+
+        /** The lat/lon bounding box minimum x, as encoded in the capabilities document */
+        public String getMinX() {
+            return minX;
+        }
+
+        /** The lat/lon bounding box minimum y, as encoded in the capabilities document */
+        public String getMinY() {
+            return minY;
+        }
+
+        /** The lat/lon bounding box maximum x, as encoded in the capabilities document */
+        public String getMaxX() {
+            return maxX;
+        }
+
+        /** The lat/lon bounding box maximum y, as encoded in the capabilities document */
+        public String getMaxY() {
+            return maxY;
+        }
+
+        public List<MetadataLinkInfo> getMetadataLinks() {
+            return metadataLinks;
+        }
+    }
+}
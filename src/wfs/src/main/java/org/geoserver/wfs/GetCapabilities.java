@@ -31,6 +31,9 @@ public class GetCapabilities {
 
     private final Collection<WFSExtendedCapabilitiesProvider> extendedCapabilitiesProviders;
 
+    /** Feature type capabilities cache, optional */
+    FeatureTypeCapabilitiesCache featureTypeCache;
+
     /**
      * Creates a new wfs 1.0/1.1 GetCapabilitis operation.
      *
@@ -48,6 +51,11 @@ public class GetCapabilities {
         this.extendedCapabilitiesProviders = extendedCapabilitiesProviders;
     }
 
+    /** Sets the cache used to encode the feature type list */
+    public void setFeatureTypeCache(FeatureTypeCapabilitiesCache featureTypeCache) {
+        this.featureTypeCache = featureTypeCache;
+    }
+
     public CapabilitiesTransformer run(GetCapabilitiesRequest request) throws WFSException {
         // cite requires that we fail when we see an "invalid" update sequence,
         // since we dont support update sequences, all are invalid, but we take
@@ -90,6 +98,7 @@ public class GetCapabilities {
                 throw new WFSException(request, "Could not understand version:" + version);
             }
         }
+        capsTransformer.setFeatureTypeCache(featureTypeCache);
         capsTransformer.setEncoding(Charset.forName(wfs.getGeoServer().getSettings().getCharset()));
         return capsTransformer;
     }
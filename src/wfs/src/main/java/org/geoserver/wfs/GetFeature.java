@@ -136,6 +136,49 @@ public class GetFeature {
     static final String GET_FEATURE_BY_ID =
             "http://www.opengis.net/def/query/OGC-WFS/0/GetFeatureById";
 
+    /**
+     * System variable controlling how numberMatched is computed when the client is not asking for
+     * hits, see {@link NumberMatchedMode}. Defaults to {@link NumberMatchedMode#EXACT}
+     */
+    public static final String NUMBER_MATCHED_MODE_KEY = "WFS_NUMBER_MATCHED_MODE";
+
+    /**
+     * System variable setting the number of threads used to compute the WFS 2.0 numberMatched in
+     * background, while the features are being prepared and encoded, see {@link
+     * CountExecutorPool}. Defaults to zero, counts are computed in the request thread
+     */
+    public static final String COUNT_THREADS_KEY = "WFS_COUNT_THREADS";
+
+    /** Request parameter carrying the keyset paging cursor, see {@link KeysetPaging} */
+    public static final String CURSOR_PARAM = "cursor";
+
+    /** The ways numberMatched can be computed */
+    public enum NumberMatchedMode {
+        /** Exact count of the features matched by the queries */
+        EXACT,
+        /**
+         * Count as provided by the data source, if it can compute it without a full scan of the
+         * matched features, unknown otherwise
+         */
+        ESTIMATED,
+        /** Do not count, numberMatched is reported as unknown */
+        UNKNOWN;
+
+        /** Returns the mode configured by the {@link #NUMBER_MATCHED_MODE_KEY} variable */
+        static NumberMatchedMode lookup() {
+            String value = GeoServerExtensions.getProperty(NUMBER_MATCHED_MODE_KEY);
+            if (value != null) {
+                try {
+                    return valueOf(value.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warning(
+                            "Invalid value " + value + " for " + NUMBER_MATCHED_MODE_KEY);
+                }
+            }
+            return EXACT;
+        }
+    }
+
     /** Standard logging instance for class */
     private static final Logger LOGGER =
             org.geotools.util.logging.Logging.getLogger("org.vfny.geoserver.requests");
@@ -199,6 +242,15 @@ public class GetFeature {
     /** stored query provider */
     StoredQueryProvider storedQueryProvider;
 
+    /** numberMatched count cache */
+    FeatureCountCache countCache;
+
+    /** Pool computing numberMatched in background */
+    CountExecutorPool countPool;
+
+    /** The keyset paging cursor to be used in the next link, if any */
+    String nextCursor;
+
     /** Creates the WFS 1.0/1.1 GetFeature operation. */
     public GetFeature(WFSInfo wfs, Catalog catalog) {
         this.wfs = wfs;
@@ -230,6 +282,24 @@ public class GetFeature {
         this.storedQueryProvider = storedQueryProvider;
     }
 
+    /**
+     * Returns the keyset paging cursor pointing after the last feature returned, to be added to
+     * the next link, or null if keyset paging is not possible for the current request
+     */
+    protected String getNextCursor() {
+        return nextCursor;
+    }
+
+    /** Sets the cache used to compute numberMatched */
+    public void setCountCache(FeatureCountCache countCache) {
+        this.countCache = countCache;
+    }
+
+    /** Sets the pool used to compute numberMatched in background */
+    public void setCountPool(CountExecutorPool countPool) {
+        this.countPool = countPool;
+    }
+
     public FeatureCollectionResponse run(GetFeatureRequest request) throws WFSException {
         List<Query> queries = request.getQueries();
 
@@ -346,6 +416,11 @@ public class GetFeature {
         }
 
         boolean isNumberMatchedSkipped = false;
+        NumberMatchedMode numberMatchedMode =
+                request.isResultTypeHits() ? NumberMatchedMode.EXACT : NumberMatchedMode.lookup();
+        // only WFS 2.0 reports numberMatched
+        boolean countInBackground =
+                countPool != null && countPool.isEnabled() && request.getVersion().startsWith("2");
         int count = 0; // should probably be long
         BigInteger totalCount = BigInteger.ZERO;
 
@@ -618,11 +693,41 @@ public class GetFeature {
                         queryMaxFeatures = metaMaxFeatures;
                     }
                     Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
+
+                    // keyset paging, the cursor replaces the offset with a filter on the sort key
+                    List<SortBy> pagingKey = null;
+                    KeysetPaging.Cursor cursor = null;
+                    Filter pageFilter = filter;
+                    int pageOffset = offset;
+                    if (offset > -1
+                            && queries.size() == 1
+                            && joins == null
+                            && !request.isLockRequest()
+                            && !request.isResultTypeHits()
+                            && KeysetPaging.isEnabled()) {
+                        pagingKey = KeysetPaging.getKey(meta, query.getSortBy(), filterFactory);
+                        String encoded = getRequestCursor();
+                        if (pagingKey != null && encoded != null) {
+                            cursor =
+                                    KeysetPaging.Cursor.decode(
+                                            encoded,
+                                            pagingKey,
+                                            offset,
+                                            (SimpleFeatureType) meta.getFeatureType());
+                        }
+                        if (cursor != null) {
+                            Filter after = cursor.toFilter(pagingKey, filterFactory);
+                            pageFilter =
+                                    filter == null ? after : filterFactory.and(filter, after);
+                            pageOffset = cursor.ties;
+                        }
+                    }
+
                     org.geotools.data.Query gtQuery =
                             toDataQuery(
                                     query,
-                                    filter,
-                                    offset,
+                                    pageFilter,
+                                    pageOffset,
                                     queryMaxFeatures,
                                     source,
                                     request,
@@ -631,6 +736,9 @@ public class GetFeature {
                                     joins,
                                     primaryTypeName,
                                     primaryAlias);
+                    if (pagingKey != null) {
+                        gtQuery.setSortBy(pagingKey.toArray(new SortBy[pagingKey.size()]));
+                    }
 
                     if (LOGGER.isLoggable(Level.FINE)) {
                         LOGGER.fine("Query is " + query + "\n To gt2: " + gtQuery);
@@ -685,11 +793,23 @@ public class GetFeature {
                     // update the count
                     count += size;
 
+                    // a full page, there might be a next one
+                    if (pagingKey != null && calculateSize && size == queryMaxFeatures) {
+                        nextCursor =
+                                getNextCursor(
+                                        source,
+                                        gtQuery,
+                                        pagingKey,
+                                        cursor,
+                                        Math.max(offset, 0) + size);
+                    }
+
                     // collect queries required to return numberMatched/totalSize
                     // check maxFeatures and offset, if they are unset we can use the size we
                     // calculated above
                     isNumberMatchedSkipped =
-                            meta.getSkipNumberMatched() && !request.isResultTypeHits();
+                            (meta.getSkipNumberMatched() && !request.isResultTypeHits())
+                                    || numberMatchedMode == NumberMatchedMode.UNKNOWN;
                     if (!isNumberMatchedSkipped) {
                         if (calculateSize
                                 && (queryMaxFeatures == Integer.MAX_VALUE
@@ -710,7 +830,15 @@ public class GetFeature {
                                             joins,
                                             primaryTypeName,
                                             primaryAlias);
-                            totalCountExecutors.add(new CountExecutor(source, qTotal));
+                            CountExecutor executor =
+                                    new CountExecutor(meta, source, qTotal, countCache);
+                            executor.setEstimate(
+                                    numberMatchedMode == NumberMatchedMode.ESTIMATED);
+                            if (countInBackground) {
+                                // get the count going while the rest of the request is processed
+                                executor.start(countPool);
+                            }
+                            totalCountExecutors.add(executor);
                         }
                     }
 
@@ -840,6 +968,36 @@ public class GetFeature {
                 getFeatureById);
     }
 
+    /** Returns the keyset paging cursor provided by the client, if any */
+    private String getRequestCursor() {
+        Request req = Dispatcher.REQUEST.get();
+        if (req == null || req.getRawKvp() == null) {
+            return null;
+        }
+        Object cursor = req.getRawKvp().get(CURSOR_PARAM.toUpperCase());
+        return cursor instanceof String ? (String) cursor : null;
+    }
+
+    /** Reads the key of the features in the current page, and builds the next page cursor */
+    private String getNextCursor(
+            FeatureSource<? extends FeatureType, ? extends Feature> source,
+            org.geotools.data.Query pageQuery,
+            List<SortBy> pagingKey,
+            KeysetPaging.Cursor cursor,
+            int nextStartIndex)
+            throws IOException {
+        org.geotools.data.Query keyQuery = new org.geotools.data.Query(pageQuery);
+        keyQuery.setPropertyNames(
+                pagingKey
+                        .stream()
+                        .map(sb -> sb.getPropertyName().getPropertyName())
+                        .collect(Collectors.toList()));
+        KeysetPaging.Cursor next =
+                KeysetPaging.next(
+                        source.getFeatures(keyQuery), pagingKey, cursor, nextStartIndex);
+        return next == null ? null : next.encode();
+    }
+
     /** Returns true if all count executors are given a static count value */
     private boolean isPreComputed(List<CountExecutor> totalCountExecutors) {
         for (CountExecutor q : totalCountExecutors) {
@@ -858,6 +1016,8 @@ public class GetFeature {
             // period
             if (result == -1) {
                 totalCount = -1;
+                // the other counts are not going to be used
+                totalCountExecutors.forEach(CountExecutor::cancel);
                 break;
             } else {
                 totalCount += result;
@@ -995,6 +1155,8 @@ public class GetFeature {
                 // generate kvp map from request object
                 kvp = buildKvpFromRequest(request);
             }
+            // the cursor is only valid for the current page
+            kvp.keySet().removeIf(k -> CURSOR_PARAM.equalsIgnoreCase(k));
             buildPrevNextLinks(request, offset, maxFeatures, count, result, kvp);
         }
 
@@ -1039,6 +1201,9 @@ public class GetFeature {
         } else if (count > 0 && offset > -1 && maxFeatures <= count) {
             kvp.put("startIndex", String.valueOf(offset > 0 ? offset + count : count));
             kvp.put("count", String.valueOf(maxFeatures));
+            if (nextCursor != null) {
+                kvp.put(CURSOR_PARAM, nextCursor);
+            }
             result.setNext(buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE));
         }
     }
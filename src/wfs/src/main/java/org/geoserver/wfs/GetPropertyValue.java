@@ -6,7 +6,14 @@
 package org.geoserver.wfs;
 
 import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 import javax.xml.namespace.QName;
 import net.opengis.wfs20.FeatureCollectionType;
@@ -18,16 +25,47 @@ import net.opengis.wfs20.Wfs20Factory;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.request.GetFeatureRequest;
+import org.geoserver.wfs.request.Query;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.collection.BaseSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.feature.visitor.UniqueVisitor;
 import org.geotools.wfs.PropertyValueCollection;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.filter.FilterFactory2;
 import org.opengis.filter.expression.PropertyName;
 import org.xml.sax.helpers.NamespaceSupport;
 
 public class GetPropertyValue {
 
+    /**
+     * Vendor request parameter asking for the distinct values of the value reference, sorted,
+     * instead of the value of each feature
+     */
+    public static final String DISTINCT_PARAM = "distinct";
+
+    /**
+     * System variable setting the max number of distinct values computed for a {@link
+     * #DISTINCT_PARAM} request. Attributes with more values are returned feature by feature, as if
+     * the parameter was not used.
+     */
+    public static final String DISTINCT_MAX_VALUES_KEY = "WFS_DISTINCT_MAX_VALUES";
+
+    static final int DEFAULT_DISTINCT_MAX_VALUES = 10000;
+
     Pattern FEATURE_ID_PATTERN = Pattern.compile("@(\\w+:)?id");
 
     GetFeature delegate;
@@ -36,6 +74,8 @@ public class GetPropertyValue {
 
     FilterFactory2 filterFactory;
 
+    DistinctValuesCache distinctCache;
+
     public GetPropertyValue(WFSInfo info, Catalog catalog, FilterFactory2 filterFactory) {
         delegate = new GetFeature(info, catalog);
         delegate.setFilterFactory(filterFactory);
@@ -68,18 +108,19 @@ public class GetPropertyValue {
                     .locator("valueReference");
         }
 
-        // do a getFeature request
-        GetFeatureType getFeature = Wfs20Factory.eINSTANCE.createGetFeatureType();
-        getFeature.setBaseUrl(request.getBaseUrl());
-        getFeature.getAbstractQueryExpression().add(request.getAbstractQueryExpression());
-        getFeature.setResolve(request.getResolve());
-        getFeature.setResolveDepth(request.getResolveDepth());
-        getFeature.setResolveTimeout(request.getResolveTimeout());
-        getFeature.setCount(request.getCount());
+        if (isDistinctRequest()) {
+            try {
+                ValueCollectionType vc = getDistinctValues(request);
+                if (vc != null) {
+                    return vc;
+                }
+            } catch (IOException e) {
+                throw new WFSException(request, e);
+            }
+        }
 
-        FeatureCollectionType fc =
-                (FeatureCollectionType)
-                        delegate.run(GetFeatureRequest.adapt(getFeature)).getAdaptee();
+        // do a getFeature request
+        FeatureCollectionType fc = getFeatures(request, request.getCount());
 
         QueryType query = (QueryType) request.getAbstractQueryExpression();
         QName typeName = (QName) query.getTypeNames().iterator().next();
@@ -119,7 +160,232 @@ public class GetPropertyValue {
         }
     }
 
+    private FeatureCollectionType getFeatures(GetPropertyValueType request, BigInteger count) {
+        return (FeatureCollectionType)
+                delegate.run(GetFeatureRequest.adapt(toGetFeature(request, count))).getAdaptee();
+    }
+
+    /** Builds the GetFeature request the values are extracted from */
+    private GetFeatureType toGetFeature(GetPropertyValueType request, BigInteger count) {
+        GetFeatureType getFeature = Wfs20Factory.eINSTANCE.createGetFeatureType();
+        getFeature.setBaseUrl(request.getBaseUrl());
+        getFeature.getAbstractQueryExpression().add(request.getAbstractQueryExpression());
+        getFeature.setResolve(request.getResolve());
+        getFeature.setResolveDepth(request.getResolveDepth());
+        getFeature.setResolveTimeout(request.getResolveTimeout());
+        getFeature.setCount(count);
+        List<Map<String, String>> viewParams = getViewParams();
+        if (viewParams != null && !viewParams.isEmpty()) {
+            GetFeatureRequest.adapt(getFeature).setViewParams(viewParams);
+        }
+        return getFeature;
+    }
+
+    /** Returns the view parameters of the current request, if any */
+    @SuppressWarnings("unchecked")
+    private List<Map<String, String>> getViewParams() {
+        Request req = Dispatcher.REQUEST.get();
+        if (req == null || req.getKvp() == null) {
+            return null;
+        }
+        Object viewParams = req.getKvp().get("viewParams");
+        return viewParams instanceof List ? (List<Map<String, String>>) viewParams : null;
+    }
+
+    /** Returns true if the client asked for distinct values */
+    private boolean isDistinctRequest() {
+        Request req = Dispatcher.REQUEST.get();
+        if (req == null || req.getRawKvp() == null) {
+            return false;
+        }
+        Object distinct = req.getRawKvp().get(DISTINCT_PARAM.toUpperCase());
+        return distinct instanceof String && Boolean.valueOf(((String) distinct).trim());
+    }
+
+    /**
+     * Returns the distinct values of a plain attribute of a single simple feature type, or null if
+     * the request is not that simple. The values are computed with a {@link UniqueVisitor}, which
+     * stores able to do so turn into a native distinct query, and cached if possible
+     */
+    private ValueCollectionType getDistinctValues(GetPropertyValueType request)
+            throws IOException {
+        if (!(request.getAbstractQueryExpression() instanceof QueryType)) {
+            return null;
+        }
+        QueryType query = (QueryType) request.getAbstractQueryExpression();
+        String valueReference = request.getValueReference();
+        if (query.getTypeNames().size() != 1
+                || !(query.getTypeNames().get(0) instanceof QName)
+                || valueReference.contains("/")
+                || valueReference.contains("[")
+                || FEATURE_ID_PATTERN.matcher(valueReference).matches()) {
+            return null;
+        }
+        QName typeName = (QName) query.getTypeNames().get(0);
+        FeatureTypeInfo featureType =
+                catalog.getFeatureTypeByName(typeName.getNamespaceURI(), typeName.getLocalPart());
+        if (featureType == null
+                || !(featureType.getFeatureType() instanceof SimpleFeatureType)) {
+            return null;
+        }
+        SimpleFeatureType schema = (SimpleFeatureType) featureType.getFeatureType();
+        PropertyName propertyName = filterFactory.property(valueReference, getNamespaceSupport());
+        AttributeDescriptor descriptor = (AttributeDescriptor) propertyName.evaluate(schema);
+        if (descriptor == null || descriptor instanceof GeometryDescriptor) {
+            return null;
+        }
+
+        FeatureSource<? extends FeatureType, ? extends Feature> source =
+                featureType.getFeatureSource(null, null);
+        org.geotools.data.Query dataQuery = toDistinctQuery(request, source, descriptor);
+        QueryResultCache.Loader<List<Object>> loader =
+                () -> loadDistinctValues(source, dataQuery, descriptor);
+        List<Object> values =
+                distinctCache == null
+                        ? loader.load()
+                        : distinctCache.getValues(featureType, valueReference, dataQuery, loader);
+        if (values == null) {
+            // too many values
+            return null;
+        }
+        int matched = values.size();
+        if (request.getCount() != null && request.getCount().intValue() < matched) {
+            values = values.subList(0, request.getCount().intValue());
+        }
+
+        ValueCollectionType vc = Wfs20Factory.eINSTANCE.createValueCollectionType();
+        vc.setTimeStamp(Calendar.getInstance());
+        vc.setNumberMatched(BigInteger.valueOf(matched));
+        vc.setNumberReturned(BigInteger.valueOf(values.size()));
+        vc.getMember()
+                .add(
+                        new PropertyValueCollection(
+                                new DistinctValuesCollection(schema, descriptor, values),
+                                descriptor,
+                                propertyName));
+        return vc;
+    }
+
+    /**
+     * Builds the query the distinct values are computed with. The request count applies to the
+     * distinct values, not to the features, so neither the count nor the configured max features
+     * limits the query.
+     */
+    private org.geotools.data.Query toDistinctQuery(
+            GetPropertyValueType request,
+            FeatureSource<? extends FeatureType, ? extends Feature> source,
+            AttributeDescriptor descriptor) {
+        GetFeatureRequest getFeature = GetFeatureRequest.adapt(toGetFeature(request, null));
+        Query query = getFeature.getQueries().get(0);
+        List<Map<String, String>> viewParams = getFeature.getViewParams();
+        return delegate.toDataQuery(
+                query,
+                query.getFilter(),
+                -1,
+                0,
+                source,
+                getFeature,
+                Collections.singletonList(filterFactory.property(descriptor.getLocalName())),
+                viewParams == null || viewParams.isEmpty() ? null : viewParams.get(0),
+                null,
+                query.getTypeNames().get(0),
+                null);
+    }
+
+    /**
+     * Computes the sorted distinct values, or returns null if there are more than {@link
+     * #DISTINCT_MAX_VALUES_KEY}
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> loadDistinctValues(
+            FeatureSource<? extends FeatureType, ? extends Feature> source,
+            org.geotools.data.Query query,
+            AttributeDescriptor descriptor)
+            throws IOException {
+        FeatureCollection features = source.getFeatures(query);
+        int maxValues =
+                GeoServerExtensions.getIntegerProperty(
+                        DISTINCT_MAX_VALUES_KEY, DEFAULT_DISTINCT_MAX_VALUES);
+        UniqueVisitor visitor = new UniqueVisitor(descriptor.getLocalName());
+        // one more than allowed, to tell if there are too many
+        visitor.setMaxFeatures(maxValues + 1);
+        features.accepts(visitor, null);
+        if (visitor.getUnique().size() > maxValues) {
+            return null;
+        }
+        List<Object> values = new ArrayList<>(visitor.getUnique());
+        try {
+            values.sort(Comparator.nullsLast((a, b) -> ((Comparable) a).compareTo(b)));
+        } catch (ClassCastException e) {
+            // not comparable, keep the order returned by the store
+        }
+        return values;
+    }
+
     public void setFilterFactory(FilterFactory2 filterFactory) {
         this.filterFactory = filterFactory;
     }
+
+    /** Sets the cache used to compute numberMatched */
+    public void setCountCache(FeatureCountCache countCache) {
+        delegate.setCountCache(countCache);
+    }
+
+    /** Sets the cache for the values of {@link #DISTINCT_PARAM} requests */
+    public void setDistinctCache(DistinctValuesCache distinctCache) {
+        this.distinctCache = distinctCache;
+    }
+
+    /**
+     * Exposes each distinct value as a feature with that single attribute, the features are built
+     * while the collection is encoded
+     */
+    static class DistinctValuesCollection extends BaseSimpleFeatureCollection {
+
+        final List<Object> values;
+
+        DistinctValuesCollection(
+                SimpleFeatureType schema, AttributeDescriptor descriptor, List<Object> values) {
+            super(buildType(schema, descriptor));
+            this.values = values;
+        }
+
+        static SimpleFeatureType buildType(
+                SimpleFeatureType schema, AttributeDescriptor descriptor) {
+            SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+            tb.setName(schema.getName());
+            tb.add(descriptor);
+            return tb.buildFeatureType();
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            final Iterator<Object> it = values.iterator();
+            final SimpleFeatureBuilder fb = new SimpleFeatureBuilder(getSchema());
+            return new SimpleFeatureIterator() {
+                int count;
+
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public SimpleFeature next() {
+                    fb.add(it.next());
+                    return fb.buildFeature(getSchema().getTypeName() + "." + (++count));
+                }
+
+                @Override
+                public void close() {
+                    // nothing to release
+                }
+            };
+        }
+    }
 }
@@ -15,6 +15,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 import javax.xml.namespace.QName;
+import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.feature.ReprojectingFeatureCollection;
@@ -23,6 +24,7 @@ import org.geoserver.wfs.request.Insert;
 import org.geoserver.wfs.request.TransactionElement;
 import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.request.TransactionResponse;
+import org.geoserver.wfs.xml.StreamingInserts;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureStore;
 import org.geotools.data.collection.ListFeatureCollection;
@@ -68,7 +70,6 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         }
     }
 
-    @SuppressWarnings("unchecked")
     public void execute(
             TransactionElement element,
             TransactionRequest request,
@@ -83,162 +84,191 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         long inserted = response.getTotalInserted().longValue();
 
         try {
-            // group features by their schema
-            HashMap /* <SimpleFeatureType,FeatureCollection> */ schema2features = new HashMap();
-
-            List featureList = insert.getFeatures();
-            for (Iterator f = featureList.iterator(); f.hasNext(); ) {
-                SimpleFeature feature = (SimpleFeature) f.next();
-                SimpleFeatureType schema = feature.getFeatureType();
-                ListFeatureCollection collection =
-                        (ListFeatureCollection) schema2features.get(schema);
-
-                if (collection == null) {
-                    collection = new ListFeatureCollection(schema);
-                    schema2features.put(schema, collection);
-                }
+            // streamed features are parsed while inserting, and written in batches
+            Iterator features;
+            int batchSize;
+            StreamingInserts streaming = StreamingInserts.get(insert);
+            if (streaming != null) {
+                features = streaming.getFeatures(insert);
+                batchSize = StreamingInserts.getBatchSize();
+            } else {
+                features = insert.getFeatures().iterator();
+                batchSize = Integer.MAX_VALUE;
+            }
 
-                // do a check for idegen = useExisting, if set try to tell the datastore to use
-                // the provided fid
-                if (insert.isIdGenUseExisting()) {
-                    feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
-                } else {
-                    Object identifier =
-                            feature.getAttribute(new NameImpl(GML.NAMESPACE, "identifier"));
-                    if (WFSInfo.Version.V_20.compareTo(insert.getVersion()) >= 0
-                            && identifier instanceof String) {
-                        SimpleFeatureBuilder fb =
-                                new SimpleFeatureBuilder(feature.getFeatureType());
-                        fb.init(feature);
-                        feature = fb.buildFeature((String) identifier);
-                        feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
-                    }
+            List<SimpleFeature> batch = new ArrayList<>();
+            while (features.hasNext()) {
+                batch.add((SimpleFeature) features.next());
+                if (batch.size() >= batchSize) {
+                    insert(batch, insert, request, featureStores, response, listener);
+                    inserted += batch.size();
+                    batch.clear();
                 }
+            }
+            if (!batch.isEmpty()) {
+                insert(batch, insert, request, featureStores, response, listener);
+                inserted += batch.size();
+            }
+        } catch (Exception e) {
+            String msg = "Error performing insert: " + e.getMessage();
+            throw new WFSTransactionException(msg, e, insert.getHandle());
+        }
 
-                collection.add(feature);
+        // update transaction summary
+        response.setTotalInserted(BigInteger.valueOf(inserted));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void insert(
+            List<SimpleFeature> featureList,
+            Insert insert,
+            TransactionRequest request,
+            Map featureStores,
+            TransactionResponse response,
+            TransactionListener listener)
+            throws Exception {
+        // group features by their schema
+        HashMap /* <SimpleFeatureType,FeatureCollection> */ schema2features = new HashMap();
+
+        for (Iterator f = featureList.iterator(); f.hasNext(); ) {
+            SimpleFeature feature = (SimpleFeature) f.next();
+            SimpleFeatureType schema = feature.getFeatureType();
+            ListFeatureCollection collection = (ListFeatureCollection) schema2features.get(schema);
+
+            if (collection == null) {
+                collection = new ListFeatureCollection(schema);
+                schema2features.put(schema, collection);
             }
 
-            // JD: change from set fo list because if inserting
-            // features into different feature stores, they could very well
-            // get given the same id
-            // JD: change from list to map so that the map can later be
-            // processed and we can report the fids back in the same order
-            // as they were supplied
-            Map<String, List<FeatureId>> schema2fids = new HashMap<String, List<FeatureId>>();
-
-            for (Iterator c = schema2features.values().iterator(); c.hasNext(); ) {
-                SimpleFeatureCollection collection = (SimpleFeatureCollection) c.next();
-                SimpleFeatureType schema = collection.getSchema();
-
-                final QName elementName =
-                        new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
-                SimpleFeatureStore store;
-                store = DataUtilities.simple((FeatureStore) featureStores.get(elementName));
-
-                if (store == null) {
-                    throw new WFSException(
-                            request, "Could not locate FeatureStore for '" + elementName + "'");
+            // do a check for idegen = useExisting, if set try to tell the datastore to use
+            // the provided fid
+            if (insert.isIdGenUseExisting()) {
+                feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
+            } else {
+                Object identifier = feature.getAttribute(new NameImpl(GML.NAMESPACE, "identifier"));
+                if (WFSInfo.Version.V_20.compareTo(insert.getVersion()) >= 0
+                        && identifier instanceof String) {
+                    SimpleFeatureBuilder fb = new SimpleFeatureBuilder(feature.getFeatureType());
+                    fb.init(feature);
+                    feature = fb.buildFeature((String) identifier);
+                    feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
                 }
+            }
 
-                if (collection != null) {
-                    // if we really need to, make sure we are inserting coordinates that do
-                    // match the CRS area of validity
-                    if (getInfo().isCiteCompliant()) {
-                        checkFeatureCoordinatesRange(collection);
-                    }
+            collection.add(feature);
+        }
 
-                    // reprojection
-                    final GeometryDescriptor defaultGeometry =
-                            store.getSchema().getGeometryDescriptor();
-                    if (defaultGeometry != null) {
-                        CoordinateReferenceSystem target =
-                                defaultGeometry.getCoordinateReferenceSystem();
-                        if (target
-                                != null /* && !CRS.equalsIgnoreMetadata(collection.getSchema().getCoordinateReferenceSystem(), target) */) {
-                            collection = new ReprojectingFeatureCollection(collection, target);
-                        }
-                    }
+        // JD: change from set fo list because if inserting
+        // features into different feature stores, they could very well
+        // get given the same id
+        // JD: change from list to map so that the map can later be
+        // processed and we can report the fids back in the same order
+        // as they were supplied
+        Map<String, List<FeatureId>> schema2fids = new HashMap<String, List<FeatureId>>();
+
+        for (Iterator c = schema2features.values().iterator(); c.hasNext(); ) {
+            SimpleFeatureCollection collection = (SimpleFeatureCollection) c.next();
+            SimpleFeatureType schema = collection.getSchema();
+
+            final QName elementName =
+                    new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
+            SimpleFeatureStore store;
+            store = DataUtilities.simple((FeatureStore) featureStores.get(elementName));
+
+            if (store == null) {
+                throw new WFSException(
+                        request, "Could not locate FeatureStore for '" + elementName + "'");
+            }
+
+            if (collection != null) {
+                // if we really need to, make sure we are inserting coordinates that do
+                // match the CRS area of validity
+                if (getInfo().isCiteCompliant()) {
+                    checkFeatureCoordinatesRange(collection);
+                }
 
-                    // Need to use the namespace here for the
-                    // lookup, due to our weird
-                    // prefixed internal typenames. see
-                    // https://osgeo-org.atlassian.net/browse/GEOS-143
-
-                    // Once we get our datastores making features
-                    // with the correct namespaces
-                    // we can do something like this:
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.getFeatureTypeInfo(schema.getTypeName(),
-                    // schema.getNamespace());
-                    // until then (when geos-144 is resolved) we're
-                    // stuck with:
-                    // QName qName = (QName) typeNames.get( i );
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.featureType( qName.getPrefix(),
-                    // qName.getLocalPart() );
-
-                    // this is possible with the insert hack above.
-                    LOGGER.finer("Use featureValidation to check contents of insert");
-
-                    // featureValidation(
-                    // typeInfo.getDataStore().getId(), schema,
-                    // collection );
-                    List<FeatureId> fids = schema2fids.get(schema.getTypeName());
-
-                    if (fids == null) {
-                        fids = new LinkedList<FeatureId>();
-                        schema2fids.put(schema.getTypeName(), fids);
+                // reprojection
+                final GeometryDescriptor defaultGeometry =
+                        store.getSchema().getGeometryDescriptor();
+                if (defaultGeometry != null) {
+                    CoordinateReferenceSystem target =
+                            defaultGeometry.getCoordinateReferenceSystem();
+                    if (target
+                            != null /* && !CRS.equalsIgnoreMetadata(collection.getSchema().getCoordinateReferenceSystem(), target) */) {
+                        collection = new ReprojectingFeatureCollection(collection, target);
                     }
+                }
 
-                    // fire pre insert event
-                    TransactionEvent event =
-                            new TransactionEvent(
-                                    TransactionEventType.PRE_INSERT,
-                                    request,
-                                    elementName,
-                                    collection);
-                    event.setSource(Insert.WFS11.unadapt(insert));
-
-                    listener.dataStoreChange(event);
-                    fids.addAll(store.addFeatures(collection));
-
-                    // fire post insert event
-                    SimpleFeatureCollection features =
-                            store.getFeatures(filterFactory.id(new HashSet<FeatureId>(fids)));
-                    event =
-                            new TransactionEvent(
-                                    TransactionEventType.POST_INSERT,
-                                    request,
-                                    elementName,
-                                    features,
-                                    Insert.WFS11.unadapt(insert));
-                    listener.dataStoreChange(event);
+                // Need to use the namespace here for the
+                // lookup, due to our weird
+                // prefixed internal typenames. see
+                // https://osgeo-org.atlassian.net/browse/GEOS-143
+
+                // Once we get our datastores making features
+                // with the correct namespaces
+                // we can do something like this:
+                // FeatureTypeInfo typeInfo =
+                // catalog.getFeatureTypeInfo(schema.getTypeName(),
+                // schema.getNamespace());
+                // until then (when geos-144 is resolved) we're
+                // stuck with:
+                // QName qName = (QName) typeNames.get( i );
+                // FeatureTypeInfo typeInfo =
+                // catalog.featureType( qName.getPrefix(),
+                // qName.getLocalPart() );
+
+                // this is possible with the insert hack above.
+                LOGGER.finer("Use featureValidation to check contents of insert");
+
+                // featureValidation(
+                // typeInfo.getDataStore().getId(), schema,
+                // collection );
+                List<FeatureId> fids = schema2fids.get(schema.getTypeName());
+
+                if (fids == null) {
+                    fids = new LinkedList<FeatureId>();
+                    schema2fids.put(schema.getTypeName(), fids);
                 }
-            }
 
-            // report back fids, we need to keep the same order the
-            // fids were reported in the original feature collection
-            for (Iterator f = featureList.iterator(); f.hasNext(); ) {
-                SimpleFeature feature = (SimpleFeature) f.next();
-                SimpleFeatureType schema = feature.getFeatureType();
+                // fire pre insert event
+                TransactionEvent event =
+                        new TransactionEvent(
+                                TransactionEventType.PRE_INSERT,
+                                request,
+                                elementName,
+                                collection);
+                event.setSource(Insert.WFS11.unadapt(insert));
+
+                listener.dataStoreChange(event);
+                fids.addAll(store.addFeatures(collection));
+
+                // fire post insert event
+                SimpleFeatureCollection features =
+                        store.getFeatures(filterFactory.id(new HashSet<FeatureId>(fids)));
+                event =
+                        new TransactionEvent(
+                                TransactionEventType.POST_INSERT,
+                                request,
+                                elementName,
+                                features,
+                                Insert.WFS11.unadapt(insert));
+                listener.dataStoreChange(event);
+            }
+        }
 
-                // get the next fid
-                LinkedList<FeatureId> fids =
-                        (LinkedList<FeatureId>) schema2fids.get(schema.getTypeName());
-                FeatureId fid = fids.removeFirst();
+        // report back fids, we need to keep the same order the
+        // fids were reported in the original feature collection
+        for (Iterator f = featureList.iterator(); f.hasNext(); ) {
+            SimpleFeature feature = (SimpleFeature) f.next();
+            SimpleFeatureType schema = feature.getFeatureType();
 
-                response.addInsertedFeature(insert.getHandle(), fid);
-            }
+            // get the next fid
+            LinkedList<FeatureId> fids =
+                    (LinkedList<FeatureId>) schema2fids.get(schema.getTypeName());
+            FeatureId fid = fids.removeFirst();
 
-            // update the insert counter
-            inserted += featureList.size();
-        } catch (Exception e) {
-            String msg = "Error performing insert: " + e.getMessage();
-            throw new WFSTransactionException(msg, e, insert.getHandle());
+            response.addInsertedFeature(insert.getHandle(), fid);
         }
-
-        // update transaction summary
-        response.setTotalInserted(BigInteger.valueOf(inserted));
     }
 
     /** Checks that all features coordinates are within the expected coordinate range */
@@ -275,22 +305,27 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
 
         List typeNames = new ArrayList();
 
+        StreamingInserts streaming = StreamingInserts.get(insert);
+        if (streaming != null) {
+            // features not parsed yet, report the same error the parser would cause
+            Catalog catalog = geoServer.getCatalog();
+            for (QName name : streaming.getTypeNames(insert)) {
+                if (catalog.getFeatureTypeByName(name.getNamespaceURI(), name.getLocalPart())
+                        == null) {
+                    throw parseFailure(request);
+                }
+                typeNames.add(name);
+            }
+            return (QName[]) typeNames.toArray(new QName[typeNames.size()]);
+        }
+
         List features = insert.getFeatures();
         if (!features.isEmpty()) {
             for (Iterator f = features.iterator(); f.hasNext(); ) {
                 Object next = f.next();
                 // if parsing fails the parser just returns a Map, do throw an error in this case
                 if (!(next instanceof SimpleFeature)) {
-                    String version = request.getVersion();
-                    String code;
-                    if (version == null
-                            || new Version(version).compareTo(WFSInfo.Version.V_20.getVersion())
-                                    >= 0) {
-                        code = WFSException.INVALID_VALUE;
-                    } else {
-                        code = ServiceException.INVALID_PARAMETER_VALUE;
-                    }
-                    throw new WFSException(request, "Could not parse input features", code);
+                    throw parseFailure(request);
                 }
                 SimpleFeature feature = (SimpleFeature) next;
 
@@ -305,4 +340,16 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
 
         return (QName[]) typeNames.toArray(new QName[typeNames.size()]);
     }
+
+    private WFSException parseFailure(TransactionRequest request) {
+        String version = request.getVersion();
+        String code;
+        if (version == null
+                || new Version(version).compareTo(WFSInfo.Version.V_20.getVersion()) >= 0) {
+            code = WFSException.INVALID_VALUE;
+        } else {
+            code = ServiceException.INVALID_PARAMETER_VALUE;
+        }
+        return new WFSException(request, "Could not parse input features", code);
+    }
 }
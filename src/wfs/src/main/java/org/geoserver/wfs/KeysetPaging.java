@@ -0,0 +1,375 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.AttributeTypeInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.data.DataAccess;
+import org.geotools.data.FeatureSource;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCFeatureSource;
+import org.geotools.jdbc.JDBCFeatureStore;
+import org.geotools.jdbc.PrimaryKey;
+import org.geotools.jdbc.PrimaryKeyColumn;
+import org.geotools.util.Converters;
+import org.geotools.util.decorate.Wrapper;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Support for keyset (cursor based) paging. Paging by offset forces the store to skip all the
+ * features before the requested page, getting slower as the client pages deeper in the result. When
+ * the results are sorted on a stable key, the next page link can instead carry a cursor holding the
+ * key of the last feature returned, turned into a "greater than" filter on the next request, so
+ * that every page costs the same as the first one.
+ *
+ * <p>The key is made of the sort attributes requested by the client, followed by the primary key
+ * columns when the store is a JDBC one exposing them, or the primary key alone if the client did
+ * not sort. Sort keys do not need to be unique, the cursor also records how many features at the
+ * end of the page share the last key, which are skipped with an offset. All key attributes must be
+ * configured as not nillable, as the position of nulls in the sort order depends on the store.
+ *
+ * <p>Keyset paging is disabled by default, set the {@value #ENABLED_KEY} system variable to true to
+ * enable it. Cursors are opaque to clients, links built from a cursor still report the start
+ * index, and a cursor that does not match the start index or sort of the request is ignored, in
+ * favor of plain offset paging.
+ */
+class KeysetPaging {
+
+    static final Logger LOGGER = Logging.getLogger(KeysetPaging.class);
+
+    static final String ENABLED_KEY = "WFS_KEYSET_PAGING";
+
+    static final int CURSOR_VERSION = 1;
+
+    /** Value types in the cursor */
+    static final byte TYPE_DATE = 'd';
+
+    static final byte TYPE_TIMESTAMP = 't';
+
+    static final byte TYPE_OTHER = 'o';
+
+    static boolean isEnabled() {
+        return GeoServerExtensions.getBooleanProperty(ENABLED_KEY);
+    }
+
+    /**
+     * Returns the key used to sort and page the feature type, or null if there is no stable sort
+     * available
+     *
+     * @param meta The feature type
+     * @param sortBy The sort requested by the client, if any
+     * @param ff The filter factory used to build the key properties
+     */
+    static List<SortBy> getKey(FeatureTypeInfo meta, List<SortBy> sortBy, FilterFactory2 ff)
+            throws IOException {
+        if (!(meta.getFeatureType() instanceof SimpleFeatureType)) {
+            return null;
+        }
+        SimpleFeatureType featureType = (SimpleFeatureType) meta.getFeatureType();
+        Map<String, AttributeTypeInfo> attributes = new HashMap<>();
+        for (AttributeTypeInfo att : meta.attributes()) {
+            attributes.put(att.getName(), att);
+        }
+
+        List<SortBy> key = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (sortBy != null) {
+            for (SortBy sb : sortBy) {
+                PropertyName property = sb.getPropertyName();
+                if (property == null) {
+                    // natural order sorts
+                    return null;
+                }
+                Object result = property.evaluate(featureType);
+                if (!(result instanceof AttributeDescriptor)) {
+                    return null;
+                }
+                String name = ((AttributeDescriptor) result).getLocalName();
+                if (!isKeyAttribute(attributes.get(name))) {
+                    return null;
+                }
+                key.add(ff.sort(name, sb.getSortOrder()));
+                names.add(name);
+            }
+        }
+
+        // add the primary key to make the sort unique, and to sort if the client did not
+        List<String> primaryKey = getPrimaryKey(meta);
+        if (primaryKey != null) {
+            for (String name : primaryKey) {
+                if (featureType.getDescriptor(name) == null
+                        || !isKeyAttribute(attributes.get(name))) {
+                    primaryKey = null;
+                    break;
+                }
+            }
+        }
+        if (primaryKey != null) {
+            for (String name : primaryKey) {
+                if (!names.contains(name)) {
+                    key.add(ff.sort(name, SortOrder.ASCENDING));
+                }
+            }
+        }
+
+        return key.isEmpty() ? null : key;
+    }
+
+    private static boolean isKeyAttribute(AttributeTypeInfo att) {
+        return att != null
+                && !att.isNillable()
+                && (att.getBinding() == null
+                        || Comparable.class.isAssignableFrom(att.getBinding()));
+    }
+
+    /**
+     * Returns the primary key columns of the feature type, if the store is a JDBC one exposing
+     * them as attributes, null otherwise
+     */
+    static List<String> getPrimaryKey(FeatureTypeInfo meta) {
+        try {
+            DataAccess<?, ?> store = meta.getStore().getDataStore(null);
+            if (store instanceof Wrapper && ((Wrapper) store).isWrapperFor(JDBCDataStore.class)) {
+                store = ((Wrapper) store).unwrap(JDBCDataStore.class);
+            }
+            if (!(store instanceof JDBCDataStore)
+                    || !((JDBCDataStore) store).isExposePrimaryKeyColumns()) {
+                return null;
+            }
+            FeatureSource source = ((JDBCDataStore) store).getFeatureSource(meta.getNativeName());
+            PrimaryKey pk = null;
+            if (source instanceof JDBCFeatureStore) {
+                pk = ((JDBCFeatureStore) source).getPrimaryKey();
+            } else if (source instanceof JDBCFeatureSource) {
+                pk = ((JDBCFeatureSource) source).getPrimaryKey();
+            }
+            if (pk == null || pk.getColumns().isEmpty()) {
+                return null;
+            }
+            List<String> names = new ArrayList<>();
+            for (PrimaryKeyColumn column : pk.getColumns()) {
+                names.add(column.getName());
+            }
+            return names;
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not determine the primary key of " + meta, e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the keys of a page of features and returns the cursor pointing after them, or null if
+     * no cursor can be built
+     *
+     * @param keys The features of the page, with at least the key attributes
+     * @param key The sort key
+     * @param current The cursor used to get the page, if any
+     * @param startIndex The start index of the next page
+     */
+    static Cursor next(
+            FeatureCollection<?, ?> keys, List<SortBy> key, Cursor current, int startIndex) {
+        Object[] last = null;
+        int ties = 0;
+        int read = 0;
+        try (FeatureIterator<?> it = keys.features()) {
+            while (it.hasNext()) {
+                Feature f = it.next();
+                Object[] values = new Object[key.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = key.get(i).getPropertyName().evaluate(f);
+                    if (values[i] == null) {
+                        return null;
+                    }
+                }
+                read++;
+                if (Arrays.equals(values, last)) {
+                    ties++;
+                } else {
+                    last = values;
+                    ties = 1;
+                }
+            }
+        }
+        if (last == null) {
+            return null;
+        }
+        // the whole page is made of features with the same key of the previous one
+        if (current != null && ties == read && Arrays.equals(last, current.values)) {
+            ties += current.ties;
+        }
+        return new Cursor(startIndex, getNames(key), last, ties);
+    }
+
+    static List<String> getNames(List<SortBy> key) {
+        List<String> names = new ArrayList<>();
+        for (SortBy sb : key) {
+            names.add(sb.getPropertyName().getPropertyName() + " " + sb.getSortOrder().name());
+        }
+        return names;
+    }
+
+    /** The position of a client in a sorted result */
+    static class Cursor {
+
+        /** The start index the cursor has been built for */
+        final int startIndex;
+
+        /** The key attributes and sort direction */
+        final List<String> names;
+
+        /** The key of the last feature returned */
+        final Object[] values;
+
+        /** Number of features returned having the last key */
+        final int ties;
+
+        Cursor(int startIndex, List<String> names, Object[] values, int ties) {
+            this.startIndex = startIndex;
+            this.names = names;
+            this.values = values;
+            this.ties = ties;
+        }
+
+        /**
+         * Returns the filter matching the features that are sorted at or after the last key, the
+         * ones sharing the key are skipped with an offset equal to {@link #ties}
+         */
+        Filter toFilter(List<SortBy> key, FilterFactory2 ff) {
+            List<Filter> alternatives = new ArrayList<>();
+            List<Filter> equalities = new ArrayList<>();
+            for (int i = 0; i < key.size(); i++) {
+                PropertyName property = ff.property(key.get(i).getPropertyName().getPropertyName());
+                Filter after =
+                        key.get(i).getSortOrder() == SortOrder.DESCENDING
+                                ? ff.less(property, ff.literal(values[i]))
+                                : ff.greater(property, ff.literal(values[i]));
+                alternatives.add(and(ff, equalities, after));
+                equalities.add(ff.equals(property, ff.literal(values[i])));
+            }
+            alternatives.add(and(ff, equalities, null));
+            return ff.or(alternatives);
+        }
+
+        private static Filter and(FilterFactory2 ff, List<Filter> filters, Filter last) {
+            List<Filter> result = new ArrayList<>(filters);
+            if (last != null) {
+                result.add(last);
+            }
+            return result.size() == 1 ? result.get(0) : ff.and(result);
+        }
+
+        /** Encodes the cursor as an opaque, URL safe string */
+        String encode() {
+            try {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(bos);
+                dos.writeByte(CURSOR_VERSION);
+                dos.writeInt(startIndex);
+                dos.writeInt(ties);
+                dos.writeShort(names.size());
+                for (int i = 0; i < names.size(); i++) {
+                    dos.writeUTF(names.get(i));
+                    Object value = values[i];
+                    if (value instanceof Timestamp) {
+                        dos.writeByte(TYPE_TIMESTAMP);
+                        dos.writeLong(((Timestamp) value).getTime());
+                        dos.writeInt(((Timestamp) value).getNanos());
+                    } else if (value instanceof Date) {
+                        dos.writeByte(TYPE_DATE);
+                        dos.writeLong(((Date) value).getTime());
+                    } else {
+                        String converted = Converters.convert(value, String.class);
+                        if (converted == null) {
+                            return null;
+                        }
+                        dos.writeByte(TYPE_OTHER);
+                        dos.writeUTF(converted);
+                    }
+                }
+                dos.flush();
+                return Base64.getUrlEncoder().withoutPadding().encodeToString(bos.toByteArray());
+            } catch (IOException e) {
+                // cannot happen writing in memory, or with values too large for a link
+                LOGGER.log(Level.FINE, "Failed to encode paging cursor", e);
+                return null;
+            }
+        }
+
+        /**
+         * Decodes a cursor, returning null if it's not valid or does not match the current key and
+         * start index
+         */
+        static Cursor decode(
+                String encoded, List<SortBy> key, int startIndex, SimpleFeatureType schema) {
+            try {
+                byte[] bytes = Base64.getUrlDecoder().decode(encoded);
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+                if (dis.readByte() != CURSOR_VERSION || dis.readInt() != startIndex) {
+                    return null;
+                }
+                int ties = dis.readInt();
+                List<String> expected = getNames(key);
+                if (ties < 0 || dis.readShort() != expected.size()) {
+                    return null;
+                }
+                Object[] values = new Object[expected.size()];
+                for (int i = 0; i < values.length; i++) {
+                    if (!expected.get(i).equals(dis.readUTF())) {
+                        return null;
+                    }
+                    String name = key.get(i).getPropertyName().getPropertyName();
+                    AttributeDescriptor descriptor = schema.getDescriptor(name);
+                    if (descriptor == null) {
+                        return null;
+                    }
+                    Class<?> binding = descriptor.getType().getBinding();
+                    byte type = dis.readByte();
+                    if (type == TYPE_TIMESTAMP) {
+                        Timestamp timestamp = new Timestamp(dis.readLong());
+                        timestamp.setNanos(dis.readInt());
+                        values[i] = timestamp;
+                    } else if (type == TYPE_DATE) {
+                        values[i] = Converters.convert(new Date(dis.readLong()), binding);
+                    } else {
+                        values[i] = Converters.convert(dis.readUTF(), binding);
+                    }
+                    if (values[i] == null) {
+                        return null;
+                    }
+                }
+                return new Cursor(startIndex, expected, values, ties);
+            } catch (IOException | IllegalArgumentException e) {
+                LOGGER.log(Level.FINE, "Ignoring invalid paging cursor " + encoded, e);
+                return null;
+            }
+        }
+    }
+}
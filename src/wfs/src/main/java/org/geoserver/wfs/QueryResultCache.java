@@ -0,0 +1,319 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import com.google.common.cache.Cache;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.namespace.QName;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+import org.geoserver.wfs.xml.StreamingInserts;
+import org.geotools.data.Query;
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.geotools.util.factory.Hints;
+import org.opengis.filter.Filter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Base class for the caches of values computed by running a query against a feature type.
+ *
+ * <p>Values are keyed on the feature type, the simplified filter, the SQL view parameters and the
+ * current user and roles, since data security rules can restrict the features visible, plus an
+ * optional cache specific qualifier. Values for a feature type are evicted when a WFS transaction
+ * modifies it (both when the change is notified and once the transaction is over, to drop values
+ * computed while the transaction was in progress), when the feature type, its layer or its store
+ * are modified or removed, and after a configuration reload.
+ *
+ * @param <V> The type of the cached values
+ */
+public abstract class QueryResultCache<V>
+        implements TransactionCallback,
+                StreamingInserts.Compatible,
+                CatalogListener,
+                GeoServerLifecycleHandler {
+
+    /** Computes a value when not found in the cache */
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    /** The feature types modified by the transaction running in the current thread */
+    private final ThreadLocal<Set<String>> modified = new ThreadLocal<>();
+
+    private final Catalog catalog;
+
+    private volatile boolean enabled;
+
+    private final Cache<Key, V> cache;
+
+    /**
+     * Incremented at each eviction, values computed while an eviction happened are not cached, as
+     * they might be stale already
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    protected QueryResultCache(Catalog catalog, boolean enabled, Cache<Key, V> cache) {
+        this.catalog = catalog;
+        this.enabled = enabled;
+        this.cache = cache;
+        catalog.addListener(this);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Enables or disables the cache, disabling also clears it */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Returns the value for the key, from the cache if possible. Values computed by the loader are
+     * cached unless null, rejected by {@link #isCacheable(Object)}, or computed while an eviction
+     * happened.
+     */
+    protected V get(Key key, Loader<V> loader) throws IOException {
+        V cached = cache.getIfPresent(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        long startGeneration = generation.get();
+        V value = loader.load();
+        if (value != null && isCacheable(value) && generation.get() == startGeneration) {
+            cache.put(key, value);
+        }
+        return value;
+    }
+
+    /** Returns false if the computed value should not be cached */
+    protected boolean isCacheable(V value) {
+        return true;
+    }
+
+    /** Drops all cached values */
+    public void clear() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /** Drops the cached values of the given feature type */
+    public void invalidate(String featureTypeId) {
+        generation.incrementAndGet();
+        cache.asMap().keySet().removeIf(k -> k.featureTypeId.equals(featureTypeId));
+    }
+
+    /** Returns the number of cached values */
+    public long size() {
+        return cache.size();
+    }
+
+    /** Returns the number of values served from the cache */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Returns the number of values that had to be computed */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // transactions
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        QName name = event.getLayerName();
+        FeatureTypeInfo featureType =
+                name == null
+                        ? null
+                        : catalog.getFeatureTypeByName(name.getNamespaceURI(), name.getLocalPart());
+        if (featureType == null) {
+            clear();
+            return;
+        }
+        invalidate(featureType.getId());
+        Set<String> ids = modified.get();
+        if (ids == null) {
+            ids = new HashSet<>();
+            modified.set(ids);
+        }
+        ids.add(featureType.getId());
+    }
+
+    @Override
+    public TransactionRequest beforeTransaction(TransactionRequest request) throws WFSException {
+        modified.remove();
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionRequest request) throws WFSException {
+        // nothing to do
+    }
+
+    @Override
+    public void afterTransaction(
+            TransactionRequest request, TransactionResponse result, boolean committed) {
+        Set<String> ids = modified.get();
+        modified.remove();
+        if (ids != null) {
+            ids.forEach(this::invalidate);
+        }
+    }
+
+    // catalog events
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // new feature types have no cached values
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    private void evict(CatalogEvent event) {
+        CatalogInfo source = event.getSource();
+        if (source instanceof ResourceInfo) {
+            invalidate(source.getId());
+        } else if (source instanceof LayerInfo) {
+            ResourceInfo resource = ((LayerInfo) source).getResource();
+            if (resource != null) {
+                invalidate(resource.getId());
+            }
+        } else if (source instanceof StoreInfo) {
+            // the feature types are not reachable anymore once the store is removed
+            clear();
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    // lifecycle events
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+
+    /** The key of a cached value */
+    public static final class Key {
+        final String featureTypeId;
+        final Object qualifier;
+        final Filter filter;
+        final Object viewParams;
+        final String version;
+        final String user;
+        final Set<String> roles;
+
+        /**
+         * @param featureTypeId The feature type the query runs against
+         * @param qualifier Cache specific part of the key, can be null
+         * @param query The query the value is computed with
+         */
+        Key(String featureTypeId, Object qualifier, Query query) {
+            this.featureTypeId = featureTypeId;
+            this.qualifier = qualifier;
+            Filter filter = query.getFilter() == null ? Filter.INCLUDE : query.getFilter();
+            this.filter = SimplifyingFilterVisitor.simplify(filter);
+            this.viewParams =
+                    query.getHints() == null
+                            ? null
+                            : query.getHints().get(Hints.VIRTUAL_TABLE_PARAMETERS);
+            this.version = query.getVersion();
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            if (auth == null) {
+                this.user = null;
+                this.roles = Collections.emptySet();
+            } else {
+                this.user = auth.getName();
+                this.roles = new TreeSet<>();
+                for (GrantedAuthority authority : auth.getAuthorities()) {
+                    roles.add(authority.getAuthority());
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return featureTypeId.equals(key.featureTypeId)
+                    && Objects.equals(qualifier, key.qualifier)
+                    && filter.equals(key.filter)
+                    && Objects.equals(viewParams, key.viewParams)
+                    && Objects.equals(version, key.version)
+                    && Objects.equals(user, key.user)
+                    && roles.equals(key.roles);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(featureTypeId, qualifier, filter, viewParams, version, user, roles);
+        }
+    }
+}
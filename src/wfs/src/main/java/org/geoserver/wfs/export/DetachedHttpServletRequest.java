@@ -0,0 +1,189 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.export;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * A copy of the bits of a {@link HttpServletRequest} output formats commonly look at (URLs
+ * building, headers, parameters), that stays valid after the container recycled the original
+ * request, used to run the export jobs in background.
+ */
+class DetachedHttpServletRequest extends HttpServletRequestWrapper {
+
+    final String method;
+    final String scheme;
+    final String serverName;
+    final int serverPort;
+    final String contextPath;
+    final String servletPath;
+    final String pathInfo;
+    final String requestURI;
+    final StringBuffer requestURL;
+    final String queryString;
+    final String remoteAddr;
+    final String remoteUser;
+    final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    final Map<String, String[]> parameters;
+    final Map<String, Object> attributes = new HashMap<>();
+
+    DetachedHttpServletRequest(HttpServletRequest request) {
+        super(request);
+        this.method = request.getMethod();
+        this.scheme = request.getScheme();
+        this.serverName = request.getServerName();
+        this.serverPort = request.getServerPort();
+        this.contextPath = request.getContextPath();
+        this.servletPath = request.getServletPath();
+        this.pathInfo = request.getPathInfo();
+        this.requestURI = request.getRequestURI();
+        this.requestURL = new StringBuffer(request.getRequestURL());
+        this.queryString = request.getQueryString();
+        this.remoteAddr = request.getRemoteAddr();
+        this.remoteUser = request.getRemoteUser();
+        Enumeration<String> names = request.getHeaderNames();
+        while (names != null && names.hasMoreElements()) {
+            String name = names.nextElement();
+            headers.put(name, Collections.list(request.getHeaders(name)));
+        }
+        this.parameters =
+                Collections.unmodifiableMap(new LinkedHashMap<>(request.getParameterMap()));
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getScheme() {
+        return scheme;
+    }
+
+    @Override
+    public String getServerName() {
+        return serverName;
+    }
+
+    @Override
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    @Override
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    @Override
+    public String getServletPath() {
+        return servletPath;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return pathInfo;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return requestURI;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        return new StringBuffer(requestURL);
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    @Override
+    public String getRemoteUser() {
+        return remoteUser;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        List<String> values = headers.get(name);
+        return Collections.enumeration(values == null ? Collections.emptyList() : values);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(new ArrayList<>(headers.keySet()));
+    }
+
+    @Override
+    public String getParameter(String name) {
+        String[] values = parameters.get(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return parameters;
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return parameters.get(name);
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        synchronized (attributes) {
+            return attributes.get(name);
+        }
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        synchronized (attributes) {
+            return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+        }
+    }
+
+    @Override
+    public void setAttribute(String name, Object o) {
+        synchronized (attributes) {
+            attributes.put(name, o);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        synchronized (attributes) {
+            attributes.remove(name);
+        }
+    }
+}
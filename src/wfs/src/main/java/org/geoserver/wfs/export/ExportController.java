@@ -0,0 +1,154 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+/**
+ * Publishes the asynchronous exports run by the {@link ExportManager}:
+ *
+ * <ul>
+ *   <li>{@code GET wfs-export/<id>}: the job status
+ *   <li>{@code GET wfs-export/<id>/download}: the export output, once completed, supporting single
+ *       byte range requests so that interrupted downloads can be resumed
+ *   <li>{@code DELETE wfs-export/<id>}: cancels the job and removes its output
+ * </ul>
+ *
+ * Jobs started by an authenticated user are visible only to that user. Jobs started anonymously
+ * are not tied to the client that started them, anyone knowing the job identifier, a random UUID
+ * returned only in the status document, can check, download and remove them: the status URL of an
+ * anonymous export should be handled like a download token, and not shared.
+ */
+public class ExportController extends AbstractController {
+
+    static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    static final String DOWNLOAD = "download";
+
+    private final ExportManager manager;
+
+    public ExportController(ExportManager manager) {
+        // also support DELETE
+        super(false);
+        this.manager = manager;
+    }
+
+    @Override
+    protected ModelAndView handleRequestInternal(
+            HttpServletRequest request, HttpServletResponse response) throws Exception {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String prefix = "/" + ExportManager.PATH + "/";
+        if (!path.startsWith(prefix)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        String[] parts = path.substring(prefix.length()).split("/");
+        ExportJob job = manager.getJob(parts[0]);
+        if (job == null
+                || parts.length > 2
+                || (parts.length == 2 && !DOWNLOAD.equals(parts[1]))) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+
+        String method = request.getMethod();
+        if (parts.length == 1 && "GET".equals(method)) {
+            String statusURL = ExportManager.getStatusURL(request, job.getId());
+            response.setContentType("text/xml");
+            response.setCharacterEncoding("UTF-8");
+            response.getOutputStream().write(job.toXML(statusURL).getBytes(StandardCharsets.UTF_8));
+        } else if (parts.length == 1 && "DELETE".equals(method)) {
+            manager.remove(job);
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } else if (parts.length == 2 && ("GET".equals(method) || "HEAD".equals(method))) {
+            download(job, request, response, "HEAD".equals(method));
+        } else {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+        }
+        return null;
+    }
+
+    private void download(
+            ExportJob job, HttpServletRequest request, HttpServletResponse response, boolean head)
+            throws IOException {
+        if (job.getStatus() != ExportJob.Status.COMPLETED || !job.getFile().exists()) {
+            response.sendError(HttpServletResponse.SC_CONFLICT, "Export is " + job.getStatus());
+            return;
+        }
+
+        long length = job.getFile().length();
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader("Range");
+        Matcher matcher = range == null ? null : RANGE.matcher(range.trim());
+        boolean partial = matcher != null && matcher.matches();
+        if (partial) {
+            String first = matcher.group(1);
+            String last = matcher.group(2);
+            if (first.isEmpty() && last.isEmpty()) {
+                partial = false;
+            } else if (first.isEmpty()) {
+                // suffix range, the last n bytes
+                start = Math.max(0, length - parsePosition(last));
+            } else {
+                start = parsePosition(first);
+                if (!last.isEmpty()) {
+                    end = Math.min(end, parsePosition(last));
+                }
+            }
+            if (partial && (start >= length || start > end)) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+        }
+        // multiple ranges or other units are not supported, the whole file is returned
+        response.setContentType(job.getMimeType());
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader(
+                "Content-Disposition", "attachment; filename=\"" + job.getFileName() + "\"");
+        if (partial) {
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        }
+        long count = end - start + 1;
+        response.setHeader("Content-Length", String.valueOf(count));
+        if (head) {
+            return;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(job.getFile(), "r")) {
+            raf.seek(start);
+            InputStream is = Channels.newInputStream(raf.getChannel());
+            OutputStream os = response.getOutputStream();
+            IOUtils.copyLarge(is, os, 0, count);
+            os.flush();
+        }
+    }
+
+    /**
+     * Parses a range byte position, the pattern allows only digits, but the value can still
+     * overflow a long, in which case it's past the end of any file
+     */
+    static long parsePosition(String position) {
+        try {
+            return Long.parseLong(position);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
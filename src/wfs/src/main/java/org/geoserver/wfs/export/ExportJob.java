@@ -0,0 +1,142 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.export;
+
+import java.io.File;
+import java.util.concurrent.Future;
+import org.geoserver.ows.util.ResponseUtils;
+
+/** An asynchronous GetFeature export, with its status and the file it is written to */
+public class ExportJob {
+
+    /** The export job states */
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED;
+
+        /** Returns true if the job is not going to change state anymore */
+        public boolean isFinal() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    final String id;
+
+    final String user;
+
+    final String mimeType;
+
+    final String fileName;
+
+    final File file;
+
+    final long creationTime = System.currentTimeMillis();
+
+    volatile Status status = Status.QUEUED;
+
+    volatile long completionTime;
+
+    volatile String message;
+
+    volatile Future<?> future;
+
+    ExportJob(String id, String user, String mimeType, String fileName, File file) {
+        this.id = id;
+        this.user = user;
+        this.mimeType = mimeType;
+        this.fileName = fileName;
+        this.file = file;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The name of the user that started the job, or null if anonymous, in which case the job is not
+     * tied to any client
+     */
+    public String getUser() {
+        return user;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /** The file name suggested to clients downloading the output */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /** The file the output is written to, complete only once the job is completed */
+    public File getFile() {
+        return file;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /** The error message, for failed jobs */
+    public String getMessage() {
+        return message;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /** The time the job reached a final state, or zero if it did not yet */
+    public long getCompletionTime() {
+        return completionTime;
+    }
+
+    synchronized boolean setStatus(Status status, String message) {
+        if (this.status.isFinal()) {
+            // a cancelled job stays cancelled
+            return false;
+        }
+        this.status = status;
+        this.message = message;
+        if (status.isFinal()) {
+            this.completionTime = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the job status as a small XML document
+     *
+     * @param statusURL The URL of the job status
+     */
+    public String toXML(String statusURL) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<ExportJob id=\"").append(id).append("\"");
+        sb.append(" status=\"").append(status).append("\"");
+        sb.append(" href=\"").append(ResponseUtils.encodeXML(statusURL)).append("\"");
+        sb.append(">\n");
+        if (message != null) {
+            sb.append("  <Message>")
+                    .append(ResponseUtils.encodeXML(message))
+                    .append("</Message>\n");
+        }
+        if (status == Status.COMPLETED) {
+            sb.append("  <Download href=\"")
+                    .append(ResponseUtils.encodeXML(statusURL + "/download"))
+                    .append("\" type=\"")
+                    .append(ResponseUtils.encodeXML(mimeType))
+                    .append("\" size=\"")
+                    .append(file.length())
+                    .append("\"/>\n");
+        }
+        sb.append("</ExportJob>\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,320 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.export;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.platform.resource.Resources;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geoserver.wfs.xml.SchemaCleanerCallback;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Runs GetFeature requests carrying the {@value #ASYNC_PARAM} vendor parameter as background
+ * export jobs. The GetFeature operation runs as usual, but instead of encoding its result on the
+ * HTTP response, the output format is run on a bounded pool of threads, writing to a file in the
+ * {@code temp/wfs-export} directory of the data directory. The client immediately gets back a
+ * status document, pointing to the job status URL, which in turn links to the download once the
+ * job is completed, see {@link ExportController}.
+ *
+ * <p>Finished jobs and their files are removed once expired, by {@link #cleanExpired()}, which is
+ * meant to be scheduled at regular intervals.
+ *
+ * <p>Asynchronous exports are disabled by default, and can be configured with the following system
+ * variables:
+ *
+ * <ul>
+ *   <li>{@value #THREADS_KEY}: number of exports running at the same time, zero disables
+ *       asynchronous exports (the default)
+ *   <li>{@value #QUEUE_SIZE_KEY}: number of exports waiting for a thread, further requests are
+ *       refused (defaults to {@value #DEFAULT_QUEUE_SIZE})
+ *   <li>{@value #EXPIRATION_KEY}: time, in seconds, a finished export is kept around (defaults to
+ *       {@value #DEFAULT_EXPIRATION})
+ * </ul>
+ */
+public class ExportManager extends AbstractDispatcherCallback implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(ExportManager.class);
+
+    /** Vendor request parameter asking for an asynchronous export */
+    public static final String ASYNC_PARAM = "async";
+
+    public static final String THREADS_KEY = "WFS_EXPORT_THREADS";
+
+    public static final String QUEUE_SIZE_KEY = "WFS_EXPORT_QUEUE_SIZE";
+
+    public static final String EXPIRATION_KEY = "WFS_EXPORT_EXPIRATION";
+
+    static final int DEFAULT_QUEUE_SIZE = 10;
+
+    static final long DEFAULT_EXPIRATION = 3600;
+
+    /** The path the jobs are published at, see {@link ExportController} */
+    static final String PATH = "wfs-export";
+
+    private final GeoServerResourceLoader resourceLoader;
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor executor;
+
+    private final long expiration;
+
+    public ExportManager(GeoServerResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+        this.expiration =
+                TimeUnit.SECONDS.toMillis(
+                        GeoServerExtensions.getLongProperty(EXPIRATION_KEY, DEFAULT_EXPIRATION));
+        int threads = GeoServerExtensions.getIntegerProperty(THREADS_KEY, 0);
+        if (threads > 0) {
+            int queueSize =
+                    Math.max(
+                            1,
+                            GeoServerExtensions.getIntegerProperty(
+                                    QUEUE_SIZE_KEY, DEFAULT_QUEUE_SIZE));
+            this.executor =
+                    new ThreadPoolExecutor(
+                            threads,
+                            threads,
+                            0,
+                            TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(queueSize),
+                            new ThreadFactory() {
+                                final AtomicInteger count = new AtomicInteger();
+
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    String name = "WFSExport-" + count.incrementAndGet();
+                                    Thread t = new Thread(r, name);
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /** Returns true if asynchronous exports are enabled */
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    @Override
+    public Response responseDispatched(
+            Request request, Operation operation, Object result, Response response) {
+        if (!isEnabled()
+                || !(result instanceof FeatureCollectionResponse)
+                || !"WFS".equalsIgnoreCase(request.getService())
+                || !"GetFeature".equalsIgnoreCase(operation.getId())
+                || request.isSOAP()
+                || !isAsyncRequest(request)) {
+            return response;
+        }
+
+        ExportJob job = submit(request, operation, result, response);
+        String statusURL = getStatusURL(request.getHttpRequest(), job.getId());
+        return new ExportJobResponse(job, statusURL);
+    }
+
+    private boolean isAsyncRequest(Request request) {
+        if (request.getRawKvp() == null) {
+            return false;
+        }
+        Object async = request.getRawKvp().get(ASYNC_PARAM.toUpperCase());
+        return async instanceof String && Boolean.valueOf(((String) async).trim());
+    }
+
+    private ExportJob submit(
+            Request request, Operation operation, Object result, Response response) {
+        String id = UUID.randomUUID().toString();
+        String fileName = response.getAttachmentFileName(result, operation);
+        ExportJob job =
+                new ExportJob(
+                        id,
+                        getCurrentUser(),
+                        response.getMimeType(result, operation),
+                        fileName != null ? fileName : id,
+                        new File(getStorage(), id));
+
+        // the original request is recycled by the container once the status is returned
+        Request detached = new Request(request);
+        if (request.getHttpRequest() != null) {
+            detached.setHttpRequest(new DetachedHttpServletRequest(request.getHttpRequest()));
+        }
+        detached.setHttpResponse(null);
+        ThreadLocalsTransfer threadLocals = new ThreadLocalsTransfer();
+
+        jobs.put(id, job);
+        try {
+            job.future =
+                    executor.submit(
+                            () -> run(job, detached, operation, result, response, threadLocals));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(id);
+            throw new ServiceException(
+                    "Too many exports are queued, please retry later", e, "ServerBusy");
+        }
+        return job;
+    }
+
+    private void run(
+            ExportJob job,
+            Request request,
+            Operation operation,
+            Object result,
+            Response response,
+            ThreadLocalsTransfer threadLocals) {
+        if (!job.setStatus(ExportJob.Status.RUNNING, null)) {
+            return;
+        }
+        threadLocals.apply();
+        Dispatcher.REQUEST.set(request);
+        File partial = new File(job.file.getParentFile(), job.id + ".part");
+        try {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(partial))) {
+                response.write(result, os, operation);
+            }
+            if (!partial.renameTo(job.file)) {
+                throw new IOException("Could not move the export output to " + job.file);
+            }
+            if (!job.setStatus(ExportJob.Status.COMPLETED, null)) {
+                // cancelled while running
+                job.file.delete();
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Export " + job.id + " failed", e);
+            job.setStatus(ExportJob.Status.FAILED, e.getMessage());
+            partial.delete();
+            job.file.delete();
+        } finally {
+            // the schemas built by the encoders are normally disposed at the end of the request
+            new SchemaCleanerCallback().finished(request);
+            threadLocals.cleanup();
+            Dispatcher.REQUEST.remove();
+        }
+    }
+
+    /**
+     * Returns the job with the given identifier, if it exists and it has been started by the
+     * current user. Anonymous jobs are returned to anyone knowing their identifier, see {@link
+     * ExportController}.
+     */
+    public ExportJob getJob(String id) {
+        ExportJob job = jobs.get(id);
+        if (job == null || (job.user != null && !job.user.equals(getCurrentUser()))) {
+            return null;
+        }
+        return job;
+    }
+
+    /** Cancels the job, if still running, and removes it along with its output */
+    public void remove(ExportJob job) {
+        job.setStatus(ExportJob.Status.CANCELLED, null);
+        if (job.future != null) {
+            job.future.cancel(true);
+        }
+        jobs.remove(job.id);
+        job.file.delete();
+    }
+
+    /**
+     * Removes the jobs that reached a final state more than the expiration time ago, along with
+     * their files, and the stray files left in the storage directory (e.g., by a restart)
+     */
+    public void cleanExpired() {
+        long threshold = System.currentTimeMillis() - expiration;
+        for (ExportJob job : jobs.values()) {
+            if (job.status.isFinal() && job.completionTime < threshold) {
+                remove(job);
+            }
+        }
+        File[] files = getStorage().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String id = file.getName().replace(".part", "");
+                if (!jobs.containsKey(id) && file.lastModified() < threshold) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    File getStorage() {
+        return Resources.directory(resourceLoader.get("temp/" + PATH), true);
+    }
+
+    static String getStatusURL(HttpServletRequest request, String id) {
+        return ResponseUtils.buildURL(
+                ResponseUtils.baseURL(request), PATH + "/" + id, null, URLType.SERVICE);
+    }
+
+    private static String getCurrentUser() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth == null ? null : auth.getName();
+    }
+
+    /** Returns the job status in place of the GetFeature output */
+    static class ExportJobResponse extends Response {
+
+        final ExportJob job;
+
+        final String statusURL;
+
+        ExportJobResponse(ExportJob job, String statusURL) {
+            super(Object.class);
+            this.job = job;
+            this.statusURL = statusURL;
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return "text/xml";
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            output.write(job.toXML(statusURL).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
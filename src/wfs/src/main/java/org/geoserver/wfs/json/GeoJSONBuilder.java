@@ -5,12 +5,23 @@
  */
 package org.geoserver.wfs.json;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.IOException;
 import java.io.Writer;
+import java.math.BigInteger;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
+import net.sf.json.JSON;
 import net.sf.json.JSONException;
+import net.sf.json.JSONFunction;
+import net.sf.json.JSONString;
 import net.sf.json.util.JSONBuilder;
+import net.sf.json.util.JSONUtils;
 import org.geotools.referencing.CRS;
 import org.geotools.util.Converters;
 import org.locationtech.jts.geom.CoordinateSequence;
@@ -28,19 +39,150 @@ import org.locationtech.jts.geom.Polygon;
  * This class extends the JSONBuilder to be able to write out geometric types. It is coded against
  * the draft 5 version of the spec on http://geojson.org
  *
+ * <p>The output is written by a Jackson streaming generator rather than by the json-lib builder
+ * itself, with coordinates rounded and formatted straight into a reusable buffer, as GeoJSON
+ * encoding is dominated by the ordinates. The generator buffers its output, which is pushed to the
+ * writer, and the generator closed, once the top level value is complete. Strings are escaped the
+ * same way json-lib does, so that the output stays safe to embed in a JSONP script.
+ *
  * @author Chris Holmes, The Open Planning Project
  * @version $Id$
  */
 public class GeoJSONBuilder extends JSONBuilder {
 
+    static final JsonFactory FACTORY =
+            new JsonFactory()
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+                    .setCharacterEscapes(new JSONLibEscapes());
+
+    /** Powers of ten used for the rounding, indexed by the number of decimals */
+    static final long[] POWERS = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L
+    };
+
     private CRS.AxisOrder axisOrder = CRS.AxisOrder.EAST_NORTH;
 
     private int numDecimals = 6;
 
     private boolean encodeMeasures = false;
 
+    private final JsonGenerator generator;
+
+    /** Buffer the ordinates are formatted into */
+    private final char[] ordinate = new char[32];
+
     public GeoJSONBuilder(Writer w) {
         super(w);
+        try {
+            this.generator = FACTORY.createGenerator(w);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    @Override
+    public GeoJSONBuilder object() {
+        try {
+            generator.writeStartObject();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public GeoJSONBuilder endObject() {
+        try {
+            generator.writeEndObject();
+            flushIfComplete();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public GeoJSONBuilder array() {
+        try {
+            generator.writeStartArray();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public GeoJSONBuilder endArray() {
+        try {
+            generator.writeEndArray();
+            flushIfComplete();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public GeoJSONBuilder key(String key) {
+        if (key == null) {
+            throw new JSONException("Null key.");
+        }
+        try {
+            generator.writeFieldName(key);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public GeoJSONBuilder value(boolean value) {
+        try {
+            generator.writeBoolean(value);
+            flushIfComplete();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public GeoJSONBuilder value(long value) {
+        try {
+            generator.writeNumber(value);
+            flushIfComplete();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public GeoJSONBuilder value(double value) {
+        return value(Double.valueOf(value));
+    }
+
+    /**
+     * Closes the generator once the root value is complete, pushing its buffer to the writer. The
+     * writer itself is left open, the caller might still have to write to it.
+     */
+    private void flushIfComplete() throws IOException {
+        if (generator.getOutputContext().inRoot()) {
+            generator.close();
+        }
+    }
+
+    /**
+     * Writes a string value. Like json-lib, escapes the slash of "&lt;/", which the character
+     * escapes cannot do as they work one character at a time
+     */
+    private void writeString(String value) throws IOException {
+        if (value.contains("</")) {
+            generator.writeRawValue(JSONUtils.quote(value));
+        } else {
+            generator.writeString(value);
+        }
     }
 
     /**
@@ -205,7 +347,101 @@ public class GeoJSONBuilder extends JSONBuilder {
     }
 
     private void roundedValue(double value) {
-        super.value(RoundingUtil.round(value, numDecimals));
+        try {
+            int length = formatRounded(value, numDecimals, ordinate);
+            if (length > 0) {
+                generator.writeRawValue(ordinate, 0, length);
+            } else {
+                // outside of the plain notation range, fall back on the json-lib formatting
+                writeNumber(RoundingUtil.round(value, numDecimals));
+            }
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Rounds the value with {@link RoundingUtil#round(double, int)} and formats it into the buffer,
+     * the same way json-lib would format the rounded value, but without going through {@link
+     * Double#toString(double)}. Only values that json-lib would write in plain notation are
+     * handled.
+     *
+     * @return The number of chars written, or -1 if the value was not formatted
+     */
+    static int formatRounded(double value, int numDecimals, char[] buffer) {
+        if (numDecimals < 0 || numDecimals >= POWERS.length || !Double.isFinite(value)) {
+            return -1;
+        }
+        double scale = POWERS[numDecimals];
+        // same precision check as RoundingUtil, values that cannot be rounded are left alone
+        if (Math.ulp(value) * scale > 1d) {
+            return -1;
+        }
+        double scaled = Math.floor(value * scale + 0.5);
+        double rounded = scaled / scale;
+        if (rounded == 0) {
+            buffer[0] = '0';
+            return 1;
+        }
+        // Double.toString switches to scientific notation outside of this range, and a rounded
+        // value has a single short representation only if the precision is enough
+        double abs = Math.abs(rounded);
+        if (abs < 1e-3 || abs >= 1e7 || Math.ulp(rounded) * scale >= 1d) {
+            return -1;
+        }
+
+        long digits = (long) Math.abs(scaled);
+        long power = POWERS[numDecimals];
+        long integer = digits / power;
+        long fraction = digits % power;
+
+        int pos = 0;
+        if (scaled < 0) {
+            buffer[pos++] = '-';
+        }
+        pos = formatLong(integer, buffer, pos);
+        if (fraction != 0) {
+            buffer[pos++] = '.';
+            // drop the trailing zeros, then write the fraction digits padded to the decimals
+            int decimals = numDecimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                decimals--;
+            }
+            for (int i = pos + decimals - 1; i >= pos; i--) {
+                buffer[i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            pos += decimals;
+        }
+        return pos;
+    }
+
+    private static int formatLong(long value, char[] buffer, int pos) {
+        int length = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            length++;
+        }
+        for (int i = pos + length - 1; i >= pos; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + length;
+    }
+
+    /** Writes a number the same way json-lib does */
+    private void writeNumber(Number number) throws IOException {
+        if (number instanceof Integer
+                || number instanceof Long
+                || number instanceof Short
+                || number instanceof Byte) {
+            generator.writeNumber(number.longValue());
+        } else if (number instanceof BigInteger) {
+            generator.writeNumber((BigInteger) number);
+        } else {
+            // checks for non finite numbers, strips trailing zeros
+            generator.writeNumber(JSONUtils.numberToString(number));
+        }
     }
 
     /**
@@ -365,9 +601,7 @@ public class GeoJSONBuilder extends JSONBuilder {
      */
     @Override
     public GeoJSONBuilder value(Object value) {
-        if (value == null) {
-            super.value(value);
-        } else if (value instanceof Geometry) {
+        if (value instanceof Geometry) {
             this.writeGeom((Geometry) value);
         } else if (value instanceof List) {
             this.writeList((List) value);
@@ -377,7 +611,26 @@ public class GeoJSONBuilder extends JSONBuilder {
             if (value instanceof java.util.Date || value instanceof Calendar) {
                 value = Converters.convert(value, String.class);
             }
-            super.value(value);
+            try {
+                if (value == null) {
+                    generator.writeNull();
+                } else if (value instanceof String) {
+                    writeString((String) value);
+                } else if (value instanceof Number) {
+                    writeNumber((Number) value);
+                } else if (value instanceof Boolean) {
+                    generator.writeBoolean((Boolean) value);
+                } else if (value instanceof JSON
+                        || value instanceof JSONString
+                        || value instanceof JSONFunction) {
+                    generator.writeRawValue(JSONUtils.valueToString(value));
+                } else {
+                    writeString(value.toString());
+                }
+                flushIfComplete();
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
         }
         return this;
     }
@@ -402,4 +655,28 @@ public class GeoJSONBuilder extends JSONBuilder {
     public void setEncodeMeasures(boolean encodeMeasures) {
         this.encodeMeasures = encodeMeasures;
     }
+
+    /**
+     * Escapes the line and paragraph separators, like json-lib does, as they are valid in JSON
+     * strings but not in JavaScript ones
+     */
+    static class JSONLibEscapes extends CharacterEscapes {
+
+        private final int[] asciiEscapes = standardAsciiEscapesForJSON();
+
+        @Override
+        public int[] getEscapeCodesForAscii() {
+            return asciiEscapes;
+        }
+
+        @Override
+        public SerializableString getEscapeSequence(int ch) {
+            if (ch == '\u2028') {
+                return new SerializedString("\\u2028");
+            } else if (ch == '\u2029') {
+                return new SerializedString("\\u2029");
+            }
+            return null;
+        }
+    }
 }
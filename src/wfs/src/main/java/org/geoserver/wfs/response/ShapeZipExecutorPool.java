@@ -0,0 +1,51 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Pool shared by the {@link ShapeZipOutputFormat} instances to dump the collections of multi type
+ * requests in parallel. The pool has a thread per processor, the parallelism of each request is set
+ * by the {@value ShapeZipOutputFormat#SHAPE_ZIP_THREADS} variable.
+ */
+public class ShapeZipExecutorPool implements DisposableBean {
+
+    private final ExecutorService executor;
+
+    public ShapeZipExecutorPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    ShapeZipExecutorPool(int threads) {
+        this.executor =
+                Executors.newFixedThreadPool(
+                        threads,
+                        new ThreadFactory() {
+                            final AtomicInteger count = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                String name = "ShapeZip-" + count.incrementAndGet();
+                                Thread t = new Thread(r, name);
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -10,6 +10,7 @@ import freemarker.template.Template;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
@@ -22,14 +23,24 @@ import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.SimpleTimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.namespace.QName;
@@ -51,6 +62,7 @@ import org.geoserver.platform.resource.Resource;
 import org.geoserver.platform.resource.Resource.Type;
 import org.geoserver.template.GeoServerTemplateLoader;
 import org.geoserver.template.TemplateUtils;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geoserver.util.IOUtils;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
@@ -88,11 +100,33 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat
     public static final String GS_SHAPEFILE_CHARSET = "GS-SHAPEFILE-CHARSET";
     public static final String SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI = "SHAPE-ZIP_DEFAULT_PRJ_IS_ESRI";
 
+    /**
+     * System/environment variable/servlet context parameter with the number of threads used to
+     * write the feature collections of a multi type request in parallel, on the threads of the
+     * {@link ShapeZipExecutorPool}.
+     */
+    public static final String SHAPE_ZIP_THREADS = "SHAPE_ZIP_THREADS";
+
+    private static final FilenameFilter SHAPEFILE_FILTER =
+            new FilenameFilter() {
+
+                public boolean accept(File dir, String name) {
+                    name = name.toLowerCase();
+                    return name.endsWith(".shp")
+                            || name.endsWith(".shx")
+                            || name.endsWith(".dbf")
+                            || name.endsWith(".prj")
+                            || name.endsWith(".cst")
+                            || name.endsWith(".txt");
+                }
+            };
+
     private static final Configuration templateConfig = TemplateUtils.getSafeConfiguration();
 
     private ApplicationContext applicationContext;
     private Catalog catalog;
     private GeoServerResourceLoader resourceLoader;
+    private ShapeZipExecutorPool executorPool;
     private long maxShpSize = Long.getLong("GS_SHP_MAX_SIZE", Integer.MAX_VALUE);
     private long maxDbfSize = Long.getLong("GS_DBF_MAX_SIZE", Integer.MAX_VALUE);
 
@@ -176,6 +210,15 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat
             OutputStream output,
             final GetFeatureRequest request)
             throws IOException, ServiceException {
+        int threads = getThreads();
+        if (threads > 1 && collections.size() > 1) {
+            ShapeZipExecutorPool pool = getExecutorPool();
+            if (pool != null) {
+                writeParallel(collections, charset, output, request, pool.getExecutor(), threads);
+                return;
+            }
+        }
+
         // We might get multiple featurecollections in our response (multiple queries?) so we need
         // to
         // write out multiple shapefile sets, one for each query response.
@@ -225,21 +268,8 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat
             createRequestDump(tempDir, request, collections.get(0));
 
             // zip all the files produced
-            final FilenameFilter filter =
-                    new FilenameFilter() {
-
-                        public boolean accept(File dir, String name) {
-                            name = name.toLowerCase();
-                            return name.endsWith(".shp")
-                                    || name.endsWith(".shx")
-                                    || name.endsWith(".dbf")
-                                    || name.endsWith(".prj")
-                                    || name.endsWith(".cst")
-                                    || name.endsWith(".txt");
-                        }
-                    };
             ZipOutputStream zipOut = new ZipOutputStream(output);
-            IOUtils.zipDirectory(tempDir, zipOut, filter);
+            IOUtils.zipDirectory(tempDir, zipOut, SHAPEFILE_FILTER);
             zipOut.finish();
 
             // This is an error, because this closes the output stream too... it's
@@ -259,6 +289,246 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat
         }
     }
 
+    /**
+     * Dumps each collection in its own sub directory, up to {@code threads} at a time, and zips
+     * each shapefile set, in the order of the collections, as soon as it is complete, removing it
+     * right after. This way at most {@code threads} collections are on disk at any given time, and
+     * the shapefile names picked to avoid collisions do not depend on the dump timings.
+     */
+    private void writeParallel(
+            List<SimpleFeatureCollection> collections,
+            Charset charset,
+            OutputStream output,
+            final GetFeatureRequest request,
+            ExecutorService pool,
+            int threads)
+            throws IOException {
+        final File tempDir = IOUtils.createTempDirectory("shpziptemp");
+        final AtomicBoolean shapefileCreated = new AtomicBoolean();
+        final ThreadLocalsTransfer threadLocals = new ThreadLocalsTransfer();
+        List<DumpTask> tasks = new ArrayList<>();
+        boolean completed = false;
+        try {
+            ZipOutputStream zipOut = new ZipOutputStream(output);
+            Set<String> names = new HashSet<>();
+            for (int zipped = 0; zipped < collections.size(); zipped++) {
+                while (tasks.size() < collections.size() && tasks.size() - zipped < threads) {
+                    int index = tasks.size();
+                    DumpTask task =
+                            new DumpTask(
+                                    collections.get(index),
+                                    new File(tempDir, String.valueOf(index)),
+                                    charset,
+                                    request,
+                                    threadLocals,
+                                    shapefileCreated);
+                    task.future = pool.submit(task);
+                    tasks.add(task);
+                }
+
+                File dir = take(tasks.get(zipped).future);
+                zipShapefiles(dir, zipOut, names);
+                FileUtils.deleteDirectory(dir);
+            }
+
+            // take care of the case the output is completely empty
+            if (!shapefileCreated.get()) {
+                createEmptyZipWarning(tempDir);
+            }
+
+            // dump the request, the sub directories are gone by now
+            createRequestDump(tempDir, request, collections.get(0));
+            IOUtils.zipDirectory(tempDir, zipOut, SHAPEFILE_FILTER);
+            zipOut.finish();
+            completed = true;
+        } finally {
+            if (!completed) {
+                // stop the dumps still running, and wait for them before removing their files
+                for (DumpTask task : tasks) {
+                    task.abort();
+                }
+            }
+            try {
+                FileUtils.deleteDirectory(tempDir);
+            } catch (IOException e) {
+                LOGGER.warning(
+                        "Could not delete temp directory: "
+                                + tempDir.getAbsolutePath()
+                                + " due to: "
+                                + e.getMessage());
+            }
+        }
+    }
+
+    /** Dumps a collection in its own directory, can be aborted and waited for */
+    private class DumpTask implements Callable<File> {
+
+        final SimpleFeatureCollection collection;
+
+        final File dir;
+
+        final Charset charset;
+
+        final GetFeatureRequest request;
+
+        final ThreadLocalsTransfer threadLocals;
+
+        final AtomicBoolean shapefileCreated;
+
+        final AtomicBoolean started = new AtomicBoolean();
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Future<File> future;
+
+        DumpTask(
+                SimpleFeatureCollection collection,
+                File dir,
+                Charset charset,
+                GetFeatureRequest request,
+                ThreadLocalsTransfer threadLocals,
+                AtomicBoolean shapefileCreated) {
+            this.collection = collection;
+            this.dir = dir;
+            this.charset = charset;
+            this.request = request;
+            this.threadLocals = threadLocals;
+            this.shapefileCreated = shapefileCreated;
+        }
+
+        @Override
+        public File call() throws Exception {
+            if (!started.compareAndSet(false, true)) {
+                // aborted before getting a chance to run
+                return dir;
+            }
+            threadLocals.apply();
+            try {
+                dir.mkdir();
+                if (getDumper(dir, charset, request).dump(collection)) {
+                    shapefileCreated.set(true);
+                }
+                return dir;
+            } finally {
+                threadLocals.cleanup();
+                done.countDown();
+            }
+        }
+
+        /** Prevents the dump from starting, or interrupts it and waits for it to be over */
+        void abort() {
+            if (!started.compareAndSet(false, true)) {
+                future.cancel(true);
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private ShapefileDumper getDumper(
+            final File dir, Charset charset, final GetFeatureRequest request) {
+        ShapefileDumper dumper =
+                new ShapefileDumper(dir) {
+
+                    @Override
+                    protected String getShapeName(SimpleFeatureType schema, String geometryType) {
+                        FeatureTypeInfo ftInfo = getFeatureTypeInfo(schema);
+                        return new FileNameSource(getClass()).getShapeName(ftInfo, geometryType);
+                    }
+
+                    @Override
+                    protected void shapefileDumped(
+                            String fileName, SimpleFeatureType remappedSchema) throws IOException {
+                        try {
+                            changeWKTFormatIfFileFormatIsESRI(
+                                    dir, request, fileName, remappedSchema);
+                        } catch (FactoryException e) {
+                            throw new IOException("Failed to write out the ESRI style prj file", e);
+                        }
+                    }
+                };
+        dumper.setMaxDbfSize(maxDbfSize);
+        dumper.setMaxShpSize(maxShpSize);
+        dumper.setCharset(charset);
+        return dumper;
+    }
+
+    private File take(Future<File> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the shapefiles", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to write the shapefiles", e.getCause());
+        }
+    }
+
+    /**
+     * Adds the shapefiles found in the directory to the zip. Collections dumped in different
+     * directories might have picked the same shapefile names, in that case a counter is appended.
+     */
+    private void zipShapefiles(File dir, ZipOutputStream zipOut, Set<String> names)
+            throws IOException {
+        File[] files = dir.listFiles(SHAPEFILE_FILTER);
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        Map<String, String> renames = new HashMap<>();
+        byte[] buffer = new byte[4 * 1024];
+        for (File file : files) {
+            String name = file.getName();
+            int idx = name.lastIndexOf('.');
+            String base = name.substring(0, idx);
+            String target = renames.get(base);
+            if (target == null) {
+                target = base;
+                for (int i = 1; names.contains(target); i++) {
+                    target = base + i;
+                }
+                renames.put(base, target);
+            }
+            zipOut.putNextEntry(new ZipEntry(target + name.substring(idx)));
+            try (InputStream in = new FileInputStream(file)) {
+                int c;
+                while (-1 != (c = in.read(buffer))) {
+                    zipOut.write(buffer, 0, c);
+                }
+            }
+            zipOut.closeEntry();
+        }
+        names.addAll(renames.values());
+        zipOut.flush();
+    }
+
+    /**
+     * Returns the number of threads used to write the collections of a request, the collections are
+     * written one after the other if not above one
+     */
+    static int getThreads() {
+        return GeoServerExtensions.getIntegerProperty(SHAPE_ZIP_THREADS, 1);
+    }
+
+    /**
+     * Returns the pool the collections are written with, looked up in the application context if
+     * not set, or null if not available
+     */
+    private ShapeZipExecutorPool getExecutorPool() {
+        if (executorPool == null) {
+            executorPool = GeoServerExtensions.bean(ShapeZipExecutorPool.class);
+        }
+        return executorPool;
+    }
+
     /** Dumps the request */
     private void createRequestDump(
             File tempDir, GetFeatureRequest gft, SimpleFeatureCollection fc) {
@@ -446,6 +716,11 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat
         this.applicationContext = applicationContext;
     }
 
+    /** Sets the pool used to write the collections of multi type requests in parallel */
+    public void setExecutorPool(ShapeZipExecutorPool executorPool) {
+        this.executorPool = executorPool;
+    }
+
     public long getMaxShpSize() {
         return maxShpSize;
     }
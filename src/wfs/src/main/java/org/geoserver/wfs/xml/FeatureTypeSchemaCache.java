@@ -0,0 +1,382 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import com.google.common.cache.Cache;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import org.eclipse.xsd.XSDSchema;
+import org.eclipse.xsd.util.XSDResourceImpl;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches the serialized DescribeFeatureType schemas, so that clients describing the same feature
+ * types over and over (e.g., WFS-T clients before each transaction) cost a lookup and a byte copy,
+ * instead of a schema build and serialization.
+ *
+ * <p>Schemas are keyed on the feature types, the schema builder (that is, the GML version), the
+ * base URL and the URL it is turned into by the URL manglers (proxy base), the local workspace,
+ * the output encoding and the current user and roles, since data security rules can hide
+ * attributes. Schemas containing a feature type are evicted when the feature type is added,
+ * modified or removed. Changes to namespaces, stores, service or global settings, and
+ * configuration reloads, drop the whole cache. Changes to the data security rules and to the
+ * underlying data structure fire no catalog event, so schemas also expire after a while.
+ *
+ * <p>The cache is disabled by default, and can be configured with the following system variables:
+ *
+ * <ul>
+ *   <li>{@value #ENABLED_KEY}: set to true to enable the cache
+ *   <li>{@value #MAX_ENTRIES_KEY}: max number of cached schemas (defaults to {@value
+ *       #DEFAULT_MAX_ENTRIES})
+ *   <li>{@value #TTL_KEY}: time to live of each schema, in seconds (defaults to {@value
+ *       #DEFAULT_TTL})
+ * </ul>
+ */
+public class FeatureTypeSchemaCache implements CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(FeatureTypeSchemaCache.class);
+
+    public static final String ENABLED_KEY = "WFS_SCHEMA_CACHE";
+
+    public static final String MAX_ENTRIES_KEY = "WFS_SCHEMA_CACHE_SIZE";
+
+    public static final String TTL_KEY = "WFS_SCHEMA_CACHE_TTL";
+
+    static final long DEFAULT_MAX_ENTRIES = 500;
+
+    static final long DEFAULT_TTL = 300;
+
+    private volatile boolean enabled;
+
+    private final Cache<Key, byte[]> schemas;
+
+    /**
+     * Incremented at each eviction, schemas built while an eviction happened are not cached, as
+     * they might be stale already
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public FeatureTypeSchemaCache(GeoServer gs) {
+        this(gs, Ticker.systemTicker());
+    }
+
+    FeatureTypeSchemaCache(GeoServer gs, Ticker ticker) {
+        this.enabled = GeoServerExtensions.getBooleanProperty(ENABLED_KEY);
+        long maxEntries = GeoServerExtensions.getLongProperty(MAX_ENTRIES_KEY, DEFAULT_MAX_ENTRIES);
+        long ttl = GeoServerExtensions.getLongProperty(TTL_KEY, DEFAULT_TTL);
+        this.schemas =
+                CacheBuilder.newBuilder()
+                        .maximumSize(maxEntries)
+                        .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                        .ticker(ticker)
+                        .build();
+        gs.getCatalog().addListener(this);
+        gs.addListener(
+                new ConfigurationListenerAdapter() {
+                    @Override
+                    public void handlePostGlobalChange(GeoServerInfo global) {
+                        clear();
+                    }
+
+                    @Override
+                    public void handleSettingsAdded(SettingsInfo settings) {
+                        clear();
+                    }
+
+                    @Override
+                    public void handleSettingsPostModified(SettingsInfo settings) {
+                        clear();
+                    }
+
+                    @Override
+                    public void handleSettingsRemoved(SettingsInfo settings) {
+                        clear();
+                    }
+
+                    @Override
+                    public void handlePostServiceChange(ServiceInfo service) {
+                        clear();
+                    }
+
+                    @Override
+                    public void reloaded() {
+                        clear();
+                    }
+                });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Enables or disables the cache, disabling also clears it */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Returns the serialized schema for the given feature types, from the cache if possible
+     *
+     * @param builder The builder to use if the schema is not cached
+     * @param featureTypes The feature types to describe
+     * @param baseUrl The request base URL
+     * @param encoding The output encoding
+     */
+    public byte[] getSchema(
+            FeatureTypeSchemaBuilder builder,
+            FeatureTypeInfo[] featureTypes,
+            String baseUrl,
+            String encoding)
+            throws IOException {
+        Key key = enabled ? Key.build(builder, featureTypes, baseUrl, encoding) : null;
+        if (key == null) {
+            return encode(builder, featureTypes, baseUrl, encoding);
+        }
+
+        byte[] cached = schemas.getIfPresent(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        long startGeneration = generation.get();
+        byte[] schema = encode(builder, featureTypes, baseUrl, encoding);
+        if (generation.get() == startGeneration) {
+            schemas.put(key, schema);
+        }
+        return schema;
+    }
+
+    private byte[] encode(
+            FeatureTypeSchemaBuilder builder,
+            FeatureTypeInfo[] featureTypes,
+            String baseUrl,
+            String encoding)
+            throws IOException {
+        XSDSchema schema = builder.build(featureTypes, baseUrl);
+        schema.updateElement();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        XSDResourceImpl.serialize(bos, schema.getElement(), encoding);
+        return bos.toByteArray();
+    }
+
+    /** Drops all cached schemas */
+    public void clear() {
+        generation.incrementAndGet();
+        schemas.invalidateAll();
+    }
+
+    /** Drops the cached schemas describing the given feature type */
+    public void invalidate(String featureTypeId) {
+        generation.incrementAndGet();
+        schemas.asMap().keySet().removeIf(k -> k.featureTypeIds.contains(featureTypeId));
+    }
+
+    /** Returns the number of cached schemas */
+    public long size() {
+        return schemas.size();
+    }
+
+    /** Returns the number of schemas served from the cache */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Returns the number of schemas that had to be built */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // catalog events
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    private void evict(CatalogEvent event) {
+        CatalogInfo source = event.getSource();
+        if (source instanceof FeatureTypeInfo) {
+            invalidate(source.getId());
+        } else if (source instanceof StoreInfo
+                || source instanceof NamespaceInfo
+                || source instanceof WorkspaceInfo) {
+            // can change the feature type structure, or the prefixes used in the schema
+            clear();
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    // lifecycle events
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+
+    /** The key of a cached schema */
+    static final class Key {
+        final String builder;
+        final List<String> featureTypeIds;
+        final String baseUrl;
+        final String mangledUrl;
+        final String workspace;
+        final String encoding;
+        final String user;
+        final Set<String> roles;
+
+        private Key(
+                String builder,
+                List<String> featureTypeIds,
+                String baseUrl,
+                String encoding,
+                Authentication auth) {
+            this.builder = builder;
+            this.featureTypeIds = featureTypeIds;
+            this.baseUrl = baseUrl;
+            // proxy base and headers based proxying change the URLs in the schema
+            this.mangledUrl =
+                    baseUrl == null
+                            ? null
+                            : ResponseUtils.buildURL(baseUrl, "wfs", null, URLType.RESOURCE);
+            WorkspaceInfo ws = LocalWorkspace.get();
+            this.workspace = ws == null ? null : ws.getName();
+            this.encoding = encoding;
+            if (auth == null) {
+                this.user = null;
+                this.roles = Collections.emptySet();
+            } else {
+                this.user = auth.getName();
+                this.roles = new TreeSet<>();
+                for (GrantedAuthority authority : auth.getAuthorities()) {
+                    roles.add(authority.getAuthority());
+                }
+            }
+        }
+
+        /** Returns the key, or null if the feature types cannot be cached */
+        static Key build(
+                FeatureTypeSchemaBuilder builder,
+                FeatureTypeInfo[] featureTypes,
+                String baseUrl,
+                String encoding) {
+            List<String> ids = new ArrayList<>(featureTypes.length);
+            for (FeatureTypeInfo featureType : featureTypes) {
+                if (featureType.getId() == null) {
+                    // not saved in the catalog, cannot be evicted
+                    return null;
+                }
+                ids.add(featureType.getId());
+            }
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            return new Key(builder.getClass().getName(), ids, baseUrl, encoding, auth);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return builder.equals(key.builder)
+                    && featureTypeIds.equals(key.featureTypeIds)
+                    && Objects.equals(baseUrl, key.baseUrl)
+                    && Objects.equals(mangledUrl, key.mangledUrl)
+                    && Objects.equals(workspace, key.workspace)
+                    && Objects.equals(encoding, key.encoding)
+                    && Objects.equals(user, key.user)
+                    && roles.equals(key.roles);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    builder,
+                    featureTypeIds,
+                    baseUrl,
+                    mangledUrl,
+                    workspace,
+                    encoding,
+                    user,
+                    roles);
+        }
+    }
+}
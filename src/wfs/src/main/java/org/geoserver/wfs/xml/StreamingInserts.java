@@ -0,0 +1,473 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import org.geoserver.ows.XmlRequestReader;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.TransactionCallback;
+import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.request.Insert;
+import org.geoserver.wfs.request.TransactionElement;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geotools.util.logging.Logging;
+import org.geotools.xsd.Parser;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Parses the features of the Insert elements of a Transaction request a batch at a time, while
+ * the transaction is executed, instead of building them all in memory along with the request.
+ *
+ * <p>The request is read once with a StAX parser: the Insert contents are spooled to a temporary
+ * file, split in chunks of {@link #getBatchSize()} features, while the rest of the request is
+ * parsed as usual. Each chunk is a small Transaction document on its own, and is parsed by a
+ * parser set up just like the one of the request, so entity resolution and the other request
+ * settings apply to the inserted features too. The {@link
+ * org.geoserver.wfs.InsertElementHandler} then pulls the features out of the spool file, and
+ * writes them to the store in batches. The spool file is removed once the request is over, see
+ * {@link StreamingInsertsCallback}.
+ *
+ * <p>Streaming is disabled by default, and never used for strict requests, since they must be
+ * validated as a whole, nor when a {@link TransactionCallback} that is not {@link Compatible}
+ * is registered, since the features are not there yet when the callbacks see the request. It can
+ * be configured with the following system variables:
+ *
+ * <ul>
+ *   <li>{@value #ENABLED_KEY}: set to true to enable streaming inserts
+ *   <li>{@value #BATCH_SIZE_KEY}: number of features written to the store at once (defaults to
+ *       {@value #DEFAULT_BATCH_SIZE})
+ * </ul>
+ */
+public class StreamingInserts implements Closeable {
+
+    static final Logger LOGGER = Logging.getLogger(StreamingInserts.class);
+
+    public static final String ENABLED_KEY = "WFS_STREAMING_INSERT";
+
+    public static final String BATCH_SIZE_KEY = "WFS_INSERT_BATCH_SIZE";
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** The streaming inserts of the request running in the current thread */
+    static final ThreadLocal<List<StreamingInserts>> INSERTS = new ThreadLocal<>();
+
+    /**
+     * Marks a {@link TransactionCallback} that does not look at the features of the Insert
+     * elements, and thus does not prevent streaming them
+     */
+    public interface Compatible {}
+
+    /** Builds parsers set up like the one of the request */
+    private final Supplier<Parser> parsers;
+
+    private final WFSInfo wfs;
+
+    private final File spool;
+
+    /** The contents of the Insert elements, in document order */
+    private final List<InsertContents> contents = new ArrayList<>();
+
+    /** The parsed Insert elements, in document order */
+    private final List<Object> inserts = new ArrayList<>();
+
+    StreamingInserts(Supplier<Parser> parsers, WFSInfo wfs) throws IOException {
+        this.parsers = parsers;
+        this.wfs = wfs;
+        this.spool = File.createTempFile("wfs-insert", ".xml");
+    }
+
+    /** Returns true if streaming inserts are enabled */
+    public static boolean isEnabled() {
+        return GeoServerExtensions.getBooleanProperty(ENABLED_KEY);
+    }
+
+    /** Returns the number of features to write to the store at once */
+    public static int getBatchSize() {
+        int size = GeoServerExtensions.getIntegerProperty(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE);
+        return size > 0 ? size : DEFAULT_BATCH_SIZE;
+    }
+
+    /** Returns true if the request read by the given reader can stream its inserts */
+    public static boolean canStream(XmlRequestReader requestReader, WFSInfo wfs, Map kvp) {
+        return isEnabled()
+                && "Transaction".equals(requestReader.getElement().getLocalPart())
+                && !wfs.isCiteCompliant()
+                && !Boolean.TRUE.equals(kvp.get("strict"))
+                && isCompatible(GeoServerExtensions.extensions(TransactionCallback.class));
+    }
+
+    /** Returns true if none of the callbacks needs the inserted features before the transaction */
+    public static boolean isCompatible(List<TransactionCallback> callbacks) {
+        for (TransactionCallback callback : callbacks) {
+            if (!(callback instanceof Compatible)) {
+                LOGGER.fine("Not streaming inserts, " + callback + " needs the features up front");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a Transaction request with the given parser, leaving the features of its Insert
+     * elements to be streamed out of a spool file, parsed with parsers built by {@code parsers}
+     */
+    public static Object parseTransaction(
+            Parser parser, Supplier<Parser> parsers, Reader reader, WFSInfo wfs)
+            throws Exception {
+        StreamingInserts streaming = new StreamingInserts(parsers, wfs);
+        // register right away, so that the spool file gets removed even if parsing fails
+        List<StreamingInserts> list = INSERTS.get();
+        if (list == null) {
+            list = new ArrayList<>();
+            INSERTS.set(list);
+        }
+        list.add(streaming);
+
+        StringWriter skeleton = new StringWriter();
+        streaming.split(reader, skeleton, getBatchSize());
+        Object parsed =
+                WFSXmlUtils.parseRequest(parser, new StringReader(skeleton.toString()), wfs);
+
+        TransactionRequest request = TransactionRequest.adapt(parsed);
+        if (request != null) {
+            for (TransactionElement element : request.getElements()) {
+                if (element instanceof Insert) {
+                    streaming.inserts.add(element.getAdaptee());
+                }
+            }
+        }
+        if (streaming.inserts.size() != streaming.contents.size()) {
+            throw new IOException(
+                    "Found "
+                            + streaming.inserts.size()
+                            + " Insert elements in the transaction, but spooled "
+                            + streaming.contents.size());
+        }
+        return parsed;
+    }
+
+    /** Returns the streaming inserts the given Insert element is part of, if any */
+    public static StreamingInserts get(Insert insert) {
+        List<StreamingInserts> list = INSERTS.get();
+        if (list != null) {
+            for (StreamingInserts streaming : list) {
+                if (streaming.indexOf(insert) >= 0) {
+                    return streaming;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Closes the streaming inserts of the request running in the current thread */
+    static void closeAll() {
+        List<StreamingInserts> list = INSERTS.get();
+        if (list != null) {
+            INSERTS.remove();
+            for (StreamingInserts streaming : list) {
+                streaming.close();
+            }
+        }
+    }
+
+    private int indexOf(Insert insert) {
+        for (int i = 0; i < inserts.size(); i++) {
+            if (inserts.get(i) == insert.getAdaptee()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the request to the skeleton, apart from the contents of the Insert elements, which
+     * are spooled to disk in chunks of {@code chunkSize} features. Each chunk is a document with
+     * the root element, the Insert element and the feature collection wrapping the features, if
+     * any, so that its features keep the same namespace context and attributes.
+     */
+    void split(Reader reader, StringWriter skeleton, int chunkSize)
+            throws IOException, XMLStreamException {
+        XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+        XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+
+        XMLEventReader in = inputFactory.createXMLEventReader(reader);
+        try (CountingOutputStream os =
+                new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(spool)))) {
+            XMLEventWriter skeletonWriter = outputFactory.createXMLEventWriter(skeleton);
+            // the chunk writers must not close the spool file
+            OutputStream chunkStream =
+                    new FilterOutputStream(os) {
+                        @Override
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            out.write(b, off, len);
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            flush();
+                        }
+                    };
+
+            StartElement root = null;
+            InsertContents insert = null;
+            // the elements between the root and the features
+            Deque<StartElement> wrappers = new ArrayDeque<>();
+            XMLEventWriter chunk = null;
+            long chunkStart = 0;
+            int chunkFeatures = 0;
+            int depth = 0;
+            // depth of the features, deeper if wrapped in a feature collection
+            int featureDepth = 3;
+            while (in.hasNext()) {
+                XMLEvent event = in.nextEvent();
+                int type = event.getEventType();
+                if (type == XMLStreamConstants.START_DOCUMENT
+                        || type == XMLStreamConstants.END_DOCUMENT
+                        || type == XMLStreamConstants.DTD) {
+                    continue;
+                }
+
+                if (event.isStartElement()) {
+                    depth++;
+                    StartElement start = event.asStartElement();
+                    QName name = start.getName();
+                    if (depth == 1) {
+                        skeletonWriter.add(event);
+                        // feature types are looked up in the catalog, not in the schemas
+                        root = withoutSchemaLocation(start, eventFactory);
+                        continue;
+                    } else if (depth == 2 && isInsert(root, name)) {
+                        insert = new InsertContents();
+                        contents.add(insert);
+                        skeletonWriter.add(event);
+                        wrappers.push(start);
+                        featureDepth = 3;
+                        continue;
+                    } else if (insert != null
+                            && depth == 3
+                            && "FeatureCollection".equals(name.getLocalPart())) {
+                        featureDepth = 5;
+                    }
+
+                    if (insert != null && depth < featureDepth) {
+                        wrappers.push(start);
+                    } else if (insert != null && depth == featureDepth) {
+                        insert.typeNames.add(name);
+                        if (chunk == null) {
+                            chunk = outputFactory.createXMLEventWriter(chunkStream, "UTF-8");
+                            chunkStart = os.getCount();
+                            chunk.add(eventFactory.createStartDocument("UTF-8", "1.0"));
+                            chunk.add(root);
+                            for (Iterator<StartElement> it = wrappers.descendingIterator();
+                                    it.hasNext(); ) {
+                                chunk.add(it.next());
+                            }
+                        }
+                        chunkFeatures++;
+                    }
+                } else if (event.isEndElement()) {
+                    depth--;
+                    if (insert != null && depth < featureDepth - 1) {
+                        // closing a wrapper, or the Insert element itself
+                        wrappers.pop();
+                        if (chunk != null) {
+                            chunk.add(event);
+                        }
+                        if (depth == 1) {
+                            if (chunk != null) {
+                                insert.chunks.add(endChunk(chunk, root, chunkStart, os));
+                                chunk = null;
+                                chunkFeatures = 0;
+                            }
+                            insert = null;
+                            skeletonWriter.add(event);
+                        }
+                        continue;
+                    } else if (insert != null && depth == featureDepth - 1) {
+                        chunk.add(event);
+                        if (chunkFeatures >= chunkSize) {
+                            for (StartElement wrapper : wrappers) {
+                                chunk.add(eventFactory.createEndElement(wrapper.getName(), null));
+                            }
+                            insert.chunks.add(endChunk(chunk, root, chunkStart, os));
+                            chunk = null;
+                            chunkFeatures = 0;
+                        }
+                        continue;
+                    }
+                }
+
+                if (insert != null) {
+                    // text between the features is dropped along with the chunk boundaries
+                    if (chunk != null) {
+                        chunk.add(event);
+                    }
+                } else {
+                    skeletonWriter.add(event);
+                }
+            }
+            skeletonWriter.close();
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Closes the root element and the chunk document, returning its position in the spool */
+    private long[] endChunk(
+            XMLEventWriter chunk, StartElement root, long start, CountingOutputStream os)
+            throws XMLStreamException {
+        XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+        chunk.add(eventFactory.createEndElement(root.getName(), null));
+        chunk.add(eventFactory.createEndDocument());
+        chunk.flush();
+        chunk.close();
+        return new long[] {start, os.getCount() - start};
+    }
+
+    private boolean isInsert(StartElement root, QName name) {
+        return "Insert".equals(name.getLocalPart())
+                && root.getName().getNamespaceURI().equals(name.getNamespaceURI());
+    }
+
+    private StartElement withoutSchemaLocation(StartElement start, XMLEventFactory factory) {
+        List<Attribute> attributes = new ArrayList<>();
+        for (Iterator it = start.getAttributes(); it.hasNext(); ) {
+            Attribute attribute = (Attribute) it.next();
+            QName name = attribute.getName();
+            if (!XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(name.getNamespaceURI())) {
+                attributes.add(attribute);
+            }
+        }
+        return factory.createStartElement(
+                start.getName(), attributes.iterator(), start.getNamespaces());
+    }
+
+    /** Returns the names of the feature types found in the Insert element */
+    public List<QName> getTypeNames(Insert insert) {
+        return new ArrayList<>(contents.get(indexOf(insert)).typeNames);
+    }
+
+    /** Returns the features of the Insert element, parsed a chunk at a time */
+    public Iterator<Object> getFeatures(Insert insert) throws IOException {
+        return new FeatureIterator(contents.get(indexOf(insert)).chunks.iterator());
+    }
+
+    /** Parses a chunk of the spool file, returning the features of its Insert element */
+    List parseChunk(long[] chunk) throws Exception {
+        try (InputStream input = new FileInputStream(spool)) {
+            ByteStreams.skipFully(input, chunk[0]);
+            Reader reader =
+                    new InputStreamReader(
+                            new BufferedInputStream(ByteStreams.limit(input, chunk[1])),
+                            StandardCharsets.UTF_8);
+            Object parsed = WFSXmlUtils.parseRequest(parsers.get(), reader, wfs);
+            TransactionRequest request = TransactionRequest.adapt(parsed);
+            if (request != null) {
+                for (TransactionElement element : request.getElements()) {
+                    if (element instanceof Insert) {
+                        return ((Insert) element).getFeatures();
+                    }
+                }
+            }
+            return Collections.emptyList();
+        }
+    }
+
+    /** Removes the spool file */
+    @Override
+    public void close() {
+        if (spool.exists() && !spool.delete()) {
+            LOGGER.warning("Could not remove the insert spool file " + spool);
+        }
+    }
+
+    /** The features of an Insert element, parsing its chunks as they are needed */
+    class FeatureIterator implements Iterator<Object> {
+
+        final Iterator<long[]> chunks;
+
+        Iterator features = Collections.emptyIterator();
+
+        FeatureIterator(Iterator<long[]> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!features.hasNext() && chunks.hasNext()) {
+                try {
+                    features = parseChunk(chunks.next()).iterator();
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to parse the inserted features", e);
+                }
+            }
+            return features.hasNext();
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object next = features.next();
+            // if parsing fails the parser just returns a Map
+            if (!(next instanceof SimpleFeature)) {
+                throw new IllegalArgumentException("Could not parse input features");
+            }
+            return next;
+        }
+    }
+
+    /** What is known about the contents of an Insert element before parsing it */
+    static class InsertContents {
+        Set<QName> typeNames = new LinkedHashSet<>();
+
+        /** Start and length of the chunks of features in the spool file */
+        List<long[]> chunks = new ArrayList<>();
+    }
+}
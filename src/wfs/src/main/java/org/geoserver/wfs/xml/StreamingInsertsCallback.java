@@ -0,0 +1,17 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+
+/** Removes the insert spool files of {@link StreamingInserts} when the request ends */
+public class StreamingInsertsCallback extends AbstractDispatcherCallback {
+
+    @Override
+    public void finished(Request request) {
+        StreamingInserts.closeAll();
+    }
+}
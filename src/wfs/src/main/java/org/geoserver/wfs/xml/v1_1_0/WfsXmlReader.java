@@ -12,6 +12,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.ows.XmlRequestReader;
 import org.geoserver.util.EntityResolverProvider;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.xml.StreamingInserts;
 import org.geoserver.wfs.xml.WFSXmlUtils;
 import org.geotools.util.Version;
 import org.geotools.xsd.Configuration;
@@ -52,6 +53,22 @@ public class WfsXmlReader extends XmlRequestReader {
     }
 
     public Object read(Object request, Reader reader, Map kvp) throws Exception {
+        Parser parser = createParser(kvp);
+        Object parsed;
+        if (StreamingInserts.canStream(this, wfs, kvp)) {
+            parsed =
+                    StreamingInserts.parseTransaction(
+                            parser, () -> createParser(kvp), reader, wfs);
+        } else {
+            parsed = WFSXmlUtils.parseRequest(parser, reader, wfs);
+        }
+
+        WFSXmlUtils.checkValidationErrors(parser, this);
+
+        return parsed;
+    }
+
+    Parser createParser(Map kvp) {
         Parser parser = new Parser(configuration);
         parser.setStrict(false);
         parser.setEntityResolver(entityResolverProvider.getEntityResolver());
@@ -59,10 +76,6 @@ public class WfsXmlReader extends XmlRequestReader {
         parser.setEntityExpansionLimit(WFSXmlUtils.getEntityExpansionLimitConfiguration());
 
         WFSXmlUtils.initRequestParser(parser, wfs, geoServer, kvp);
-        Object parsed = WFSXmlUtils.parseRequest(parser, reader, wfs);
-
-        WFSXmlUtils.checkValidationErrors(parser, this);
-
-        return parsed;
+        return parser;
     }
 }
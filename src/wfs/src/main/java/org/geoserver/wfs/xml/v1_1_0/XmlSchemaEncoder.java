@@ -23,6 +23,7 @@ import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSDescribeFeatureTypeOutputFormat;
 import org.geoserver.wfs.request.DescribeFeatureTypeRequest;
 import org.geoserver.wfs.xml.FeatureTypeSchemaBuilder;
+import org.geoserver.wfs.xml.FeatureTypeSchemaCache;
 
 public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
 
@@ -35,6 +36,9 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
     /** schema builder */
     FeatureTypeSchemaBuilder schemaBuilder;
 
+    /** cache of the encoded schemas, optional */
+    FeatureTypeSchemaCache schemaCache;
+
     public XmlSchemaEncoder(String mimeType, GeoServer gs, FeatureTypeSchemaBuilder schemaBuilder) {
         super(gs, mimeType);
 
@@ -52,6 +56,11 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
         this.schemaBuilder = schemaBuilder;
     }
 
+    /** Sets the cache of the encoded schemas */
+    public void setSchemaCache(FeatureTypeSchemaCache schemaCache) {
+        this.schemaCache = schemaCache;
+    }
+
     public String getMimeType(Object value, Operation operation) throws ServiceException {
         return getOutputFormats().isEmpty() ? null : getOutputFormats().iterator().next();
         // return "text/xml; subtype=gml/3.1.1";
@@ -91,6 +100,13 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
         // create the schema
         Object request = describeFeatureType.getParameters()[0];
         DescribeFeatureTypeRequest req = DescribeFeatureTypeRequest.adapt(request);
+        if (schemaCache != null && schemaCache.isEnabled()) {
+            final String encoding = gs.getSettings().getCharset();
+            output.write(
+                    schemaCache.getSchema(
+                            schemaBuilder, featureTypeInfos, req.getBaseURL(), encoding));
+            return;
+        }
 
         XSDSchema schema = schemaBuilder.build(featureTypeInfos, req.getBaseURL());
 
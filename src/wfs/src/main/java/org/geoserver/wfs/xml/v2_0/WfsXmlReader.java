@@ -15,6 +15,7 @@ import org.geoserver.util.EntityResolverProvider;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.xml.FeatureTypeSchemaBuilder;
+import org.geoserver.wfs.xml.StreamingInserts;
 import org.geoserver.wfs.xml.WFSXmlUtils;
 import org.geotools.util.Version;
 import org.geotools.wfs.v2_0.WFS;
@@ -41,16 +42,17 @@ public class WfsXmlReader extends XmlRequestReader {
         WFSConfiguration config = new WFSConfiguration();
         WFSXmlUtils.initWfsConfiguration(config, gs, new FeatureTypeSchemaBuilder.GML32(gs));
 
-        Parser parser = new Parser(config);
-        parser.setEntityResolver(entityResolverProvider.getEntityResolver());
-        // set entity expansion limit
-        parser.setEntityExpansionLimit(WFSXmlUtils.getEntityExpansionLimitConfiguration());
         WFSInfo wfs = wfs();
-
-        WFSXmlUtils.initRequestParser(parser, wfs, gs, kvp);
+        Parser parser = createParser(config, wfs, kvp);
         Object parsed = null;
         try {
-            parsed = WFSXmlUtils.parseRequest(parser, reader, wfs);
+            if (StreamingInserts.canStream(this, wfs, kvp)) {
+                parsed =
+                        StreamingInserts.parseTransaction(
+                                parser, () -> createParser(config, wfs, kvp), reader, wfs);
+            } else {
+                parsed = WFSXmlUtils.parseRequest(parser, reader, wfs);
+            }
         } catch (Exception e) {
             // check the exception, and set code to OperationParsingFailed if code not set
             if (!(e instanceof ServiceException) || ((ServiceException) e).getCode() == null) {
@@ -64,6 +66,16 @@ public class WfsXmlReader extends XmlRequestReader {
         return parsed;
     }
 
+    Parser createParser(WFSConfiguration config, WFSInfo wfs, Map kvp) {
+        Parser parser = new Parser(config);
+        parser.setEntityResolver(entityResolverProvider.getEntityResolver());
+        // set entity expansion limit
+        parser.setEntityExpansionLimit(WFSXmlUtils.getEntityExpansionLimitConfiguration());
+
+        WFSXmlUtils.initRequestParser(parser, wfs, gs, kvp);
+        return parser;
+    }
+
     WFSInfo wfs() {
         return gs.getService(WFSInfo.class);
     }
@@ -0,0 +1,144 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.wfs.v2_0.WFS20TestSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class FeatureCountCacheTest extends WFS20TestSupport {
+
+    static final String ROADS_PAGE =
+            "wfs?request=GetFeature&typenames=cite:RoadSegments&version=2.0.0&service=wfs"
+                    + "&count=2&startIndex=";
+
+    FeatureCountCache cache;
+
+    @Before
+    public void setupCache() throws Exception {
+        revertLayer(MockData.ROAD_SEGMENTS);
+        cache = applicationContext.getBean(FeatureCountCache.class);
+        cache.setEnabled(true);
+    }
+
+    @After
+    public void resetCache() {
+        cache.setEnabled(false);
+        System.clearProperty(GetFeature.NUMBER_MATCHED_MODE_KEY);
+    }
+
+    @Test
+    public void testPagingUsesCache() throws Exception {
+        Document dom = getAsDOM(ROADS_PAGE + "0");
+        assertEquals("5", dom.getDocumentElement().getAttribute("numberMatched"));
+        assertEquals("2", dom.getDocumentElement().getAttribute("numberReturned"));
+        assertEquals(1, cache.size());
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+
+        dom = getAsDOM(ROADS_PAGE + "2");
+        assertEquals("5", dom.getDocumentElement().getAttribute("numberMatched"));
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(misses, cache.getMissCount());
+
+        // a different filter is a different count
+        dom = getAsDOM(ROADS_PAGE + "0&CQL_FILTER=FID>'102'");
+        assertEquals("4", dom.getDocumentElement().getAttribute("numberMatched"));
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void testTransactionInvalidates() throws Exception {
+        Document dom = getAsDOM(ROADS_PAGE + "0");
+        assertEquals("5", dom.getDocumentElement().getAttribute("numberMatched"));
+        assertEquals(1, cache.size());
+
+        dom = postAsDOM("wfs", TransactionCallbackWFS20Test.DELETE_ROAD_102);
+        assertXpathEvaluatesTo("1", "//wfs:totalDeleted", dom);
+        assertEquals(0, cache.size());
+
+        dom = getAsDOM(ROADS_PAGE + "0");
+        assertEquals("4", dom.getDocumentElement().getAttribute("numberMatched"));
+    }
+
+    @Test
+    public void testCatalogChangeInvalidates() throws Exception {
+        getAsDOM(ROADS_PAGE + "0");
+        assertEquals(1, cache.size());
+
+        FeatureTypeInfo fti = getCatalog().getFeatureTypeByName(getLayerId(MockData.ROAD_SEGMENTS));
+        fti.setTitle("Roads");
+        getCatalog().save(fti);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBackgroundCount() throws Exception {
+        DefaultWebFeatureService20 service =
+                (DefaultWebFeatureService20) applicationContext.getBean("wfsService20Target");
+        CountExecutorPool defaultPool = service.countPool;
+        CountExecutorPool pool = new CountExecutorPool(2);
+        service.setCountPool(pool);
+        try {
+            Document dom = getAsDOM(ROADS_PAGE + "0");
+            assertEquals("5", dom.getDocumentElement().getAttribute("numberMatched"));
+            assertEquals("2", dom.getDocumentElement().getAttribute("numberReturned"));
+            // the counts are no longer tracked once the request is finished
+            assertNull(CountExecutorPool.STARTED.get());
+        } finally {
+            service.setCountPool(defaultPool);
+            pool.destroy();
+        }
+    }
+
+    @Test
+    public void testPendingCountsCancelled() throws Exception {
+        CountExecutorPool pool = new CountExecutorPool(1);
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            Future<Integer> count =
+                    pool.submit(
+                            () -> {
+                                latch.await();
+                                return 0;
+                            });
+            pool.finished(null);
+            assertTrue(count.isCancelled());
+            assertNull(CountExecutorPool.STARTED.get());
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    @Test
+    public void testUnknownMode() throws Exception {
+        System.setProperty(GetFeature.NUMBER_MATCHED_MODE_KEY, "unknown");
+        Document dom = getAsDOM(ROADS_PAGE + "0");
+        assertEquals("unknown", dom.getDocumentElement().getAttribute("numberMatched"));
+        assertEquals(0, cache.size());
+
+        // hits are always counted
+        dom = getAsDOM(ROADS_PAGE + "0&resultType=hits");
+        assertEquals("5", dom.getDocumentElement().getAttribute("numberMatched"));
+    }
+
+    @Test
+    public void testEstimatedMode() throws Exception {
+        System.setProperty(GetFeature.NUMBER_MATCHED_MODE_KEY, "estimated");
+        // property files cannot count without reading the features
+        Document dom = getAsDOM(ROADS_PAGE + "0&CQL_FILTER=FID>'102'");
+        assertEquals("unknown", dom.getDocumentElement().getAttribute("numberMatched"));
+    }
+}
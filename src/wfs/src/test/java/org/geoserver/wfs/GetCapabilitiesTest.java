@@ -345,4 +345,29 @@ public class GetCapabilitiesTest extends WFSTestSupport {
 
         return request;
     }
+
+    @Test
+    public void testFeatureTypeCacheInvalidation() throws Exception {
+        FeatureTypeCapabilitiesCache cache =
+                GeoServerExtensions.bean(FeatureTypeCapabilitiesCache.class);
+        String name = getLayerId(CiteTestData.PRIMITIVEGEOFEATURE);
+        String titlePath = "//wfs:FeatureType[wfs:Name='" + name + "']/wfs:Title";
+
+        Document doc = getAsDOM("wfs?service=WFS&version=1.1.0&request=getCapabilities");
+        assertTrue(cache.size() > 0);
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(name);
+        assertXpathEvaluatesTo(ft.getTitle(), titlePath, doc);
+
+        String title = ft.getTitle();
+        try {
+            ft.setTitle("An updated title");
+            getCatalog().save(ft);
+            doc = getAsDOM("wfs?service=WFS&version=1.1.0&request=getCapabilities");
+            assertXpathEvaluatesTo("An updated title", titlePath, doc);
+        } finally {
+            ft = getCatalog().getFeatureTypeByName(name);
+            ft.setTitle(title);
+            getCatalog().save(ft);
+        }
+    }
 }
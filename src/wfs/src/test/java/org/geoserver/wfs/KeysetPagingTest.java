@@ -0,0 +1,162 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.geoserver.catalog.AttributeTypeInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.wfs.v2_0.WFS20TestSupport;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+import org.w3c.dom.Document;
+
+public class KeysetPagingTest extends WFS20TestSupport {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    static final String ROADS_BY_NAME =
+            "wfs?request=GetFeature&typenames=cite:RoadSegments&version=2.0.0&service=wfs"
+                    + "&sortBy=NAME&count=2&startIndex=0";
+
+    @Before
+    public void setupKey() throws Exception {
+        System.setProperty(KeysetPaging.ENABLED_KEY, "true");
+        // keyset paging needs non nillable keys
+        FeatureTypeInfo fti = getCatalog().getFeatureTypeByName(getLayerId(MockData.ROAD_SEGMENTS));
+        List<AttributeTypeInfo> attributes = fti.attributes();
+        for (AttributeTypeInfo att : attributes) {
+            att.setNillable(!"FID".equals(att.getName()) && !"NAME".equals(att.getName()));
+        }
+        fti.getAttributes().clear();
+        fti.getAttributes().addAll(attributes);
+        getCatalog().save(fti);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        System.clearProperty(KeysetPaging.ENABLED_KEY);
+        revertLayer(MockData.ROAD_SEGMENTS);
+    }
+
+    @Test
+    public void testCursorRoundTrip() throws Exception {
+        FeatureTypeInfo fti = getCatalog().getFeatureTypeByName(getLayerId(MockData.ROAD_SEGMENTS));
+        SimpleFeatureType schema = (SimpleFeatureType) fti.getFeatureType();
+        List<SortBy> key =
+                Arrays.asList(
+                        FF.sort("NAME", SortOrder.DESCENDING), FF.sort("FID", SortOrder.ASCENDING));
+        KeysetPaging.Cursor cursor =
+                new KeysetPaging.Cursor(
+                        10,
+                        KeysetPaging.getNames(key),
+                        new Object[] {"Route 5", "103"},
+                        1);
+        String encoded = cursor.encode();
+        KeysetPaging.Cursor decoded = KeysetPaging.Cursor.decode(encoded, key, 10, schema);
+        assertNotNull(decoded);
+        assertEquals(1, decoded.ties);
+        assertEquals(Arrays.asList("Route 5", "103"), Arrays.asList(decoded.values));
+        Filter filter = decoded.toFilter(key, FF);
+        assertTrue(filter.evaluate(road(schema, "Main Street", "999")));
+        assertTrue(filter.evaluate(road(schema, "Route 5", "104")));
+        assertTrue(filter.evaluate(road(schema, "Route 5", "103")));
+        assertFalse(filter.evaluate(road(schema, "Route 5", "102")));
+        assertFalse(filter.evaluate(road(schema, "Zeta Road", "100")));
+
+        // the cursor is not valid for another page or another sort
+        assertNull(KeysetPaging.Cursor.decode(encoded, key, 12, schema));
+        assertNull(KeysetPaging.Cursor.decode(encoded, key.subList(0, 1), 10, schema));
+        assertNull(KeysetPaging.Cursor.decode("notACursor", key, 10, schema));
+    }
+
+    @Test
+    public void testKeyNeedsNonNillableAttributes() throws Exception {
+        FeatureTypeInfo fti = getCatalog().getFeatureTypeByName(getLayerId(MockData.ROAD_SEGMENTS));
+        assertNotNull(KeysetPaging.getKey(fti, Arrays.asList(FF.sort("NAME", null)), FF));
+        assertNull(KeysetPaging.getKey(fti, Arrays.asList(FF.sort("the_geom", null)), FF));
+        // no sort and no primary key exposed
+        assertNull(KeysetPaging.getKey(fti, null, FF));
+    }
+
+    @Test
+    public void testPaging() throws Exception {
+        Document doc = getAsDOM(ROADS_BY_NAME);
+        assertRoads(doc, "106", "105");
+        String next = doc.getDocumentElement().getAttribute("next");
+        Map<String, Object> kvp = parseLink(next);
+        assertEquals("2", kvp.get("STARTINDEX"));
+        assertNotNull(kvp.get("CURSOR"));
+
+        // the remaining features share the same name, ties are skipped using the cursor
+        doc = getAsDOM(next.substring(next.indexOf("wfs")));
+        assertRoads(doc, "102", "103");
+        String previous = doc.getDocumentElement().getAttribute("previous");
+        assertNull(parseLink(previous).get("CURSOR"));
+        next = doc.getDocumentElement().getAttribute("next");
+        kvp = parseLink(next);
+        assertEquals("4", kvp.get("STARTINDEX"));
+        assertNotNull(kvp.get("CURSOR"));
+
+        doc = getAsDOM(next.substring(next.indexOf("wfs")));
+        assertRoads(doc, "104");
+        assertFalse(doc.getDocumentElement().hasAttribute("next"));
+        assertTrue(doc.getDocumentElement().hasAttribute("previous"));
+    }
+
+    @Test
+    public void testCursorMismatchUsesOffset() throws Exception {
+        Document doc = getAsDOM(ROADS_BY_NAME);
+        String next = doc.getDocumentElement().getAttribute("next");
+        String cursor = (String) parseLink(next).get("CURSOR");
+
+        // the cursor was built for start index 2, not 4
+        doc =
+                getAsDOM(
+                        ROADS_BY_NAME.replace("startIndex=0", "startIndex=4")
+                                + "&cursor="
+                                + cursor);
+        assertRoads(doc, "104");
+        assertEquals("5", doc.getDocumentElement().getAttribute("numberMatched"));
+    }
+
+    private SimpleFeature road(SimpleFeatureType schema, String name, String fid) {
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(schema);
+        fb.set("NAME", name);
+        fb.set("FID", fid);
+        return fb.buildFeature(null);
+    }
+
+    private Map<String, Object> parseLink(String link) {
+        return new KvpMap(KvpUtils.parseQueryString(link));
+    }
+
+    private void assertRoads(Document doc, String... fids) throws Exception {
+        assertXpathEvaluatesTo(String.valueOf(fids.length), "count(//cite:RoadSegments)", doc);
+        for (int i = 0; i < fids.length; i++) {
+            assertXpathEvaluatesTo(
+                    fids[i], "//wfs:member[" + (i + 1) + "]/cite:RoadSegments/cite:FID", doc);
+        }
+    }
+}
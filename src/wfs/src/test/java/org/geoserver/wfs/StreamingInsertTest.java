@@ -0,0 +1,239 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.geoserver.data.test.CiteTestData;
+import org.geoserver.wfs.v2_0.WFS20TestSupport;
+import org.geoserver.wfs.xml.StreamingInserts;
+import org.geotools.filter.v2_0.FES;
+import org.geotools.gml3.v3_2.GML;
+import org.geotools.wfs.v2_0.WFS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class StreamingInsertTest extends WFS20TestSupport {
+
+    static final String TRANSACTION =
+            "<wfs:Transaction service='WFS' version='2.0.0' "
+                    + "xmlns:cgf='http://www.opengis.net/cite/geometry' "
+                    + "xmlns:fes='"
+                    + FES.NAMESPACE
+                    + "' xmlns:wfs='"
+                    + WFS.NAMESPACE
+                    + "' xmlns:gml='"
+                    + GML.NAMESPACE
+                    + "'>";
+
+    static final String GET_POINTS =
+            "wfs?request=GetFeature&version=2.0.0&service=wfs&typenames=cgf:Points";
+
+    TransactionListenerTester listener;
+
+    @Override
+    protected void setUpSpring(List<String> springContextLocations) {
+        super.setUpSpring(springContextLocations);
+        springContextLocations.add(
+                "classpath:/org/geoserver/wfs/TransactionListenerTestContext.xml");
+    }
+
+    @Before
+    public void setupStreaming() {
+        System.setProperty(StreamingInserts.ENABLED_KEY, "true");
+        System.setProperty(StreamingInserts.BATCH_SIZE_KEY, "2");
+        listener =
+                (TransactionListenerTester) applicationContext.getBean("transactionListenerTester");
+        listener.clear();
+    }
+
+    @After
+    public void resetStreaming() {
+        System.clearProperty(StreamingInserts.ENABLED_KEY);
+        System.clearProperty(StreamingInserts.BATCH_SIZE_KEY);
+    }
+
+    @Test
+    public void testInsertInBatches() throws Exception {
+        int points = countPoints();
+        String xml =
+                TRANSACTION
+                        + "<wfs:Insert handle='first'>"
+                        + point("s0001", "10 10")
+                        + point("s0002", "20 20")
+                        + point("s0003", "30 30")
+                        + "</wfs:Insert>"
+                        + "<wfs:Insert handle='second'>"
+                        + point("s0004", "40 40")
+                        + "</wfs:Insert>"
+                        + "</wfs:Transaction>";
+        Document dom = postAsDOM("wfs", xml);
+        assertXpathEvaluatesTo("4", "//wfs:totalInserted", dom);
+        assertXpathEvaluatesTo("3", "count(//wfs:Feature[@handle='first']/fes:ResourceId)", dom);
+        assertXpathEvaluatesTo("1", "count(//wfs:Feature[@handle='second']/fes:ResourceId)", dom);
+        assertEquals(points + 4, countPoints());
+
+        // two batches for the first insert, one for the second, each with a pre and post event
+        assertEquals(6, listener.events.size());
+        TransactionEvent event = (TransactionEvent) listener.events.get(0);
+        assertEquals(TransactionEventType.PRE_INSERT, event.getType());
+        assertEquals(CiteTestData.POINTS, event.getLayerName());
+        assertEquals(2, event.getAffectedFeatures().size());
+        event = (TransactionEvent) listener.events.get(2);
+        assertEquals(TransactionEventType.PRE_INSERT, event.getType());
+        assertEquals(1, event.getAffectedFeatures().size());
+
+        // the spool files are gone with the request
+        assertEquals(0, spoolFiles());
+    }
+
+    @Test
+    public void testInsertMixedWithUpdates() throws Exception {
+        String xml =
+                TRANSACTION
+                        + "<wfs:Insert>"
+                        + point("s0010", "10 10")
+                        + "</wfs:Insert>"
+                        + "<wfs:Update typeName='cgf:Points'>"
+                        + "<wfs:Property>"
+                        + "<wfs:ValueReference>cgf:id</wfs:ValueReference>"
+                        + "<wfs:Value>s0011</wfs:Value>"
+                        + "</wfs:Property>"
+                        + "<fes:Filter>"
+                        + "<fes:PropertyIsEqualTo>"
+                        + "<fes:ValueReference>cgf:id</fes:ValueReference>"
+                        + "<fes:Literal>s0010</fes:Literal>"
+                        + "</fes:PropertyIsEqualTo>"
+                        + "</fes:Filter>"
+                        + "</wfs:Update>"
+                        + "<wfs:Insert>"
+                        + point("s0012", "20 20")
+                        + "</wfs:Insert>"
+                        + "</wfs:Transaction>";
+        Document dom = postAsDOM("wfs", xml);
+        assertXpathEvaluatesTo("2", "//wfs:totalInserted", dom);
+        assertXpathEvaluatesTo("1", "//wfs:totalUpdated", dom);
+
+        // the update saw the feature inserted before it
+        dom = getAsDOM(GET_POINTS + "&CQL_FILTER=id LIKE 's001%25'");
+        assertXpathEvaluatesTo("2", "count(//cgf:Points)", dom);
+        assertXpathEvaluatesTo("1", "count(//cgf:Points[cgf:id='s0011'])", dom);
+        assertXpathEvaluatesTo("1", "count(//cgf:Points[cgf:id='s0012'])", dom);
+    }
+
+    @Test
+    public void testInsertUnknownType() throws Exception {
+        int points = countPoints();
+        String xml =
+                TRANSACTION
+                        + "<wfs:Insert>"
+                        + point("s0020", "10 10")
+                        + "</wfs:Insert>"
+                        + "<wfs:Insert>"
+                        + "<cgf:NotThere><cgf:id>s0021</cgf:id></cgf:NotThere>"
+                        + "</wfs:Insert>"
+                        + "</wfs:Transaction>";
+        Document dom = postAsDOM("wfs", xml);
+        String message = checkOws11Exception(dom, "2.0.0", WFSException.INVALID_VALUE, null);
+        assertTrue(message.contains("Could not parse input features"));
+        assertEquals(points, countPoints());
+    }
+
+    @Test
+    public void testInsertWFS11() throws Exception {
+        int points = countPoints();
+        String xml =
+                "<wfs:Transaction service='WFS' version='1.1.0' "
+                        + "xmlns:cgf='http://www.opengis.net/cite/geometry' "
+                        + "xmlns:wfs='http://www.opengis.net/wfs' "
+                        + "xmlns:gml='http://www.opengis.net/gml'>"
+                        + "<wfs:Insert srsName='EPSG:32615'>"
+                        + "<cgf:Points><cgf:pointProperty><gml:Point><gml:pos>1 1</gml:pos>"
+                        + "</gml:Point></cgf:pointProperty><cgf:id>s0030</cgf:id></cgf:Points>"
+                        + "<cgf:Points><cgf:pointProperty><gml:Point><gml:pos>2 2</gml:pos>"
+                        + "</gml:Point></cgf:pointProperty><cgf:id>s0031</cgf:id></cgf:Points>"
+                        + "<cgf:Points><cgf:pointProperty><gml:Point><gml:pos>3 3</gml:pos>"
+                        + "</gml:Point></cgf:pointProperty><cgf:id>s0032</cgf:id></cgf:Points>"
+                        + "</wfs:Insert>"
+                        + "</wfs:Transaction>";
+        Document dom = postAsDOM("wfs", xml);
+        // the response is in the WFS 1.1 namespace
+        assertXpathEvaluatesTo("3", "//*[local-name() = 'totalInserted']", dom);
+        assertXpathEvaluatesTo("3", "count(//*[local-name() = 'FeatureId'])", dom);
+        assertEquals(points + 3, countPoints());
+    }
+
+    @Test
+    public void testInsertFeatureCollection() throws Exception {
+        int points = countPoints();
+        String xml =
+                TRANSACTION
+                        + "<wfs:Insert><wfs:FeatureCollection>"
+                        + "<wfs:member>"
+                        + point("s0040", "10 10")
+                        + "</wfs:member>"
+                        + "<wfs:member>"
+                        + point("s0041", "20 20")
+                        + "</wfs:member>"
+                        + "<wfs:member>"
+                        + point("s0042", "30 30")
+                        + "</wfs:member>"
+                        + "</wfs:FeatureCollection></wfs:Insert>"
+                        + "</wfs:Transaction>";
+        Document dom = postAsDOM("wfs", xml);
+        // the three features are split in two chunks, each wrapped in its own collection
+        assertXpathEvaluatesTo("3", "//wfs:totalInserted", dom);
+        assertEquals(points + 3, countPoints());
+        assertEquals(4, listener.events.size());
+    }
+
+    @Test
+    public void testCompatibleCallbacks() throws Exception {
+        assertTrue(StreamingInserts.isCompatible(Collections.emptyList()));
+        TransactionCallback compatible = new CompatibleCallback();
+        assertTrue(StreamingInserts.isCompatible(Arrays.asList(compatible)));
+        // a callback that might look at the features in beforeTransaction
+        TransactionCallback other = new TransactionCallbackTester(getCatalog());
+        assertFalse(StreamingInserts.isCompatible(Arrays.asList(compatible, other)));
+    }
+
+    static class CompatibleCallback extends TransactionCallbackTester
+            implements StreamingInserts.Compatible {
+        CompatibleCallback() {
+            super(null);
+        }
+    }
+
+    private int spoolFiles() {
+        File[] files =
+                new File(System.getProperty("java.io.tmpdir"))
+                        .listFiles((dir, name) -> name.startsWith("wfs-insert"));
+        return files == null ? 0 : files.length;
+    }
+
+    private int countPoints() throws Exception {
+        Document dom = getAsDOM(GET_POINTS + "&resultType=hits");
+        return Integer.parseInt(dom.getDocumentElement().getAttribute("numberMatched"));
+    }
+
+    private String point(String id, String pos) {
+        return "<cgf:Points>"
+                + "<cgf:pointProperty><gml:Point><gml:pos>"
+                + pos
+                + "</gml:pos></gml:Point></cgf:pointProperty>"
+                + "<cgf:id>"
+                + id
+                + "</cgf:id>"
+                + "</cgf:Points>";
+    }
+}
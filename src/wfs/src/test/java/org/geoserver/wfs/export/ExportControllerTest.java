@@ -0,0 +1,145 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.export;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.geoserver.wfs.WFSTestSupport;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.HandlerMapping;
+import org.w3c.dom.Document;
+
+public class ExportControllerTest extends WFSTestSupport {
+
+    static final String ASYNC_GET_FEATURE =
+            "wfs?service=WFS&version=1.1.0&request=GetFeature&typeName=cdf:Fifteen&async=true";
+
+    @Override
+    protected void setUpSpring(List<String> springContextLocations) {
+        // the export pool is sized when the manager is built
+        System.setProperty(ExportManager.THREADS_KEY, "1");
+        super.setUpSpring(springContextLocations);
+    }
+
+    @AfterClass
+    public static void clearThreads() {
+        System.clearProperty(ExportManager.THREADS_KEY);
+    }
+
+    @Test
+    public void testAsyncExport() throws Exception {
+        Document dom = getAsDOM(ASYNC_GET_FEATURE);
+        assertXpathEvaluatesTo("1", "count(/ExportJob)", dom);
+        String id = dom.getDocumentElement().getAttribute("id");
+        ExportJob job = waitForCompletion(id);
+        assertEquals(ExportJob.Status.COMPLETED, job.getStatus());
+
+        dom = getAsDOM(ExportManager.PATH + "/" + id);
+        assertXpathEvaluatesTo("COMPLETED", "/ExportJob/@status", dom);
+        assertXpathEvaluatesTo(
+                String.valueOf(job.getFile().length()), "/ExportJob/Download/@size", dom);
+
+        // full download, same as the synchronous request
+        byte[] expected = FileUtils.readFileToByteArray(job.getFile());
+        MockHttpServletResponse response =
+                getAsServletResponse(ExportManager.PATH + "/" + id + "/download");
+        assertEquals(200, response.getStatus());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertArrayEquals(expected, response.getContentAsByteArray());
+        Document features = dom(new ByteArrayInputStream(response.getContentAsByteArray()));
+        assertXpathEvaluatesTo("15", "count(//cdf:Fifteen)", features);
+
+        // resume from the middle
+        int offset = expected.length / 2;
+        response = getRange(id, "bytes=" + offset + "-");
+        assertEquals(206, response.getStatus());
+        assertEquals(
+                "bytes " + offset + "-" + (expected.length - 1) + "/" + expected.length,
+                response.getHeader("Content-Range"));
+        assertArrayEquals(
+                Arrays.copyOfRange(expected, offset, expected.length),
+                response.getContentAsByteArray());
+
+        // suffix range
+        response = getRange(id, "bytes=-10");
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(
+                Arrays.copyOfRange(expected, expected.length - 10, expected.length),
+                response.getContentAsByteArray());
+
+        // out of range
+        response = getRange(id, "bytes=" + expected.length + "-");
+        assertEquals(416, response.getStatus());
+
+        // positions overflowing a long, past the end or capped to it
+        response = getRange(id, "bytes=99999999999999999999-");
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */" + expected.length, response.getHeader("Content-Range"));
+        response = getRange(id, "bytes=" + offset + "-99999999999999999999");
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(
+                Arrays.copyOfRange(expected, offset, expected.length),
+                response.getContentAsByteArray());
+        response = getRange(id, "bytes=-99999999999999999999");
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(expected, response.getContentAsByteArray());
+
+        // removal
+        MockHttpServletRequest request = createRequest(ExportManager.PATH + "/" + id);
+        request.setMethod("DELETE");
+        assertEquals(204, dispatch(request).getStatus());
+        assertFalse(job.getFile().exists());
+        assertEquals(404, getAsServletResponse(ExportManager.PATH + "/" + id).getStatus());
+    }
+
+    @Test
+    public void testUnknownJob() throws Exception {
+        assertEquals(404, getAsServletResponse(ExportManager.PATH + "/abcd").getStatus());
+        assertEquals(
+                404, getAsServletResponse(ExportManager.PATH + "/abcd/download").getStatus());
+    }
+
+    @Test
+    public void testHandlerMapping() throws Exception {
+        // the status and download links must both reach the controller
+        HandlerMapping mapping = (HandlerMapping) applicationContext.getBean("wfsURLMapping");
+        Object controller = applicationContext.getBean("wfsExportController");
+        String job = ExportManager.PATH + "/abcd";
+        for (String path : new String[] {job, job + "/download"}) {
+            HandlerExecutionChain chain = mapping.getHandler(createRequest(path));
+            assertNotNull(path, chain);
+            assertSame(path, controller, chain.getHandler());
+        }
+    }
+
+    private MockHttpServletResponse getRange(String id, String range) throws Exception {
+        MockHttpServletRequest request =
+                createRequest(ExportManager.PATH + "/" + id + "/download");
+        request.setMethod("GET");
+        request.addHeader("Range", range);
+        return dispatch(request);
+    }
+
+    private ExportJob waitForCompletion(String id) throws InterruptedException {
+        ExportManager manager = applicationContext.getBean(ExportManager.class);
+        ExportJob job = manager.getJob(id);
+        for (int i = 0; i < 200 && !job.getStatus().isFinal(); i++) {
+            Thread.sleep(50);
+        }
+        return job;
+    }
+}
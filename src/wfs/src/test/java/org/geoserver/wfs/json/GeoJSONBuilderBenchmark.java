@@ -0,0 +1,98 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.sf.json.util.JSONBuilder;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the {@link GeoJSONBuilder} geometry encoding with the json-lib based one it replaced,
+ * which rounded each ordinate with {@link RoundingUtil} and wrote it through {@link
+ * JSONBuilder#value(double)}. Not run as part of the build, launch the main method from the IDE,
+ * or with the test classpath, to get the figures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeoJSONBuilderBenchmark {
+
+    @Param({"100", "10000"})
+    int vertices;
+
+    @Param({"4", "8"})
+    int decimals;
+
+    Polygon polygon;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        Coordinate[] coordinates = new Coordinate[vertices + 1];
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double radius = 1 + random.nextDouble() / 10;
+            coordinates[i] =
+                    new Coordinate(12 + radius * Math.cos(angle), 45 + radius * Math.sin(angle));
+        }
+        coordinates[vertices] = coordinates[0];
+        polygon = new GeometryFactory().createPolygon(coordinates);
+    }
+
+    @Benchmark
+    public String geoJSONBuilder() {
+        StringWriter writer = new StringWriter();
+        GeoJSONBuilder builder = new GeoJSONBuilder(writer);
+        builder.setNumberOfDecimals(decimals);
+        builder.writeGeom(polygon);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String jsonLib() {
+        StringWriter writer = new StringWriter();
+        JSONBuilder builder = new JSONBuilder(writer);
+        builder.object().key("type").value("Polygon").key("coordinates").array().array();
+        CoordinateSequence cs = polygon.getExteriorRing().getCoordinateSequence();
+        for (int i = 0; i < cs.size(); i++) {
+            builder.array()
+                    .value(RoundingUtil.round(cs.getX(i), decimals))
+                    .value(RoundingUtil.round(cs.getY(i), decimals))
+                    .endArray();
+        }
+        builder.endArray().endArray().endObject();
+        return writer.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                        new OptionsBuilder()
+                                .include(GeoJSONBuilderBenchmark.class.getSimpleName())
+                                .build())
+                .run();
+    }
+}
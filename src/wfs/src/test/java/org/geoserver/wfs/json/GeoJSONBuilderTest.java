@@ -10,7 +10,9 @@ import static org.junit.Assert.assertEquals;
 import java.io.StringWriter;
 import java.util.*;
 import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.locationtech.jts.geom.Coordinate;
@@ -247,6 +249,64 @@ public class GeoJSONBuilderTest {
                 writer.toString());
     }
 
+    @Test
+    public void testNumberOfDecimalsScientificNotation() throws Exception {
+        builder.setNumberOfDecimals(6);
+        Geometry g = new WKTReader().read("POINT(123456789.123456 -0.00012345 12.3456789)");
+        builder.writeGeom(g);
+        // values outside of the plain notation range are formatted like Double.toString does
+        assertEquals(
+                "{\"type\":\"Point\",\"coordinates\":[1.23456789123456E8,-1.23E-4,12.345679]}",
+                writer.toString());
+    }
+
+    @Test
+    public void testFormatRoundedMatchesRoundingUtil() throws Exception {
+        Random random = new Random(0);
+        char[] buffer = new char[32];
+        for (int i = 0; i < 10000; i++) {
+            double value = (random.nextDouble() - 0.5) * 360;
+            for (int decimals = 0; decimals < 9; decimals++) {
+                int length = GeoJSONBuilder.formatRounded(value, decimals, buffer);
+                if (length > 0) {
+                    String expected = JSONUtils.numberToString(RoundingUtil.round(value, decimals));
+                    assertEquals(expected, new String(buffer, 0, length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFlushedOnlyWhenComplete() throws Exception {
+        builder.object().key("a").value(1).key("b").array().value(1.5).value("c");
+        assertEquals("", writer.toString());
+        builder.endArray().endObject();
+        assertEquals("{\"a\":1,\"b\":[1.5,\"c\"]}", writer.toString());
+    }
+
+    @Test(expected = JSONException.class)
+    public void testNonFiniteNumber() throws Exception {
+        builder.array().value(Double.NaN);
+    }
+
+    @Test
+    public void testEscapeLikeJsonLib() throws Exception {
+        builder.object()
+                .key("script")
+                .value("</script>")
+                .key("separators")
+                .value("a\u2028b\u2029c")
+                .key("slash")
+                .value("a/b")
+                .endObject();
+        assertEquals(
+                "{\"script\":\"<\\/script>\",\"separators\":\"a\\u2028b\\u2029c\","
+                        + "\"slash\":\"a/b\"}",
+                writer.toString());
+        // same as json-lib
+        assertEquals("\"<\\/script>\"", JSONUtils.quote("</script>"));
+    }
+
     @Test
     public void testWriteStrList() throws Exception {
         final List<String> list = Arrays.asList("a", "b", "c", "d");
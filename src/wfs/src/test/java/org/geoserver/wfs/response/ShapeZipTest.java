@@ -210,6 +210,44 @@ public class ShapeZipTest extends WFSTestSupport {
         checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
     }
 
+    @Test
+    public void testParallelMultiType() throws Exception {
+        System.setProperty(ShapeZipOutputFormat.SHAPE_ZIP_THREADS, "2");
+        try {
+            byte[] zip =
+                    writeOut(
+                            getFeatureSource(ALL_TYPES).getFeatures(),
+                            getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures(),
+                            getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures());
+
+            // the same type requested twice gets numbered
+            final String[] expectedTypes =
+                    new String[] {
+                        "AllTypesPoint",
+                        "AllTypesMPoint",
+                        "AllTypesPolygon",
+                        "AllTypesLine",
+                        "BasicPolygons",
+                        "BasicPolygons1"
+                    };
+            checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(zip));
+
+            // zipped in the order of the collections, regardless of which dump ends first
+            List<String> entries = new ArrayList<>();
+            try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip))) {
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null) {
+                    entries.add(entry.getName());
+                }
+            }
+            assertTrue(entries.indexOf("AllTypesLine.shp") < entries.indexOf("BasicPolygons.shp"));
+            assertTrue(
+                    entries.indexOf("BasicPolygons.shp") < entries.indexOf("BasicPolygons1.shp"));
+        } finally {
+            System.clearProperty(ShapeZipOutputFormat.SHAPE_ZIP_THREADS);
+        }
+    }
+
     @Test
     public void testSplitSize() throws Exception {
         ShapeZipOutputFormat of =
@@ -578,6 +616,21 @@ public class ShapeZipTest extends WFSTestSupport {
         return bos.toByteArray();
     }
 
+    /** Saves the collections into a zipped shapefile, returns the output as a byte array */
+    byte[] writeOut(FeatureCollection... collections) throws IOException {
+        ShapeZipOutputFormat zip =
+                new ShapeZipOutputFormat(
+                        GeoServerExtensions.bean(GeoServer.class),
+                        (Catalog) GeoServerExtensions.bean("catalog"),
+                        (GeoServerResourceLoader) GeoServerExtensions.bean("resourceLoader"));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FeatureCollectionResponse fct =
+                FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        fct.getFeature().addAll(Arrays.asList(collections));
+        zip.write(fct, bos, op);
+        return bos.toByteArray();
+    }
+
     /**
      * Saves the feature source contents into a zipped shapefile, returns the output as a byte array
      */
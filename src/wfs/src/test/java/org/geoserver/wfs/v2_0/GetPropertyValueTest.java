@@ -9,6 +9,9 @@ import static org.junit.Assert.assertEquals;
 
 import org.custommonkey.xmlunit.XMLAssert;
 import org.geoserver.data.test.MockData;
+import org.geoserver.wfs.DistinctValuesCache;
+import org.geoserver.wfs.GetPropertyValue;
+import org.geoserver.wfs.WFSInfo;
 import org.junit.Test;
 import org.w3c.dom.Document;
 
@@ -87,4 +90,95 @@ public class GetPropertyValueTest extends WFS20TestSupport {
         XMLAssert.assertXpathEvaluatesTo("5", "count(//wfs:member)", dom);
         XMLAssert.assertXpathEvaluatesTo("5", "count(//wfs:member/gml:identifier)", dom);
     }
+
+    @Test
+    public void testDistinct() throws Exception {
+        Document dom =
+                getAsDOM(
+                        "wfs?service=WFS&version=2.0.0&request=GetPropertyValue"
+                                + "&typeNames=sf:PrimitiveGeoFeature&valueReference=booleanProperty"
+                                + "&distinct=true");
+
+        assertEquals("wfs:ValueCollection", dom.getDocumentElement().getNodeName());
+        // true, false and null, sorted
+        XMLAssert.assertXpathEvaluatesTo("3", "/wfs:ValueCollection/@numberMatched", dom);
+        XMLAssert.assertXpathEvaluatesTo("3", "/wfs:ValueCollection/@numberReturned", dom);
+        XMLAssert.assertXpathEvaluatesTo("false", "//wfs:member[1]/sf:booleanProperty", dom);
+        XMLAssert.assertXpathEvaluatesTo("true", "//wfs:member[2]/sf:booleanProperty", dom);
+    }
+
+    @Test
+    public void testDistinctCount() throws Exception {
+        Document dom =
+                getAsDOM(
+                        "wfs?service=WFS&version=2.0.0&request=GetPropertyValue"
+                                + "&typeNames=sf:PrimitiveGeoFeature&valueReference=booleanProperty"
+                                + "&distinct=true&count=1");
+
+        XMLAssert.assertXpathEvaluatesTo("3", "/wfs:ValueCollection/@numberMatched", dom);
+        XMLAssert.assertXpathEvaluatesTo("1", "/wfs:ValueCollection/@numberReturned", dom);
+        XMLAssert.assertXpathEvaluatesTo("false", "//wfs:member[1]/sf:booleanProperty", dom);
+    }
+
+    @Test
+    public void testDistinctIgnoresMaxFeatures() throws Exception {
+        WFSInfo wfs = getGeoServer().getService(WFSInfo.class);
+        int maxFeatures = wfs.getMaxFeatures();
+        wfs.setMaxFeatures(1);
+        getGeoServer().save(wfs);
+        try {
+            Document dom =
+                    getAsDOM(
+                            "wfs?service=WFS&version=2.0.0&request=GetPropertyValue"
+                                    + "&typeNames=sf:PrimitiveGeoFeature"
+                                    + "&valueReference=booleanProperty&distinct=true");
+            // the limit applies to the features, not to the distinct values
+            XMLAssert.assertXpathEvaluatesTo("3", "/wfs:ValueCollection/@numberMatched", dom);
+        } finally {
+            wfs = getGeoServer().getService(WFSInfo.class);
+            wfs.setMaxFeatures(maxFeatures);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testDistinctCache() throws Exception {
+        DistinctValuesCache cache = applicationContext.getBean(DistinctValuesCache.class);
+        cache.setEnabled(true);
+        try {
+            String request =
+                    "wfs?service=WFS&version=2.0.0&request=GetPropertyValue"
+                            + "&typeNames=sf:PrimitiveGeoFeature&valueReference=booleanProperty"
+                            + "&distinct=true";
+            getAsDOM(request);
+            assertEquals(1, cache.size());
+            long hits = cache.getHitCount();
+
+            Document dom = getAsDOM(request);
+            XMLAssert.assertXpathEvaluatesTo("3", "/wfs:ValueCollection/@numberReturned", dom);
+            assertEquals(hits + 1, cache.getHitCount());
+        } finally {
+            cache.setEnabled(false);
+        }
+    }
+
+    @Test
+    public void testDistinctMaxValues() throws Exception {
+        DistinctValuesCache cache = applicationContext.getBean(DistinctValuesCache.class);
+        cache.setEnabled(true);
+        System.setProperty(GetPropertyValue.DISTINCT_MAX_VALUES_KEY, "2");
+        try {
+            Document dom =
+                    getAsDOM(
+                            "wfs?service=WFS&version=2.0.0&request=GetPropertyValue"
+                                    + "&typeNames=sf:PrimitiveGeoFeature"
+                                    + "&valueReference=booleanProperty&distinct=true");
+            // too many distinct values, returned feature by feature and not cached
+            XMLAssert.assertXpathEvaluatesTo("5", "/wfs:ValueCollection/@numberMatched", dom);
+            assertEquals(0, cache.size());
+        } finally {
+            System.clearProperty(GetPropertyValue.DISTINCT_MAX_VALUES_KEY);
+            cache.setEnabled(false);
+        }
+    }
 }
@@ -0,0 +1,172 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Ticker;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.security.CatalogMode;
+import org.geoserver.security.TestResourceAccessManager;
+import org.geoserver.security.VectorAccessLimits;
+import org.geoserver.wfs.WFSTestSupport;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.expression.PropertyName;
+import org.w3c.dom.Document;
+
+public class FeatureTypeSchemaCacheTest extends WFSTestSupport {
+
+    static final String DESCRIBE_BUILDINGS =
+            "wfs?service=WFS&request=DescribeFeatureType&typeName=cite:Buildings&version=";
+
+    FeatureTypeSchemaCache cache;
+
+    /** Adds the test resource access manager, to change the data security rules on the fly */
+    @Override
+    protected void setUpSpring(List<String> springContextLocations) {
+        super.setUpSpring(springContextLocations);
+        springContextLocations.add("classpath:/org/geoserver/wfs/ResourceAccessManagerContext.xml");
+    }
+
+    @Before
+    public void setupCache() throws Exception {
+        cache = applicationContext.getBean(FeatureTypeSchemaCache.class);
+        cache.setEnabled(true);
+    }
+
+    @After
+    public void resetCache() throws Exception {
+        cache.setEnabled(false);
+        revertLayer(MockData.BUILDINGS);
+        GeoServerInfo global = getGeoServer().getGlobal();
+        global.getSettings().setProxyBaseUrl(null);
+        getGeoServer().save(global);
+    }
+
+    @Test
+    public void testRepeatedDescribeUsesCache() throws Exception {
+        String first = getAsString(DESCRIBE_BUILDINGS + "1.1.0");
+        assertEquals(1, cache.size());
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+
+        String second = getAsString(DESCRIBE_BUILDINGS + "1.1.0");
+        assertEquals(first, second);
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(misses, cache.getMissCount());
+
+        // a different GML version is a different schema
+        Document dom = getAsDOM(DESCRIBE_BUILDINGS + "1.0.0");
+        assertXpathEvaluatesTo("1", "count(//xsd:complexType[@name='BuildingsType'])", dom);
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testFeatureTypeChangeInvalidates() throws Exception {
+        getAsDOM(DESCRIBE_BUILDINGS + "1.1.0");
+        assertEquals(1, cache.size());
+
+        FeatureTypeInfo fti = getCatalog().getFeatureTypeByName(getLayerId(MockData.BUILDINGS));
+        fti.setTitle("Buildings");
+        getCatalog().save(fti);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testProxyBaseChangeInvalidates() throws Exception {
+        getAsDOM(DESCRIBE_BUILDINGS + "1.1.0");
+        assertEquals(1, cache.size());
+
+        GeoServerInfo global = getGeoServer().getGlobal();
+        global.getSettings().setProxyBaseUrl("http://proxy.example.com/geoserver");
+        getGeoServer().save(global);
+        assertEquals(0, cache.size());
+
+        Document dom = getAsDOM(DESCRIBE_BUILDINGS + "1.1.0");
+        assertXpathEvaluatesTo(
+                "true",
+                "starts-with(//xsd:import/@schemaLocation, 'http://proxy.example.com/geoserver/')",
+                dom);
+    }
+
+    @Test
+    public void testSecurityChangeExpires() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        FeatureTypeSchemaCache cache = new FeatureTypeSchemaCache(getGeoServer(), ticker);
+        cache.setEnabled(true);
+        FeatureTypeSchemaBuilder builder = new FeatureTypeSchemaBuilder.GML3(getGeoServer());
+        login("schema_reader", "schema_reader", "ROLE_DUMMY");
+        try {
+            String schema = describeBuildings(cache, builder);
+            assertTrue(schema.contains("ADDRESS"));
+
+            // hiding an attribute fires no catalog event, the cached schema is still served
+            FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+            List<PropertyName> readAtts =
+                    Arrays.asList(ff.property("the_geom"), ff.property("FID"));
+            TestResourceAccessManager tam =
+                    (TestResourceAccessManager)
+                            applicationContext.getBean("testResourceAccessManager");
+            tam.putLimits(
+                    "schema_reader",
+                    getCatalog().getFeatureTypeByName(getLayerId(MockData.BUILDINGS)),
+                    new VectorAccessLimits(
+                            CatalogMode.HIDE, readAtts, Filter.INCLUDE, null, Filter.INCLUDE));
+            assertEquals(schema, describeBuildings(cache, builder));
+
+            // until it expires
+            ticker.advance(FeatureTypeSchemaCache.DEFAULT_TTL + 1, TimeUnit.SECONDS);
+            assertEquals(0, cache.size());
+            schema = describeBuildings(cache, builder);
+            assertFalse(schema.contains("ADDRESS"));
+            assertTrue(schema.contains("FID"));
+        } finally {
+            logout();
+        }
+    }
+
+    private String describeBuildings(FeatureTypeSchemaCache cache, FeatureTypeSchemaBuilder builder)
+            throws Exception {
+        FeatureTypeInfo buildings =
+                getCatalog().getFeatureTypeByName(getLayerId(MockData.BUILDINGS));
+        byte[] schema =
+                cache.getSchema(
+                        builder,
+                        new FeatureTypeInfo[] {buildings},
+                        "http://localhost:8080/geoserver",
+                        "UTF-8");
+        return new String(schema, StandardCharsets.UTF_8);
+    }
+
+    /** A ticker moved forward by hand */
+    static class FakeTicker extends Ticker {
+
+        final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        void advance(long duration, TimeUnit unit) {
+            nanos.addAndGet(unit.toNanos(duration));
+        }
+    }
+}
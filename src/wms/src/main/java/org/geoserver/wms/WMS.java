@@ -378,6 +378,12 @@ public class WMS implements ApplicationContextAware {
         return jaiInfo.getPngEncoderType();
     }
 
+    /** Returns the number of threads used to compress a single PNG image */
+    public int getPNGEncoderThreads() {
+        JAIInfo jaiInfo = getJaiInfo();
+        return jaiInfo.getPngEncoderThreads();
+    }
+
     public Boolean getJPEGNativeAcceleration() {
         JAIInfo jaiInfo = getJaiInfo();
         return Boolean.valueOf(jaiInfo.isJpegAcceleration());
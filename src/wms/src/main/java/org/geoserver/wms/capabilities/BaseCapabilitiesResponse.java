@@ -5,9 +5,12 @@
  */
 package org.geoserver.wms.capabilities;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetCapabilitiesRequest;
 
 /**
  * Base class that handles common behavior between 1.1.1 and 1.3.0
@@ -18,12 +21,39 @@ public abstract class BaseCapabilitiesResponse extends Response {
 
     private String mime;
 
+    private CapabilitiesCache capabilitiesCache;
+
     /** @param binding */
     protected BaseCapabilitiesResponse(Class<?> binding, String mime) {
         super(binding);
         this.mime = mime;
     }
 
+    /** Sets the cache for the encoded capabilities documents, optional */
+    public void setCapabilitiesCache(CapabilitiesCache capabilitiesCache) {
+        this.capabilitiesCache = capabilitiesCache;
+    }
+
+    public CapabilitiesCache getCapabilitiesCache() {
+        return capabilitiesCache;
+    }
+
+    /**
+     * Writes the document via the capabilities cache, if available, or directly to the output
+     * otherwise
+     */
+    protected void writeDocument(
+            GetCapabilitiesRequest request,
+            OutputStream output,
+            CapabilitiesCache.DocumentWriter writer)
+            throws IOException, ServiceException {
+        if (capabilitiesCache != null) {
+            capabilitiesCache.write(request, output, writer);
+        } else {
+            writer.write(output);
+        }
+    }
+
     @Override
     public String getAttachmentFileName(Object value, Operation operation) {
         return "getcapabilities_" + operation.getService().getVersion().toString() + ".xml";
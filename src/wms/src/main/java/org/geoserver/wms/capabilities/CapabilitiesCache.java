@@ -0,0 +1,340 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.LocalPublished;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches encoded WMS capabilities documents, so that clients and load balancers polling the
+ * capabilities do not force the whole document to be rebuilt from the catalog at every request.
+ *
+ * <p>Documents are keyed by version, base URL (also as rewritten by the proxy settings), virtual
+ * service (workspace and layer), user and roles, the global update sequence and the request
+ * parameters (which include namespace filter, format, root layer and the vendor parameters
+ * extended capabilities providers might look at).
+ * The whole cache is cleared on any catalog or configuration change, and entries also expire after
+ * a configurable time, to account for changes that do not generate events (e.g., security rules,
+ * or dimension values read from the data).
+ *
+ * <p>The cache is disabled by default, and can be configured with the following system variables:
+ *
+ * <ul>
+ *   <li>{@value #ENABLED_KEY}: set to true to enable the cache
+ *   <li>{@value #MAX_MEMORY_KEY}: max memory used by the cached documents, in MB (defaults to
+ *       {@value #DEFAULT_MAX_MEMORY})
+ *   <li>{@value #TTL_KEY}: time to live of each document, in seconds (defaults to {@value
+ *       #DEFAULT_TTL})
+ * </ul>
+ */
+public class CapabilitiesCache extends ConfigurationListenerAdapter
+        implements CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCache.class);
+
+    public static final String ENABLED_KEY = "WMS_CAPABILITIES_CACHE";
+
+    public static final String MAX_MEMORY_KEY = "WMS_CAPABILITIES_CACHE_MAX_MEMORY";
+
+    public static final String TTL_KEY = "WMS_CAPABILITIES_CACHE_TTL";
+
+    static final long DEFAULT_MAX_MEMORY = 32;
+
+    static final long DEFAULT_TTL = 300;
+
+    /** Writes a capabilities document */
+    public interface DocumentWriter {
+        void write(OutputStream output) throws IOException, ServiceException;
+    }
+
+    private final GeoServer geoServer;
+
+    private volatile boolean enabled;
+
+    private final Cache<Key, byte[]> documents;
+
+    public CapabilitiesCache(GeoServer geoServer) {
+        this.geoServer = geoServer;
+        this.enabled = GeoServerExtensions.getBooleanProperty(ENABLED_KEY);
+        long maxMemory = GeoServerExtensions.getLongProperty(MAX_MEMORY_KEY, DEFAULT_MAX_MEMORY);
+        long ttl = GeoServerExtensions.getLongProperty(TTL_KEY, DEFAULT_TTL);
+        this.documents =
+                CacheBuilder.newBuilder()
+                        .maximumWeight(maxMemory * 1024 * 1024)
+                        .<Key, byte[]>weigher((k, v) -> v.length)
+                        .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                        .build();
+        geoServer.addListener(this);
+        geoServer.getCatalog().addListener(this);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Enables or disables the cache, disabling also clears it */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Writes the capabilities document for the request to the output, using the cached copy if
+     * available, and otherwise encoding it with the provided writer and caching the result
+     */
+    public void write(GetCapabilitiesRequest request, OutputStream output, DocumentWriter writer)
+            throws IOException, ServiceException {
+        if (!enabled) {
+            writer.write(output);
+            return;
+        }
+
+        Key key = new Key(request, geoServer.getGlobal().getUpdateSequence());
+        byte[] document;
+        try {
+            document =
+                    documents.get(
+                            key,
+                            () -> {
+                                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                                writer.write(bos);
+                                return bos.toByteArray();
+                            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new ServiceException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        output.write(document);
+    }
+
+    /** Drops all cached documents */
+    public void clear() {
+        documents.invalidateAll();
+    }
+
+    /** Returns the number of cached documents */
+    public long size() {
+        return documents.size();
+    }
+
+    // catalog events
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        clear();
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        clear();
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        clear();
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    // configuration events
+
+    @Override
+    public void handlePostGlobalChange(GeoServerInfo global) {
+        clear();
+    }
+
+    @Override
+    public void handleSettingsAdded(SettingsInfo settings) {
+        clear();
+    }
+
+    @Override
+    public void handleSettingsPostModified(SettingsInfo settings) {
+        clear();
+    }
+
+    @Override
+    public void handleSettingsRemoved(SettingsInfo settings) {
+        clear();
+    }
+
+    @Override
+    public void handlePostServiceChange(ServiceInfo service) {
+        clear();
+    }
+
+    @Override
+    public void handleServiceRemove(ServiceInfo service) {
+        clear();
+    }
+
+    // lifecycle events
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+
+    /** The cache key, captures everything the capabilities document depends on */
+    static final class Key {
+        final String version;
+        final String baseUrl;
+        final String mangledUrl;
+        final String workspace;
+        final String published;
+        final String user;
+        final List<String> roles;
+        final long updateSequence;
+        final Map<String, String> parameters;
+        final String namespace;
+        final Boolean rootLayer;
+
+        Key(GetCapabilitiesRequest request, long updateSequence) {
+            this.version = request.getVersion();
+            this.baseUrl = request.getBaseUrl();
+            // proxy base and headers based proxying change all the online resources
+            this.mangledUrl =
+                    baseUrl == null
+                            ? null
+                            : ResponseUtils.buildURL(baseUrl, "wms", null, URLType.SERVICE);
+            WorkspaceInfo ws = LocalWorkspace.get();
+            this.workspace = ws != null ? ws.getName() : null;
+            PublishedInfo p = LocalPublished.get();
+            this.published = p != null ? p.prefixedName() : null;
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            if (auth != null) {
+                this.user = auth.getName();
+                List<String> roles = new ArrayList<>();
+                for (GrantedAuthority authority : auth.getAuthorities()) {
+                    roles.add(authority.getAuthority());
+                }
+                Collections.sort(roles);
+                this.roles = roles;
+            } else {
+                this.user = null;
+                this.roles = Collections.emptyList();
+            }
+            this.updateSequence = updateSequence;
+            // the update sequence parameter is handled before the document is generated,
+            // does not affect its contents
+            Map<String, String> parameters = new TreeMap<>();
+            if (request.getRawKvp() != null) {
+                for (Map.Entry<String, String> entry : request.getRawKvp().entrySet()) {
+                    String name = entry.getKey().toUpperCase();
+                    if (!"UPDATESEQUENCE".equals(name)) {
+                        parameters.put(name, entry.getValue());
+                    }
+                }
+            }
+            this.parameters = parameters;
+            this.namespace = request.getNamespace();
+            this.rootLayer = request.isRootLayerEnabled();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return updateSequence == key.updateSequence
+                    && Objects.equals(version, key.version)
+                    && Objects.equals(baseUrl, key.baseUrl)
+                    && Objects.equals(mangledUrl, key.mangledUrl)
+                    && Objects.equals(workspace, key.workspace)
+                    && Objects.equals(published, key.published)
+                    && Objects.equals(user, key.user)
+                    && Objects.equals(roles, key.roles)
+                    && Objects.equals(parameters, key.parameters)
+                    && Objects.equals(namespace, key.namespace)
+                    && Objects.equals(rootLayer, key.rootLayer);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    version,
+                    baseUrl,
+                    mangledUrl,
+                    workspace,
+                    published,
+                    user,
+                    roles,
+                    updateSequence,
+                    parameters,
+                    namespace,
+                    rootLayer);
+        }
+    }
+}
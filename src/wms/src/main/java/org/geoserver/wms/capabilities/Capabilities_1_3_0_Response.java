@@ -37,12 +37,17 @@ public class Capabilities_1_3_0_Response extends BaseCapabilitiesResponse {
             throws IOException, ServiceException {
 
         Capabilities_1_3_0_Transformer transformer = (Capabilities_1_3_0_Transformer) value;
+        GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
 
-        try {
-            GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
-            transformer.transform(request, output);
-        } catch (TransformerException e) {
-            throw new ServiceException(e);
-        }
+        writeDocument(
+                request,
+                output,
+                out -> {
+                    try {
+                        transformer.transform(request, out);
+                    } catch (TransformerException e) {
+                        throw new ServiceException(e);
+                    }
+                });
     }
 }
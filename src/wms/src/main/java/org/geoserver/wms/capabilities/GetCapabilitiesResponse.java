@@ -96,6 +96,14 @@ public class GetCapabilitiesResponse extends BaseCapabilitiesResponse {
         final GetCapabilitiesRequest request =
                 (GetCapabilitiesRequest) operation.getParameters()[0];
 
+        writeDocument(request, output, out -> writeCapabilities(transformer, request, out));
+    }
+
+    private void writeCapabilities(
+            GetCapabilitiesTransformer transformer,
+            GetCapabilitiesRequest request,
+            OutputStream output)
+            throws IOException, ServiceException {
         final String internalDTDDeclaration = getInternalDTDDeclaration(request);
 
         if (internalDTDDeclaration == null) {
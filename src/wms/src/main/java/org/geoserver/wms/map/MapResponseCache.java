@@ -0,0 +1,678 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.xml.namespace.QName;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MetadataMap;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.LocalPublished;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WebMap;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches encoded GetMap responses, so that identical non tiled GetMap requests (e.g., dashboards
+ * refreshing the same map over and over) are answered without rendering and encoding the map
+ * again.
+ *
+ * <p>The cache works in two steps. As a {@link org.geoserver.wms.WebMapService#getMap}
+ * interceptor it looks up the normalized request, returning a {@link RawMap} on a hit. On a miss
+ * the request is rendered as usual, and as a dispatcher callback the cache captures the bytes
+ * written by the response, if the map is a {@link RenderedImageMap}, storing them for the next
+ * requests. Responses carry a {@value #CACHE_RESULT_HEADER} header, valued either {@code HIT} or
+ * {@code MISS}.
+ *
+ * <p>Requests are keyed on their KVP parameters, with the map definition ones (bbox, srs, size,
+ * format, transparency, background) taken from the parsed request, along with the virtual service
+ * and the user roles. Only KVP requests on local layers, not using remote SLDs, are cached.
+ *
+ * <p>Each entry lives for the smallest time to live of the layers in the map: layers with HTTP
+ * caching enabled use their max age, the others the default time to live. Entries are also evicted
+ * when a layer, resource or store they depend on is modified or removed, when a WFS transaction
+ * modifies one of their feature types, and the whole cache is cleared on style, layer group and
+ * configuration changes.
+ *
+ * <p>The cache is disabled by default, and can be configured with the following system variables:
+ *
+ * <ul>
+ *   <li>{@value #ENABLED_KEY}: set to true to enable the cache
+ *   <li>{@value #MAX_MEMORY_KEY}: max memory used by the cached responses, in MB (defaults to
+ *       {@value #DEFAULT_MAX_MEMORY}). Responses larger than 1/16 of it are not cached
+ *   <li>{@value #TTL_KEY}: default time to live of each response, in seconds (defaults to {@value
+ *       #DEFAULT_TTL})
+ * </ul>
+ */
+public class MapResponseCache extends AbstractDispatcherCallback
+        implements MethodInterceptor,
+                TransactionListener,
+                CatalogListener,
+                GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(MapResponseCache.class);
+
+    public static final String ENABLED_KEY = "WMS_MAP_CACHE";
+
+    public static final String MAX_MEMORY_KEY = "WMS_MAP_CACHE_MAX_MEMORY";
+
+    public static final String TTL_KEY = "WMS_MAP_CACHE_TTL";
+
+    public static final String CACHE_RESULT_HEADER = "geoserver-map-cache-result";
+
+    static final long DEFAULT_MAX_MEMORY = 64;
+
+    static final long DEFAULT_TTL = 60;
+
+    /** Parameters that are part of the key through their parsed value, or that do not matter */
+    static final Set<String> NORMALIZED_PARAMETERS =
+            new HashSet<>(
+                    Arrays.asList(
+                            "SERVICE",
+                            "REQUEST",
+                            "BBOX",
+                            "SRS",
+                            "CRS",
+                            "WIDTH",
+                            "HEIGHT",
+                            "FORMAT",
+                            "TRANSPARENT",
+                            "BGCOLOR",
+                            "VERSION"));
+
+    /** The request being rendered after a miss, waiting for its response to be captured */
+    static final ThreadLocal<Pending> PENDING = new ThreadLocal<>();
+
+    private final Catalog catalog;
+
+    private volatile boolean enabled;
+
+    private final long maxEntrySize;
+
+    private final long defaultTTL;
+
+    private final Cache<Key, Entry> responses;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public MapResponseCache(GeoServer geoServer) {
+        this.catalog = geoServer.getCatalog();
+        this.enabled = GeoServerExtensions.getBooleanProperty(ENABLED_KEY);
+        long maxMemory =
+                GeoServerExtensions.getLongProperty(MAX_MEMORY_KEY, DEFAULT_MAX_MEMORY)
+                        * 1024
+                        * 1024;
+        this.maxEntrySize = maxMemory / 16;
+        this.defaultTTL = GeoServerExtensions.getLongProperty(TTL_KEY, DEFAULT_TTL);
+        this.responses =
+                CacheBuilder.newBuilder()
+                        .maximumWeight(maxMemory)
+                        .<Key, Entry>weigher((k, v) -> v.contents.length)
+                        .build();
+        geoServer.addListener(
+                new ConfigurationListenerAdapter() {
+                    @Override
+                    public void handlePostGlobalChange(GeoServerInfo global) {
+                        clear();
+                    }
+
+                    @Override
+                    public void handleSettingsPostModified(SettingsInfo settings) {
+                        clear();
+                    }
+
+                    @Override
+                    public void handleSettingsRemoved(SettingsInfo settings) {
+                        clear();
+                    }
+
+                    @Override
+                    public void handlePostServiceChange(ServiceInfo service) {
+                        clear();
+                    }
+
+                    @Override
+                    public void handleServiceRemove(ServiceInfo service) {
+                        clear();
+                    }
+                });
+        catalog.addListener(this);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Enables or disables the cache, disabling also clears it */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /** Drops all cached responses */
+    public void clear() {
+        responses.invalidateAll();
+    }
+
+    /** Returns the number of cached responses */
+    public long size() {
+        return responses.size();
+    }
+
+    /** Returns the number of requests answered from the cache */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** Returns the number of cacheable requests that had to be rendered */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Drops the cached responses depending on the given catalog object (layer, resource, store) */
+    public void invalidate(CatalogInfo info) {
+        String id = info.getId();
+        if (id != null) {
+            responses.asMap().entrySet().removeIf(e -> e.getValue().dependencies.contains(id));
+        }
+    }
+
+    // getMap interception
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object[] arguments = invocation.getArguments();
+        if (!enabled || arguments.length != 1 || !(arguments[0] instanceof GetMapRequest)) {
+            return invocation.proceed();
+        }
+        GetMapRequest request = (GetMapRequest) arguments[0];
+        Set<String> dependencies = getDependencies(request);
+        long ttl = dependencies == null ? 0 : getTimeToLive(request);
+        if (ttl <= 0) {
+            return invocation.proceed();
+        }
+
+        Key key = new Key(request);
+        Entry entry = responses.getIfPresent(key);
+        long now = System.currentTimeMillis();
+        if (entry != null) {
+            if (entry.expires > now) {
+                hits.incrementAndGet();
+                return entry.toMap();
+            }
+            responses.asMap().remove(key, entry);
+        }
+
+        misses.incrementAndGet();
+        Object result = invocation.proceed();
+        if (result instanceof RenderedImageMap) {
+            ((WebMap) result).setResponseHeader(CACHE_RESULT_HEADER, "MISS");
+            PENDING.set(new Pending(key, now + ttl * 1000, dependencies));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of the catalog objects the map depends on, or null if the request cannot be
+     * cached
+     */
+    Set<String> getDependencies(GetMapRequest request) {
+        if (request.getRawKvp() == null
+                || request.getRawKvp().isEmpty()
+                || request.getStyleUrl() != null
+                || request.getRemoteOwsURL() != null
+                || request.getLayers() == null
+                || request.getLayers().isEmpty()) {
+            return null;
+        }
+        Set<String> dependencies = new HashSet<>();
+        for (MapLayerInfo layer : request.getLayers()) {
+            ResourceInfo resource = layer.getResource();
+            if (resource == null) {
+                return null;
+            }
+            LayerInfo layerInfo = layer.getLayerInfo();
+            if (layerInfo != null) {
+                dependencies.add(layerInfo.getId());
+            }
+            dependencies.add(resource.getId());
+            if (resource.getStore() != null) {
+                dependencies.add(resource.getStore().getId());
+            }
+        }
+        return dependencies;
+    }
+
+    /** The time to live of the map, in seconds, the smallest among the layers one */
+    long getTimeToLive(GetMapRequest request) {
+        long ttl = Long.MAX_VALUE;
+        for (MapLayerInfo layer : request.getLayers()) {
+            MetadataMap metadata = layer.getResource().getMetadata();
+            Boolean caching = metadata.get(ResourceInfo.CACHING_ENABLED, Boolean.class);
+            Long maxAge = metadata.get(ResourceInfo.CACHE_AGE_MAX, Long.class);
+            if (Boolean.TRUE.equals(caching) && maxAge != null) {
+                ttl = Math.min(ttl, maxAge);
+            } else {
+                ttl = Math.min(ttl, defaultTTL);
+            }
+        }
+        return ttl;
+    }
+
+    // response capture
+
+    @Override
+    public Response responseDispatched(
+            Request request, Operation operation, Object result, Response response) {
+        Pending pending = PENDING.get();
+        if (pending == null) {
+            return response;
+        }
+        PENDING.remove();
+        if (!(result instanceof RenderedImageMap)) {
+            return response;
+        }
+        return new CapturingResponse(response, pending);
+    }
+
+    @Override
+    public void finished(Request request) {
+        PENDING.remove();
+    }
+
+    void store(Pending pending, byte[] contents, String mimeType, WebMap map) {
+        if (enabled) {
+            responses.put(pending.key, new Entry(contents, mimeType, map, pending));
+        }
+    }
+
+    /** Delegates to the actual response, keeping a copy of the bytes written */
+    class CapturingResponse extends Response {
+
+        final Response delegate;
+
+        final Pending pending;
+
+        CapturingResponse(Response delegate, Pending pending) {
+            super(delegate.getBinding(), delegate.getOutputFormats());
+            this.delegate = delegate;
+            this.pending = pending;
+        }
+
+        @Override
+        public boolean canHandle(Operation operation) {
+            return delegate.canHandle(operation);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return delegate.getMimeType(value, operation);
+        }
+
+        @Override
+        public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+            return delegate.getHeaders(value, operation);
+        }
+
+        @Override
+        public String getPreferredDisposition(Object value, Operation operation) {
+            return delegate.getPreferredDisposition(value, operation);
+        }
+
+        @Override
+        public String getAttachmentFileName(Object value, Operation operation) {
+            return delegate.getAttachmentFileName(value, operation);
+        }
+
+        @Override
+        public String getCharset(Operation operation) {
+            return delegate.getCharset(operation);
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            // grab the mime type before the map gets disposed
+            String mimeType = delegate.getMimeType(value, operation);
+            CapturingOutputStream capture = new CapturingOutputStream(output, maxEntrySize);
+            delegate.write(value, capture, operation);
+            if (!capture.overflown) {
+                store(pending, capture.buffer.toByteArray(), mimeType, (WebMap) value);
+            }
+        }
+    }
+
+    /** Copies the bytes written to the delegate into a buffer, up to a given size */
+    static class CapturingOutputStream extends FilterOutputStream {
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        final long maxSize;
+
+        boolean overflown;
+
+        CapturingOutputStream(OutputStream out, long maxSize) {
+            super(out);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (!overflown && check(1)) {
+                buffer.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (!overflown && check(len)) {
+                buffer.write(b, off, len);
+            }
+        }
+
+        private boolean check(int len) {
+            if (buffer.size() + len > maxSize) {
+                overflown = true;
+                buffer.reset();
+            }
+            return !overflown;
+        }
+    }
+
+    // transactions
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        if (responses.size() == 0) {
+            return;
+        }
+        QName name = event.getLayerName();
+        FeatureTypeInfo featureType =
+                name == null
+                        ? null
+                        : catalog.getFeatureTypeByName(name.getNamespaceURI(), name.getLocalPart());
+        if (featureType != null) {
+            invalidate(featureType);
+        } else {
+            clear();
+        }
+    }
+
+    // catalog events
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // new objects are not part of any cached map
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        evict(event);
+    }
+
+    private void evict(CatalogEvent event) {
+        CatalogInfo source = event.getSource();
+        if (source instanceof LayerInfo
+                || source instanceof ResourceInfo
+                || source instanceof StoreInfo) {
+            invalidate(source);
+        } else {
+            // styles, layer groups, workspaces, namespaces: not tracked individually
+            clear();
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    // lifecycle events
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+
+    /** A miss being rendered */
+    static final class Pending {
+        final Key key;
+        final long expires;
+        final Set<String> dependencies;
+
+        Pending(Key key, long expires, Set<String> dependencies) {
+            this.key = key;
+            this.expires = expires;
+            this.dependencies = dependencies;
+        }
+    }
+
+    /** A cached response */
+    static final class Entry {
+        final byte[] contents;
+        final String mimeType;
+        final String[][] headers;
+        final String disposition;
+        final String extension;
+        final long expires;
+        final Set<String> dependencies;
+
+        Entry(byte[] contents, String mimeType, WebMap map, Pending pending) {
+            this.contents = contents;
+            this.mimeType = mimeType;
+            this.headers = map.getResponseHeaders();
+            this.disposition = map.getDisposition();
+            String fileName = map.getAttachmentFileName();
+            String simpleName = map.getSimpleAttachmentFileName();
+            this.extension =
+                    fileName != null && simpleName != null && fileName.startsWith(simpleName)
+                            ? fileName.substring(simpleName.length())
+                            : null;
+            this.expires = pending.expires;
+            this.dependencies = pending.dependencies;
+        }
+
+        RawMap toMap() {
+            RawMap map = new RawMap(null, contents, mimeType);
+            if (headers != null) {
+                for (String[] header : headers) {
+                    map.setResponseHeader(header[0], header[1]);
+                }
+            }
+            map.setResponseHeader(CACHE_RESULT_HEADER, "HIT");
+            if (disposition != null) {
+                map.setContentDispositionHeader(
+                        null, extension, Response.DISPOSITION_ATTACH.equals(disposition));
+            }
+            return map;
+        }
+    }
+
+    /** The cache key, the normalized GetMap request along with the virtual service and user */
+    static final class Key {
+        final Map<String, String> parameters;
+        final String bbox;
+        final String srs;
+        final int width;
+        final int height;
+        final String format;
+        final boolean transparent;
+        final String bgColor;
+        final String version;
+        final String workspace;
+        final String published;
+        final String user;
+        final List<String> roles;
+
+        Key(GetMapRequest request) {
+            Map<String, String> parameters = new TreeMap<>();
+            for (Map.Entry<String, String> entry : request.getRawKvp().entrySet()) {
+                String name = entry.getKey().toUpperCase();
+                if (!NORMALIZED_PARAMETERS.contains(name)) {
+                    parameters.put(name, entry.getValue());
+                }
+            }
+            this.parameters = parameters;
+            Envelope envelope = request.getBbox();
+            this.bbox =
+                    envelope == null
+                            ? null
+                            : envelope.getMinX()
+                                    + ","
+                                    + envelope.getMinY()
+                                    + ","
+                                    + envelope.getMaxX()
+                                    + ","
+                                    + envelope.getMaxY();
+            this.srs = request.getCrs() != null ? CRS.toSRS(request.getCrs()) : request.getSRS();
+            this.width = request.getWidth();
+            this.height = request.getHeight();
+            this.format = request.getFormat();
+            this.transparent = request.isTransparent();
+            this.bgColor = request.getBgColor() != null ? request.getBgColor().toString() : null;
+            this.version = request.getVersion();
+            WorkspaceInfo ws = LocalWorkspace.get();
+            this.workspace = ws != null ? ws.getName() : null;
+            PublishedInfo p = LocalPublished.get();
+            this.published = p != null ? p.prefixedName() : null;
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            if (auth != null) {
+                this.user = auth.getName();
+                List<String> roles = new ArrayList<>();
+                for (GrantedAuthority authority : auth.getAuthorities()) {
+                    roles.add(authority.getAuthority());
+                }
+                Collections.sort(roles);
+                this.roles = roles;
+            } else {
+                this.user = null;
+                this.roles = Collections.emptyList();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return width == key.width
+                    && height == key.height
+                    && transparent == key.transparent
+                    && Objects.equals(parameters, key.parameters)
+                    && Objects.equals(bbox, key.bbox)
+                    && Objects.equals(srs, key.srs)
+                    && Objects.equals(format, key.format)
+                    && Objects.equals(bgColor, key.bgColor)
+                    && Objects.equals(version, key.version)
+                    && Objects.equals(workspace, key.workspace)
+                    && Objects.equals(published, key.published)
+                    && Objects.equals(user, key.user)
+                    && Objects.equals(roles, key.roles);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    parameters,
+                    bbox,
+                    srs,
+                    width,
+                    height,
+                    format,
+                    transparent,
+                    bgColor,
+                    version,
+                    workspace,
+                    published,
+                    user,
+                    roles);
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.io.OutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.geoserver.config.JAIInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapRequest;
@@ -19,6 +20,7 @@ import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.png.PNGEncoderPool;
 import org.geoserver.wms.map.png.PNGJWriter;
 import org.geotools.image.ImageWorker;
 import org.geotools.util.logging.Logging;
@@ -61,10 +63,17 @@ public class PNGMapResponse extends RenderedImageMapResponse {
     private static MapProducerCapabilities CAPABILITIES =
             new MapProducerCapabilities(true, false, true, true, null);
 
+    private PNGEncoderPool encoderPool;
+
     public PNGMapResponse(WMS wms) {
         super(OUTPUT_FORMATS, wms);
     }
 
+    /** Sets the pool compressing large images in parallel with the PNGJ encoder */
+    public void setEncoderPool(PNGEncoderPool encoderPool) {
+        this.encoderPool = encoderPool;
+    }
+
     @Override
     public String getMimeType(Object value, Operation operation) throws ServiceException {
         GetMapRequest request = (GetMapRequest) operation.getParameters()[0];
@@ -97,7 +106,14 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         float quality = (100 - wms.getPngCompression()) / 100.0f;
         JAIInfo.PngEncoderType encoder = wms.getPNGEncoderType();
         if (encoder == JAIInfo.PngEncoderType.PNGJ) {
-            image = new PNGJWriter().writePNG(image, outStream, quality, mapContent);
+            // instances not built by Spring look up the shared pool
+            PNGEncoderPool pool =
+                    encoderPool != null
+                            ? encoderPool
+                            : GeoServerExtensions.bean(PNGEncoderPool.class);
+            image =
+                    new PNGJWriter(pool, wms.getPNGEncoderThreads())
+                            .writePNG(image, outStream, quality, mapContent);
             RasterCleaner.addImage(image);
         } else {
             Boolean PNGNativeAcc = (encoder == JAIInfo.PngEncoderType.NATIVE);
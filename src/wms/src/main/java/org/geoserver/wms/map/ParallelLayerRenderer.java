@@ -0,0 +1,361 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.Layer;
+import org.geotools.map.StyleLayer;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.AbstractStyleVisitor;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Style;
+import org.geotools.styling.TextSymbolizer;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Renders groups of consecutive layers concurrently, each group with its own {@link
+ * StreamingRenderer}. The first group paints directly on the target graphics, the others in their
+ * own transparent buffers, which are then composited on the target in layer order.
+ *
+ * <p>The renderer can be used in place of a {@link StreamingRenderer} by the {@link
+ * MaxErrorEnforcer} and {@link RenderingTimeoutEnforcer}, stop requests are forwarded to all the
+ * group renderers. The events of each group renderer are recorded, and replayed to the render
+ * listeners on the request thread once painting is over, in layer order, followed by a single
+ * {@link RenderListener#renderingComplete()}.
+ */
+class ParallelLayerRenderer extends StreamingRenderer {
+
+    final ExecutorService executor;
+
+    final List<WMSMapContent> contents = new ArrayList<>();
+
+    final List<StreamingRenderer> renderers = new ArrayList<>();
+
+    /** The events of each group renderer */
+    final List<RecordingRenderListener> recorders = new ArrayList<>();
+
+    final List<RenderListener> listeners = new CopyOnWriteArrayList<>();
+
+    volatile boolean stopped;
+
+    /**
+     * @param mapContent The map being rendered
+     * @param groups The groups of layers, as returned by {@link #groupLayers(List, int)}
+     * @param rendererFactory Builds fully configured renderers, one per group
+     * @param executor Paints all groups but the first one
+     */
+    ParallelLayerRenderer(
+            WMSMapContent mapContent,
+            List<List<Layer>> groups,
+            Supplier<StreamingRenderer> rendererFactory,
+            ExecutorService executor) {
+        this.executor = executor;
+        setMapContent(mapContent);
+        for (List<Layer> group : groups) {
+            WMSMapContent content = new WMSMapContent(mapContent, false);
+            content.layers().addAll(group);
+            StreamingRenderer renderer = rendererFactory.get();
+            renderer.setMapContent(content);
+            RecordingRenderListener recorder = new RecordingRenderListener();
+            renderer.addRenderListener(recorder);
+            contents.add(content);
+            renderers.add(renderer);
+            recorders.add(recorder);
+        }
+    }
+
+    /**
+     * Splits the layers in at most {@code maxGroups} groups of consecutive layers that can be
+     * rendered independently, or returns null if the layers cannot be rendered in parallel.
+     *
+     * <p>Labels and z-ordering are resolved across layers by a single renderer, so maps with more
+     * than one labelled layer or using sort by group are not split. A renderer paints its labels
+     * after all its layers, so the labelled layer and all the layers after it are kept in the last
+     * group, keeping the labels on top of the map. Layers using composites blend with the layers
+     * painted before them, up to the previous composite base, so they are kept in the same group.
+     */
+    static List<List<Layer>> groupLayers(List<Layer> layers, int maxGroups) {
+        int count = layers.size();
+        // cutAllowed[i] tells if a new group can start at layer i
+        boolean[] cutAllowed = new boolean[count];
+        int scopeStart = 0;
+        int labelled = -1;
+        for (int i = 0; i < count; i++) {
+            cutAllowed[i] = i > 0;
+            Style style =
+                    layers.get(i) instanceof StyleLayer
+                            ? ((StyleLayer) layers.get(i)).getStyle()
+                            : null;
+            if (style == null) {
+                continue;
+            }
+            LabelVisitor visitor = new LabelVisitor();
+            style.accept(visitor);
+            if (visitor.labels) {
+                if (labelled >= 0) {
+                    return null;
+                }
+                labelled = i;
+            }
+            boolean composite = false;
+            boolean base = false;
+            for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+                Map<String, String> options = fts.getOptions();
+                if (options.containsKey(FeatureTypeStyle.SORT_BY_GROUP)) {
+                    return null;
+                }
+                composite |= options.containsKey(FeatureTypeStyle.COMPOSITE);
+                base |= "true".equalsIgnoreCase(options.get(FeatureTypeStyle.COMPOSITE_BASE));
+            }
+            if (composite) {
+                for (int j = scopeStart + 1; j <= i; j++) {
+                    cutAllowed[j] = false;
+                }
+            }
+            if (base) {
+                scopeStart = i;
+            }
+        }
+
+        for (int i = labelled + 1; labelled >= 0 && i < count; i++) {
+            cutAllowed[i] = false;
+        }
+
+        int target = (count + maxGroups - 1) / maxGroups;
+        List<List<Layer>> groups = new ArrayList<>();
+        List<Layer> current = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (current.size() >= target && cutAllowed[i] && groups.size() < maxGroups - 1) {
+                groups.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(layers.get(i));
+        }
+        groups.add(current);
+        return groups;
+    }
+
+    @Override
+    public void paint(
+            Graphics2D graphics,
+            Rectangle paintArea,
+            ReferencedEnvelope mapArea,
+            AffineTransform worldToScreen) {
+        RenderingHints hints = (RenderingHints) graphics.getRenderingHints().clone();
+        ThreadLocalsTransfer threadLocals = new ThreadLocalsTransfer();
+        List<Future<BufferedImage>> futures = new ArrayList<>();
+        Exception failure = null;
+        try {
+            for (StreamingRenderer renderer : renderers.subList(1, renderers.size())) {
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    threadLocals.apply();
+                                    try {
+                                        return paintBuffer(
+                                                renderer,
+                                                hints,
+                                                paintArea,
+                                                mapArea,
+                                                worldToScreen);
+                                    } finally {
+                                        threadLocals.cleanup();
+                                    }
+                                }));
+            }
+            renderers.get(0).paint(graphics, paintArea, mapArea, worldToScreen);
+
+            for (Future<BufferedImage> future : futures) {
+                BufferedImage image = future.get();
+                if (image != null && !stopped) {
+                    graphics.setComposite(AlphaComposite.SrcOver);
+                    graphics.drawImage(image, paintArea.x, paintArea.y, null);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopRendering();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            failure = cause instanceof Exception ? (Exception) cause : e;
+        } finally {
+            awaitCompletion(futures);
+            for (WMSMapContent content : contents) {
+                // the layers are owned by the original map content, do not dispose them
+                content.layers().clear();
+                content.dispose();
+            }
+            fireEvents(failure);
+        }
+    }
+
+    /**
+     * Replays the events of the group renderers in layer order, then the failure of a group, if
+     * any, and notifies the rendering completion
+     */
+    private void fireEvents(Exception failure) {
+        for (RecordingRenderListener recorder : recorders) {
+            recorder.replay(listeners);
+        }
+        for (RenderListener listener : listeners) {
+            if (failure != null) {
+                listener.errorOccurred(failure);
+            }
+            listener.renderingComplete();
+        }
+    }
+
+    private BufferedImage paintBuffer(
+            StreamingRenderer renderer,
+            RenderingHints hints,
+            Rectangle paintArea,
+            ReferencedEnvelope mapArea,
+            AffineTransform worldToScreen) {
+        if (stopped) {
+            return null;
+        }
+        BufferedImage image =
+                new BufferedImage(
+                        paintArea.x + paintArea.width,
+                        paintArea.y + paintArea.height,
+                        BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHints(hints);
+            renderer.paint(graphics, paintArea, mapArea, worldToScreen);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    /** Makes sure no group is still painting once the map is returned */
+    private void awaitCompletion(List<Future<BufferedImage>> futures) {
+        boolean pending = futures.stream().anyMatch(f -> !f.isDone());
+        if (pending) {
+            stopRendering();
+            for (Future<BufferedImage> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    // already stopping, nothing else to do
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stopRendering() {
+        stopped = true;
+        super.stopRendering();
+        for (StreamingRenderer renderer : renderers) {
+            renderer.stopRendering();
+        }
+    }
+
+    @Override
+    public void addRenderListener(RenderListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeRenderListener(RenderListener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Returns the renderers of each group, for testing purposes */
+    List<StreamingRenderer> getRenderers() {
+        return Collections.unmodifiableList(renderers);
+    }
+
+    /** Checks if a style contains text symbolizers */
+    static class LabelVisitor extends AbstractStyleVisitor {
+        boolean labels;
+
+        @Override
+        public void visit(TextSymbolizer text) {
+            labels = true;
+        }
+    }
+
+    /**
+     * Records the events of a group renderer, which can come from the painting threads, to be
+     * replayed on the request thread. The group completion is notified once for all groups.
+     */
+    static class RecordingRenderListener implements RenderListener {
+
+        final List<Consumer<RenderListener>> events =
+                Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void featureRenderer(SimpleFeature feature) {
+            events.add(l -> l.featureRenderer(feature));
+        }
+
+        @Override
+        public void errorOccurred(Exception e) {
+            events.add(l -> l.errorOccurred(e));
+        }
+
+        @Override
+        public void layerStart(Layer layer) {
+            events.add(l -> l.layerStart(layer));
+        }
+
+        @Override
+        public void layerEnd(Layer layer) {
+            events.add(l -> l.layerEnd(layer));
+        }
+
+        @Override
+        public void labellingStart() {
+            events.add(RenderListener::labellingStart);
+        }
+
+        @Override
+        public void labellingEnd() {
+            events.add(RenderListener::labellingEnd);
+        }
+
+        @Override
+        public void renderingComplete() {
+            // notified once by the parallel renderer
+        }
+
+        /** Fires the recorded events to the listeners, and forgets them */
+        void replay(List<RenderListener> listeners) {
+            synchronized (events) {
+                for (Consumer<RenderListener> event : events) {
+                    for (RenderListener listener : listeners) {
+                        event.accept(listener);
+                    }
+                }
+                events.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Bounded pool shared by the {@link ParallelLayerRenderer} instances of all requests, the request
+ * thread renders the first group of layers itself. Parallel rendering is enabled by the {@value
+ * RenderedImageMapOutputFormat#PARALLEL_RENDERING_THREADS_KEY} variable.
+ */
+public class ParallelRenderingPool implements DisposableBean {
+
+    private final ExecutorService executor;
+
+    public ParallelRenderingPool() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    ParallelRenderingPool(int threads) {
+        this.executor =
+                Executors.newFixedThreadPool(
+                        threads,
+                        new ThreadFactory() {
+                            final AtomicInteger count = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                String name = "ParallelLayerRenderer-" + count.incrementAndGet();
+                                Thread t = new Thread(r, name);
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -42,6 +42,7 @@ import javax.media.jai.ROIShape;
 import javax.media.jai.operator.ConstantDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.platform.resource.Resource;
@@ -184,6 +185,12 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
     /** Show Chain */
     private static Boolean RASTER_CHAIN_DEBUG = Boolean.getBoolean(RASTER_CHAIN_DEBUG_KEY);
 
+    /**
+     * Max number of threads rendering the layers of a single map, values lower than 2 disable
+     * parallel rendering
+     */
+    public static final String PARALLEL_RENDERING_THREADS_KEY = "wms.render.parallelThreads";
+
     private Function<WMSMapContent, LabelCache> labelCache = null;
 
     private static byte[] getTable() {
@@ -558,6 +565,26 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
 
         renderer.setRendererHints(rendererParams);
 
+        List<List<Layer>> groups =
+                getParallelRenderingGroups(mapContent, palette, paintArea, memory, maxMemory);
+        ParallelRenderingPool pool =
+                groups == null ? null : GeoServerExtensions.bean(ParallelRenderingPool.class);
+        if (pool != null) {
+            renderer =
+                    new ParallelLayerRenderer(
+                            mapContent,
+                            groups,
+                            () -> {
+                                StreamingRenderer groupRenderer = buildRenderer();
+                                groupRenderer.setThreadPool(
+                                        DefaultWebMapService.getRenderingPool());
+                                groupRenderer.setJava2DHints(hints);
+                                groupRenderer.setRendererHints(new HashMap<>(rendererParams));
+                                return groupRenderer;
+                            },
+                            pool.getExecutor());
+        }
+
         // if abort already requested bail out
         // if (this.abortRequested) {
         // graphic.dispose();
@@ -669,6 +696,46 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         throw serviceException;
     }
 
+    /**
+     * Returns the groups of layers to be rendered in parallel, or null if the map should be
+     * rendered sequentially. Parallel rendering is used only if enabled, if the extra buffers fit
+     * in the request memory limits, and if the map does not need a palette or a shared label cache.
+     */
+    private List<List<Layer>> getParallelRenderingGroups(
+            WMSMapContent mapContent,
+            IndexColorModel palette,
+            Rectangle paintArea,
+            long memory,
+            long maxMemory) {
+        int threads = GeoServerExtensions.getIntegerProperty(PARALLEL_RENDERING_THREADS_KEY, 1);
+        if (threads < 2
+                || !isParallelRenderingSupported()
+                || palette != null
+                || labelCache != null
+                || mapContent.layers().size() < 2) {
+            return null;
+        }
+        List<List<Layer>> groups = ParallelLayerRenderer.groupLayers(mapContent.layers(), threads);
+        if (groups == null || groups.size() < 2) {
+            return null;
+        }
+        // all groups but the first one are painted in their own ARGB buffer
+        long buffers = (groups.size() - 1) * 4L * paintArea.width * paintArea.height;
+        if (maxMemory > 0 && memory + buffers > maxMemory) {
+            return null;
+        }
+        return groups;
+    }
+
+    /**
+     * Returns true if the map layers can be rendered in parallel. Subclasses customizing the
+     * renderer or the graphics are excluded by default, as they might depend on a single renderer
+     * painting all the layers.
+     */
+    protected boolean isParallelRenderingSupported() {
+        return getClass() == RenderedImageMapOutputFormat.class;
+    }
+
     /**
      * Creates a {@link StreamingRenderer} instance (subclasses can provide their own specialized
      * subclasses of {@link StreamingRenderer}
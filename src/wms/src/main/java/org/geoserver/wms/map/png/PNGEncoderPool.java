@@ -0,0 +1,51 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Pool shared by the {@link PNGJWriter} instances to compress large images in parallel. The pool
+ * has a thread per processor, the parallelism of each image is set by the PNG encoder threads of
+ * the JAI configuration.
+ */
+public class PNGEncoderPool implements DisposableBean {
+
+    private final ExecutorService executor;
+
+    public PNGEncoderPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    PNGEncoderPool(int threads) {
+        this.executor =
+                Executors.newFixedThreadPool(
+                        threads,
+                        new ThreadFactory() {
+                            final AtomicInteger count = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                String name = "PNGEncoder-" + count.incrementAndGet();
+                                Thread t = new Thread(r, name);
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -8,6 +8,7 @@ package org.geoserver.wms.map.png;
 import ar.com.hjg.pngj.FilterType;
 import it.geosolutions.imageio.plugins.png.PNGWriter;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.io.OutputStream;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.WMSMapContent;
@@ -24,6 +25,23 @@ import org.geotools.styling.Style;
  */
 public class PNGJWriter {
 
+    final PNGEncoderPool pool;
+
+    final int threads;
+
+    public PNGJWriter() {
+        this(null, 1);
+    }
+
+    /**
+     * Builds a writer compressing the image data with up to the given number of threads of the
+     * pool. Parallel compression is used only for images large enough to benefit from it.
+     */
+    public PNGJWriter(PNGEncoderPool pool, int threads) {
+        this.pool = pool;
+        this.threads = threads;
+    }
+
     public RenderedImage writePNG(
             RenderedImage image, OutputStream outStream, float quality, WMSMapContent mapContent) {
         // what kind of scaline filtering are we going to use?
@@ -44,7 +62,18 @@ public class PNGJWriter {
         RenderedImage output = null;
         // Image writing
         try {
-            output = writer.writePNG(image, outStream, quality, filterType);
+            int level = Math.round(9 * (1f - quality));
+            if (pool != null
+                    && threads > 1
+                    && level > 0
+                    && ParallelDeflater.isSupported(image)
+                    && isWorthSplitting(image)) {
+                new ParallelDeflater(pool.getExecutor(), threads, level)
+                        .write(image, filterType == FilterType.FILTER_SUB, outStream);
+                output = image;
+            } else {
+                output = writer.writePNG(image, outStream, quality, filterType);
+            }
         } catch (Exception e) {
             throw new ServiceException("Failed to encode the PNG", e);
         }
@@ -52,6 +81,16 @@ public class PNGJWriter {
         return output;
     }
 
+    private boolean isWorthSplitting(RenderedImage image) {
+        SampleModel sm = image.getSampleModel();
+        int pixelBits = 0;
+        for (int size : sm.getSampleSize()) {
+            pixelBits += size;
+        }
+        long rowSize = 1 + ((long) image.getWidth() * pixelBits + 7) / 8;
+        return ParallelDeflater.isWorthSplitting(rowSize * image.getHeight());
+    }
+
     /**
      * SUB filtering is useful for raster images with "high" variation, otherwise we go for NONE,
      * empirically it provides better compression at lower effort
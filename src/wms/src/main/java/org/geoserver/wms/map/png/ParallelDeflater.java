@@ -0,0 +1,351 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes an image as PNG, filtering and compressing its rows using multiple threads.
+ *
+ * <p>The image rows are split in bands, each one filtered and compressed in parallel in raw
+ * deflate format, primed with the last 32KB of the filtered rows before it as a dictionary so that
+ * matches across band boundaries are not lost. All bands but the last end on a sync flush, so that
+ * they can be concatenated in a single, valid zlib stream (the same approach used by pigz), and
+ * the checksums of the bands are combined into the one of the whole stream.
+ *
+ * <p>Only the NONE and SUB filters are supported, as they do not depend on the previous row, and
+ * only 8 bit gray, RGB and paletted images, with or without alpha, see {@link
+ * #isSupported(RenderedImage)}.
+ */
+class ParallelDeflater {
+
+    static final byte[] PNG_SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    /** Minimum amount of filtered image data per band */
+    static final int MIN_BAND_SIZE = 256 * 1024;
+
+    /** Size of the deflate window, data before that cannot be referenced anyways */
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /** Modulus of the Adler-32 checksum */
+    static final int ADLER_BASE = 65521;
+
+    final ExecutorService executor;
+
+    final int threads;
+
+    final int level;
+
+    /**
+     * @param executor The executor compressing the bands
+     * @param threads Max number of threads compressing a single image
+     * @param level The deflate compression level
+     */
+    ParallelDeflater(ExecutorService executor, int threads, int level) {
+        this.executor = executor;
+        this.threads = threads;
+        this.level = level;
+    }
+
+    /** Returns true if the amount of image data is large enough to benefit from splitting it */
+    static boolean isWorthSplitting(long imageDataSize) {
+        return imageDataSize >= 2L * MIN_BAND_SIZE;
+    }
+
+    /**
+     * Returns true if the image can be encoded: 8 bits per sample, either paletted, or gray or RGB
+     * with an optional, not premultiplied, alpha
+     */
+    static boolean isSupported(RenderedImage image) {
+        SampleModel sm = image.getSampleModel();
+        ColorModel cm = image.getColorModel();
+        if (cm == null || sm.getDataType() != DataBuffer.TYPE_BYTE) {
+            return false;
+        }
+        for (int size : sm.getSampleSize()) {
+            if (size != 8) {
+                return false;
+            }
+        }
+        if (cm instanceof IndexColorModel) {
+            return sm.getNumBands() == 1;
+        }
+        if (!(cm instanceof ComponentColorModel)
+                || cm.isAlphaPremultiplied()
+                || cm.getNumComponents() != sm.getNumBands()) {
+            return false;
+        }
+        int type = cm.getColorSpace().getType();
+        int colors = cm.getNumColorComponents();
+        return (type == ColorSpace.TYPE_GRAY && colors == 1)
+                || (type == ColorSpace.TYPE_RGB && colors == 3);
+    }
+
+    /**
+     * Writes out the image as PNG, compressing its rows in parallel
+     *
+     * @param image The image, must be {@link #isSupported(RenderedImage) supported}
+     * @param sub Use the SUB filter if true, NONE otherwise
+     * @param out The destination of the PNG
+     */
+    void write(RenderedImage image, boolean sub, OutputStream out) throws IOException {
+        int height = image.getHeight();
+        int rowSize = getRowSize(image);
+        long dataSize = (long) rowSize * height;
+        int bands = (int) Math.max(1, Math.min(threads, dataSize / MIN_BAND_SIZE));
+        int bandRows = (height + bands - 1) / bands;
+        // rows before a band to be filtered again to get its dictionary
+        int dictionaryRows = (DICTIONARY_SIZE + rowSize - 1) / rowSize;
+        List<Future<Band>> futures = new ArrayList<>();
+        for (int row = 0; row < height; row += bandRows) {
+            int start = row;
+            int end = Math.min(height, row + bandRows);
+            futures.add(
+                    executor.submit(
+                            () -> deflate(image, start, end, dictionaryRows, sub, end == height)));
+        }
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.write(PNG_SIGNATURE);
+        writeHeader(image, dos);
+        try {
+            long adler = 1;
+            for (int i = 0; i < futures.size(); i++) {
+                Band band = futures.get(i).get();
+                adler = combine(adler, band.adler, band.length);
+                byte[] prefix = i == 0 ? getZlibHeader() : new byte[0];
+                byte[] suffix = i == futures.size() - 1 ? toBytes(adler) : new byte[0];
+                writeChunk(dos, "IDAT", prefix, band.compressed, suffix);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing the PNG image data", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress the PNG image data", e.getCause());
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+        writeChunk(dos, "IEND");
+        dos.flush();
+    }
+
+    /** Writes the IHDR chunk, and the PLTE and tRNS ones for paletted images */
+    private void writeHeader(RenderedImage image, DataOutputStream dos) throws IOException {
+        ColorModel cm = image.getColorModel();
+        int colorType;
+        if (cm instanceof IndexColorModel) {
+            colorType = 3;
+        } else if (cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY) {
+            colorType = cm.hasAlpha() ? 4 : 0;
+        } else {
+            colorType = cm.hasAlpha() ? 6 : 2;
+        }
+        byte[] ihdr = new byte[13];
+        writeInt(ihdr, 0, image.getWidth());
+        writeInt(ihdr, 4, image.getHeight());
+        ihdr[8] = 8; // bit depth
+        ihdr[9] = (byte) colorType;
+        // compression, filter and interlace methods are all 0
+        writeChunk(dos, "IHDR", ihdr);
+
+        if (cm instanceof IndexColorModel) {
+            IndexColorModel icm = (IndexColorModel) cm;
+            int size = icm.getMapSize();
+            byte[] palette = new byte[size * 3];
+            byte[] alphas = new byte[size];
+            int transparent = 0;
+            for (int i = 0; i < size; i++) {
+                palette[i * 3] = (byte) icm.getRed(i);
+                palette[i * 3 + 1] = (byte) icm.getGreen(i);
+                palette[i * 3 + 2] = (byte) icm.getBlue(i);
+                alphas[i] = (byte) icm.getAlpha(i);
+                if (icm.getAlpha(i) != 255) {
+                    transparent = i + 1;
+                }
+            }
+            writeChunk(dos, "PLTE", palette);
+            if (transparent > 0) {
+                // entries past the last transparent one default to opaque
+                byte[] trns = new byte[transparent];
+                System.arraycopy(alphas, 0, trns, 0, transparent);
+                writeChunk(dos, "tRNS", trns);
+            }
+        }
+    }
+
+    /**
+     * Filters and compresses a band of rows, using the filtered rows before it as a dictionary
+     *
+     * @param image The image
+     * @param start The first row of the band
+     * @param end The row after the last one of the band
+     * @param dictionaryRows The number of rows before the band needed for the dictionary
+     * @param sub Use the SUB filter if true, NONE otherwise
+     * @param last True if this is the last band, ending the deflate stream
+     */
+    Band deflate(
+            RenderedImage image,
+            int start,
+            int end,
+            int dictionaryRows,
+            boolean sub,
+            boolean last) {
+        int first = Math.max(0, start - dictionaryRows);
+        byte[] data = filter(image, first, end, sub);
+        int offset = (start - first) * getRowSize(image);
+        Adler32 adler = new Adler32();
+        adler.update(data, offset, data.length - offset);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (offset > 0) {
+                int dictionaryStart = Math.max(0, offset - DICTIONARY_SIZE);
+                deflater.setDictionary(data, dictionaryStart, offset - dictionaryStart);
+            }
+            deflater.setInput(data, offset, data.length - offset);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream((data.length - offset) / 2);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    bos.write(buffer, 0, count);
+                }
+            } else {
+                // a sync flush aligns the output to a byte boundary, without ending the stream
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    bos.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return new Band(bos.toByteArray(), adler.getValue(), data.length - offset);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Returns the filtered scanlines of the given rows, each preceded by the filter type */
+    static byte[] filter(RenderedImage image, int start, int end, boolean sub) {
+        int width = image.getWidth();
+        int pixelSize = image.getSampleModel().getNumBands();
+        int rowSize = getRowSize(image);
+        Raster raster =
+                image.getData(
+                        new Rectangle(
+                                image.getMinX(), image.getMinY() + start, width, end - start));
+        byte[] data = new byte[rowSize * (end - start)];
+        int[] samples = new int[width * pixelSize];
+        for (int row = 0; row < end - start; row++) {
+            raster.getPixels(raster.getMinX(), raster.getMinY() + row, width, 1, samples);
+            int offset = row * rowSize;
+            data[offset++] = (byte) (sub ? 1 : 0);
+            for (int i = 0; i < samples.length; i++) {
+                int value = samples[i];
+                if (sub && i >= pixelSize) {
+                    value -= samples[i - pixelSize];
+                }
+                data[offset + i] = (byte) value;
+            }
+        }
+        return data;
+    }
+
+    /** Size of a filtered scanline, including the filter type byte */
+    static int getRowSize(RenderedImage image) {
+        return 1 + image.getWidth() * image.getSampleModel().getNumBands();
+    }
+
+    /** The zlib stream header, advertising the compression level */
+    byte[] getZlibHeader() {
+        int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int cmf = 0x78; // deflate, 32KB window
+        int flg = flevel << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+        return new byte[] {(byte) cmf, (byte) flg};
+    }
+
+    /**
+     * Returns the Adler-32 checksum of the concatenation of two blocks, given their checksums and
+     * the length of the second one (same as zlib adler32_combine)
+     */
+    static long combine(long adler1, long adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= (ADLER_BASE << 1)) sum2 -= (ADLER_BASE << 1);
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return (sum2 << 16) | sum1;
+    }
+
+    static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    static byte[] toBytes(long value) {
+        return new byte[] {
+            (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+        };
+    }
+
+    /** Writes a chunk whose data is the concatenation of the given parts */
+    static void writeChunk(DataOutputStream out, String type, byte[]... parts) throws IOException {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        out.writeInt(length);
+        out.write(typeBytes);
+        for (byte[] part : parts) {
+            crc.update(part);
+            out.write(part);
+        }
+        out.writeInt((int) crc.getValue());
+    }
+
+    /** A compressed band, with the checksum and length of its uncompressed data */
+    static class Band {
+        final byte[] compressed;
+        final long adler;
+        final long length;
+
+        Band(byte[] compressed, long adler, long length) {
+            this.compressed = compressed;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+}
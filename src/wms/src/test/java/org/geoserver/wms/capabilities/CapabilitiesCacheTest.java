@@ -0,0 +1,134 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import org.custommonkey.xmlunit.XMLUnit;
+import org.custommonkey.xmlunit.XpathEngine;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.WMSTestSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.w3c.dom.Document;
+
+public class CapabilitiesCacheTest extends WMSTestSupport {
+
+    static final String CAPABILITIES_REQUEST =
+            "wms?service=WMS&request=getCapabilities&version=1.1.1";
+
+    CapabilitiesCache cache;
+
+    @Before
+    public void enableCache() {
+        cache = GeoServerExtensions.bean(CapabilitiesCache.class);
+        cache.setEnabled(true);
+    }
+
+    @After
+    public void disableCache() {
+        cache.setEnabled(false);
+    }
+
+    @Test
+    public void testCachedDocument() throws Exception {
+        Document dom = getAsDOM(CAPABILITIES_REQUEST);
+        assertEquals(1, cache.size());
+        Document cached = getAsDOM(CAPABILITIES_REQUEST);
+        assertEquals(1, cache.size());
+        XpathEngine xpath = XMLUnit.newXpathEngine();
+        assertEquals(
+                xpath.evaluate("count(//Layer)", dom), xpath.evaluate("count(//Layer)", cached));
+
+        // different version, different document
+        getAsDOM("wms?service=WMS&request=getCapabilities&version=1.3.0");
+        assertEquals(2, cache.size());
+
+        // workspace specific service, different document
+        getAsDOM("cite/" + CAPABILITIES_REQUEST);
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testCatalogChangeClearsCache() throws Exception {
+        getAsDOM(CAPABILITIES_REQUEST);
+        assertEquals(1, cache.size());
+
+        Catalog catalog = getCatalog();
+        String layerName = getLayerId(MockData.BASIC_POLYGONS);
+        LayerInfo layer = catalog.getLayerByName(layerName);
+        String title = layer.getTitle();
+        try {
+            layer.setTitle("A cached title");
+            catalog.save(layer);
+            assertEquals(0, cache.size());
+
+            Document dom = getAsDOM(CAPABILITIES_REQUEST);
+            assertXpathEvaluatesTo(
+                    "A cached title", "//Layer[Name='" + layerName + "']/Title", dom);
+        } finally {
+            layer = catalog.getLayerByName(layerName);
+            layer.setTitle(title);
+            catalog.save(layer);
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        cache.setEnabled(false);
+        getAsDOM(CAPABILITIES_REQUEST);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testProxyHeaders() throws Exception {
+        GeoServer gs = getGeoServer();
+        GeoServerInfo info = gs.getGlobal();
+        info.getSettings().setProxyBaseUrl("http://${X-Forwarded-Host}/geoserver/");
+        info.setUseHeadersProxyURL(true);
+        gs.save(info);
+        try {
+            Document first = getWithForwardedHost("proxy1");
+            assertEquals(1, cache.size());
+            Document second = getWithForwardedHost("proxy2");
+            assertEquals(2, cache.size());
+
+            // each proxy gets its own online resources
+            String onlineResource =
+                    "//Capability/Request/GetCapabilities/DCPType/HTTP/Get"
+                            + "/OnlineResource/@xlink:href";
+            XpathEngine xpath = XMLUnit.newXpathEngine();
+            assertTrue(
+                    xpath.evaluate(onlineResource, first).startsWith("http://proxy1/geoserver/"));
+            assertTrue(
+                    xpath.evaluate(onlineResource, second).startsWith("http://proxy2/geoserver/"));
+        } finally {
+            info = gs.getGlobal();
+            info.getSettings().setProxyBaseUrl(null);
+            info.setUseHeadersProxyURL(null);
+            gs.save(info);
+        }
+    }
+
+    private Document getWithForwardedHost(String host) throws Exception {
+        MockHttpServletRequest request = createRequest(CAPABILITIES_REQUEST);
+        request.setMethod("GET");
+        request.setContent(new byte[] {});
+        request.addHeader("X-Forwarded-Host", host);
+        MockHttpServletResponse response = dispatch(request, null);
+        return dom(new ByteArrayInputStream(response.getContentAsByteArray()));
+    }
+}
@@ -0,0 +1,118 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.WMSTestSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class MapResponseCacheTest extends WMSTestSupport {
+
+    static final String BASIC_POLYGONS_MAP =
+            "wms?service=WMS&version=1.1.1&request=GetMap&layers=cite:BasicPolygons"
+                    + "&styles=&bbox=-2,-1,2,6&srs=EPSG:4326&width=200&height=300"
+                    + "&format=image/png";
+
+    MapResponseCache cache;
+
+    @Before
+    public void enableCache() {
+        cache = GeoServerExtensions.bean(MapResponseCache.class);
+        cache.setEnabled(true);
+    }
+
+    @After
+    public void disableCache() {
+        cache.setEnabled(false);
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        MockHttpServletResponse miss = getAsServletResponse(BASIC_POLYGONS_MAP);
+        assertEquals("image/png", miss.getContentType());
+        assertEquals("MISS", miss.getHeader(MapResponseCache.CACHE_RESULT_HEADER));
+        assertEquals(1, cache.size());
+
+        // same map, with parameters in a different order and case
+        MockHttpServletResponse hit =
+                getAsServletResponse(
+                        "wms?REQUEST=GetMap&SERVICE=WMS&VERSION=1.1.1&FORMAT=image/png"
+                                + "&BBOX=-2.0,-1.0,2.0,6.0&SRS=EPSG:4326&WIDTH=200&HEIGHT=300"
+                                + "&STYLES=&LAYERS=cite:BasicPolygons");
+        assertEquals("image/png", hit.getContentType());
+        assertEquals("HIT", hit.getHeader(MapResponseCache.CACHE_RESULT_HEADER));
+        assertArrayEquals(miss.getContentAsByteArray(), hit.getContentAsByteArray());
+
+        // a different area is a different map
+        MockHttpServletResponse other =
+                getAsServletResponse(BASIC_POLYGONS_MAP.replace("bbox=-2,-1,2,6", "bbox=0,0,2,6"));
+        assertEquals("MISS", other.getHeader(MapResponseCache.CACHE_RESULT_HEADER));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        cache.setEnabled(false);
+        MockHttpServletResponse response = getAsServletResponse(BASIC_POLYGONS_MAP);
+        assertEquals("image/png", response.getContentType());
+        assertNull(response.getHeader(MapResponseCache.CACHE_RESULT_HEADER));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testResourceChangeInvalidates() throws Exception {
+        getAsServletResponse(BASIC_POLYGONS_MAP);
+        assertEquals(1, cache.size());
+
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.LAKES));
+        ft.setTitle("Modified lakes");
+        getCatalog().save(ft);
+        assertEquals(1, cache.size());
+
+        ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+        String title = ft.getTitle();
+        try {
+            ft.setTitle("Modified polygons");
+            getCatalog().save(ft);
+            assertEquals(0, cache.size());
+            assertEquals(
+                    "MISS",
+                    getAsServletResponse(BASIC_POLYGONS_MAP)
+                            .getHeader(MapResponseCache.CACHE_RESULT_HEADER));
+        } finally {
+            ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+            ft.setTitle(title);
+            getCatalog().save(ft);
+        }
+    }
+
+    @Test
+    public void testLayerTimeToLive() throws Exception {
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+        ft.getMetadata().put(ResourceInfo.CACHING_ENABLED, true);
+        ft.getMetadata().put(ResourceInfo.CACHE_AGE_MAX, 0L);
+        getCatalog().save(ft);
+        try {
+            MockHttpServletResponse response = getAsServletResponse(BASIC_POLYGONS_MAP);
+            assertEquals("image/png", response.getContentType());
+            assertNull(response.getHeader(MapResponseCache.CACHE_RESULT_HEADER));
+            assertEquals(0, cache.size());
+        } finally {
+            ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+            ft.getMetadata().remove(ResourceInfo.CACHING_ENABLED);
+            ft.getMetadata().remove(ResourceInfo.CACHE_AGE_MAX);
+            getCatalog().save(ft);
+        }
+    }
+}
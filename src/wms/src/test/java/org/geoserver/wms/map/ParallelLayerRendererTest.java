@@ -0,0 +1,303 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.WMSTestSupport;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.image.test.ImageAssert;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.After;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+public class ParallelLayerRendererTest extends WMSTestSupport {
+
+    static final StyleBuilder SB = new StyleBuilder();
+
+    @After
+    public void resetThreads() {
+        System.clearProperty(RenderedImageMapOutputFormat.PARALLEL_RENDERING_THREADS_KEY);
+    }
+
+    @Test
+    public void testGroupLayers() throws Exception {
+        List<Layer> layers =
+                Arrays.asList(
+                        layer(MockData.FORESTS, polygon()),
+                        layer(MockData.LAKES, polygon()),
+                        layer(MockData.STREAMS, line()),
+                        layer(MockData.BRIDGES, point()));
+        List<List<Layer>> groups = ParallelLayerRenderer.groupLayers(layers, 2);
+        assertEquals(2, groups.size());
+        assertEquals(layers.subList(0, 2), groups.get(0));
+        assertEquals(layers.subList(2, 4), groups.get(1));
+
+        // more threads than layers
+        assertEquals(4, ParallelLayerRenderer.groupLayers(layers, 8).size());
+    }
+
+    @Test
+    public void testGroupLayersWithComposite() throws Exception {
+        Style multiply = line();
+        multiply.featureTypeStyles()
+                .get(0)
+                .getOptions()
+                .put(FeatureTypeStyle.COMPOSITE, "multiply");
+        List<Layer> layers =
+                Arrays.asList(
+                        layer(MockData.FORESTS, polygon()),
+                        layer(MockData.LAKES, polygon()),
+                        layer(MockData.STREAMS, multiply),
+                        layer(MockData.BRIDGES, point()));
+        // the composite layer blends with all layers below it
+        List<List<Layer>> groups = ParallelLayerRenderer.groupLayers(layers, 4);
+        assertEquals(2, groups.size());
+        assertEquals(layers.subList(0, 3), groups.get(0));
+        assertEquals(layers.subList(3, 4), groups.get(1));
+
+        // unless there is a composite base in between
+        Style base = polygon();
+        base.featureTypeStyles().get(0).getOptions().put(FeatureTypeStyle.COMPOSITE_BASE, "true");
+        layers =
+                Arrays.asList(
+                        layer(MockData.FORESTS, polygon()),
+                        layer(MockData.LAKES, base),
+                        layer(MockData.STREAMS, multiply),
+                        layer(MockData.BRIDGES, point()));
+        groups = ParallelLayerRenderer.groupLayers(layers, 4);
+        assertEquals(3, groups.size());
+        assertEquals(layers.subList(0, 1), groups.get(0));
+        assertEquals(layers.subList(1, 3), groups.get(1));
+        assertEquals(layers.subList(3, 4), groups.get(2));
+    }
+
+    @Test
+    public void testGroupLayersWithLabels() throws Exception {
+        Style labels = polygon();
+        labels.featureTypeStyles()
+                .get(0)
+                .rules()
+                .get(0)
+                .symbolizers()
+                .add(SB.createTextSymbolizer(Color.BLACK, SB.createFont("Serif", 10), "NAME"));
+        Style moreLabels = point();
+        moreLabels
+                .featureTypeStyles()
+                .get(0)
+                .rules()
+                .get(0)
+                .symbolizers()
+                .add(SB.createTextSymbolizer(Color.BLACK, SB.createFont("Serif", 10), "NAME"));
+
+        // one labelled layer is fine, its labels are painted by the last group, over all layers
+        List<Layer> layers =
+                Arrays.asList(
+                        layer(MockData.FORESTS, polygon()),
+                        layer(MockData.LAKES, labels),
+                        layer(MockData.STREAMS, line()),
+                        layer(MockData.BRIDGES, point()));
+        List<List<Layer>> groups = ParallelLayerRenderer.groupLayers(layers, 4);
+        assertEquals(2, groups.size());
+        assertEquals(layers.subList(0, 1), groups.get(0));
+        assertEquals(layers.subList(1, 4), groups.get(1));
+        // and the map is not split if the labelled layer is the first one
+        assertEquals(1, ParallelLayerRenderer.groupLayers(layers.subList(1, 4), 4).size());
+
+        // labels in multiple layers need a single label cache
+        layers =
+                Arrays.asList(
+                        layer(MockData.LAKES, labels),
+                        layer(MockData.STREAMS, line()),
+                        layer(MockData.BRIDGES, moreLabels));
+        assertNull(ParallelLayerRenderer.groupLayers(layers, 2));
+    }
+
+    @Test
+    public void testSameAsSequential() throws Exception {
+        BufferedImage sequential = render(1);
+        BufferedImage parallel = render(4);
+        // antialiasing against a transparent buffer can round a few edge pixels differently
+        ImageAssert.assertEquals(sequential, parallel, 100);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        System.setProperty(RenderedImageMapOutputFormat.PARALLEL_RENDERING_THREADS_KEY, "2");
+        WMSMapContent map = buildMap(MockData.BASIC_POLYGONS, MockData.BASIC_POLYGONS);
+        // replace the layers with slow ones
+        SimpleFeatureSource fs = (SimpleFeatureSource) map.layers().get(0).getFeatureSource();
+        map.layers().clear();
+        for (int i = 0; i < 2; i++) {
+            DelayedFeatureCollection delayed = new DelayedFeatureCollection(fs.getFeatures(), 50);
+            map.addLayer(new FeatureLayer(delayed, polygon()));
+        }
+        Map<String, Object> formatOptions = new HashMap<>();
+        formatOptions.put("timeout", 1);
+        map.getRequest().setFormatOptions(formatOptions);
+        try {
+            new RenderedImageMapOutputFormat(getWMS()).produceMap(map);
+            fail("Timeout was not reached");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage().startsWith("This request used more time than allowed"));
+        } finally {
+            map.dispose();
+        }
+    }
+
+    @Test
+    public void testListenerEvents() throws Exception {
+        WMSMapContent map =
+                buildMap(MockData.FORESTS, MockData.LAKES, MockData.STREAMS, MockData.BRIDGES);
+        ParallelRenderingPool pool = new ParallelRenderingPool(2);
+        List<String> events = new ArrayList<>();
+        try {
+            ParallelLayerRenderer renderer =
+                    new ParallelLayerRenderer(
+                            map,
+                            ParallelLayerRenderer.groupLayers(map.layers(), 2),
+                            StreamingRenderer::new,
+                            pool.getExecutor());
+            renderer.addRenderListener(
+                    new RenderListener() {
+                        @Override
+                        public void featureRenderer(SimpleFeature feature) {}
+
+                        @Override
+                        public void errorOccurred(Exception e) {
+                            events.add("error");
+                        }
+
+                        @Override
+                        public void layerStart(Layer layer) {
+                            events.add("start " + map.layers().indexOf(layer));
+                        }
+
+                        @Override
+                        public void layerEnd(Layer layer) {
+                            events.add("end " + map.layers().indexOf(layer));
+                        }
+
+                        @Override
+                        public void renderingComplete() {
+                            events.add("complete");
+                        }
+                    });
+            BufferedImage image = new BufferedImage(400, 400, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = image.createGraphics();
+            renderer.paint(
+                    graphics,
+                    new Rectangle(400, 400),
+                    map.getRenderingArea(),
+                    map.getRenderingTransform());
+            graphics.dispose();
+        } finally {
+            pool.destroy();
+            map.dispose();
+        }
+        // replayed on the request thread in layer order, completed once
+        assertEquals(
+                Arrays.asList(
+                        "start 0", "end 0", "start 1", "end 1", "start 2", "end 2", "start 3",
+                        "end 3", "complete"),
+                events);
+    }
+
+    private BufferedImage render(int threads) throws Exception {
+        System.setProperty(
+                RenderedImageMapOutputFormat.PARALLEL_RENDERING_THREADS_KEY,
+                String.valueOf(threads));
+        WMSMapContent map =
+                buildMap(
+                        MockData.FORESTS,
+                        MockData.LAKES,
+                        MockData.STREAMS,
+                        MockData.ROAD_SEGMENTS,
+                        MockData.PONDS,
+                        MockData.BUILDINGS,
+                        MockData.BRIDGES);
+        RenderedImageMap imageMap = new RenderedImageMapOutputFormat(getWMS()).produceMap(map);
+        BufferedImage image = (BufferedImage) imageMap.getImage();
+        imageMap.dispose();
+        return image;
+    }
+
+    private WMSMapContent buildMap(QName... names) throws Exception {
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat("image/png");
+        WMSMapContent map = new WMSMapContent(request);
+        ReferencedEnvelope bounds = new ReferencedEnvelope(DefaultGeographicCRS.WGS84);
+        for (QName name : names) {
+            FeatureTypeInfo ft =
+                    getCatalog().getFeatureTypeByName(name.getNamespaceURI(), name.getLocalPart());
+            bounds.expandToInclude(ft.getFeatureSource(null, null).getBounds());
+            Style style;
+            switch (ft.getFeatureType().getGeometryDescriptor().getType().getBinding().getName()) {
+                case "org.locationtech.jts.geom.Point":
+                case "org.locationtech.jts.geom.MultiPoint":
+                    style = point();
+                    break;
+                case "org.locationtech.jts.geom.LineString":
+                case "org.locationtech.jts.geom.MultiLineString":
+                    style = line();
+                    break;
+                default:
+                    style = polygon();
+            }
+            map.addLayer(layer(name, style));
+        }
+        map.getViewport().setBounds(bounds);
+        map.setMapWidth(400);
+        map.setMapHeight(400);
+        map.setBgColor(Color.WHITE);
+        map.setTransparent(false);
+        return map;
+    }
+
+    private Layer layer(QName name, Style style) throws Exception {
+        FeatureTypeInfo ft =
+                getCatalog().getFeatureTypeByName(name.getNamespaceURI(), name.getLocalPart());
+        return new FeatureLayer(ft.getFeatureSource(null, null), style);
+    }
+
+    private Style polygon() {
+        return SB.createStyle(SB.createPolygonSymbolizer(Color.GRAY, Color.BLACK, 1));
+    }
+
+    private Style line() {
+        return SB.createStyle(SB.createLineSymbolizer(Color.BLUE, 2));
+    }
+
+    private Style point() {
+        return SB.createStyle(SB.createPointSymbolizer());
+    }
+}
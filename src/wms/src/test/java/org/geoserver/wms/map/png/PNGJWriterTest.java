@@ -0,0 +1,170 @@
+/* (c) 2020 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.image.test.ImageAssert;
+import org.geotools.util.logging.Logging;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PNGJWriterTest {
+
+    static final Logger LOGGER = Logging.getLogger(PNGJWriterTest.class);
+
+    /** Set this system variable to true to run the encoding benchmark */
+    static final String BENCHMARK_KEY = "org.geoserver.wms.png.benchmark";
+
+    static PNGEncoderPool pool;
+
+    @BeforeClass
+    public static void createPool() {
+        pool = new PNGEncoderPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @AfterClass
+    public static void destroyPool() {
+        pool.destroy();
+    }
+
+    @Test
+    public void testParallelRGBA() throws Exception {
+        BufferedImage image = buildImage(1024, 1024, BufferedImage.TYPE_4BYTE_ABGR);
+        assertSameImage(image);
+    }
+
+    @Test
+    public void testParallelRGB() throws Exception {
+        BufferedImage image = buildImage(1000, 777, BufferedImage.TYPE_3BYTE_BGR);
+        assertSameImage(image);
+    }
+
+    @Test
+    public void testParallelPaletted() throws Exception {
+        BufferedImage image = buildImage(2048, 1024, BufferedImage.TYPE_BYTE_INDEXED);
+        assertSameImage(image);
+    }
+
+    @Test
+    public void testParallelGray() throws Exception {
+        BufferedImage image = buildImage(1200, 1000, BufferedImage.TYPE_BYTE_GRAY);
+        assertSameImage(image);
+    }
+
+    @Test
+    public void testParallelDeflaterChecksum() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 40000);
+        Adler32 second = new Adler32();
+        second.update(data, 40000, 60000);
+        Adler32 all = new Adler32();
+        all.update(data);
+        assertEquals(
+                all.getValue(),
+                ParallelDeflater.combine(first.getValue(), second.getValue(), 60000));
+    }
+
+    @Test
+    public void testSmallImageNotSplit() throws Exception {
+        BufferedImage image = buildImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        byte[] sequential = encode(image, 1);
+        byte[] parallel = encode(image, 4);
+        // below the band size threshold the parallel writer falls back on the sequential path
+        assertArrayEquals(sequential, parallel);
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_KEY));
+        BufferedImage image = buildImage(4096, 4096, BufferedImage.TYPE_4BYTE_ABGR);
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < 3; i++) {
+            // warm up
+            encode(image, 1);
+            encode(image, threads);
+        }
+        int runs = 10;
+        long sequentialTime = 0, parallelTime = 0;
+        int sequentialSize = 0, parallelSize = 0;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            sequentialSize = encode(image, 1).length;
+            sequentialTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            parallelSize = encode(image, threads).length;
+            parallelTime += System.nanoTime() - start;
+        }
+        LOGGER.info(
+                String.format(
+                        "4096x4096 RGBA, sequential: %d ms, %d bytes, "
+                                + "parallel (%d threads): %d ms, %d bytes",
+                        sequentialTime / runs / 1000000,
+                        sequentialSize,
+                        threads,
+                        parallelTime / runs / 1000000,
+                        parallelSize));
+    }
+
+    private void assertSameImage(BufferedImage image) throws Exception {
+        byte[] sequential = encode(image, 1);
+        byte[] parallel = encode(image, 4);
+
+        BufferedImage expected = ImageIO.read(new ByteArrayInputStream(sequential));
+        BufferedImage actual = ImageIO.read(new ByteArrayInputStream(parallel));
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getColorModel(), actual.getColorModel());
+        ImageAssert.assertEquals(expected, actual, 0);
+        // splitting the deflate stream costs little in terms of compression
+        assertTrue(parallel.length < sequential.length * 1.05);
+    }
+
+    private byte[] encode(BufferedImage image, int threads) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new PNGJWriter(pool, threads).writePNG(image, bos, 0.25f, new WMSMapContent());
+        return bos.toByteArray();
+    }
+
+    private BufferedImage buildImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(
+                RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, width, height, Color.YELLOW));
+        graphics.fillRect(0, 0, width, height);
+        Random random = new Random(0);
+        for (int i = 0; i < 500; i++) {
+            graphics.setColor(new Color(random.nextInt(), true));
+            graphics.fill(
+                    new Ellipse2D.Double(
+                            random.nextInt(width),
+                            random.nextInt(height),
+                            random.nextInt(width / 4),
+                            random.nextInt(height / 4)));
+        }
+        graphics.dispose();
+        return image;
+    }
+}